@@ -0,0 +1,10 @@
+#!/bin/bash
+# 把旧版本文本格式的迁移记录db转换为二进制格式, 转换前请先停止迁移工具并备份db目录
+# 用法: sh opbin/convert_record_db.sh [dbFolder]
+export LANG=en_US.utf8
+
+cur_dir=$(cd `dirname $0`; cd ..; pwd)
+cd ${cur_dir}
+cp_path=${cur_dir}/src/main/resources:${cur_dir}/dep/*
+
+java -Dfile.encoding=UTF-8 -cp "$cp_path" com.qcloud.cos_migrate_tool.record.RecordDbConverter $@
@@ -0,0 +1,17 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+
+class BenchmarkUtils {
+    private BenchmarkUtils() {}
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,72 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos.utils.Md5Utils;
+import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
+import com.qcloud.cos_migrate_tool.task.MigrateLocalCheckTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 本地文件的crc64与md5计算, 文件在页缓存中, 只衡量校验算法和读文件的开销.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({"4096", "1048576", "67108864"})
+    private int fileSize;
+
+    private File localFile;
+    private MigrateLocalCheckTask checkTask;
+
+    @Setup
+    public void setup() throws IOException {
+        localFile = File.createTempFile("checksum_bench", ".dat");
+        byte[] buffer = new byte[1024 * 1024];
+        Random random = new Random(fileSize);
+        try (FileOutputStream outputStream = new FileOutputStream(localFile)) {
+            for (int written = 0; written < fileSize; written += buffer.length) {
+                random.nextBytes(buffer);
+                outputStream.write(buffer, 0, Math.min(buffer.length, fileSize - written));
+            }
+        }
+        CopyFromLocalConfig config = new CopyFromLocalConfig();
+        config.setLocalPath(localFile.getParent());
+        checkTask = new MigrateLocalCheckTask(config, null, null, null, localFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        localFile.delete();
+    }
+
+    @Benchmark
+    public long crc64() throws Exception {
+        return checkTask.calculateCrc64(localFile);
+    }
+
+    @Benchmark
+    public String md5() throws IOException {
+        return Md5Utils.md5Hex(localFile);
+    }
+}
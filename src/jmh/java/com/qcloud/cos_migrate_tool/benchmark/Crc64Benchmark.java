@@ -0,0 +1,93 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos.utils.CRC64;
+import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
+import com.qcloud.cos_migrate_tool.task.ContentHasher;
+import com.qcloud.cos_migrate_tool.utils.Crc64Ecma;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CRC64: cos sdk逐字节查表的实现与slicing-by-8实现对内存数据的吞吐, 以及本地文件按块并行计算后合并的耗时.
+ * 文件在页缓存中, 并行计算的线程数由contentHashThreadNum参数决定.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Crc64Benchmark {
+    @Param({"4096", "1048576", "268435456"})
+    private int dataSize;
+
+    @Param({"4"})
+    private String contentHashThreadNum;
+
+    private byte[] data;
+    private File localFile;
+    private CopyFromLocalConfig config;
+
+    @Setup
+    public void setup() throws IOException {
+        data = new byte[dataSize];
+        new Random(dataSize).nextBytes(data);
+        localFile = File.createTempFile("crc64_bench", ".dat");
+        try (FileOutputStream outputStream = new FileOutputStream(localFile)) {
+            outputStream.write(data);
+        }
+        config = new CopyFromLocalConfig();
+        config.setContentHashThreadNum(contentHashThreadNum);
+    }
+
+    @TearDown
+    public void tearDown() {
+        localFile.delete();
+    }
+
+    @Benchmark
+    public long cosSdkCrc64() {
+        CRC64 crc64 = new CRC64();
+        crc64.update(data, data.length);
+        return crc64.getValue();
+    }
+
+    @Benchmark
+    public long slicingBy8() {
+        return Crc64Ecma.compute(data, 0, data.length);
+    }
+
+    // 分成16段分别计算后合并, 衡量合并的额外开销
+    @Benchmark
+    public long slicingBy8Combine() {
+        int partSize = (data.length + 15) / 16;
+        long crc = Crc64Ecma.compute(data, 0, Math.min(partSize, data.length));
+        for (int start = partSize; start < data.length; start += partSize) {
+            int len = Math.min(partSize, data.length - start);
+            crc = Crc64Ecma.combine(crc, Crc64Ecma.compute(data, start, len), len);
+        }
+        return crc;
+    }
+
+    @Benchmark
+    public long parallelFile() throws Exception {
+        return ContentHasher.instance.crc64(config, localFile);
+    }
+}
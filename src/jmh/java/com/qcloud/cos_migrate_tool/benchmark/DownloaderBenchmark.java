@@ -0,0 +1,90 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.util.Md5Utils;
+import com.qcloud.cos_migrate_tool.utils.Downloader;
+import com.qcloud.cos_migrate_tool.utils.HeadAttr;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Downloader.downFile从本机HTTP服务下载到临时文件, 不受网络影响, 只衡量下载, 校验以及写文件的开销.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloaderBenchmark {
+    @Param({"4096", "1048576", "16777216"})
+    private int fileSize;
+
+    // 源站是否返回Content-MD5, 返回时下载过程中同时计算md5校验
+    @Param({"false", "true"})
+    private boolean withMd5;
+
+    private HttpServer server;
+    private String url;
+    private File localFile;
+
+    @Setup
+    public void setup() throws IOException {
+        final byte[] content = new byte[fileSize];
+        new Random(fileSize).nextBytes(content);
+        final String contentMd5 = Md5Utils.md5AsBase64(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (withMd5) {
+                    exchange.getResponseHeaders().add("Content-MD5", contentMd5);
+                }
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(content);
+                outputStream.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = String.format("http://127.0.0.1:%d/bench/object_%d.dat",
+                server.getAddress().getPort(), fileSize);
+        localFile = File.createTempFile("downloader_bench", ".dat");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        localFile.delete();
+    }
+
+    @Benchmark
+    public HeadAttr downFile() {
+        HeadAttr headAttr = Downloader.instance.downFile(url, localFile, false);
+        if (headAttr == null) {
+            throw new IllegalStateException("download fail, url: " + url);
+        }
+        return headAttr;
+    }
+}
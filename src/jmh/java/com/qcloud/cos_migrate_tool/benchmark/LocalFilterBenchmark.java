@@ -0,0 +1,89 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 从本地迁移时对每个扫描到的文件调用needToMigrate, 忽略/包含的后缀以及排除目录较多时的开销.
+ * 被测文件都不命中排除目录和忽略后缀, 并且命中最后一个包含后缀, 即需要比较全部规则.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalFilterBenchmark {
+    private static final int FILE_NUM = 1024;
+
+    @Param({"10", "1000"})
+    private int ruleNum;
+
+    private File localFolder;
+    private CopyFromLocalConfig config;
+    private Path[] files;
+    private String[] localPaths;
+    private int index = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        localFolder = Files.createTempDirectory("local_filter_bench").toFile();
+        config = new CopyFromLocalConfig();
+        config.setLocalPath(localFolder.getPath());
+
+        StringBuilder ignoreSuffix = new StringBuilder();
+        StringBuilder includeSuffix = new StringBuilder();
+        StringBuilder excludes = new StringBuilder();
+        for (int i = 0; i < ruleNum; ++i) {
+            ignoreSuffix.append(String.format(".ign%d;", i));
+            includeSuffix.append(String.format(".inc%d;", i));
+            File excludeDir = new File(localFolder, String.format("exclude%d", i));
+            excludeDir.mkdir();
+            excludes.append(excludeDir.getPath()).append(';');
+        }
+        config.setIgnoreSuffix(ignoreSuffix.toString());
+        config.setIncludeSuffix(includeSuffix.toString());
+        config.setExcludes(excludes.toString());
+
+        files = new Path[FILE_NUM];
+        localPaths = new String[FILE_NUM];
+        for (int i = 0; i < FILE_NUM; ++i) {
+            String relativePath = String.format("dir%02d/file_%06d.inc%d", i % 32, i, ruleNum - 1);
+            files[i] = localFolder.toPath().resolve(relativePath);
+            localPaths[i] = config.getLocalPath() + relativePath;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkUtils.deleteRecursively(localFolder);
+    }
+
+    @Benchmark
+    public String needToMigrate() {
+        index = (index + 1) & (FILE_NUM - 1);
+        String reason = config.needToMigrate(files[index], localPaths[index], 4096);
+        if (!reason.isEmpty()) {
+            throw new IllegalStateException("unexpected filter result: " + reason);
+        }
+        return reason;
+    }
+}
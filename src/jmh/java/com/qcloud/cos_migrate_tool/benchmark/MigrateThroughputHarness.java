@@ -0,0 +1,222 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.qcloud.cos_migrate_tool.config.CommonConfig;
+import com.qcloud.cos_migrate_tool.config.CopyBucketConfig;
+import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
+import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.meta.TaskOutput;
+import com.qcloud.cos_migrate_tool.meta.TaskStatics;
+import com.qcloud.cos_migrate_tool.task.MigrateCopyBucketTaskExecutor;
+import com.qcloud.cos_migrate_tool.task.MigrateLocalTaskExecutor;
+import com.qcloud.cos_migrate_tool.task.TaskExecutor;
+
+/**
+ * 用S3StandInServer代替COS, 端到端执行一次本地迁移或者bucket复制, 统计每秒迁移的对象数和字节数.
+ * 可以离线对比重试, 并发以及限速相关的改动, 也可以通过延迟, 带宽和错误率复现服务端变慢或者大量503的情况.
+ *
+ * 运行方式(mvn -Pjmh package -Djmh.skip=true 之后):
+ * java -cp target/cos_migrate_tool-*-benchmarks.jar com.qcloud.cos_migrate_tool.benchmark.MigrateThroughputHarness
+ *     type=migrateLocal fileNum=10000 fileSize=65536 latencyMs=20 errorRate=0.01
+ *
+ * 参数均为key=value, 未指定的使用默认值, 见DEFAULT_PARAMS. 结果以一行json输出, 指定resultFile时同时追加到文件.
+ * 数据全部保存在进程内存中, fileNum * fileSize 需要小于堆大小.
+ */
+public class MigrateThroughputHarness {
+    private static final Map<String, String> DEFAULT_PARAMS = new TreeMap<String, String>();
+
+    static {
+        // migrateLocal 或 migrateBucketCopy
+        DEFAULT_PARAMS.put("type", MigrateType.MIGRATE_FROM_LOCAL.toString());
+        DEFAULT_PARAMS.put("fileNum", "1000");
+        DEFAULT_PARAMS.put("fileSize", "65536");
+        // 故障注入, 见S3StandInServer
+        DEFAULT_PARAMS.put("latencyMs", "0");
+        DEFAULT_PARAMS.put("bandwidth", "0");
+        DEFAULT_PARAMS.put("errorRate", "0");
+        // 以下对应config.ini中的同名配置
+        DEFAULT_PARAMS.put("executeTimeWindow", "00:00,24:00");
+        DEFAULT_PARAMS.put("threadNum", "");
+        DEFAULT_PARAMS.put("smallFileExecutorNum", "");
+        DEFAULT_PARAMS.put("bigFileExecutorNum", "");
+        DEFAULT_PARAMS.put("smallFileThreshold", "");
+        DEFAULT_PARAMS.put("smallFileFastPath", "off");
+        DEFAULT_PARAMS.put("verifyCrc64", "off");
+        DEFAULT_PARAMS.put("consoleOutputMode", TaskOutput.CONSOLE_MODE_DETAIL);
+        DEFAULT_PARAMS.put("resultJournalFile", "");
+        DEFAULT_PARAMS.put("resultFile", "");
+    }
+
+    private static final String BUCKET_APPID = "1250000000";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = new HashMap<String, String>(DEFAULT_PARAMS);
+        for (String arg : args) {
+            int equalIndex = arg.indexOf('=');
+            if (equalIndex <= 0 || !DEFAULT_PARAMS.containsKey(arg.substring(0, equalIndex))) {
+                System.err.println("invalid arg: " + arg + ", valid keys: " + DEFAULT_PARAMS.keySet());
+                System.exit(1);
+            }
+            params.put(arg.substring(0, equalIndex), arg.substring(equalIndex + 1));
+        }
+
+        MigrateType migrateType = MigrateType.fromValue(params.get("type"));
+        int fileNum = Integer.parseInt(params.get("fileNum"));
+        int fileSize = Integer.parseInt(params.get("fileSize"));
+
+        TaskOutput.instance.init(params.get("consoleOutputMode"), 10,
+                params.get("resultJournalFile"));
+        S3StandInServer server = new S3StandInServer(0);
+        server.start();
+        // 每次运行使用新的bucket, 迁移记录db不会跳过上次已经迁移的文件
+        String runId = String.valueOf(System.currentTimeMillis());
+        String destBucket = "bench-dest-" + runId + "-" + BUCKET_APPID;
+        File localFolder = null;
+        File dbFolder;
+        try {
+            TaskExecutor taskExecutor;
+            if (migrateType == MigrateType.MIGRATE_FROM_LOCAL) {
+                localFolder = Files.createTempDirectory("migrate_throughput").toFile();
+                generateLocalFiles(localFolder, fileNum, fileSize);
+                CopyFromLocalConfig config = new CopyFromLocalConfig();
+                initCommonConfig(config, params, server.getEndpoint(), destBucket);
+                config.setLocalPath(localFolder.getPath());
+                taskExecutor = new MigrateLocalTaskExecutor(config);
+                dbFolder = new File("db/migrate_from_local/" + destBucket);
+            } else if (migrateType == MigrateType.MIGRATE_FROM_COS_BUCKET_COPY) {
+                String srcBucket = "bench-src-" + runId + "-" + BUCKET_APPID;
+                generateSrcObjects(server, srcBucket, fileNum, fileSize);
+                CopyBucketConfig config = new CopyBucketConfig();
+                initCommonConfig(config, params, server.getEndpoint(), destBucket);
+                config.setSrcBucket(srcBucket);
+                config.setSrcRegion(config.getRegion());
+                config.setSrcAk(config.getAk());
+                config.setSrcSk(config.getSk());
+                config.setSrcEndpointSuffix(server.getEndpoint());
+                config.setSrcCosPath("/");
+                taskExecutor = new MigrateCopyBucketTaskExecutor(config);
+                dbFolder = new File("db/migrate_copy_bucket/" + destBucket);
+            } else {
+                throw new IllegalArgumentException("only support migrateLocal and migrateBucketCopy");
+            }
+
+            server.setLatencyMs(Long.parseLong(params.get("latencyMs")));
+            server.setBandwidth(Long.parseLong(params.get("bandwidth")));
+            server.setErrorRate(Double.parseDouble(params.get("errorRate")));
+
+            long startTime = System.nanoTime();
+            taskExecutor.run();
+            taskExecutor.waitTaskOver();
+            double usedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+            String result = buildResult(params, server, destBucket, usedSeconds);
+            System.out.println(result);
+            if (!params.get("resultFile").isEmpty()) {
+                try (Writer writer = new FileWriter(params.get("resultFile"), true)) {
+                    writer.write(result);
+                    writer.write("\n");
+                }
+            }
+            BenchmarkUtils.deleteRecursively(dbFolder);
+        } finally {
+            TaskOutput.instance.shutdown();
+            server.stop();
+            if (localFolder != null) {
+                BenchmarkUtils.deleteRecursively(localFolder);
+            }
+        }
+    }
+
+    private static void initCommonConfig(CommonConfig config, Map<String, String> params,
+            String endpoint, String bucketName) {
+        config.setAk("stand-in-ak");
+        config.setSk("stand-in-sk");
+        config.setRegion("ap-guangzhou");
+        config.setEndpointSuffix(endpoint);
+        config.setEnableHttps("off");
+        config.setBucketName(bucketName);
+        config.setCosPath("/");
+        config.setTimeWindowsStr(params.get("executeTimeWindow"));
+        config.setTempFileFolder(System.getProperty("java.io.tmpdir"));
+        if (!params.get("threadNum").isEmpty()) {
+            config.setTaskExecutorNumberStr(params.get("threadNum"));
+        }
+        if (!params.get("smallFileExecutorNum").isEmpty()) {
+            config.setSmallFileUploadExecutorNum(params.get("smallFileExecutorNum"));
+        }
+        if (!params.get("bigFileExecutorNum").isEmpty()) {
+            config.setBigFileUploadExecutorNum(params.get("bigFileExecutorNum"));
+        }
+        if (!params.get("smallFileThreshold").isEmpty()) {
+            config.setSmallFileThreshold(params.get("smallFileThreshold"));
+        }
+        config.setSmallFileFastPath(params.get("smallFileFastPath").equalsIgnoreCase("on"));
+        config.setVerifyCrc64(params.get("verifyCrc64").equalsIgnoreCase("on"));
+    }
+
+    private static void generateLocalFiles(File localFolder, int fileNum, int fileSize)
+            throws IOException {
+        Random random = new Random(fileSize);
+        byte[] content = new byte[fileSize];
+        for (int i = 0; i < fileNum; ++i) {
+            File dir = new File(localFolder, String.format("dir%04d", i / 1000));
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("make dir fail, dir: " + dir);
+            }
+            random.nextBytes(content);
+            try (FileOutputStream outputStream =
+                    new FileOutputStream(new File(dir, String.format("file_%09d.dat", i)))) {
+                outputStream.write(content);
+            }
+        }
+    }
+
+    private static void generateSrcObjects(S3StandInServer server, String srcBucket, int fileNum,
+            int fileSize) {
+        Random random = new Random(fileSize);
+        for (int i = 0; i < fileNum; ++i) {
+            byte[] content = new byte[fileSize];
+            random.nextBytes(content);
+            server.putObject(srcBucket,
+                    String.format("dir%04d/file_%09d.dat", i / 1000, i), content);
+        }
+    }
+
+    private static String buildResult(Map<String, String> params, S3StandInServer server,
+            String destBucket, double usedSeconds) {
+        long migratedCnt = TaskStatics.instance.getSuccessCnt() + TaskStatics.instance.getUpdateCnt();
+        long migratedBytes = server.getObjectBytes(destBucket);
+        StringBuilder result = new StringBuilder("{");
+        for (String key : new String[] {"type", "fileNum", "fileSize", "latencyMs", "bandwidth",
+                "errorRate", "consoleOutputMode", "verifyCrc64"}) {
+            result.append(String.format("\"%s\": \"%s\", ", key, params.get(key)));
+        }
+        result.append(String.format("\"usedSeconds\": %.3f, ", usedSeconds));
+        result.append(String.format("\"migratedCnt\": %d, ", migratedCnt));
+        result.append(String.format("\"failCnt\": %d, ", TaskStatics.instance.getFailCnt()));
+        result.append(String.format("\"destObjectCnt\": %d, ", server.getObjectCnt(destBucket)));
+        result.append(String.format("\"objectsPerSecond\": %.1f, ", migratedCnt / usedSeconds));
+        result.append(String.format("\"bytesPerSecond\": %.0f, ", migratedBytes / usedSeconds));
+        result.append(String.format("\"injectedErrorCnt\": %d, ", server.getInjectedErrorCnt()));
+        result.append("\"requestCnts\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : new TreeMap<String, Long>(server.getRequestCnts())
+                .entrySet()) {
+            result.append(first ? "" : ", ")
+                    .append(String.format("\"%s\": %d", entry.getKey(), entry.getValue()));
+            first = false;
+        }
+        result.append("}}");
+        return result.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos_migrate_tool.record.DBParam;
+import com.qcloud.cos_migrate_tool.record.MigrateLocalRecordElement;
+import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 已有recordNum条迁移记录时RecordDb的查询与写入.
+ * 命中查询对应断点续传时跳过已迁移的文件, 未命中查询和写入对应迁移新文件.
+ * skipIndexLookupHit对应打开recordSkipIndex后生成任务时的查询, 索引在setup中加载.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordDbQueryBenchmark {
+    @Param({"100000", "1000000"})
+    private int recordNum;
+
+    @Param({"false", "true"})
+    private boolean batchWrite;
+
+    private File dbFolder;
+    private RecordDb recordDb;
+    private int queryIndex = 0;
+    private long newRecordIndex = 0;
+
+    static MigrateLocalRecordElement buildRecord(long index) {
+        String localPath = String.format("/data/bench/dir%04d/file_%09d.dat", index % 1000, index);
+        return new MigrateLocalRecordElement("bench-1250000000", localPath,
+                localPath.substring("/data".length()), 1600000000000L + index, 4096 + index % 4096);
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        dbFolder = Files.createTempDirectory("record_db_bench").toFile();
+        recordDb = new RecordDb();
+        if (!recordDb.init(new DBParam(dbFolder.getPath(), "jmh", -1, batchWrite, 1000, 100,
+                false, 0))) {
+            throw new IllegalStateException("init db fail, folder: " + dbFolder);
+        }
+        for (int i = 0; i < recordNum; ++i) {
+            recordDb.saveRecord(buildRecord(i));
+        }
+        newRecordIndex = recordNum;
+        if (!recordDb.loadSkipIndex()) {
+            throw new IllegalStateException("load skip index fail, folder: " + dbFolder);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        recordDb.shutdown();
+        BenchmarkUtils.deleteRecursively(dbFolder);
+    }
+
+    @Benchmark
+    public RecordDb.QUERY_RESULT queryRecordHit() {
+        queryIndex = (queryIndex + 7919) % recordNum;
+        return recordDb.queryRecord(buildRecord(queryIndex));
+    }
+
+    @Benchmark
+    public RecordDb.QUERY_RESULT queryRecordMiss() {
+        queryIndex = (queryIndex + 7919) % recordNum;
+        return recordDb.queryRecord(buildRecord(recordNum + (long) queryIndex));
+    }
+
+    @Benchmark
+    public boolean skipIndexLookupHit() {
+        queryIndex = (queryIndex + 7919) % recordNum;
+        return recordDb.isRecordUnchanged(buildRecord(queryIndex), true);
+    }
+
+    // 迁移新文件: 查询不到记录, 上传成功后写入
+    @Benchmark
+    public boolean queryAndSaveRecord() {
+        RecordElement recordElement = buildRecord(newRecordIndex++);
+        recordDb.queryRecord(recordElement);
+        return recordDb.saveRecord(recordElement);
+    }
+}
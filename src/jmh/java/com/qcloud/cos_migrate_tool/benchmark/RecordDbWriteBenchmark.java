@@ -0,0 +1,78 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.qcloud.cos_migrate_tool.record.DBParam;
+import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 多个任务线程同时迁移新文件时RecordDb的写入吞吐, 每次操作对应任务成功后的queryRecord + saveRecord + saveRequestId.
+ * sync: 每次写入直接写db; batch: 批量写入线程汇总后写入; batchWalOff: 批量写入且关闭WAL.
+ * 批量写入线程在tearDown中写完剩余数据, 不计入吞吐.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Threads(64)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordDbWriteBenchmark {
+    @Param({"sync", "batch", "batchWalOff"})
+    private String writeMode;
+
+    private File dbFolder;
+    private RecordDb recordDb;
+    private final AtomicLong recordIndex = new AtomicLong(0);
+
+    @Setup
+    public void setup() throws IOException {
+        dbFolder = Files.createTempDirectory("record_db_write_bench").toFile();
+        recordDb = new RecordDb();
+        DBParam dbParam;
+        if (writeMode.equals("sync")) {
+            dbParam = new DBParam(dbFolder.getPath(), "jmh", -1);
+        } else {
+            dbParam = new DBParam(dbFolder.getPath(), "jmh", -1, true, 1000, 100,
+                    writeMode.equals("batchWalOff"), 0);
+        }
+        if (!recordDb.init(dbParam)) {
+            throw new IllegalStateException("init db fail, folder: " + dbFolder);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        recordDb.shutdown();
+        BenchmarkUtils.deleteRecursively(dbFolder);
+    }
+
+    @Benchmark
+    public boolean saveRecordAndRequestId() {
+        long index = recordIndex.getAndIncrement();
+        RecordElement recordElement = RecordDbQueryBenchmark.buildRecord(index);
+        recordDb.queryRecord(recordElement);
+        recordDb.saveRecord(recordElement);
+        return recordDb.saveRequestId(String.format("/bench/file_%09d.dat", index),
+                "NjA0ZjE1ZTJfOWIyODJhMDlfMjA0ZF8x");
+    }
+}
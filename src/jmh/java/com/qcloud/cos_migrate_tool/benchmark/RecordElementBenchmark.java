@@ -0,0 +1,92 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.record.MigrateCompetitorRecordElement;
+import com.qcloud.cos_migrate_tool.record.MigrateCopyBucketRecordElement;
+import com.qcloud.cos_migrate_tool.record.MigrateLocalRecordElement;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 各类迁移记录生成文本格式和二进制格式的key, value, 每次使用新的记录, 不命中记录内的缓存.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordElementBenchmark {
+    private static final String LOCAL_PATH = "/data/bench/dir0042/file_000123456.dat";
+    private static final String COS_PATH = "/bench/dir0042/file_000123456.dat";
+
+    private RecordElement newLocalRecord() {
+        return new MigrateLocalRecordElement("bench-1250000000", LOCAL_PATH, COS_PATH,
+                1600000000000L, 123456);
+    }
+
+    private RecordElement newCompetitorRecord() {
+        return new MigrateCompetitorRecordElement(MigrateType.MIGRATE_FROM_ALI, "bench-1250000000",
+                COS_PATH, "\"9b2cf535f27731c974343645a3985328\"", 123456);
+    }
+
+    private RecordElement newCopyBucketRecord() {
+        return new MigrateCopyBucketRecordElement("ap-guangzhou", "bench-1250000000", COS_PATH,
+                "ap-shanghai", "src-1250000000", COS_PATH, 123456,
+                "\"9b2cf535f27731c974343645a3985328\"", "STANDARD");
+    }
+
+    @Benchmark
+    public void localBuildKeyValue(Blackhole blackhole) {
+        RecordElement recordElement = newLocalRecord();
+        blackhole.consume(recordElement.buildKey());
+        blackhole.consume(recordElement.buildValue());
+    }
+
+    @Benchmark
+    public void localBuildEncodedKeyValue(Blackhole blackhole) {
+        RecordElement recordElement = newLocalRecord();
+        blackhole.consume(recordElement.buildEncodedKey());
+        blackhole.consume(recordElement.buildEncodedValue());
+    }
+
+    @Benchmark
+    public void competitorBuildKeyValue(Blackhole blackhole) {
+        RecordElement recordElement = newCompetitorRecord();
+        blackhole.consume(recordElement.buildKey());
+        blackhole.consume(recordElement.buildValue());
+    }
+
+    @Benchmark
+    public void competitorBuildEncodedKeyValue(Blackhole blackhole) {
+        RecordElement recordElement = newCompetitorRecord();
+        blackhole.consume(recordElement.buildEncodedKey());
+        blackhole.consume(recordElement.buildEncodedValue());
+    }
+
+    @Benchmark
+    public void copyBucketBuildKeyValue(Blackhole blackhole) {
+        RecordElement recordElement = newCopyBucketRecord();
+        blackhole.consume(recordElement.buildKey());
+        blackhole.consume(recordElement.buildValue());
+    }
+
+    @Benchmark
+    public void copyBucketBuildEncodedKeyValue(Blackhole blackhole) {
+        RecordElement recordElement = newCopyBucketRecord();
+        blackhole.consume(recordElement.buildEncodedKey());
+        blackhole.consume(recordElement.buildEncodedValue());
+    }
+}
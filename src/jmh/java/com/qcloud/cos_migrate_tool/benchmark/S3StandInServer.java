@@ -0,0 +1,874 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.util.SdkHttpUtils;
+import com.qcloud.cos_migrate_tool.utils.Crc64Ecma;
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 进程内的S3兼容服务, 数据全部保存在内存中, 用于在没有真实bucket的情况下压测迁移工具以及复现服务端故障.
+ * 支持PUT, HEAD, GET(含Range), DELETE, ListObjects(v1), 复制, 分块上传以及分块复制, 不校验签名.
+ * HEAD和GET与COS一样返回整个对象的x-cos-hash-crc64ecma.
+ * 只支持path-style请求, endpoint使用ip地址(例如127.0.0.1:port)时SDK会自动使用path-style.
+ *
+ * 可以在运行中调整的故障注入:
+ * latencyMs 每个请求处理前的固定延迟, bandwidth 上行和下行各自的总带宽(Byte/s),
+ * errorRate 按比例返回503 SlowDown.
+ */
+public class S3StandInServer {
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_KEYS = 1000;
+    private static final Pattern COMPLETE_PART_PATTERN = Pattern.compile(
+            "<Part>.*?<PartNumber>(\\d+)</PartNumber>.*?<ETag>(.*?)</ETag>.*?</Part>|"
+                    + "<Part>.*?<ETag>(.*?)</ETag>.*?<PartNumber>(\\d+)</PartNumber>.*?</Part>",
+            Pattern.DOTALL);
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    // 与COS一致按UTF-8字节序排列key
+    private static final Comparator<String> KEY_ORDER = new Comparator<String>() {
+        public int compare(String key1, String key2) {
+            return PathUtils.compareUtf8(key1, key2);
+        }
+    };
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, NavigableMap<String, StoredObject>> buckets =
+            new ConcurrentHashMap<String, NavigableMap<String, StoredObject>>();
+    private final Map<String, MultipartUpload> multipartUploads =
+            new ConcurrentHashMap<String, MultipartUpload>();
+
+    private volatile long latencyMs = 0;
+    private volatile long bandwidth = 0;
+    private volatile double errorRate = 0;
+    private final Throttle inboundThrottle = new Throttle();
+    private final Throttle outboundThrottle = new Throttle();
+
+    private final ConcurrentHashMap<String, AtomicLong> requestCnts =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong injectedErrorCnt = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    private static class StoredObject {
+        final byte[] data;
+        final String etag;
+        final long lastModified;
+        final Map<String, String> headers;
+        // 第一次返回对象时计算
+        private volatile String crc64;
+
+        StoredObject(byte[] data, String etag, Map<String, String> headers) {
+            this.data = data;
+            this.etag = etag;
+            this.lastModified = System.currentTimeMillis();
+            this.headers = headers;
+        }
+
+        String getCrc64() {
+            if (crc64 == null) {
+                crc64 = Long.toUnsignedString(Crc64Ecma.compute(data, 0, data.length));
+            }
+            return crc64;
+        }
+    }
+
+    private static class MultipartUpload {
+        final String bucketName;
+        final String key;
+        final Map<String, String> headers;
+        final NavigableMap<Integer, StoredObject> parts =
+                new ConcurrentSkipListMap<Integer, StoredObject>();
+
+        MultipartUpload(String bucketName, String key, Map<String, String> headers) {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.headers = headers;
+        }
+    }
+
+    private static class ServiceException extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int statusCode;
+        final String errorCode;
+
+        ServiceException(int statusCode, String errorCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+            this.errorCode = errorCode;
+        }
+    }
+
+    // 上行和下行分别限速, 所有连接共享
+    private static class Throttle {
+        private long nextFreeNanos = 0;
+
+        void acquire(long bytes, long bytesPerSecond) throws InterruptedException {
+            if (bytesPerSecond <= 0 || bytes <= 0) {
+                return;
+            }
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (nextFreeNanos < now) {
+                    nextFreeNanos = now;
+                }
+                waitNanos = nextFreeNanos - now;
+                nextFreeNanos += bytes * 1000000000L / bytesPerSecond;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+
+    /**
+     * @param port 0表示随机选择可用端口
+     */
+    public S3StandInServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "s3-stand-in-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * 用于配置endpointSuffix, 例如127.0.0.1:9000
+     */
+    public String getEndpoint() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * 直接写入对象, 用于准备源bucket的数据
+     */
+    public void putObject(String bucketName, String key, byte[] data) {
+        getBucket(bucketName).put(key,
+                new StoredObject(data, md5Hex(data), new HashMap<String, String>()));
+    }
+
+    public int getObjectCnt(String bucketName) {
+        NavigableMap<String, StoredObject> bucket = buckets.get(bucketName);
+        return bucket == null ? 0 : bucket.size();
+    }
+
+    public long getObjectBytes(String bucketName) {
+        NavigableMap<String, StoredObject> bucket = buckets.get(bucketName);
+        long totalBytes = 0;
+        if (bucket != null) {
+            for (StoredObject storedObject : bucket.values()) {
+                totalBytes += storedObject.data.length;
+            }
+        }
+        return totalBytes;
+    }
+
+    public Map<String, Long> getRequestCnts() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : requestCnts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public long getInjectedErrorCnt() {
+        return injectedErrorCnt.get();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    private NavigableMap<String, StoredObject> getBucket(String bucketName) {
+        NavigableMap<String, StoredObject> bucket = buckets.get(bucketName);
+        if (bucket == null) {
+            bucket = new ConcurrentSkipListMap<String, StoredObject>(KEY_ORDER);
+            NavigableMap<String, StoredObject> existBucket = buckets.putIfAbsent(bucketName, bucket);
+            if (existBucket != null) {
+                bucket = existBucket;
+            }
+        }
+        return bucket;
+    }
+
+    private StoredObject getStoredObject(String bucketName, String key) throws ServiceException {
+        StoredObject storedObject = getBucket(bucketName).get(key);
+        if (storedObject == null) {
+            throw new ServiceException(404, "NoSuchKey", "The specified key does not exist.");
+        }
+        return storedObject;
+    }
+
+    private MultipartUpload getMultipartUpload(String uploadId) throws ServiceException {
+        MultipartUpload upload = multipartUploads.get(uploadId);
+        if (upload == null) {
+            throw new ServiceException(404, "NoSuchUpload",
+                    "The specified multipart upload does not exist.");
+        }
+        return upload;
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String requestId = UUID.randomUUID().toString();
+        exchange.getResponseHeaders().set("x-amz-request-id", requestId);
+        exchange.getResponseHeaders().set("x-cos-request-id", requestId);
+        if (method.equals("HEAD")) {
+            // jdk自带的HttpServer在HEAD响应之后复用连接会被重置, 每个HEAD请求使用新连接
+            exchange.getResponseHeaders().set("Connection", "close");
+        }
+        try {
+            String path = exchange.getRequestURI().getPath();
+            while (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            int slashIndex = path.indexOf('/');
+            String bucketName = slashIndex < 0 ? path : path.substring(0, slashIndex);
+            String key = slashIndex < 0 ? "" : path.substring(slashIndex + 1);
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String operation = getOperation(method, key, params, exchange.getRequestHeaders());
+            countRequest(operation);
+
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injectedErrorCnt.incrementAndGet();
+                readBody(exchange);
+                throw new ServiceException(503, "SlowDown", "Please reduce your request rate.");
+            }
+
+            if (operation.equals("ListObjects")) {
+                listObjects(exchange, bucketName, params);
+            } else if (operation.equals("HeadBucket") || operation.equals("CreateBucket")) {
+                getBucket(bucketName);
+                sendEmpty(exchange, 200);
+            } else if (operation.equals("HeadObject")) {
+                sendObject(exchange, getStoredObject(bucketName, key), false);
+            } else if (operation.equals("GetObject")) {
+                sendObject(exchange, getStoredObject(bucketName, key), true);
+            } else if (operation.equals("PutObject")) {
+                byte[] data = readBody(exchange);
+                String etag = md5Hex(data);
+                getBucket(bucketName).put(key,
+                        new StoredObject(data, etag, collectObjectHeaders(exchange)));
+                exchange.getResponseHeaders().set("ETag", quote(etag));
+                sendEmpty(exchange, 200);
+            } else if (operation.equals("CopyObject")) {
+                copyObject(exchange, bucketName, key);
+            } else if (operation.equals("DeleteObject")) {
+                getBucket(bucketName).remove(key);
+                sendEmpty(exchange, 204);
+            } else if (operation.equals("InitiateMultipartUpload")) {
+                String uploadId = UUID.randomUUID().toString().replace("-", "");
+                multipartUploads.put(uploadId,
+                        new MultipartUpload(bucketName, key, collectObjectHeaders(exchange)));
+                sendXml(exchange, 200, "<InitiateMultipartUploadResult>" + element("Bucket", bucketName)
+                        + element("Key", key) + element("UploadId", uploadId)
+                        + "</InitiateMultipartUploadResult>");
+            } else if (operation.equals("UploadPart")) {
+                byte[] data = readBody(exchange);
+                MultipartUpload upload = getMultipartUpload(params.get("uploadId"));
+                String etag = md5Hex(data);
+                upload.parts.put(Integer.valueOf(params.get("partNumber")),
+                        new StoredObject(data, etag, null));
+                exchange.getResponseHeaders().set("ETag", quote(etag));
+                sendEmpty(exchange, 200);
+            } else if (operation.equals("UploadPartCopy")) {
+                uploadPartCopy(exchange, params);
+            } else if (operation.equals("ListParts")) {
+                listParts(exchange, params);
+            } else if (operation.equals("CompleteMultipartUpload")) {
+                completeMultipartUpload(exchange, params.get("uploadId"));
+            } else if (operation.equals("AbortMultipartUpload")) {
+                getMultipartUpload(params.get("uploadId"));
+                multipartUploads.remove(params.get("uploadId"));
+                sendEmpty(exchange, 204);
+            } else {
+                throw new ServiceException(405, "MethodNotAllowed",
+                        "The specified method is not allowed against this resource.");
+            }
+        } catch (ServiceException e) {
+            sendError(exchange, method, e.statusCode, e.errorCode, e.getMessage(), requestId);
+        } catch (Exception e) {
+            sendError(exchange, method, 500, "InternalError", e.toString(), requestId);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String getOperation(String method, String key, Map<String, String> params,
+            Headers headers) {
+        boolean isCopy = headers.getFirst("x-amz-copy-source") != null;
+        if (method.equals("GET")) {
+            if (key.isEmpty()) {
+                return "ListObjects";
+            }
+            return params.containsKey("uploadId") ? "ListParts" : "GetObject";
+        } else if (method.equals("HEAD")) {
+            return key.isEmpty() ? "HeadBucket" : "HeadObject";
+        } else if (method.equals("PUT")) {
+            if (key.isEmpty()) {
+                return "CreateBucket";
+            }
+            if (params.containsKey("uploadId")) {
+                return isCopy ? "UploadPartCopy" : "UploadPart";
+            }
+            return isCopy ? "CopyObject" : "PutObject";
+        } else if (method.equals("POST")) {
+            if (params.containsKey("uploads")) {
+                return "InitiateMultipartUpload";
+            }
+            if (params.containsKey("uploadId")) {
+                return "CompleteMultipartUpload";
+            }
+        } else if (method.equals("DELETE")) {
+            return params.containsKey("uploadId") ? "AbortMultipartUpload" : "DeleteObject";
+        }
+        return method;
+    }
+
+    private void countRequest(String operation) {
+        AtomicLong cnt = requestCnts.get(operation);
+        if (cnt == null) {
+            cnt = new AtomicLong();
+            AtomicLong existCnt = requestCnts.putIfAbsent(operation, cnt);
+            if (existCnt != null) {
+                cnt = existCnt;
+            }
+        }
+        cnt.incrementAndGet();
+    }
+
+    private void listObjects(HttpExchange exchange, String bucketName, Map<String, String> params)
+            throws IOException, InterruptedException {
+        String prefix = getParam(params, "prefix");
+        String marker = getParam(params, "marker");
+        String delimiter = getParam(params, "delimiter");
+        int maxKeys = params.containsKey("max-keys") ? Integer.parseInt(params.get("max-keys"))
+                : DEFAULT_MAX_KEYS;
+        boolean urlEncode = "url".equals(params.get("encoding-type"));
+
+        NavigableMap<String, StoredObject> bucket = getBucket(bucketName);
+        NavigableMap<String, StoredObject> candidates = KEY_ORDER.compare(marker, prefix) >= 0
+                ? bucket.tailMap(marker, false) : bucket.tailMap(prefix, true);
+        StringBuilder contents = new StringBuilder();
+        StringBuilder commonPrefixes = new StringBuilder();
+        String lastCommonPrefix = null;
+        String nextMarker = null;
+        boolean truncated = false;
+        int keyCnt = 0;
+        for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            String commonPrefix = null;
+            if (!delimiter.isEmpty()) {
+                int delimiterIndex = key.indexOf(delimiter, prefix.length());
+                if (delimiterIndex >= 0) {
+                    commonPrefix = key.substring(0, delimiterIndex + delimiter.length());
+                    if (commonPrefix.equals(lastCommonPrefix)) {
+                        continue;
+                    }
+                }
+            }
+            if (keyCnt >= maxKeys) {
+                truncated = true;
+                break;
+            }
+            ++keyCnt;
+            if (commonPrefix != null) {
+                lastCommonPrefix = commonPrefix;
+                nextMarker = commonPrefix;
+                commonPrefixes.append("<CommonPrefixes>")
+                        .append(element("Prefix", encodeKey(commonPrefix, urlEncode)))
+                        .append("</CommonPrefixes>");
+            } else {
+                StoredObject storedObject = entry.getValue();
+                nextMarker = key;
+                contents.append("<Contents>").append(element("Key", encodeKey(key, urlEncode)))
+                        .append(element("LastModified", formatIso8601(storedObject.lastModified)))
+                        .append(element("ETag", quote(storedObject.etag)))
+                        .append(element("Size", String.valueOf(storedObject.data.length)))
+                        .append(element("StorageClass", getStorageClass(storedObject)))
+                        .append("</Contents>");
+            }
+        }
+
+        StringBuilder result = new StringBuilder("<ListBucketResult>");
+        result.append(element("Name", bucketName))
+                .append(element("Prefix", encodeKey(prefix, urlEncode)))
+                .append(element("Marker", encodeKey(marker, urlEncode)))
+                .append(element("MaxKeys", String.valueOf(maxKeys)))
+                .append(element("IsTruncated", String.valueOf(truncated)));
+        if (!delimiter.isEmpty()) {
+            result.append(element("Delimiter", encodeKey(delimiter, urlEncode)));
+        }
+        if (truncated) {
+            result.append(element("NextMarker", encodeKey(nextMarker, urlEncode)));
+        }
+        if (urlEncode) {
+            result.append(element("EncodingType", "url"));
+        }
+        result.append(contents).append(commonPrefixes).append("</ListBucketResult>");
+        sendXml(exchange, 200, result.toString());
+    }
+
+    private void sendObject(HttpExchange exchange, StoredObject storedObject, boolean withBody)
+            throws IOException, InterruptedException, ServiceException {
+        Headers responseHeaders = exchange.getResponseHeaders();
+        for (Map.Entry<String, String> header : storedObject.headers.entrySet()) {
+            responseHeaders.set(header.getKey(), header.getValue());
+        }
+        if (!responseHeaders.containsKey("Content-Type")) {
+            responseHeaders.set("Content-Type", "application/octet-stream");
+        }
+        responseHeaders.set("ETag", quote(storedObject.etag));
+        responseHeaders.set("x-cos-hash-crc64ecma", storedObject.getCrc64());
+        responseHeaders.set("Last-Modified", formatRfc822(storedObject.lastModified));
+        responseHeaders.set("Accept-Ranges", "bytes");
+
+        long[] range = parseRange(exchange.getRequestHeaders().getFirst("Range"),
+                storedObject.data.length);
+        int status = 200;
+        int offset = 0;
+        int length = storedObject.data.length;
+        if (range != null) {
+            status = 206;
+            offset = (int) range[0];
+            length = (int) (range[1] - range[0] + 1);
+            responseHeaders.set("Content-Range", String.format("bytes %d-%d/%d", range[0],
+                    range[1], storedObject.data.length));
+        }
+        if (!withBody) {
+            responseHeaders.set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        sendBody(exchange, status, storedObject.data, offset, length);
+    }
+
+    private void copyObject(HttpExchange exchange, String bucketName, String key)
+            throws IOException, InterruptedException, ServiceException {
+        readBody(exchange);
+        StoredObject srcObject = getCopySource(exchange);
+        Map<String, String> headers = srcObject.headers;
+        if ("REPLACE".equalsIgnoreCase(
+                exchange.getRequestHeaders().getFirst("x-amz-metadata-directive"))) {
+            headers = collectObjectHeaders(exchange);
+        } else if (exchange.getRequestHeaders().getFirst("x-amz-storage-class") != null) {
+            headers = new HashMap<String, String>(headers);
+            headers.put("x-amz-storage-class",
+                    exchange.getRequestHeaders().getFirst("x-amz-storage-class"));
+        }
+        StoredObject destObject = new StoredObject(srcObject.data, srcObject.etag, headers);
+        getBucket(bucketName).put(key, destObject);
+        sendXml(exchange, 200,
+                "<CopyObjectResult>" + element("LastModified", formatIso8601(destObject.lastModified))
+                        + element("ETag", quote(destObject.etag)) + "</CopyObjectResult>");
+    }
+
+    private void uploadPartCopy(HttpExchange exchange, Map<String, String> params)
+            throws IOException, InterruptedException, ServiceException {
+        readBody(exchange);
+        MultipartUpload upload = getMultipartUpload(params.get("uploadId"));
+        StoredObject srcObject = getCopySource(exchange);
+        byte[] data = srcObject.data;
+        long[] range = parseRange(exchange.getRequestHeaders().getFirst("x-amz-copy-source-range"),
+                data.length);
+        if (range != null) {
+            byte[] rangeData = new byte[(int) (range[1] - range[0] + 1)];
+            System.arraycopy(data, (int) range[0], rangeData, 0, rangeData.length);
+            data = rangeData;
+        }
+        StoredObject part = new StoredObject(data, md5Hex(data), null);
+        upload.parts.put(Integer.valueOf(params.get("partNumber")), part);
+        sendXml(exchange, 200,
+                "<CopyPartResult>" + element("LastModified", formatIso8601(part.lastModified))
+                        + element("ETag", quote(part.etag)) + "</CopyPartResult>");
+    }
+
+    private StoredObject getCopySource(HttpExchange exchange) throws ServiceException {
+        String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+        int versionIndex = copySource.indexOf('?');
+        if (versionIndex >= 0) {
+            copySource = copySource.substring(0, versionIndex);
+        }
+        copySource = urlDecode(copySource);
+        while (copySource.startsWith("/")) {
+            copySource = copySource.substring(1);
+        }
+        int slashIndex = copySource.indexOf('/');
+        if (slashIndex < 0) {
+            throw new ServiceException(400, "InvalidArgument", "invalid x-amz-copy-source");
+        }
+        return getStoredObject(copySource.substring(0, slashIndex),
+                copySource.substring(slashIndex + 1));
+    }
+
+    private void listParts(HttpExchange exchange, Map<String, String> params)
+            throws IOException, InterruptedException, ServiceException {
+        String uploadId = params.get("uploadId");
+        MultipartUpload upload = getMultipartUpload(uploadId);
+        int partNumberMarker = params.containsKey("part-number-marker")
+                ? Integer.parseInt(params.get("part-number-marker")) : 0;
+        int maxParts = params.containsKey("max-parts") ? Integer.parseInt(params.get("max-parts"))
+                : DEFAULT_MAX_KEYS;
+
+        StringBuilder parts = new StringBuilder();
+        int partCnt = 0;
+        int nextPartNumberMarker = partNumberMarker;
+        boolean truncated = false;
+        for (Map.Entry<Integer, StoredObject> entry : upload.parts
+                .tailMap(partNumberMarker, false).entrySet()) {
+            if (partCnt >= maxParts) {
+                truncated = true;
+                break;
+            }
+            ++partCnt;
+            nextPartNumberMarker = entry.getKey();
+            StoredObject part = entry.getValue();
+            parts.append("<Part>").append(element("PartNumber", String.valueOf(entry.getKey())))
+                    .append(element("LastModified", formatIso8601(part.lastModified)))
+                    .append(element("ETag", quote(part.etag)))
+                    .append(element("Size", String.valueOf(part.data.length))).append("</Part>");
+        }
+        sendXml(exchange, 200, "<ListPartsResult>" + element("Bucket", upload.bucketName)
+                + element("Key", upload.key) + element("UploadId", uploadId)
+                + element("PartNumberMarker", String.valueOf(partNumberMarker))
+                + element("NextPartNumberMarker", String.valueOf(nextPartNumberMarker))
+                + element("MaxParts", String.valueOf(maxParts))
+                + element("IsTruncated", String.valueOf(truncated)) + parts
+                + "</ListPartsResult>");
+    }
+
+    private void completeMultipartUpload(HttpExchange exchange, String uploadId)
+            throws IOException, InterruptedException, ServiceException {
+        String body = new String(readBody(exchange), StandardCharsets.UTF_8);
+        MultipartUpload upload = getMultipartUpload(uploadId);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        MessageDigest md5OfPartMd5s = newMd5Digest();
+        int partCnt = 0;
+        int lastPartNumber = 0;
+        Matcher matcher = COMPLETE_PART_PATTERN.matcher(body);
+        while (matcher.find()) {
+            int partNumber = Integer.parseInt(
+                    matcher.group(1) != null ? matcher.group(1) : matcher.group(4));
+            String etag = unquote(matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+            StoredObject part = upload.parts.get(partNumber);
+            if (part == null || !part.etag.equals(etag)) {
+                throw new ServiceException(400, "InvalidPart",
+                        "One or more of the specified parts could not be found, part: "
+                                + partNumber);
+            }
+            if (partNumber <= lastPartNumber) {
+                throw new ServiceException(400, "InvalidPartOrder",
+                        "The list of parts was not in ascending order.");
+            }
+            lastPartNumber = partNumber;
+            content.write(part.data);
+            md5OfPartMd5s.update(hexToBytes(part.etag));
+            ++partCnt;
+        }
+        if (partCnt == 0) {
+            throw new ServiceException(400, "MalformedXML",
+                    "You must specify at least one part.");
+        }
+
+        String etag = toHex(md5OfPartMd5s.digest()) + "-" + partCnt;
+        getBucket(upload.bucketName).put(upload.key,
+                new StoredObject(content.toByteArray(), etag, upload.headers));
+        multipartUploads.remove(uploadId);
+        sendXml(exchange, 200, "<CompleteMultipartUploadResult>"
+                + element("Location", "http://" + getEndpoint() + "/" + upload.bucketName + "/"
+                        + upload.key)
+                + element("Bucket", upload.bucketName) + element("Key", upload.key)
+                + element("ETag", quote(etag)) + "</CompleteMultipartUploadResult>");
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException, InterruptedException {
+        InputStream inputStream = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[IO_BUFFER_SIZE];
+        int readLen;
+        while ((readLen = inputStream.read(buffer)) != -1) {
+            inboundThrottle.acquire(readLen, bandwidth);
+            body.write(buffer, 0, readLen);
+        }
+        bytesIn.addAndGet(body.size());
+        return body.toByteArray();
+    }
+
+    private void sendBody(HttpExchange exchange, int status, byte[] data, int offset, int length)
+            throws IOException, InterruptedException {
+        // 长度为0时必须传-1, 传0表示chunked
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        OutputStream outputStream = exchange.getResponseBody();
+        for (int sent = 0; sent < length;) {
+            int writeLen = Math.min(IO_BUFFER_SIZE, length - sent);
+            outboundThrottle.acquire(writeLen, bandwidth);
+            outputStream.write(data, offset + sent, writeLen);
+            sent += writeLen;
+        }
+        outputStream.flush();
+        bytesOut.addAndGet(length);
+    }
+
+    private void sendEmpty(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private void sendXml(HttpExchange exchange, int status, String xml)
+            throws IOException, InterruptedException {
+        byte[] data = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml)
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        sendBody(exchange, status, data, 0, data.length);
+    }
+
+    private void sendError(HttpExchange exchange, String method, int status, String errorCode,
+            String message, String requestId) {
+        try {
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            sendXml(exchange, status, "<Error>" + element("Code", errorCode)
+                    + element("Message", message) + element("RequestId", requestId) + "</Error>");
+        } catch (Exception e) {
+            // 响应头已经发出或者连接已断开, 只能关闭连接
+        }
+    }
+
+    // 保存上传时设置的元数据, 在HEAD和GET时原样返回
+    private static Map<String, String> collectObjectHeaders(HttpExchange exchange) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ENGLISH);
+            if (name.startsWith("x-amz-meta-") || name.equals("x-amz-storage-class")
+                    || name.equals("content-type") || name.equals("content-encoding")
+                    || name.equals("content-disposition") || name.equals("cache-control")
+                    || name.equals("expires")) {
+                headers.put(name, header.getValue().get(0));
+            }
+        }
+        return headers;
+    }
+
+    private static String getStorageClass(StoredObject storedObject) {
+        String storageClass = storedObject.headers.get("x-amz-storage-class");
+        return storageClass == null ? "STANDARD" : storageClass;
+    }
+
+    /**
+     * @return [first, last], 没有Range或者格式不支持时返回null
+     */
+    private static long[] parseRange(String rangeHeader, long objectLength)
+            throws ServiceException {
+        if (rangeHeader == null) {
+            return null;
+        }
+        Matcher matcher = RANGE_PATTERN.matcher(rangeHeader.trim());
+        if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            return null;
+        }
+        long first;
+        long last;
+        if (matcher.group(1).isEmpty()) {
+            first = Math.max(objectLength - Long.parseLong(matcher.group(2)), 0);
+            last = objectLength - 1;
+        } else {
+            first = Long.parseLong(matcher.group(1));
+            last = matcher.group(2).isEmpty() ? objectLength - 1
+                    : Math.min(Long.parseLong(matcher.group(2)), objectLength - 1);
+        }
+        if (first >= objectLength || first > last) {
+            throw new ServiceException(416, "InvalidRange",
+                    "The requested range is not satisfiable");
+        }
+        return new long[] {first, last};
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            int equalIndex = param.indexOf('=');
+            if (equalIndex < 0) {
+                params.put(urlDecode(param), "");
+            } else {
+                params.put(urlDecode(param.substring(0, equalIndex)),
+                        urlDecode(param.substring(equalIndex + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static String getParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        return value == null ? "" : value;
+    }
+
+    private static String urlDecode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encodeKey(String key, boolean urlEncode) {
+        return urlEncode ? SdkHttpUtils.urlEncode(key, false) : key;
+    }
+
+    private static String element(String name, String value) {
+        return "<" + name + ">" + escapeXml(value) + "</" + name + ">";
+    }
+
+    private static String escapeXml(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String etag) {
+        return "\"" + etag + "\"";
+    }
+
+    private static String unquote(String etag) {
+        return etag.replace("&quot;", "").replace("\"", "").trim();
+    }
+
+    private static String formatIso8601(long timeMs) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(timeMs));
+    }
+
+    private static String formatRfc822(long timeMs) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(timeMs));
+    }
+
+    private static MessageDigest newMd5Digest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String md5Hex(byte[] data) {
+        return toHex(newMd5Digest().digest(data));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
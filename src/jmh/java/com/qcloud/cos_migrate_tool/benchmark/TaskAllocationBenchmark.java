@@ -0,0 +1,93 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+import com.qcloud.cos_migrate_tool.task.MigrateLocalTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 每迁移一个本地文件在生成任务和记录结果时的耗时与内存分配.
+ * 配合 -prof gc 运行, gc.alloc.rate.norm 即每个文件分配的字节数.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskAllocationBenchmark {
+    private static final int FILE_NUM = 1024;
+
+    private File localFolder;
+    private CopyFromLocalConfig config;
+    private File[] localFiles;
+    private String[] localPaths;
+    private int index = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        localFolder = Files.createTempDirectory("task_alloc_bench").toFile();
+        config = new CopyFromLocalConfig();
+        config.setLocalPath(localFolder.getPath());
+        config.setCosPath("/bench/");
+        config.setBucketName("bench-1250000000");
+        localFiles = new File[FILE_NUM];
+        localPaths = new String[FILE_NUM];
+        for (int i = 0; i < FILE_NUM; ++i) {
+            localFiles[i] = new File(localFolder, String.format("dir%02d/file_%06d.dat", i % 32, i));
+            localPaths[i] = config.getLocalPath() + String.format("dir%02d/file_%06d.dat", i % 32, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        localFolder.delete();
+    }
+
+    private int nextIndex() {
+        index = (index + 1) & (FILE_NUM - 1);
+        return index;
+    }
+
+    // 扫描目录时生成任务, 计算资源额度并查询跳过索引
+    @Benchmark
+    public void buildLocalTask(Blackhole blackhole) {
+        int i = nextIndex();
+        MigrateLocalTask task = new MigrateLocalTask(config, null, null, null, localFiles[i],
+                localPaths[i], 4096 + i, 1600000000000L + i);
+        blackhole.consume(task.getTaskSize());
+        blackhole.consume(task.getTempFileBytes());
+        RecordElement recordElement = task.buildSkipCheckElement();
+        blackhole.consume(recordElement.buildEncodedKey());
+        blackhole.consume(recordElement.buildEncodedValue());
+    }
+
+    // 任务成功后写db以及打印结果用到的key和value
+    @Benchmark
+    public void formatSuccessRecord(Blackhole blackhole) {
+        int i = nextIndex();
+        MigrateLocalTask task = new MigrateLocalTask(config, null, null, null, localFiles[i],
+                localPaths[i], 4096 + i, 1600000000000L + i);
+        RecordElement recordElement = task.buildSkipCheckElement();
+        blackhole.consume(recordElement.buildEncodedKey());
+        blackhole.consume(recordElement.buildEncodedValue());
+        blackhole.consume("[ok] [requestid: NULL], task_info: " + recordElement.buildKey());
+    }
+}
@@ -0,0 +1,126 @@
+package com.qcloud.cos_migrate_tool.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos_migrate_tool.config.CommonConfig;
+import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.task.Task;
+import com.qcloud.cos_migrate_tool.task.TaskExecutor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TaskExecutor从AddTask到任务执行完成的调度开销: 队列许可, 未完成数据量许可, ResourceGovernor, 线程池切换以及时间窗口检查.
+ * 任务本身不做任何上传, 每次调用提交TASK_NUM个任务并等待全部完成.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskDispatchBenchmark {
+    private static final int TASK_NUM = 10000;
+
+    @Param({"8", "68"})
+    private String taskExecutorNumber;
+
+    // 小于smallFileThreshold的任务进入小文件队列, 否则进入大文件队列
+    @Param({"4096", "67108864"})
+    private long taskSize;
+
+    private CommonConfig config;
+    private DispatchExecutor executor;
+
+    private static class DispatchExecutor extends TaskExecutor {
+        DispatchExecutor(CommonConfig config) {
+            super(MigrateType.MIGRATE_FROM_LOCAL, config);
+        }
+
+        @Override
+        protected String buildTaskDbComment() {
+            return "jmh task dispatch";
+        }
+
+        @Override
+        protected String buildTaskDbFolderPath() {
+            return "";
+        }
+
+        @Override
+        public void buildTask() {}
+
+        void addTask(Task task) throws InterruptedException {
+            AddTask(task);
+        }
+
+        void shutdown() throws InterruptedException {
+            threadPool.shutdown();
+            bigTaskThreadPool.shutdown();
+            threadPool.awaitTermination(1, TimeUnit.MINUTES);
+            bigTaskThreadPool.awaitTermination(1, TimeUnit.MINUTES);
+            smallFileTransferManager.shutdownNow();
+            bigFileTransferManager.shutdownNow();
+        }
+    }
+
+    private static class NoopTask extends Task {
+        private final CountDownLatch latch;
+        private final long taskSize;
+
+        NoopTask(CommonConfig config, CountDownLatch latch, long taskSize) {
+            super(config, null, null, null);
+            this.latch = latch;
+            this.taskSize = taskSize;
+        }
+
+        @Override
+        public long getTaskSize() {
+            return taskSize;
+        }
+
+        @Override
+        public void doTask() {
+            latch.countDown();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        config = new CommonConfig();
+        config.setAk("jmh");
+        config.setSk("jmh");
+        config.setRegion("ap-guangzhou");
+        config.setTimeWindowsStr("00:00,24:00");
+        config.setTaskExecutorNumberStr(taskExecutorNumber);
+        executor = new DispatchExecutor(config);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASK_NUM)
+    public void dispatch() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(TASK_NUM);
+        for (int i = 0; i < TASK_NUM; ++i) {
+            executor.addTask(new NoopTask(config, latch, taskSize));
+        }
+        latch.await();
+    }
+}
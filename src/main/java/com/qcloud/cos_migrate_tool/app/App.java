@@ -18,6 +18,8 @@ import com.qcloud.cos_migrate_tool.config.CopyFromQiniuConfig;
 import com.qcloud.cos_migrate_tool.config.CopyFromUpyunConfig;
 import com.qcloud.cos_migrate_tool.config.CopyFromUrllistConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.meta.MetricsExporter;
+import com.qcloud.cos_migrate_tool.meta.TaskOutput;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.task.MigrateAliTaskExecutor;
 import com.qcloud.cos_migrate_tool.task.MigrateAwsTaskExecutor;
@@ -73,6 +75,34 @@ public class App {
 
         CommonConfig config = ConfigParser.instance.getConfig();
 
+        try {
+            TaskOutput.instance.init(config.getConsoleOutputMode(), config.getSummaryInterval(),
+                    config.getResultJournalFile());
+        } catch (IOException e) {
+            System.err.println("open result journal failed, " + e.toString());
+            log.error("open result journal failed", e);
+            return;
+        }
+
+        try {
+            MetricsExporter.instance.start(config.getMetricsPort(),
+                    config.getMetricsSnapshotFile(), config.getMetricsSnapshotInterval());
+        } catch (IOException e) {
+            System.err.println("start metrics exporter failed, " + e.toString());
+            log.error("start metrics exporter failed", e);
+            TaskOutput.instance.shutdown();
+            return;
+        }
+
+        try {
+            runMigrate(config);
+        } finally {
+            MetricsExporter.instance.stop();
+            TaskOutput.instance.shutdown();
+        }
+    }
+
+    private static void runMigrate(CommonConfig config) {
         String batchTaskPath = config.getBatchTaskPath();
         if (!batchTaskPath.isEmpty()) {
 
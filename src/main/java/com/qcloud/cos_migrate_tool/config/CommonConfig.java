@@ -1,8 +1,15 @@
 package com.qcloud.cos_migrate_tool.config;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import com.amazonaws.services.s3.model.StorageClass;
+import com.qcloud.cos_migrate_tool.listing.ListingDiffer;
+import com.qcloud.cos_migrate_tool.meta.TaskOutput;
 import com.qcloud.cos_migrate_tool.utils.PathUtils;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
 
@@ -10,6 +17,10 @@ import com.qcloud.cos_migrate_tool.utils.SystemUtils;
  * @author chengwu 定义common配置, 比如tempfile, COS的账户信息
  */
 public class CommonConfig {
+    // check模式的校验方式: 逐个head对象, list COS与本地目录归并比较, list COS与db中的记录比较
+    public static final String CHECK_MODE_HEAD = "head";
+    public static final String CHECK_MODE_LIST = "list";
+    public static final String CHECK_MODE_RECORD = "record";
 
     private String tempFolderPath;
     private String bucketName;
@@ -40,13 +51,55 @@ public class CommonConfig {
     private boolean isResume = false;
     private String dbCosPath = "";
     private boolean skipSamePath = false;
+    // 按顺序list源和目标后归并比较, 只迁移新增或变化的对象
+    private boolean listDiff = false;
+    private Set<String> listDiffCompare = new LinkedHashSet<String>(Arrays.asList(
+            ListingDiffer.COMPARE_SIZE, ListingDiffer.COMPARE_ETAG, ListingDiffer.COMPARE_MTIME));
+    private String listDiffExtraFile = "";
     private int threadTrafficLimit = 0;
+    private long globalTrafficLimit = 0;
+    private List<TrafficLimitRule> trafficLimitSchedule = new ArrayList<TrafficLimitRule>();
     private boolean clientEncrypt = false;
     private String encryptionAlgo = null;
     private String keyPath = null;
     private String encryptIV = null;
     private boolean check = false;
+    // 为空时按文件列表迁移使用head, 否则使用list
+    private String checkMode = "";
+    private boolean streamMode = false;
+    private boolean rangeDownload = false;
+    private long rangeDownloadThreshold = 100 * 1024 * 1024;
+    private long rangeDownloadMemoryLimit = 256 * 1024 * 1024;
+    private boolean dbBatchWrite = false;
+    private int dbBatchSize = 1000;
+    private long dbBatchFlushInterval = 100;
+    private boolean dbWal = true;
+    private long dbSyncInterval = 0;
+    private boolean recordSkipIndex = false;
+    private int listThreadNum = 1;
+    private boolean adaptiveConcurrency = false;
+    private long inflightBytesLimit = 0;
+    private int taskQueueSize = 10000;
+    private long tempDiskLimit = 0;
+    private long tempDiskReserved = 1024L * 1024 * 1024;
+    private long bufferMemoryLimit = 0;
+    private int maxConnectionNum = 0;
+    private boolean smallFileFastPath = false;
+    private long smallFileFastPathThreshold = 64 * 1024;
+    private int smallFileFastPathConnectionNum = 128;
+    private int metricsPort = 0;
+    private String metricsSnapshotFile = "";
+    private int metricsSnapshotInterval = 60;
+    private String consoleOutputMode = TaskOutput.CONSOLE_MODE_DETAIL;
+    private int summaryInterval = 10;
+    private String resultJournalFile = "";
+    private int contentHashThreadNum = 2;
+    private boolean verifyCrc64 = false;
+    private int adaptiveMinThreadNum = 4;
+    private int adaptiveMaxThreadNum = 256;
     private int rocksDBMaxOpenFile = InvalidRocksDBMaxOpenFile;
+    private static final int MIN_TRAFFIC_LIMIT = 819200;
+    private static final int MAX_THREAD_TRAFFIC_LIMIT = 838860800;
     private static final int InvalidRocksDBMaxOpenFile = -2; // -1 is valid for rocsdb.max_open_file
 
     public int getRocksDBMaxOpenFile() {
@@ -57,6 +110,421 @@ public class CommonConfig {
         this.rocksDBMaxOpenFile = rocksDBMaxOpenFile;
     }
 
+    public void setStreamMode(boolean streamMode) {
+        this.streamMode = streamMode;
+    }
+
+    public boolean isStreamMode() {
+        return this.streamMode;
+    }
+
+    public void setRangeDownload(boolean rangeDownload) {
+        this.rangeDownload = rangeDownload;
+    }
+
+    public boolean isRangeDownload() {
+        return this.rangeDownload;
+    }
+
+    public void setRangeDownloadThreshold(String rangeDownloadThresholdStr) {
+        rangeDownloadThresholdStr = rangeDownloadThresholdStr.trim();
+        try {
+            long number = Long.valueOf(rangeDownloadThresholdStr);
+            final long minThreshold = 5 * 1024 * 1024; // 最小5MB
+            if (number < minThreshold) {
+                throw new IllegalArgumentException(String.format(
+                        "legal rangeDownloadThreshold is greater than or equal to %d", minThreshold));
+            }
+            this.rangeDownloadThreshold = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid rangeDownloadThreshold");
+        }
+    }
+
+    public long getRangeDownloadThreshold() {
+        return this.rangeDownloadThreshold;
+    }
+
+    public void setRangeDownloadMemoryLimit(String rangeDownloadMemoryLimitStr) {
+        rangeDownloadMemoryLimitStr = rangeDownloadMemoryLimitStr.trim();
+        try {
+            long number = Long.valueOf(rangeDownloadMemoryLimitStr);
+            final long minLimit = 16 * 1024 * 1024; // 最小16MB
+            if (number < minLimit) {
+                throw new IllegalArgumentException(String.format(
+                        "legal rangeDownloadMemoryLimit is greater than or equal to %d", minLimit));
+            }
+            this.rangeDownloadMemoryLimit = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid rangeDownloadMemoryLimit");
+        }
+    }
+
+    public long getRangeDownloadMemoryLimit() {
+        return this.rangeDownloadMemoryLimit;
+    }
+
+    public void setDbBatchWrite(boolean dbBatchWrite) {
+        this.dbBatchWrite = dbBatchWrite;
+    }
+
+    public boolean isDbBatchWrite() {
+        return this.dbBatchWrite;
+    }
+
+    public void setDbBatchSize(String dbBatchSizeStr) {
+        dbBatchSizeStr = dbBatchSizeStr.trim();
+        try {
+            int number = Integer.valueOf(dbBatchSizeStr);
+            if (number < 1 || number > 100000) {
+                throw new IllegalArgumentException("legal dbBatchSize is [1, 100000]");
+            }
+            this.dbBatchSize = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid dbBatchSize");
+        }
+    }
+
+    public int getDbBatchSize() {
+        return this.dbBatchSize;
+    }
+
+    public void setDbBatchFlushInterval(String dbBatchFlushIntervalStr) {
+        dbBatchFlushIntervalStr = dbBatchFlushIntervalStr.trim();
+        try {
+            long number = Long.valueOf(dbBatchFlushIntervalStr);
+            if (number < 1 || number > 60000) {
+                throw new IllegalArgumentException("legal dbBatchFlushInterval is [1, 60000] ms");
+            }
+            this.dbBatchFlushInterval = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid dbBatchFlushInterval");
+        }
+    }
+
+    public long getDbBatchFlushInterval() {
+        return this.dbBatchFlushInterval;
+    }
+
+    public void setDbWal(boolean dbWal) {
+        this.dbWal = dbWal;
+    }
+
+    public boolean isDbWal() {
+        return this.dbWal;
+    }
+
+    public void setDbSyncInterval(String dbSyncIntervalStr) {
+        dbSyncIntervalStr = dbSyncIntervalStr.trim();
+        try {
+            long number = Long.valueOf(dbSyncIntervalStr);
+            if (number < 0) {
+                throw new IllegalArgumentException("dbSyncInterval should not be negative");
+            }
+            this.dbSyncInterval = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid dbSyncInterval");
+        }
+    }
+
+    public long getDbSyncInterval() {
+        return this.dbSyncInterval;
+    }
+
+    public void setRecordSkipIndex(boolean recordSkipIndex) {
+        this.recordSkipIndex = recordSkipIndex;
+    }
+
+    public boolean isRecordSkipIndex() {
+        return this.recordSkipIndex;
+    }
+
+    public void setListThreadNum(String listThreadNumStr) {
+        listThreadNumStr = listThreadNumStr.trim();
+        try {
+            int number = Integer.valueOf(listThreadNumStr);
+            if (number < 1 || number > 64) {
+                throw new IllegalArgumentException("legal listThreadNum is [1, 64]");
+            }
+            this.listThreadNum = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid listThreadNum");
+        }
+    }
+
+    public int getListThreadNum() {
+        return this.listThreadNum;
+    }
+
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return this.adaptiveConcurrency;
+    }
+
+    public void setAdaptiveMinThreadNum(String adaptiveMinThreadNumStr) {
+        adaptiveMinThreadNumStr = adaptiveMinThreadNumStr.trim();
+        try {
+            int number = Integer.valueOf(adaptiveMinThreadNumStr);
+            if (number < 1 || number > 1024) {
+                throw new IllegalArgumentException("legal adaptiveMinThreadNum is [1, 1024]");
+            }
+            this.adaptiveMinThreadNum = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid adaptiveMinThreadNum");
+        }
+    }
+
+    public int getAdaptiveMinThreadNum() {
+        return this.adaptiveMinThreadNum;
+    }
+
+    public void setAdaptiveMaxThreadNum(String adaptiveMaxThreadNumStr) {
+        adaptiveMaxThreadNumStr = adaptiveMaxThreadNumStr.trim();
+        try {
+            int number = Integer.valueOf(adaptiveMaxThreadNumStr);
+            if (number < 1 || number > 1024) {
+                throw new IllegalArgumentException("legal adaptiveMaxThreadNum is [1, 1024]");
+            }
+            this.adaptiveMaxThreadNum = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid adaptiveMaxThreadNum");
+        }
+    }
+
+    public int getAdaptiveMaxThreadNum() {
+        return this.adaptiveMaxThreadNum;
+    }
+
+    public void setInflightBytesLimit(String inflightBytesLimitStr) {
+        inflightBytesLimitStr = inflightBytesLimitStr.trim();
+        try {
+            long number = Long.valueOf(inflightBytesLimitStr);
+            if (number < 0) {
+                throw new IllegalArgumentException("inflightBytesLimit should not be negative");
+            }
+            this.inflightBytesLimit = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid inflightBytesLimit");
+        }
+    }
+
+    public long getInflightBytesLimit() {
+        return this.inflightBytesLimit;
+    }
+
+    public void setTaskQueueSize(String taskQueueSizeStr) {
+        taskQueueSizeStr = taskQueueSizeStr.trim();
+        try {
+            int number = Integer.valueOf(taskQueueSizeStr);
+            if (number < 1 || number > 1000000) {
+                throw new IllegalArgumentException("legal taskQueueSize is [1, 1000000]");
+            }
+            this.taskQueueSize = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid taskQueueSize");
+        }
+    }
+
+    public int getTaskQueueSize() {
+        return this.taskQueueSize;
+    }
+
+    public void setTempDiskLimit(String tempDiskLimitStr) {
+        tempDiskLimitStr = tempDiskLimitStr.trim();
+        try {
+            long number = Long.valueOf(tempDiskLimitStr);
+            if (number < 0) {
+                throw new IllegalArgumentException("tempDiskLimit should not be negative");
+            }
+            this.tempDiskLimit = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid tempDiskLimit");
+        }
+    }
+
+    public long getTempDiskLimit() {
+        return this.tempDiskLimit;
+    }
+
+    public void setTempDiskReserved(String tempDiskReservedStr) {
+        tempDiskReservedStr = tempDiskReservedStr.trim();
+        try {
+            long number = Long.valueOf(tempDiskReservedStr);
+            if (number < 0) {
+                throw new IllegalArgumentException("tempDiskReserved should not be negative");
+            }
+            this.tempDiskReserved = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid tempDiskReserved");
+        }
+    }
+
+    public long getTempDiskReserved() {
+        return this.tempDiskReserved;
+    }
+
+    public void setBufferMemoryLimit(String bufferMemoryLimitStr) {
+        bufferMemoryLimitStr = bufferMemoryLimitStr.trim();
+        try {
+            long number = Long.valueOf(bufferMemoryLimitStr);
+            if (number < 0) {
+                throw new IllegalArgumentException("bufferMemoryLimit should not be negative");
+            }
+            this.bufferMemoryLimit = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid bufferMemoryLimit");
+        }
+    }
+
+    public long getBufferMemoryLimit() {
+        return this.bufferMemoryLimit;
+    }
+
+    public void setMaxConnectionNum(String maxConnectionNumStr) {
+        maxConnectionNumStr = maxConnectionNumStr.trim();
+        try {
+            int number = Integer.valueOf(maxConnectionNumStr);
+            if (number < 0 || number > 4096) {
+                throw new IllegalArgumentException("legal maxConnectionNum is [0, 4096]");
+            }
+            this.maxConnectionNum = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid maxConnectionNum");
+        }
+    }
+
+    public int getMaxConnectionNum() {
+        return this.maxConnectionNum;
+    }
+
+    public void setSmallFileFastPath(boolean smallFileFastPath) {
+        this.smallFileFastPath = smallFileFastPath;
+    }
+
+    public boolean isSmallFileFastPath() {
+        return this.smallFileFastPath;
+    }
+
+    public void setSmallFileFastPathThreshold(String smallFileFastPathThresholdStr) {
+        smallFileFastPathThresholdStr = smallFileFastPathThresholdStr.trim();
+        try {
+            long number = Long.valueOf(smallFileFastPathThresholdStr);
+            if (number < 1 || number > 16 * 1024 * 1024) {
+                throw new IllegalArgumentException(
+                        "legal smallFileFastPathThreshold is [1, 16777216]");
+            }
+            this.smallFileFastPathThreshold = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid smallFileFastPathThreshold");
+        }
+    }
+
+    public long getSmallFileFastPathThreshold() {
+        return this.smallFileFastPathThreshold;
+    }
+
+    public void setSmallFileFastPathConnectionNum(String smallFileFastPathConnectionNumStr) {
+        smallFileFastPathConnectionNumStr = smallFileFastPathConnectionNumStr.trim();
+        try {
+            int number = Integer.valueOf(smallFileFastPathConnectionNumStr);
+            if (number < 1 || number > 4096) {
+                throw new IllegalArgumentException(
+                        "legal smallFileFastPathConnectionNum is [1, 4096]");
+            }
+            this.smallFileFastPathConnectionNum = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid smallFileFastPathConnectionNum");
+        }
+    }
+
+    public int getSmallFileFastPathConnectionNum() {
+        return this.smallFileFastPathConnectionNum;
+    }
+
+    public void setMetricsPort(String metricsPortStr) {
+        metricsPortStr = metricsPortStr.trim();
+        try {
+            int number = Integer.valueOf(metricsPortStr);
+            if (number < 0 || number > 65535) {
+                throw new IllegalArgumentException("legal metricsPort is [0, 65535]");
+            }
+            this.metricsPort = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid metricsPort");
+        }
+    }
+
+    public int getMetricsPort() {
+        return this.metricsPort;
+    }
+
+    public void setMetricsSnapshotFile(String metricsSnapshotFile) {
+        this.metricsSnapshotFile = metricsSnapshotFile.trim();
+    }
+
+    public String getMetricsSnapshotFile() {
+        return this.metricsSnapshotFile;
+    }
+
+    public void setMetricsSnapshotInterval(String metricsSnapshotIntervalStr) {
+        metricsSnapshotIntervalStr = metricsSnapshotIntervalStr.trim();
+        try {
+            int number = Integer.valueOf(metricsSnapshotIntervalStr);
+            if (number < 1 || number > 86400) {
+                throw new IllegalArgumentException("legal metricsSnapshotInterval is [1, 86400]");
+            }
+            this.metricsSnapshotInterval = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid metricsSnapshotInterval");
+        }
+    }
+
+    public int getMetricsSnapshotInterval() {
+        return this.metricsSnapshotInterval;
+    }
+
+    public void setConsoleOutputMode(String consoleOutputMode) {
+        consoleOutputMode = consoleOutputMode.trim();
+        if (!consoleOutputMode.equalsIgnoreCase(TaskOutput.CONSOLE_MODE_DETAIL)
+                && !consoleOutputMode.equalsIgnoreCase(TaskOutput.CONSOLE_MODE_SUMMARY)) {
+            throw new IllegalArgumentException(
+                    "invalid consoleOutputMode config. only support detail/summary");
+        }
+        this.consoleOutputMode = consoleOutputMode.toLowerCase();
+    }
+
+    public String getConsoleOutputMode() {
+        return this.consoleOutputMode;
+    }
+
+    public void setSummaryInterval(String summaryIntervalStr) {
+        summaryIntervalStr = summaryIntervalStr.trim();
+        try {
+            int number = Integer.valueOf(summaryIntervalStr);
+            if (number < 1 || number > 3600) {
+                throw new IllegalArgumentException("legal summaryInterval is [1, 3600]");
+            }
+            this.summaryInterval = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid summaryInterval");
+        }
+    }
+
+    public int getSummaryInterval() {
+        return this.summaryInterval;
+    }
+
+    public void setResultJournalFile(String resultJournalFile) {
+        this.resultJournalFile = resultJournalFile.trim();
+    }
+
+    public String getResultJournalFile() {
+        return this.resultJournalFile;
+    }
+
     public static boolean isRocksDBMaxOpenFileValid(int maxOpenFile) {
         return maxOpenFile != InvalidRocksDBMaxOpenFile;
     }
@@ -101,12 +569,30 @@ public class CommonConfig {
         return this.check;
     }
 
+    public void setCheckMode(String checkMode) {
+        checkMode = checkMode.trim();
+        if (!checkMode.equalsIgnoreCase(CHECK_MODE_HEAD)
+                && !checkMode.equalsIgnoreCase(CHECK_MODE_LIST)
+                && !checkMode.equalsIgnoreCase(CHECK_MODE_RECORD)) {
+            throw new IllegalArgumentException(
+                    "invalid checkMode config. only support head/list/record");
+        }
+        this.checkMode = checkMode.toLowerCase();
+    }
+
+    public String getCheckMode() {
+        return this.checkMode;
+    }
+
     public void setThreadTrafficLimit(String threadTrafficLimitStr) {
         threadTrafficLimitStr = threadTrafficLimitStr.trim();
         try {
             int number = Integer.valueOf(threadTrafficLimitStr);
             if (number <= 0) {
                 threadTrafficLimit = 0;
+            } else if (number < MIN_TRAFFIC_LIMIT || number > MAX_THREAD_TRAFFIC_LIMIT) {
+                throw new IllegalArgumentException(
+                        "legal threadTrafficLimit is [819200, 838860800]");
             } else {
                 threadTrafficLimit = number;
             }
@@ -119,6 +605,56 @@ public class CommonConfig {
         return threadTrafficLimit;
     }
 
+    public void setGlobalTrafficLimit(String globalTrafficLimitStr) {
+        globalTrafficLimitStr = globalTrafficLimitStr.trim();
+        try {
+            this.globalTrafficLimit = parseTrafficLimit(globalTrafficLimitStr,
+                    "legal globalTrafficLimit is 0 or not less than 819200");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid globalTrafficLimit");
+        }
+    }
+
+    public long getGlobalTrafficLimit() {
+        return globalTrafficLimit;
+    }
+
+    // 多个时间段用;分隔, 每个时间段为 开始时间,结束时间,限速, 例如 09:00,18:00,2147483648;
+    public void setTrafficLimitSchedule(String scheduleStr) {
+        String errMsg =
+                "trafficLimitSchedule is invalid, the legal example 09:00,18:00,2147483648;";
+        List<TrafficLimitRule> schedule = new ArrayList<TrafficLimitRule>();
+        for (String ruleStr : scheduleStr.trim().split(";")) {
+            if (ruleStr.trim().isEmpty()) {
+                continue;
+            }
+            String[] ruleArray = ruleStr.split(",");
+            if (ruleArray.length != 3) {
+                throw new IllegalArgumentException(errMsg);
+            }
+            try {
+                schedule.add(new TrafficLimitRule(parseMinuteOfDay(ruleArray[0], false, errMsg),
+                        parseMinuteOfDay(ruleArray[1], true, errMsg),
+                        parseTrafficLimit(ruleArray[2].trim(), errMsg)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(errMsg);
+            }
+        }
+        this.trafficLimitSchedule = schedule;
+    }
+
+    public List<TrafficLimitRule> getTrafficLimitSchedule() {
+        return trafficLimitSchedule;
+    }
+
+    private static long parseTrafficLimit(String trafficLimitStr, String errMsg) {
+        long number = Long.valueOf(trafficLimitStr);
+        if (number < 0 || (number > 0 && number < MIN_TRAFFIC_LIMIT)) {
+            throw new IllegalArgumentException(errMsg);
+        }
+        return number;
+    }
+
     public void setSkipSamePath(String skipSamePath) {
         if (skipSamePath.compareToIgnoreCase("true") == 0) {
             this.skipSamePath = true;
@@ -130,6 +666,40 @@ public class CommonConfig {
     public boolean skipSamePath() {
         return this.skipSamePath;
     }
+
+    public void setListDiff(boolean listDiff) {
+        this.listDiff = listDiff;
+    }
+
+    public boolean isListDiff() {
+        return this.listDiff;
+    }
+
+    public void setListDiffCompare(String listDiffCompareStr) {
+        Set<String> rules = new LinkedHashSet<String>();
+        for (String rule : listDiffCompareStr.split(",")) {
+            rule = rule.trim().toLowerCase();
+            if (!rule.equals(ListingDiffer.COMPARE_SIZE) && !rule.equals(ListingDiffer.COMPARE_ETAG)
+                    && !rule.equals(ListingDiffer.COMPARE_MTIME)) {
+                throw new IllegalArgumentException(
+                        "invalid listDiffCompare config. only support size/etag/mtime");
+            }
+            rules.add(rule);
+        }
+        this.listDiffCompare = rules;
+    }
+
+    public Set<String> getListDiffCompare() {
+        return this.listDiffCompare;
+    }
+
+    public void setListDiffExtraFile(String listDiffExtraFile) {
+        this.listDiffExtraFile = listDiffExtraFile.trim();
+    }
+
+    public String getListDiffExtraFile() {
+        return this.listDiffExtraFile;
+    }
     
     public void setResume(String isResume) {
         if (isResume.compareToIgnoreCase("true") == 0) {
@@ -402,6 +972,31 @@ public class CommonConfig {
         }
     }
     
+    public void setContentHashThreadNum(String contentHashThreadNumStr) {
+        contentHashThreadNumStr = contentHashThreadNumStr.trim();
+        try {
+            int number = Integer.valueOf(contentHashThreadNumStr);
+            if (number < 1 || number > 64) {
+                throw new IllegalArgumentException("legal contentHashThreadNum is [1, 64]");
+            }
+            this.contentHashThreadNum = number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid contentHashThreadNum");
+        }
+    }
+
+    public int getContentHashThreadNum() {
+        return this.contentHashThreadNum;
+    }
+
+    public void setVerifyCrc64(boolean verifyCrc64) {
+        this.verifyCrc64 = verifyCrc64;
+    }
+
+    public boolean isVerifyCrc64() {
+        return this.verifyCrc64;
+    }
+
     public void setDaemonMode(String daemonModeStr) {
         if (daemonModeStr.equalsIgnoreCase("on")) {
             this.damonMode = true;
@@ -441,39 +1036,32 @@ public class CommonConfig {
             throw new IllegalArgumentException("executeTimeWindow is invalid, the legal example 03:30,21:00");
         }
         try {
-            String[] timeBeginMemberArray = timeWindowArray[0].split(":");
-            if (timeBeginMemberArray.length != 2) {
-                throw new IllegalArgumentException("executeTimeWindow is invalid, the legal example 03:30,21:00");
-            }
-            int hour = Integer.valueOf(timeBeginMemberArray[0]);
-            if (hour < 0 || hour >= 24) {
-                throw new IllegalArgumentException("executeTimeWindow is invalid, the legal example 03:30,21:00");
-            }
-            int minute = Integer.valueOf(timeBeginMemberArray[1]);
-            if (minute < 0 || minute >= 60) {
-                throw new IllegalArgumentException("executeTimeWindow is invalid, the legal example 03:30,21:00");
-            }
-            this.timeWindowBegin = hour * 60 + minute;
-            
-            String[] timeEndMemberArray = timeWindowArray[1].split(":");
-            if (timeEndMemberArray.length != 2) {
-                throw new IllegalArgumentException("executeTimeWindow is invalid, the legal example 03:30,21:00");
-            }
-            hour = Integer.valueOf(timeEndMemberArray[0]);
-            if (hour < 0 || hour > 24) {
-                throw new IllegalArgumentException("executeTimeWindow is invalid, the legal example 03:30,21:00");
-            }
-            minute = Integer.valueOf(timeEndMemberArray[1]);
-            if (minute < 0 || minute >= 60) {
-                throw new IllegalArgumentException("executeTimeWindow is invalid, the legal example 03:30,21:00");
-            }
-            this.timeWindowEnd = hour * 60 + minute;
-            
+            this.timeWindowBegin = parseMinuteOfDay(timeWindowArray[0], false,
+                    "executeTimeWindow is invalid, the legal example 03:30,21:00");
+            this.timeWindowEnd = parseMinuteOfDay(timeWindowArray[1], true,
+                    "executeTimeWindow is invalid, the legal example 03:30,21:00");
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("invalid executeTimeWindow");
         }
     }
 
+    // 解析HH:MM格式的时间, 返回当天的分钟数, 结束时间允许24点
+    private static int parseMinuteOfDay(String timeStr, boolean isEnd, String errMsg) {
+        String[] timeMemberArray = timeStr.trim().split(":");
+        if (timeMemberArray.length != 2) {
+            throw new IllegalArgumentException(errMsg);
+        }
+        int hour = Integer.valueOf(timeMemberArray[0]);
+        if (hour < 0 || hour > 24 || (hour == 24 && !isEnd)) {
+            throw new IllegalArgumentException(errMsg);
+        }
+        int minute = Integer.valueOf(timeMemberArray[1]);
+        if (minute < 0 || minute >= 60) {
+            throw new IllegalArgumentException(errMsg);
+        }
+        return hour * 60 + minute;
+    }
+
     public int getTimeWindowBegin() {
         return timeWindowBegin;
     }
@@ -42,6 +42,8 @@ public class ConfigParser {
     private static final String COMMON_BIG_FILE_UPLOAD_PART_SIZE = "bigFileUploadPartSize";
     private static final String COMMON_ENTIRE_FILE_MD5_ATTACHED = "entireFileMd5Attached";
     private static final String COMMON_DAEMON_MODE = "daemonMode";
+    private static final String COMMON_CONTENT_HASH_THREAD_NUM = "contentHashThreadNum";
+    private static final String COMMON_VERIFY_CRC64 = "verifyCrc64";
     private static final String COMMON_DAEMON_MODE_INTERVAL = "daemonModeInterVal";
     private static final String COMMON_EXECUTE_TIME_WINDOW = "executeTimeWindow";
     private static final String COMMON_PROXY_HOST = "proxyHost";
@@ -53,13 +55,50 @@ public class ConfigParser {
     private static final String COMMON_OUTPUT_FINISHED_FILE = "outputFinishedFileFolder";
     private static final String COMMON_RESUME = "resume";
     private static final String COMMON_SKIP_SAME_PATH = "skipSamePath";
+    private static final String COMMON_LIST_DIFF = "listDiff";
+    private static final String COMMON_LIST_DIFF_COMPARE = "listDiffCompare";
+    private static final String COMMON_LIST_DIFF_EXTRA_FILE = "listDiffExtraFile";
     private static final String COMMON_THREAD_TRAFFIC_LIMIT = "threadTrafficLimit";
+    private static final String COMMON_GLOBAL_TRAFFIC_LIMIT = "globalTrafficLimit";
+    private static final String COMMON_TRAFFIC_LIMIT_SCHEDULE = "trafficLimitSchedule";
     private static final String COMMON_CLIENT_ENCRYPTION = "clientEncryption";
     private static final String COMMON_ENCRYPTION_ALGO = "encryptionAlgo";
     private static final String COMMON_KEYPATH = "keyPath";
     private static final String COMMON_ENCRYPTIV = "encryptIV";
     private static final String COMMON_CHECK = "check";
+    private static final String COMMON_CHECK_MODE = "checkMode";
     private static final String COMMON_ROCKSDB_MAX_OPEN_FILE = "rocksMaxOpenFile";
+    private static final String COMMON_STREAM_MODE = "streamMode";
+    private static final String COMMON_RANGE_DOWNLOAD = "rangeDownload";
+    private static final String COMMON_RANGE_DOWNLOAD_THRESHOLD = "rangeDownloadThreshold";
+    private static final String COMMON_RANGE_DOWNLOAD_MEMORY_LIMIT = "rangeDownloadMemoryLimit";
+    private static final String COMMON_DB_BATCH_WRITE = "dbBatchWrite";
+    private static final String COMMON_DB_BATCH_SIZE = "dbBatchSize";
+    private static final String COMMON_DB_BATCH_FLUSH_INTERVAL = "dbBatchFlushInterval";
+    private static final String COMMON_DB_WAL = "dbWal";
+    private static final String COMMON_DB_SYNC_INTERVAL = "dbSyncInterval";
+    private static final String COMMON_RECORD_SKIP_INDEX = "recordSkipIndex";
+    private static final String COMMON_LIST_THREAD_NUM = "listThreadNum";
+    private static final String COMMON_ADAPTIVE_CONCURRENCY = "adaptiveConcurrency";
+    private static final String COMMON_INFLIGHT_BYTES_LIMIT = "inflightBytesLimit";
+    private static final String COMMON_TASK_QUEUE_SIZE = "taskQueueSize";
+    private static final String COMMON_TEMP_DISK_LIMIT = "tempDiskLimit";
+    private static final String COMMON_TEMP_DISK_RESERVED = "tempDiskReserved";
+    private static final String COMMON_BUFFER_MEMORY_LIMIT = "bufferMemoryLimit";
+    private static final String COMMON_MAX_CONNECTION_NUM = "maxConnectionNum";
+    private static final String COMMON_SMALL_FILE_FAST_PATH = "smallFileFastPath";
+    private static final String COMMON_SMALL_FILE_FAST_PATH_THRESHOLD =
+            "smallFileFastPathThreshold";
+    private static final String COMMON_SMALL_FILE_FAST_PATH_CONNECTION_NUM =
+            "smallFileFastPathConnectionNum";
+    private static final String COMMON_METRICS_PORT = "metricsPort";
+    private static final String COMMON_METRICS_SNAPSHOT_FILE = "metricsSnapshotFile";
+    private static final String COMMON_METRICS_SNAPSHOT_INTERVAL = "metricsSnapshotInterval";
+    private static final String COMMON_CONSOLE_OUTPUT_MODE = "consoleOutputMode";
+    private static final String COMMON_SUMMARY_INTERVAL = "summaryInterval";
+    private static final String COMMON_RESULT_JOURNAL_FILE = "resultJournalFile";
+    private static final String COMMON_ADAPTIVE_MIN_THREAD_NUM = "adaptiveMinThreadNum";
+    private static final String COMMON_ADAPTIVE_MAX_THREAD_NUM = "adaptiveMaxThreadNum";
 
     private static final String LOCAL_SECTION_NAME = "migrateLocal";
     private static final String LOCAL_LOCALPATH = "localPath";
@@ -512,6 +551,17 @@ public class ConfigParser {
             assert (entireFileMd5AttachedStr != null);
             commonConfig.setEntireFileMd5Attached(entireFileMd5AttachedStr);
 
+            String contentHashThreadNum =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_CONTENT_HASH_THREAD_NUM);
+            if (contentHashThreadNum != null && !contentHashThreadNum.isEmpty()) {
+                commonConfig.setContentHashThreadNum(contentHashThreadNum);
+            }
+
+            String verifyCrc64 = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_VERIFY_CRC64);
+            if (verifyCrc64 != null && verifyCrc64.compareToIgnoreCase("on") == 0) {
+                commonConfig.setVerifyCrc64(true);
+            }
+
             String daemonModeStr = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_DAEMON_MODE);
             assert (daemonModeStr != null);
             commonConfig.setDaemonMode(daemonModeStr);
@@ -577,11 +627,40 @@ public class ConfigParser {
                 commonConfig.setSkipSamePath(skipSamePath);
             }
 
+            String listDiff = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_LIST_DIFF);
+            if (listDiff != null && listDiff.compareToIgnoreCase("on") == 0) {
+                commonConfig.setListDiff(true);
+            }
+
+            String listDiffCompare =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_LIST_DIFF_COMPARE);
+            if (listDiffCompare != null && !listDiffCompare.isEmpty()) {
+                commonConfig.setListDiffCompare(listDiffCompare);
+            }
+
+            String listDiffExtraFile =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_LIST_DIFF_EXTRA_FILE);
+            if (listDiffExtraFile != null && !listDiffExtraFile.isEmpty()) {
+                commonConfig.setListDiffExtraFile(listDiffExtraFile);
+            }
+
             String threadTrafficLimit = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_THREAD_TRAFFIC_LIMIT);
             if (threadTrafficLimit != null && !threadTrafficLimit.isEmpty()) {
                 commonConfig.setThreadTrafficLimit(threadTrafficLimit);
             }
 
+            String globalTrafficLimit =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_GLOBAL_TRAFFIC_LIMIT);
+            if (globalTrafficLimit != null && !globalTrafficLimit.isEmpty()) {
+                commonConfig.setGlobalTrafficLimit(globalTrafficLimit);
+            }
+
+            String trafficLimitSchedule =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_TRAFFIC_LIMIT_SCHEDULE);
+            if (trafficLimitSchedule != null && !trafficLimitSchedule.isEmpty()) {
+                commonConfig.setTrafficLimitSchedule(trafficLimitSchedule);
+            }
+
             String clientEncryption = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_CLIENT_ENCRYPTION);
             if (clientEncryption != null && clientEncryption.compareToIgnoreCase("on") == 0) {
                 commonConfig.setClientEncrypt(true);
@@ -607,10 +686,184 @@ public class ConfigParser {
                 commonConfig.setCheck(true);
             }
 
+            String checkMode = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_CHECK_MODE);
+            if (checkMode != null && !checkMode.isEmpty()) {
+                commonConfig.setCheckMode(checkMode);
+            }
+
             String rocksDBMaxOpenFile = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_ROCKSDB_MAX_OPEN_FILE);
             if(rocksDBMaxOpenFile != null && !rocksDBMaxOpenFile.isEmpty()) {
                 commonConfig.setRocksDBMaxOpenFile(Integer.parseInt(rocksDBMaxOpenFile));
             }
+
+            String streamMode = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_STREAM_MODE);
+            if (streamMode != null && streamMode.compareToIgnoreCase("on") == 0) {
+                commonConfig.setStreamMode(true);
+            }
+
+            String rangeDownload = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_RANGE_DOWNLOAD);
+            if (rangeDownload != null && rangeDownload.compareToIgnoreCase("on") == 0) {
+                commonConfig.setRangeDownload(true);
+            }
+
+            String rangeDownloadThreshold =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_RANGE_DOWNLOAD_THRESHOLD);
+            if (rangeDownloadThreshold != null && !rangeDownloadThreshold.isEmpty()) {
+                commonConfig.setRangeDownloadThreshold(rangeDownloadThreshold);
+            }
+
+            String rangeDownloadMemoryLimit =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_RANGE_DOWNLOAD_MEMORY_LIMIT);
+            if (rangeDownloadMemoryLimit != null && !rangeDownloadMemoryLimit.isEmpty()) {
+                commonConfig.setRangeDownloadMemoryLimit(rangeDownloadMemoryLimit);
+            }
+
+            String dbBatchWrite = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_DB_BATCH_WRITE);
+            if (dbBatchWrite != null && dbBatchWrite.compareToIgnoreCase("on") == 0) {
+                commonConfig.setDbBatchWrite(true);
+            }
+
+            String dbBatchSize = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_DB_BATCH_SIZE);
+            if (dbBatchSize != null && !dbBatchSize.isEmpty()) {
+                commonConfig.setDbBatchSize(dbBatchSize);
+            }
+
+            String dbBatchFlushInterval =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_DB_BATCH_FLUSH_INTERVAL);
+            if (dbBatchFlushInterval != null && !dbBatchFlushInterval.isEmpty()) {
+                commonConfig.setDbBatchFlushInterval(dbBatchFlushInterval);
+            }
+
+            String dbWal = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_DB_WAL);
+            if (dbWal != null && dbWal.compareToIgnoreCase("off") == 0) {
+                commonConfig.setDbWal(false);
+            }
+
+            String dbSyncInterval = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_DB_SYNC_INTERVAL);
+            if (dbSyncInterval != null && !dbSyncInterval.isEmpty()) {
+                commonConfig.setDbSyncInterval(dbSyncInterval);
+            }
+
+            String recordSkipIndex =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_RECORD_SKIP_INDEX);
+            if (recordSkipIndex != null && recordSkipIndex.compareToIgnoreCase("on") == 0) {
+                commonConfig.setRecordSkipIndex(true);
+            }
+
+            String listThreadNum = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_LIST_THREAD_NUM);
+            if (listThreadNum != null && !listThreadNum.isEmpty()) {
+                commonConfig.setListThreadNum(listThreadNum);
+            }
+
+            String adaptiveConcurrency =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_ADAPTIVE_CONCURRENCY);
+            if (adaptiveConcurrency != null
+                    && adaptiveConcurrency.compareToIgnoreCase("on") == 0) {
+                commonConfig.setAdaptiveConcurrency(true);
+            }
+
+            String adaptiveMinThreadNum =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_ADAPTIVE_MIN_THREAD_NUM);
+            if (adaptiveMinThreadNum != null && !adaptiveMinThreadNum.isEmpty()) {
+                commonConfig.setAdaptiveMinThreadNum(adaptiveMinThreadNum);
+            }
+
+            String adaptiveMaxThreadNum =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_ADAPTIVE_MAX_THREAD_NUM);
+            if (adaptiveMaxThreadNum != null && !adaptiveMaxThreadNum.isEmpty()) {
+                commonConfig.setAdaptiveMaxThreadNum(adaptiveMaxThreadNum);
+            }
+
+            if (commonConfig.getAdaptiveMinThreadNum() > commonConfig.getAdaptiveMaxThreadNum()) {
+                throw new IllegalArgumentException(
+                        "adaptiveMinThreadNum should not be greater than adaptiveMaxThreadNum");
+            }
+
+            String inflightBytesLimit =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_INFLIGHT_BYTES_LIMIT);
+            if (inflightBytesLimit != null && !inflightBytesLimit.isEmpty()) {
+                commonConfig.setInflightBytesLimit(inflightBytesLimit);
+            }
+
+            String taskQueueSize = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_TASK_QUEUE_SIZE);
+            if (taskQueueSize != null && !taskQueueSize.isEmpty()) {
+                commonConfig.setTaskQueueSize(taskQueueSize);
+            }
+
+            String tempDiskLimit = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_TEMP_DISK_LIMIT);
+            if (tempDiskLimit != null && !tempDiskLimit.isEmpty()) {
+                commonConfig.setTempDiskLimit(tempDiskLimit);
+            }
+
+            String tempDiskReserved = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_TEMP_DISK_RESERVED);
+            if (tempDiskReserved != null && !tempDiskReserved.isEmpty()) {
+                commonConfig.setTempDiskReserved(tempDiskReserved);
+            }
+
+            String bufferMemoryLimit = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_BUFFER_MEMORY_LIMIT);
+            if (bufferMemoryLimit != null && !bufferMemoryLimit.isEmpty()) {
+                commonConfig.setBufferMemoryLimit(bufferMemoryLimit);
+            }
+
+            String maxConnectionNum = getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_MAX_CONNECTION_NUM);
+            if (maxConnectionNum != null && !maxConnectionNum.isEmpty()) {
+                commonConfig.setMaxConnectionNum(maxConnectionNum);
+            }
+
+            String smallFileFastPath =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_SMALL_FILE_FAST_PATH);
+            if (smallFileFastPath != null && smallFileFastPath.compareToIgnoreCase("on") == 0) {
+                commonConfig.setSmallFileFastPath(true);
+            }
+
+            String smallFileFastPathThreshold = getConfigValue(prefs, COMMON_SECTION_NAME,
+                    COMMON_SMALL_FILE_FAST_PATH_THRESHOLD);
+            if (smallFileFastPathThreshold != null && !smallFileFastPathThreshold.isEmpty()) {
+                commonConfig.setSmallFileFastPathThreshold(smallFileFastPathThreshold);
+            }
+
+            String smallFileFastPathConnectionNum = getConfigValue(prefs, COMMON_SECTION_NAME,
+                    COMMON_SMALL_FILE_FAST_PATH_CONNECTION_NUM);
+            if (smallFileFastPathConnectionNum != null
+                    && !smallFileFastPathConnectionNum.isEmpty()) {
+                commonConfig.setSmallFileFastPathConnectionNum(smallFileFastPathConnectionNum);
+            }
+
+            String metricsPort =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_METRICS_PORT);
+            if (metricsPort != null && !metricsPort.isEmpty()) {
+                commonConfig.setMetricsPort(metricsPort);
+            }
+
+            String metricsSnapshotFile =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_METRICS_SNAPSHOT_FILE);
+            if (metricsSnapshotFile != null) {
+                commonConfig.setMetricsSnapshotFile(metricsSnapshotFile);
+            }
+
+            String metricsSnapshotInterval =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_METRICS_SNAPSHOT_INTERVAL);
+            if (metricsSnapshotInterval != null && !metricsSnapshotInterval.isEmpty()) {
+                commonConfig.setMetricsSnapshotInterval(metricsSnapshotInterval);
+            }
+
+            String consoleOutputMode =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_CONSOLE_OUTPUT_MODE);
+            if (consoleOutputMode != null && !consoleOutputMode.isEmpty()) {
+                commonConfig.setConsoleOutputMode(consoleOutputMode);
+            }
+
+            String summaryInterval =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_SUMMARY_INTERVAL);
+            if (summaryInterval != null && !summaryInterval.isEmpty()) {
+                commonConfig.setSummaryInterval(summaryInterval);
+            }
+
+            String resultJournalFile =
+                    getConfigValue(prefs, COMMON_SECTION_NAME, COMMON_RESULT_JOURNAL_FILE);
+            if (resultJournalFile != null) {
+                commonConfig.setResultJournalFile(resultJournalFile);
+            }
         } catch (Exception e) {
             System.err.println(e.getMessage());
             log.error(e.getMessage());
@@ -38,6 +38,13 @@ public class CopyFromLocalConfig extends CommonConfig {
     }
     
     public String needToMigrate(Path file, String localPath) {
+        return needToMigrate(file, localPath, -1);
+    }
+
+    /**
+     * @param fileSize 扫描时已经读取的文件大小, 小于0时按需读取
+     */
+    public String needToMigrate(Path file, String localPath, long fileSize) {
         if (isExcludes(localPath)) {
             return "excludes";
         }
@@ -49,8 +56,10 @@ public class CopyFromLocalConfig extends CommonConfig {
         }
         
         if (ignoreEmptyFile) {
-            File localFile = new File(file.toString());
-            if (localFile.length() == 0) {
+            if (fileSize < 0) {
+                fileSize = new File(file.toString()).length();
+            }
+            if (fileSize == 0) {
                 return "empty file";
             }
         }
@@ -0,0 +1,34 @@
+package com.qcloud.cos_migrate_tool.config;
+
+/**
+ * 一个时间段内的全局限速, 时间段为[begin, end), 单位为当天的分钟数, begin大于end时表示跨过零点
+ */
+public class TrafficLimitRule {
+    private final int beginMinute;
+    private final int endMinute;
+    // bit/s, 0表示不限速
+    private final long trafficLimit;
+
+    public TrafficLimitRule(int beginMinute, int endMinute, long trafficLimit) {
+        this.beginMinute = beginMinute;
+        this.endMinute = endMinute;
+        this.trafficLimit = trafficLimit;
+    }
+
+    public boolean contains(int minuteOfDay) {
+        if (beginMinute <= endMinute) {
+            return minuteOfDay >= beginMinute && minuteOfDay < endMinute;
+        }
+        return minuteOfDay >= beginMinute || minuteOfDay < endMinute;
+    }
+
+    public long getTrafficLimit() {
+        return trafficLimit;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%02d:%02d,%02d:%02d,%d", beginMinute / 60, beginMinute % 60,
+                endMinute / 60, endMinute % 60, trafficLimit);
+    }
+}
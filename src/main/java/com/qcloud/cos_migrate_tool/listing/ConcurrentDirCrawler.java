@@ -0,0 +1,141 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos_migrate_tool.record.DirJournal;
+
+/**
+ * 多线程按目录遍历. 每个目录是ForkJoinPool中的一个任务, 发现的子目录提交到当前线程的队列, 空闲线程从其他线程的队列窃取目录.
+ * 每list完一页, 先把子目录和下一页的iter追加到DirJournal, 再处理子目录, 中断后可以从日志恢复.
+ */
+public class ConcurrentDirCrawler {
+    private static final Logger log = LoggerFactory.getLogger(ConcurrentDirCrawler.class);
+
+    private static final int MAX_RETRY_NUM = 20;
+
+    private final DirLister dirLister;
+    private final DirJournal dirJournal;
+    private final int threadNum;
+    private final AtomicInteger pendingDirNum = new AtomicInteger(0);
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private final CountDownLatch finishLatch = new CountDownLatch(1);
+    private ListedObjectHandler handler;
+
+    public ConcurrentDirCrawler(DirLister dirLister, DirJournal dirJournal, int threadNum) {
+        this.dirLister = dirLister;
+        this.dirJournal = dirJournal;
+        this.threadNum = threadNum;
+    }
+
+    /**
+     * 遍历目录, 每个文件交给handler处理
+     *
+     * @param pendingDirs 待遍历的目录 -> 开始的iter, 需要已经写入DirJournal
+     * @return 所有目录都遍历完成时返回true
+     */
+    public boolean crawl(Map<String, String> pendingDirs, ListedObjectHandler handler)
+            throws InterruptedException {
+        if (pendingDirs.isEmpty()) {
+            return true;
+        }
+        this.handler = handler;
+        final AtomicInteger threadIndex = new AtomicInteger(0);
+        ForkJoinPool crawlPool =
+                new ForkJoinPool(threadNum, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread =
+                                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("dir-crawler-worker-" + threadIndex.incrementAndGet());
+                        return thread;
+                    }
+                }, null, true);
+
+        pendingDirNum.set(pendingDirs.size());
+        for (Map.Entry<String, String> entry : pendingDirs.entrySet()) {
+            crawlPool.execute(new DirAction(entry.getKey(), entry.getValue()));
+        }
+        try {
+            finishLatch.await();
+        } catch (InterruptedException e) {
+            crawlPool.shutdownNow();
+            throw e;
+        }
+        crawlPool.shutdown();
+        return !failed.get();
+    }
+
+    private class DirAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String dir;
+        private final String iter;
+
+        DirAction(String dir, String iter) {
+            this.dir = dir;
+            this.iter = iter;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                crawlDir(dir, iter);
+                dirJournal.markDone(dir);
+            } catch (InterruptedException e) {
+                log.error("crawl dir is interrupted, dir: {}", dir);
+                failed.set(true);
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("crawl dir fail, dir: {}, exception: {}", dir, e.toString());
+                failed.set(true);
+            } finally {
+                if (pendingDirNum.decrementAndGet() == 0) {
+                    finishLatch.countDown();
+                }
+            }
+        }
+    }
+
+    private void crawlDir(String dir, String iter) throws Exception {
+        while (true) {
+            DirListingPage page = listDirWithRetry(dir, iter);
+            for (ListedObject listedObject : page.getFiles()) {
+                handler.handle(listedObject);
+            }
+            dirJournal.savePage(dir, page.getSubDirs(), page.getNextIter());
+            for (String subDir : page.getSubDirs()) {
+                pendingDirNum.incrementAndGet();
+                new DirAction(subDir, "").fork();
+            }
+            if (page.isFinished()) {
+                return;
+            }
+            iter = page.getNextIter();
+        }
+    }
+
+    private DirListingPage listDirWithRetry(String dir, String iter) throws Exception {
+        int retryNum = 0;
+        while (true) {
+            try {
+                return dirLister.listDir(dir, iter);
+            } catch (Exception e) {
+                ++retryNum;
+                if (retryNum >= MAX_RETRY_NUM) {
+                    throw e;
+                }
+                log.warn("list dir fail, dir: {}, iter: {}, retry: {}, exception: {}", dir, iter,
+                        retryNum, e.toString());
+                Thread.sleep(Math.min(1000L * retryNum, 10000L));
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+/**
+ * 按目录分页list, 用于不支持按前缀list全部对象的源站. 会被多个线程同时调用
+ */
+public interface DirLister {
+    /**
+     * @param iter 上一页返回的iter, 第一页为空字符串
+     */
+    DirListingPage listDir(String dir, String iter) throws Exception;
+}
@@ -0,0 +1,39 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.List;
+
+/**
+ * 按目录list时一页的结果
+ */
+public class DirListingPage {
+    private final List<ListedObject> files;
+    private final List<String> subDirs;
+    private final String nextIter;
+    private final boolean finished;
+
+    public DirListingPage(List<ListedObject> files, List<String> subDirs, String nextIter,
+            boolean finished) {
+        this.files = files;
+        this.subDirs = subDirs;
+        this.nextIter = nextIter;
+        this.finished = finished;
+    }
+
+    public List<ListedObject> getFiles() {
+        return files;
+    }
+
+    // 子目录的完整路径, 以'/'结尾
+    public List<String> getSubDirs() {
+        return subDirs;
+    }
+
+    public String getNextIter() {
+        return nextIter;
+    }
+
+    // 该目录已经list完
+    public boolean isFinished() {
+        return finished;
+    }
+}
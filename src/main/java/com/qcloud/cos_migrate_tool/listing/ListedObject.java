@@ -0,0 +1,54 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.Date;
+
+/**
+ * list源bucket得到的对象信息, 与具体的sdk无关
+ */
+public class ListedObject {
+    private final String key;
+    private final long size;
+    private final String etag;
+    private final Date lastModified;
+    private final String storageClass;
+    private final String contentType;
+
+    public ListedObject(String key, long size, String etag, Date lastModified,
+            String storageClass) {
+        this(key, size, etag, lastModified, storageClass, null);
+    }
+
+    public ListedObject(String key, long size, String etag, Date lastModified,
+            String storageClass, String contentType) {
+        this.key = key;
+        this.size = size;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.storageClass = storageClass;
+        this.contentType = contentType;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public String getStorageClass() {
+        return storageClass;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,8 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+/**
+ * 处理list出的对象, 一般是生成迁移任务. 多个分区并发list时会被多个线程同时调用
+ */
+public interface ListedObjectHandler {
+    void handle(ListedObject listedObject) throws InterruptedException;
+}
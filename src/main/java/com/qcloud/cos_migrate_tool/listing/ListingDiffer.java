@@ -0,0 +1,186 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.io.IOException;
+import java.util.Set;
+
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按key的顺序分别list源和目标, 归并比较两边的结果, 不需要逐个head目标对象.
+ * 目标key由源key去掉srcStripPrefix后加上destKeyPrefix得到, 两边的顺序一致, 只需要各自向前移动.
+ * 两边各自由后台线程预取若干页, 内存占用与对象数无关.
+ */
+public class ListingDiffer {
+    private static final Logger log = LoggerFactory.getLogger(ListingDiffer.class);
+
+    public static final String COMPARE_SIZE = "size";
+    public static final String COMPARE_ETAG = "etag";
+    public static final String COMPARE_MTIME = "mtime";
+
+    public interface DiffHandler {
+        /**
+         * 目标不存在或者与源不一致
+         *
+         * @param destObject 目标不存在时为null
+         * @param reason 不一致的原因, 目标不存在时为new
+         */
+        void onChanged(ListedObject srcObject, ListedObject destObject, String reason)
+                throws InterruptedException;
+
+        void onSame(ListedObject srcObject, ListedObject destObject);
+
+        // 目标存在但源不存在
+        void onExtra(ListedObject destObject) throws IOException;
+    }
+
+    private final ObjectLister srcLister;
+    private final String srcListPrefix;
+    private final String srcStripPrefix;
+    private final ObjectLister destLister;
+    private final String destKeyPrefix;
+    private final boolean compareSize;
+    private final boolean compareEtag;
+    private final boolean compareMtime;
+
+    private long srcNum = 0;
+    private long destNum = 0;
+    private long newNum = 0;
+    private long changedNum = 0;
+    private long sameNum = 0;
+    private long extraNum = 0;
+
+    /**
+     * @param srcListPrefix list源时的前缀
+     * @param srcStripPrefix 源key中去掉的前缀, 必须是srcListPrefix的前缀
+     * @param destKeyPrefix 目标key的前缀, 不以/开头
+     * @param compareRules size, etag, mtime中的一个或多个, 任一项不一致即认为对象变化
+     */
+    public ListingDiffer(ObjectLister srcLister, String srcListPrefix, String srcStripPrefix,
+            ObjectLister destLister, String destKeyPrefix, Set<String> compareRules) {
+        if (!srcListPrefix.startsWith(srcStripPrefix)) {
+            throw new IllegalArgumentException("strip prefix " + srcStripPrefix
+                    + " is not a prefix of list prefix " + srcListPrefix);
+        }
+        this.srcLister = srcLister;
+        this.srcListPrefix = srcListPrefix;
+        this.srcStripPrefix = srcStripPrefix;
+        this.destLister = destLister;
+        this.destKeyPrefix = destKeyPrefix;
+        this.compareSize = compareRules.contains(COMPARE_SIZE);
+        this.compareEtag = compareRules.contains(COMPARE_ETAG);
+        this.compareMtime = compareRules.contains(COMPARE_MTIME);
+    }
+
+    public String toDestKey(String srcKey) {
+        return destKeyPrefix + srcKey.substring(srcStripPrefix.length());
+    }
+
+    /**
+     * @throws Exception 任一边重试多次后list仍失败, 或者handler抛出异常
+     */
+    public void diff(DiffHandler handler) throws Exception {
+        String destListPrefix = toDestKey(srcListPrefix);
+        log.info("list diff start, src prefix: {}, dest prefix: {}", srcListPrefix,
+                destListPrefix);
+        SortedObjectCursor srcCursor = new SortedObjectCursor(srcLister, srcListPrefix);
+        SortedObjectCursor destCursor = new SortedObjectCursor(destLister, destListPrefix);
+        srcCursor.start();
+        destCursor.start();
+        try {
+            ListedObject srcObject;
+            while ((srcObject = srcCursor.next()) != null) {
+                String destKey = toDestKey(srcObject.getKey());
+                ListedObject destObject;
+                while ((destObject = destCursor.peek()) != null
+                        && PathUtils.compareUtf8(destObject.getKey(), destKey) < 0) {
+                    destCursor.next();
+                    ++extraNum;
+                    handler.onExtra(destObject);
+                }
+                if (destObject != null && destObject.getKey().equals(destKey)) {
+                    destCursor.next();
+                } else {
+                    destObject = null;
+                }
+
+                String reason = destObject == null ? "new" : compare(srcObject, destObject);
+                if (reason == null) {
+                    ++sameNum;
+                    handler.onSame(srcObject, destObject);
+                } else {
+                    if (destObject == null) {
+                        ++newNum;
+                    } else {
+                        ++changedNum;
+                    }
+                    handler.onChanged(srcObject, destObject, reason);
+                }
+            }
+            ListedObject destObject;
+            while ((destObject = destCursor.next()) != null) {
+                ++extraNum;
+                handler.onExtra(destObject);
+            }
+        } finally {
+            srcNum = srcCursor.getListedNum();
+            destNum = destCursor.getListedNum();
+            srcCursor.close();
+            destCursor.close();
+        }
+    }
+
+    // 返回不一致的原因, 一致时返回null
+    private String compare(ListedObject srcObject, ListedObject destObject) {
+        if (compareSize && srcObject.getSize() != destObject.getSize()) {
+            return COMPARE_SIZE;
+        }
+        if (compareEtag) {
+            // 分块上传的etag与分块大小有关, 不同系统之间没有可比性, 只比较两边都是md5的etag
+            String srcEtag = normalizeEtag(srcObject.getEtag());
+            String destEtag = normalizeEtag(destObject.getEtag());
+            if (isMd5Etag(srcEtag) && isMd5Etag(destEtag) && !srcEtag.equals(destEtag)) {
+                return COMPARE_ETAG;
+            }
+        }
+        // 与realTimeCompare一致, 目标的修改时间不晚于源时认为源在迁移后又有更新
+        if (compareMtime && srcObject.getLastModified() != null
+                && destObject.getLastModified() != null
+                && !destObject.getLastModified().after(srcObject.getLastModified())) {
+            return COMPARE_MTIME;
+        }
+        return null;
+    }
+
+    private static String normalizeEtag(String etag) {
+        if (etag == null) {
+            return "";
+        }
+        etag = etag.trim();
+        if (etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+            etag = etag.substring(1, etag.length() - 1);
+        }
+        return etag.toLowerCase();
+    }
+
+    private static boolean isMd5Etag(String etag) {
+        if (etag.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < etag.length(); ++i) {
+            char c = etag.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getSummary() {
+        return String.format(
+                "src: %d, dest: %d, new: %d, changed: %d, same: %d, extra: %d", srcNum,
+                destNum, newNum, changedNum, sameNum, extraNum);
+    }
+}
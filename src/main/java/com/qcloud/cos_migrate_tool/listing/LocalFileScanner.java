@@ -0,0 +1,174 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 多线程扫描本地目录, 替代单线程的Files.walkFileTree.
+ * 每个目录是ForkJoinPool中的一个任务, 目录下的每一项只读取一次BasicFileAttributes(跟随软链接), 交给visitor使用.
+ * 目录读完并关闭后才提交子目录, 同时打开的目录句柄数不超过线程数.
+ * 与walkFileTree(FOLLOW_LINKS)一致, 只有目录与其祖先目录的fileKey相同(软链接造成的循环)时才跳过,
+ * 通过多个软链接访问到的同一目录会在每个路径下各扫描一次.
+ */
+public class LocalFileScanner {
+    private static final Logger log = LoggerFactory.getLogger(LocalFileScanner.class);
+
+    private final Path rootDir;
+    private final int threadNum;
+    private final AtomicInteger pendingDirNum = new AtomicInteger(0);
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private final CountDownLatch finishLatch = new CountDownLatch(1);
+    private LocalFileVisitor visitor;
+
+    public LocalFileScanner(Path rootDir, int threadNum) {
+        this.rootDir = rootDir;
+        this.threadNum = threadNum;
+    }
+
+    /**
+     * 扫描rootDir下的全部文件
+     *
+     * @return 所有目录都扫描成功时返回true
+     */
+    public boolean scan(LocalFileVisitor visitor) throws InterruptedException {
+        this.visitor = visitor;
+        BasicFileAttributes rootAttrs;
+        try {
+            rootAttrs = Files.readAttributes(rootDir, BasicFileAttributes.class);
+        } catch (IOException e) {
+            log.error("read root dir attributes fail, dir: {}, exception: {}", rootDir,
+                    e.toString());
+            return false;
+        }
+        if (!rootAttrs.isDirectory()) {
+            visitor.visitFile(rootDir, rootAttrs);
+            return true;
+        }
+        if (!visitor.preVisitDirectory(rootDir, rootAttrs)) {
+            return true;
+        }
+
+        final AtomicInteger threadIndex = new AtomicInteger(0);
+        ForkJoinPool scanPool =
+                new ForkJoinPool(threadNum, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread =
+                                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("local-scanner-worker-" + threadIndex.incrementAndGet());
+                        return thread;
+                    }
+                }, null, true);
+
+        pendingDirNum.set(1);
+        scanPool.execute(new DirAction(rootDir, new DirKeyChain(rootAttrs.fileKey(), null)));
+        try {
+            finishLatch.await();
+        } catch (InterruptedException e) {
+            scanPool.shutdownNow();
+            throw e;
+        }
+        scanPool.shutdown();
+        return !failed.get();
+    }
+
+    // 从根目录到当前目录路径上各个目录的fileKey
+    private static class DirKeyChain {
+        private final Object fileKey;
+        private final DirKeyChain parent;
+
+        DirKeyChain(Object fileKey, DirKeyChain parent) {
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+
+        boolean contains(Object key) {
+            for (DirKeyChain chain = this; chain != null; chain = chain.parent) {
+                if (key.equals(chain.fileKey)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private class DirAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final DirKeyChain ancestors;
+
+        DirAction(Path dir, DirKeyChain ancestors) {
+            this.dir = dir;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                for (DirAction subDirAction : scanDir(dir, ancestors)) {
+                    pendingDirNum.incrementAndGet();
+                    subDirAction.fork();
+                }
+            } catch (InterruptedException e) {
+                log.error("scan dir is interrupted, dir: {}", dir);
+                failed.set(true);
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("scan dir fail, dir: {}, exception: {}", dir, e.toString());
+                failed.set(true);
+            } finally {
+                if (pendingDirNum.decrementAndGet() == 0) {
+                    finishLatch.countDown();
+                }
+            }
+        }
+    }
+
+    // 处理目录下的文件, 返回需要继续扫描的子目录
+    private List<DirAction> scanDir(Path dir, DirKeyChain ancestors)
+            throws IOException, InterruptedException {
+        List<DirAction> subDirActions = new ArrayList<DirAction>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // 例如指向不存在文件的软链接, 记录失败后继续扫描同目录的其他文件
+                    log.error("read file attributes fail, file: {}, exception: {}", entry,
+                            e.toString());
+                    failed.set(true);
+                    continue;
+                }
+                if (!attrs.isDirectory()) {
+                    visitor.visitFile(entry, attrs);
+                    continue;
+                }
+                Object fileKey = attrs.fileKey();
+                if (fileKey != null && ancestors.contains(fileKey)) {
+                    log.warn("skip the folder which is an ancestor of itself, symbolic link loop: {}",
+                            entry);
+                    continue;
+                }
+                if (visitor.preVisitDirectory(entry, attrs)) {
+                    subDirActions.add(new DirAction(entry, new DirKeyChain(fileKey, ancestors)));
+                }
+            }
+        }
+        return subDirActions;
+    }
+}
@@ -0,0 +1,17 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * 处理扫描到的本地目录和文件, 会被多个扫描线程同时调用
+ */
+public interface LocalFileVisitor {
+    /**
+     * @return 返回false时跳过该目录及其子目录
+     */
+    boolean preVisitDirectory(Path dir, BasicFileAttributes attrs);
+
+    // attrs为扫描时读取的属性, 不需要再次stat文件
+    void visitFile(Path file, BasicFileAttributes attrs) throws InterruptedException;
+}
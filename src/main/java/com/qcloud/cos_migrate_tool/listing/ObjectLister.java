@@ -0,0 +1,13 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+/**
+ * 按marker分页list源bucket, 各个源站的sdk分别实现
+ */
+public interface ObjectLister {
+    /**
+     * @param delimiter 为null时list前缀下的全部对象
+     * @return 返回的key, commonPrefix以及nextMarker都是解码后的原始值
+     */
+    ObjectListingPage listPage(String prefix, String delimiter, String marker, int maxKeys)
+            throws Exception;
+}
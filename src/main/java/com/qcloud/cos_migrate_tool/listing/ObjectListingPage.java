@@ -0,0 +1,37 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.List;
+
+/**
+ * 一次list请求的结果
+ */
+public class ObjectListingPage {
+    private final List<ListedObject> objects;
+    private final List<String> commonPrefixes;
+    private final String nextMarker;
+    private final boolean truncated;
+
+    public ObjectListingPage(List<ListedObject> objects, List<String> commonPrefixes,
+            String nextMarker, boolean truncated) {
+        this.objects = objects;
+        this.commonPrefixes = commonPrefixes;
+        this.nextMarker = nextMarker;
+        this.truncated = truncated;
+    }
+
+    public List<ListedObject> getObjects() {
+        return objects;
+    }
+
+    public List<String> getCommonPrefixes() {
+        return commonPrefixes;
+    }
+
+    public String getNextMarker() {
+        return nextMarker;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
@@ -0,0 +1,57 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.qcloud.cos.utils.UrlEncoderUtils;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
+
+/**
+ * 使用阿里云oss sdk list, 返回结果使用url编码避免key中的特殊字符解析失败
+ */
+public class OssObjectLister implements ObjectLister {
+    private final OSSClient ossClient;
+    private final String bucketName;
+
+    public OssObjectLister(OSSClient ossClient, String bucketName) {
+        this.ossClient = ossClient;
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    public ObjectListingPage listPage(String prefix, String delimiter, String marker,
+            int maxKeys) throws Exception {
+        ListObjectsRequest listObjectsRequest = new ListObjectsRequest(bucketName)
+                .withPrefix(prefix).withMarker(marker).withMaxKeys(maxKeys)
+                .withEncodingType("url");
+        if (delimiter != null) {
+            listObjectsRequest.withDelimiter(delimiter);
+        }
+        long startNanos = System.nanoTime();
+        ObjectListing objectListing = ossClient.listObjects(listObjectsRequest);
+        MigrateMetrics.instance.recordLatency(Operation.LIST, startNanos);
+        List<ListedObject> objects =
+                new ArrayList<ListedObject>(objectListing.getObjectSummaries().size());
+        for (OSSObjectSummary objectSummary : objectListing.getObjectSummaries()) {
+            objects.add(new ListedObject(UrlEncoderUtils.urlDecode(objectSummary.getKey()),
+                    objectSummary.getSize(), objectSummary.getETag(),
+                    objectSummary.getLastModified(), objectSummary.getStorageClass()));
+        }
+        List<String> commonPrefixes =
+                new ArrayList<String>(objectListing.getCommonPrefixes().size());
+        for (String commonPrefix : objectListing.getCommonPrefixes()) {
+            commonPrefixes.add(UrlEncoderUtils.urlDecode(commonPrefix));
+        }
+        String nextMarker = objectListing.getNextMarker();
+        if (nextMarker != null) {
+            nextMarker = UrlEncoderUtils.urlDecode(nextMarker);
+        }
+        return new ObjectListingPage(objects, commonPrefixes, nextMarker,
+                objectListing.isTruncated());
+    }
+}
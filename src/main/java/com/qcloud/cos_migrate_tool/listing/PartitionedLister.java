@@ -0,0 +1,237 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos_migrate_tool.record.RecordDb;
+
+/**
+ * 把源bucket按目录拆分成多个分区并发list.
+ * 先用delimiter逐层发现目录, 每个展开过的目录生成一个只list本层文件的分区, 未展开的目录生成一个list全部文件的分区.
+ * 每个分区的marker单独记录在RecordDb中, 中断后重新运行时已完成的分区不再list, 未完成的分区从记录的marker继续.
+ */
+public class PartitionedLister {
+    private static final Logger log = LoggerFactory.getLogger(PartitionedLister.class);
+
+    private static final int MAX_KEYS = 1000;
+    private static final String DELIMITER = "/";
+    // 最多展开的目录层数
+    private static final int MAX_DISCOVER_DEPTH = 3;
+    // 每个线程平均分到的分区数达到该值后不再展开
+    private static final int PARTITIONS_PER_THREAD = 4;
+    private static final int MAX_RETRY_NUM = 20;
+
+    // 分区id的前缀, 分别表示只list该目录下一层的文件, list该目录下的全部文件
+    private static final String FILES_ONLY = "files:";
+    private static final String ALL_FILES = "all:";
+    // 分区进度, 未开始为空字符串
+    private static final String STATE_RUNNING = "running:";
+    private static final String STATE_FINISHED = "finished";
+
+    private final ObjectLister objectLister;
+    private final RecordDb recordDb;
+    private final String rootPrefix;
+    private final int threadNum;
+
+    public PartitionedLister(ObjectLister objectLister, RecordDb recordDb, String rootPrefix,
+            int threadNum) {
+        this.objectLister = objectLister;
+        this.recordDb = recordDb;
+        this.rootPrefix = rootPrefix == null ? "" : rootPrefix;
+        this.threadNum = threadNum;
+    }
+
+    /**
+     * list全部分区, 每个对象交给handler处理
+     *
+     * @return 所有分区都list完成时返回true
+     */
+    public boolean list(boolean resume, final ListedObjectHandler handler)
+            throws InterruptedException {
+        Map<String, String> partitions;
+        try {
+            partitions = loadPartitions(resume);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("discover list partitions fail, root: {}, exception: {}", rootPrefix,
+                    e.toString());
+            return false;
+        }
+
+        final ConcurrentLinkedQueue<Map.Entry<String, String>> pendingPartitions =
+                new ConcurrentLinkedQueue<Map.Entry<String, String>>();
+        for (Map.Entry<String, String> partition : partitions.entrySet()) {
+            if (!partition.getValue().equals(STATE_FINISHED)) {
+                pendingPartitions.add(partition);
+            }
+        }
+        String printMsg = String.format("list partitions: %d, pending: %d, thread num: %d",
+                partitions.size(), pendingPartitions.size(), threadNum);
+        System.out.println(printMsg);
+        log.info(printMsg);
+
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicInteger threadIndex = new AtomicInteger(0);
+        ExecutorService listPool = Executors.newFixedThreadPool(threadNum, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread =
+                        new Thread(r, "list-partition-worker-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < threadNum; ++i) {
+            listPool.submit(new Runnable() {
+                public void run() {
+                    Map.Entry<String, String> partition;
+                    while ((partition = pendingPartitions.poll()) != null) {
+                        try {
+                            listPartition(partition.getKey(), partition.getValue(), handler);
+                        } catch (InterruptedException e) {
+                            log.error("list partition is interrupted, partition: {}",
+                                    partition.getKey());
+                            failed.set(true);
+                            return;
+                        } catch (Exception e) {
+                            log.error("list partition fail, partition: {}, exception: {}",
+                                    partition.getKey(), e.toString());
+                            failed.set(true);
+                        }
+                    }
+                }
+            });
+        }
+        listPool.shutdown();
+        try {
+            while (!listPool.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("waiting for list partitions, pending: {}", pendingPartitions.size());
+            }
+        } catch (InterruptedException e) {
+            listPool.shutdownNow();
+            throw e;
+        }
+
+        if (failed.get()) {
+            return false;
+        }
+        // 本轮list完成, 下次运行重新发现分区
+        recordDb.deleteListPartitions(rootPrefix);
+        return true;
+    }
+
+    private Map<String, String> loadPartitions(boolean resume) throws Exception {
+        if (resume && recordDb.isListPartitionPlanReady(rootPrefix)) {
+            Map<String, String> partitions = recordDb.queryListPartitions(rootPrefix);
+            if (!partitions.isEmpty()) {
+                return partitions;
+            }
+        }
+        recordDb.deleteListPartitions(rootPrefix);
+        for (String partitionId : discoverPartitions()) {
+            recordDb.saveListPartition(rootPrefix, partitionId, "");
+        }
+        recordDb.saveListPartitionPlanReady(rootPrefix);
+        return recordDb.queryListPartitions(rootPrefix);
+    }
+
+    private List<String> discoverPartitions() throws Exception {
+        List<String> partitionIds = new ArrayList<String>();
+        List<String> frontier = new ArrayList<String>();
+        frontier.add(rootPrefix);
+        for (int depth = 0; depth < MAX_DISCOVER_DEPTH; ++depth) {
+            if (partitionIds.size() + frontier.size() >= threadNum * PARTITIONS_PER_THREAD) {
+                break;
+            }
+            List<String> nextFrontier = new ArrayList<String>();
+            for (String prefix : frontier) {
+                partitionIds.add(FILES_ONLY + prefix);
+                nextFrontier.addAll(listCommonPrefixes(prefix));
+            }
+            frontier = nextFrontier;
+            if (frontier.isEmpty()) {
+                break;
+            }
+        }
+        for (String prefix : frontier) {
+            partitionIds.add(ALL_FILES + prefix);
+        }
+        return partitionIds;
+    }
+
+    private List<String> listCommonPrefixes(String prefix) throws Exception {
+        List<String> commonPrefixes = new ArrayList<String>();
+        String marker = "";
+        ObjectListingPage page;
+        do {
+            page = listPageWithRetry(prefix, DELIMITER, marker);
+            commonPrefixes.addAll(page.getCommonPrefixes());
+            marker = page.getNextMarker();
+        } while (page.isTruncated() && marker != null);
+        return commonPrefixes;
+    }
+
+    private void listPartition(String partitionId, String state, ListedObjectHandler handler)
+            throws Exception {
+        String prefix;
+        String delimiter;
+        if (partitionId.startsWith(FILES_ONLY)) {
+            prefix = partitionId.substring(FILES_ONLY.length());
+            delimiter = DELIMITER;
+        } else {
+            prefix = partitionId.substring(ALL_FILES.length());
+            delimiter = null;
+        }
+        String marker = "";
+        if (state.startsWith(STATE_RUNNING)) {
+            marker = state.substring(STATE_RUNNING.length());
+        }
+        log.info("list partition start, partition: {}, marker: {}", partitionId, marker);
+
+        long objectNum = 0;
+        ObjectListingPage page;
+        do {
+            page = listPageWithRetry(prefix, delimiter, marker);
+            for (ListedObject listedObject : page.getObjects()) {
+                handler.handle(listedObject);
+            }
+            objectNum += page.getObjects().size();
+            marker = page.getNextMarker();
+            if (page.isTruncated() && marker != null) {
+                recordDb.saveListPartition(rootPrefix, partitionId, STATE_RUNNING + marker);
+            }
+        } while (page.isTruncated() && marker != null);
+
+        recordDb.saveListPartition(rootPrefix, partitionId, STATE_FINISHED);
+        log.info("list partition finish, partition: {}, object num: {}", partitionId, objectNum);
+    }
+
+    private ObjectListingPage listPageWithRetry(String prefix, String delimiter, String marker)
+            throws Exception {
+        int retryNum = 0;
+        while (true) {
+            try {
+                return objectLister.listPage(prefix, delimiter, marker, MAX_KEYS);
+            } catch (Exception e) {
+                ++retryNum;
+                if (retryNum >= MAX_RETRY_NUM) {
+                    throw e;
+                }
+                log.warn("list fail, prefix: {}, marker: {}, retry: {}, exception: {}", prefix,
+                        marker, retryNum, e.toString());
+                Thread.sleep(Math.min(1000L * retryNum, 10000L));
+            }
+        }
+    }
+}
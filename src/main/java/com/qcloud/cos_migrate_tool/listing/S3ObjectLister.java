@@ -0,0 +1,62 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
+
+/**
+ * 使用aws sdk list, 用于从AWS迁移以及COS bucket之间的复制
+ */
+public class S3ObjectLister implements ObjectLister {
+    private final AmazonS3 s3Client;
+    private final String bucketName;
+
+    public S3ObjectLister(AmazonS3 s3Client, String bucketName) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    public ObjectListingPage listPage(String prefix, String delimiter, String marker,
+            int maxKeys) throws Exception {
+        ListObjectsRequest listObjectsRequest =
+                new ListObjectsRequest(bucketName, prefix, marker, delimiter, maxKeys);
+        long startNanos = System.nanoTime();
+        ObjectListing objectListing = s3Client.listObjects(listObjectsRequest);
+        MigrateMetrics.instance.recordLatency(Operation.LIST, startNanos);
+        List<ListedObject> objects =
+                new ArrayList<ListedObject>(objectListing.getObjectSummaries().size());
+        for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
+            objects.add(new ListedObject(objectSummary.getKey(), objectSummary.getSize(),
+                    objectSummary.getETag(), objectSummary.getLastModified(),
+                    objectSummary.getStorageClass()));
+        }
+        String nextMarker = objectListing.getNextMarker();
+        // 不带delimiter时AWS S3不返回NextMarker, 使用最后一个key
+        if (nextMarker == null && objectListing.isTruncated()) {
+            nextMarker = lastMarker(objects, objectListing.getCommonPrefixes());
+        }
+        return new ObjectListingPage(objects, objectListing.getCommonPrefixes(), nextMarker,
+                objectListing.isTruncated());
+    }
+
+    static String lastMarker(List<ListedObject> objects, List<String> commonPrefixes) {
+        String marker = null;
+        if (!objects.isEmpty()) {
+            marker = objects.get(objects.size() - 1).getKey();
+        }
+        if (!commonPrefixes.isEmpty()) {
+            String lastPrefix = commonPrefixes.get(commonPrefixes.size() - 1);
+            if (marker == null || lastPrefix.compareTo(marker) > 0) {
+                marker = lastPrefix;
+            }
+        }
+        return marker;
+    }
+}
@@ -0,0 +1,159 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按相对路径的UTF-8字节序逐个返回本地目录下的文件, 用于与list COS的结果归并比较.
+ * 同一目录下的项排序时子目录按"名称/"参与比较, 这样深度优先遍历得到的路径整体有序, 与COS list返回的key顺序一致.
+ * 同一时刻只保存遍历路径上各个目录的项, 不需要把整个目录树读入内存.
+ * 与LocalFileScanner一致, 只跳过与祖先目录fileKey相同的目录(软链接循环), 通过多个软链接访问到的同一目录在每个路径下各返回一次.
+ */
+public class SortedLocalScanner {
+    private static final Logger log = LoggerFactory.getLogger(SortedLocalScanner.class);
+
+    private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            return PathUtils.compareUtf8(e1.sortName, e2.sortName);
+        }
+    };
+
+    public static class Entry {
+        private final Path path;
+        private final BasicFileAttributes attrs;
+        private final String sortName;
+
+        private Entry(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
+            String name = path.getFileName().toString();
+            this.sortName = attrs.isDirectory() ? name + "/" : name;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        // 扫描时读取的属性(跟随软链接), 不需要再次stat文件
+        public BasicFileAttributes getAttrs() {
+            return attrs;
+        }
+
+        public boolean isDirectory() {
+            return attrs.isDirectory();
+        }
+    }
+
+    private final Path rootDir;
+    private final LinkedList<Iterator<Entry>> dirStack = new LinkedList<Iterator<Entry>>();
+    // 与dirStack一一对应, 遍历路径上各个目录的fileKey
+    private final LinkedList<Object> dirKeyStack = new LinkedList<Object>();
+    private Entry pendingDir;
+    private boolean started = false;
+    private boolean failed = false;
+
+    public SortedLocalScanner(Path rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    /**
+     * 返回下一个文件或目录, 目录在其下的项之前返回, 返回目录后调用skipDirectory可以跳过该目录下的全部项
+     *
+     * @return 扫描结束时返回null
+     */
+    public Entry next() throws InterruptedException {
+        if (!started) {
+            started = true;
+            BasicFileAttributes rootAttrs;
+            try {
+                rootAttrs = Files.readAttributes(rootDir, BasicFileAttributes.class);
+            } catch (IOException e) {
+                log.error("read root dir attributes fail, dir: {}, exception: {}", rootDir,
+                        e.toString());
+                failed = true;
+                return null;
+            }
+            if (!rootAttrs.isDirectory()) {
+                return new Entry(rootDir, rootAttrs);
+            }
+            enterDirectory(rootDir, rootAttrs);
+        }
+        if (pendingDir != null) {
+            Entry dir = pendingDir;
+            pendingDir = null;
+            enterDirectory(dir.path, dir.attrs);
+        }
+        while (!dirStack.isEmpty()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException("scan dir is interrupted");
+            }
+            Iterator<Entry> entries = dirStack.peek();
+            if (!entries.hasNext()) {
+                dirStack.pop();
+                dirKeyStack.pop();
+                continue;
+            }
+            Entry entry = entries.next();
+            if (entry.isDirectory()) {
+                pendingDir = entry;
+            }
+            return entry;
+        }
+        return null;
+    }
+
+    public void skipDirectory() {
+        pendingDir = null;
+    }
+
+    /**
+     * @return 有目录或文件读取失败时返回true
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private void enterDirectory(Path dir, BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        if (fileKey != null && dirKeyStack.contains(fileKey)) {
+            log.warn("skip the folder which is an ancestor of itself, symbolic link loop: {}",
+                    dir);
+            return;
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                try {
+                    entries.add(
+                            new Entry(path, Files.readAttributes(path, BasicFileAttributes.class)));
+                } catch (IOException e) {
+                    // 例如指向不存在文件的软链接, 记录失败后继续扫描同目录的其他文件
+                    log.error("read file attributes fail, file: {}, exception: {}", path,
+                            e.toString());
+                    failed = true;
+                }
+            }
+        } catch (IOException e) {
+            log.error("scan dir fail, dir: {}, exception: {}", dir, e.toString());
+            failed = true;
+            return;
+        }
+        Collections.sort(entries, ENTRY_COMPARATOR);
+        dirStack.push(entries.iterator());
+        dirKeyStack.push(fileKey);
+    }
+}
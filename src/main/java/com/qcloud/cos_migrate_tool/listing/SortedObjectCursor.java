@@ -0,0 +1,141 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按key的顺序逐个返回前缀下的全部对象, 用于与本地文件或记录归并比较.
+ * 后台线程按marker顺序list并提前取最多PREFETCH_PAGES页, list的耗时与调用方的处理重叠.
+ */
+public class SortedObjectCursor {
+    private static final Logger log = LoggerFactory.getLogger(SortedObjectCursor.class);
+
+    private static final int MAX_KEYS = 1000;
+    private static final int PREFETCH_PAGES = 4;
+    private static final int MAX_RETRY_NUM = 20;
+
+    // list线程放入队列的结果, page和error都为null表示list结束
+    private static class PageResult {
+        final ObjectListingPage page;
+        final Exception error;
+
+        PageResult(ObjectListingPage page, Exception error) {
+            this.page = page;
+            this.error = error;
+        }
+    }
+
+    private final ObjectLister objectLister;
+    private final String prefix;
+    private final BlockingQueue<PageResult> pages =
+            new ArrayBlockingQueue<PageResult>(PREFETCH_PAGES);
+    private Thread listThread;
+    private Iterator<ListedObject> currentPage = Collections.<ListedObject>emptyIterator();
+    private ListedObject head;
+    private boolean finished = false;
+    private long listedNum = 0;
+
+    public SortedObjectCursor(ObjectLister objectLister, String prefix) {
+        this.objectLister = objectLister;
+        this.prefix = prefix == null ? "" : prefix;
+    }
+
+    public void start() {
+        listThread = new Thread(new Runnable() {
+            public void run() {
+                listLoop();
+            }
+        }, "sorted-list-prefetch");
+        listThread.setDaemon(true);
+        listThread.start();
+    }
+
+    /**
+     * 返回下一个对象但不移动位置
+     *
+     * @return list结束时返回null
+     * @throws Exception 重试多次后list仍失败
+     */
+    public ListedObject peek() throws Exception {
+        while (head == null && !finished) {
+            if (currentPage.hasNext()) {
+                head = currentPage.next();
+                ++listedNum;
+                break;
+            }
+            PageResult result = pages.take();
+            if (result.error != null) {
+                finished = true;
+                throw result.error;
+            }
+            if (result.page == null) {
+                finished = true;
+                break;
+            }
+            currentPage = result.page.getObjects().iterator();
+        }
+        return head;
+    }
+
+    public ListedObject next() throws Exception {
+        ListedObject listedObject = peek();
+        head = null;
+        return listedObject;
+    }
+
+    public long getListedNum() {
+        return listedNum;
+    }
+
+    public void close() {
+        if (listThread != null) {
+            listThread.interrupt();
+        }
+    }
+
+    private void listLoop() {
+        String marker = "";
+        try {
+            ObjectListingPage page;
+            do {
+                try {
+                    page = listPageWithRetry(marker);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.error("list fail, prefix: {}, marker: {}, exception: {}", prefix, marker,
+                            e.toString());
+                    pages.put(new PageResult(null, e));
+                    return;
+                }
+                pages.put(new PageResult(page, null));
+                marker = page.getNextMarker();
+            } while (page.isTruncated() && marker != null);
+            pages.put(new PageResult(null, null));
+        } catch (InterruptedException e) {
+            log.info("sorted list is closed, prefix: {}, marker: {}", prefix, marker);
+        }
+    }
+
+    private ObjectListingPage listPageWithRetry(String marker) throws Exception {
+        int retryNum = 0;
+        while (true) {
+            try {
+                return objectLister.listPage(prefix, null, marker, MAX_KEYS);
+            } catch (Exception e) {
+                ++retryNum;
+                if (retryNum >= MAX_RETRY_NUM) {
+                    throw e;
+                }
+                log.warn("list fail, prefix: {}, marker: {}, retry: {}, exception: {}", prefix,
+                        marker, retryNum, e.toString());
+                Thread.sleep(Math.min(1000L * retryNum, 10000L));
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.qcloud.cos_migrate_tool.listing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.UpYun;
+import com.UpYun.FolderItem;
+import com.UpYun.FolderItemIter;
+import com.qcloud.cos_migrate_tool.config.CopyFromUpyunConfig;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
+
+/**
+ * 使用又拍云sdk按目录list
+ */
+public class UpyunDirLister implements DirLister {
+    private final CopyFromUpyunConfig config;
+
+    // 又拍云sdk多线程使用同一个client时headers会错乱, 每个线程使用单独的client
+    private final ThreadLocal<UpYun> upyunClient = new ThreadLocal<UpYun>() {
+        @Override
+        protected UpYun initialValue() {
+            UpYun upyun = new UpYun(config.getSrcBucket(), config.getSrcAccessKeyId(),
+                    config.getSrcAccessKeySecret());
+            upyun.setTimeout(60);
+            upyun.setApiDomain(UpYun.ED_AUTO);
+            return upyun;
+        }
+    };
+
+    public UpyunDirLister(CopyFromUpyunConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public DirListingPage listDir(String dir, String iter) throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("x-list-iter", iter);
+        params.put("x-list-limit", "1000");
+        params.put("x-upyun-folder", "true");
+        if (!config.isAscendingOrder()) {
+            params.put("x-list-order", "desc");
+        }
+
+        String fixedDir = dir;
+        if (fixedDir.endsWith("/")) {
+            fixedDir = fixedDir.substring(0, fixedDir.length() - 1);
+        }
+        long startNanos = System.nanoTime();
+        FolderItemIter folderItemIter = upyunClient.get().readDirIter(fixedDir, params);
+        MigrateMetrics.instance.recordLatency(Operation.LIST, startNanos);
+
+        List<ListedObject> files = new ArrayList<ListedObject>();
+        List<String> subDirs = new ArrayList<String>();
+        for (FolderItem folderItem : folderItemIter.files) {
+            if (folderItem.type.equals("folder")) {
+                subDirs.add(dir + folderItem.name + "/");
+            } else {
+                files.add(new ListedObject(dir + folderItem.name, folderItem.size, null,
+                        folderItem.date, null, folderItem.type));
+            }
+        }
+        // 返回空的一页表示目录已经list完
+        return new DirListingPage(files, subDirs, folderItemIter.iter,
+                folderItemIter.files.isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package com.qcloud.cos_migrate_tool.meta;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图, 单位微秒. 分桶方式与HdrHistogram相同: 每个2的幂区间等分为8个子桶, 相对误差不超过12.5%.
+ * 记录时只有一次下标计算和几次原子加, 可以在任务线程中直接调用.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 最大区分到2^36微秒(约19小时), 更大的值计入最后一个桶
+    private static final int MAX_EXPONENT = 36;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong(0L);
+
+    static int getBucketIndex(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) Math.max(micros, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * 桶的上界(不含)
+     */
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index + 1;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift);
+    }
+
+    public void record(long micros) {
+        counts.incrementAndGet(getBucketIndex(micros));
+        totalCount.increment();
+        totalMicros.add(Math.max(micros, 0));
+        long currentMax = maxMicros.get();
+        while (micros > currentMax && !maxMicros.compareAndSet(currentMax, micros)) {
+            currentMax = maxMicros.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new Snapshot(snapshotCounts, count, totalMicros.sum(), maxMicros.get());
+    }
+
+    /**
+     * 某一时刻的直方图, 各个桶之间不是严格一致的, 用于展示足够了
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+        private final long maxMicros;
+
+        Snapshot(long[] counts, long count, long sumMicros, long maxMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumMicros() {
+            return sumMicros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        /**
+         * 小于upperBoundMicros的记录数, upperBoundMicros为2的幂时是精确值
+         */
+        public long getCountBelow(long upperBoundMicros) {
+            long result = 0;
+            for (int i = 0; i < counts.length && getBucketUpperBound(i) <= upperBoundMicros; ++i) {
+                result += counts[i];
+            }
+            return result;
+        }
+
+        /**
+         * @param percentile 0 ~ 100
+         * @return 所在桶的上界, 不超过记录到的最大值
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long targetCount = Math.max((long) Math.ceil(count * percentile / 100), 1);
+            long cumulativeCount = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                cumulativeCount += counts[i];
+                if (cumulativeCount >= targetCount) {
+                    return Math.min(getBucketUpperBound(i) - 1, maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.qcloud.cos_migrate_tool.meta;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.GaugeEntry;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 输出TaskStatics和MigrateMetrics中的指标: 通过内置的http服务提供prometheus文本格式的/metrics,
+ * 同时可以定时把json格式的快照写入文件, 便于没有prometheus的环境用脚本采集.
+ */
+public class MetricsExporter {
+    public static final MetricsExporter instance = new MetricsExporter();
+    private static final Logger log = LoggerFactory.getLogger(MetricsExporter.class);
+
+    private static final String METRICS_PATH = "/metrics";
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    // 直方图的桶边界为 2^6 ~ 2^28 微秒(64us ~ 268s), 都是LatencyHistogram的精确边界
+    private static final int MIN_LE_EXPONENT = 6;
+    private static final int MAX_LE_EXPONENT = 28;
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private HttpServer httpServer;
+    private ExecutorService httpExecutor;
+    private ScheduledExecutorService snapshotExecutor;
+    private String snapshotFile;
+
+    // 上一次写快照时的计数, 用于计算区间速率
+    private long lastSnapshotNanos;
+    private long[] lastSnapshotCnts;
+
+    private MetricsExporter() {}
+
+    /**
+     * @param port http服务端口, 0表示不开启
+     * @param snapshotFile json快照文件路径, 空表示不写快照
+     * @param snapshotIntervalSec 写快照的间隔
+     */
+    public synchronized void start(int port, String snapshotFile, int snapshotIntervalSec)
+            throws IOException {
+        if (port > 0 && httpServer == null) {
+            httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+            httpServer.createContext(METRICS_PATH, new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    handleMetricsRequest(exchange);
+                }
+            });
+            httpExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "metrics-http-server");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            httpServer.setExecutor(httpExecutor);
+            httpServer.start();
+            String printMsg = String.format("metrics http server started, url: http://0.0.0.0:%d%s",
+                    port, METRICS_PATH);
+            System.out.println(printMsg);
+            log.info(printMsg);
+        }
+
+        if (!snapshotFile.isEmpty() && snapshotExecutor == null) {
+            this.snapshotFile = snapshotFile;
+            lastSnapshotNanos = System.nanoTime();
+            lastSnapshotCnts = getCnts();
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "metrics-snapshot-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    writeSnapshot();
+                }
+            }, snapshotIntervalSec, snapshotIntervalSec, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 停止http服务, 并写一次最终快照
+     */
+    public synchronized void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpExecutor.shutdownNow();
+            httpServer = null;
+            httpExecutor = null;
+        }
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            try {
+                snapshotExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            snapshotExecutor = null;
+            writeSnapshot();
+        }
+    }
+
+    private void handleMetricsRequest(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = buildPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", PROMETHEUS_CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(body);
+            outputStream.close();
+        } catch (Exception e) {
+            log.warn("serve metrics request failed", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // success, update, fail, skip, condition_not_match, success_bytes, update_bytes
+    private static long[] getCnts() {
+        TaskStatics statics = TaskStatics.instance;
+        return new long[] {statics.getSuccessCnt(), statics.getUpdateCnt(), statics.getFailCnt(),
+                statics.getSkipCnt(), statics.getConditionNotMatchCnt(),
+                statics.getSuccessBytes(), statics.getUpdateBytes()};
+    }
+
+    private static final String[] CNT_OUTCOMES =
+            {"success", "update", "fail", "skip", "condition_not_match"};
+    private static final String[] BYTES_OUTCOMES = {"success", "update"};
+
+    String buildPrometheusText() {
+        StringBuilder sb = new StringBuilder(8192);
+        long[] cnts = getCnts();
+
+        appendHeader(sb, "cos_migrate_objects_total", "counter",
+                "Objects processed in the current round by outcome.");
+        for (int i = 0; i < CNT_OUTCOMES.length; ++i) {
+            sb.append("cos_migrate_objects_total{outcome=\"").append(CNT_OUTCOMES[i])
+                    .append("\"} ").append(cnts[i]).append('\n');
+        }
+        appendHeader(sb, "cos_migrate_bytes_total", "counter",
+                "Bytes migrated in the current round by outcome.");
+        for (int i = 0; i < BYTES_OUTCOMES.length; ++i) {
+            sb.append("cos_migrate_bytes_total{outcome=\"").append(BYTES_OUTCOMES[i])
+                    .append("\"} ").append(cnts[CNT_OUTCOMES.length + i]).append('\n');
+        }
+        appendHeader(sb, "cos_migrate_list_finished", "gauge",
+                "Whether listing of the current round has finished.");
+        sb.append("cos_migrate_list_finished ")
+                .append(TaskStatics.instance.getListFinished() ? 1 : 0).append('\n');
+        appendHeader(sb, "cos_migrate_round_elapsed_seconds", "gauge",
+                "Seconds since the current round started.");
+        sb.append("cos_migrate_round_elapsed_seconds ")
+                .append(TaskStatics.instance.getUsedTimeSeconds()).append('\n');
+
+        String latencyName = "cos_migrate_operation_latency_seconds";
+        appendHeader(sb, latencyName, "histogram",
+                "Latency of list/head/download/upload/db operations.");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot =
+                    MigrateMetrics.instance.getLatency(operation).snapshot();
+            String opLabel = "op=\"" + operation.getLabel() + "\"";
+            for (int exponent = MIN_LE_EXPONENT; exponent <= MAX_LE_EXPONENT; ++exponent) {
+                long upperBoundMicros = 1L << exponent;
+                sb.append(latencyName).append("_bucket{").append(opLabel).append(",le=\"")
+                        .append(formatSeconds(upperBoundMicros)).append("\"} ")
+                        .append(snapshot.getCountBelow(upperBoundMicros)).append('\n');
+            }
+            sb.append(latencyName).append("_bucket{").append(opLabel).append(",le=\"+Inf\"} ")
+                    .append(snapshot.getCount()).append('\n');
+            sb.append(latencyName).append("_sum{").append(opLabel).append("} ")
+                    .append(formatSeconds(snapshot.getSumMicros())).append('\n');
+            sb.append(latencyName).append("_count{").append(opLabel).append("} ")
+                    .append(snapshot.getCount()).append('\n');
+        }
+
+        String lastGaugeName = null;
+        for (GaugeEntry entry : MigrateMetrics.instance.getGauges()) {
+            if (!entry.name.equals(lastGaugeName)) {
+                appendHeader(sb, entry.name, "gauge", entry.help);
+                lastGaugeName = entry.name;
+            }
+            sb.append(entry.name);
+            if (entry.labelName != null) {
+                sb.append('{').append(entry.labelName).append("=\"").append(entry.labelValue)
+                        .append("\"}");
+            }
+            sb.append(' ').append(getGaugeValue(entry)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void appendHeader(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String formatSeconds(long micros) {
+        return String.format("%.6f", micros / 1e6);
+    }
+
+    private static long getGaugeValue(GaugeEntry entry) {
+        try {
+            return entry.gauge.getValue();
+        } catch (Exception e) {
+            log.warn("get gauge value failed, name: {}", entry.name, e);
+            return 0;
+        }
+    }
+
+    synchronized String buildJsonSnapshot() {
+        long nowNanos = System.nanoTime();
+        long[] cnts = getCnts();
+        double intervalSeconds = Math.max((nowNanos - lastSnapshotNanos) / 1e9, 0.001);
+        int roundSeconds = Math.max(TaskStatics.instance.getUsedTimeSeconds(), 1);
+
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("{\"timestamp\": ").append(System.currentTimeMillis());
+        sb.append(", \"roundStartTime\": \"").append(TaskStatics.instance.getStartTimeStr())
+                .append('"');
+        sb.append(", \"listFinished\": ").append(TaskStatics.instance.getListFinished());
+        sb.append(", \"objects\": {");
+        for (int i = 0; i < CNT_OUTCOMES.length; ++i) {
+            sb.append(i == 0 ? "" : ", ").append('"').append(CNT_OUTCOMES[i]).append("\": ")
+                    .append(cnts[i]);
+        }
+        sb.append("}, \"bytes\": {");
+        for (int i = 0; i < BYTES_OUTCOMES.length; ++i) {
+            sb.append(i == 0 ? "" : ", ").append('"').append(BYTES_OUTCOMES[i]).append("\": ")
+                    .append(cnts[CNT_OUTCOMES.length + i]);
+        }
+        // 迁移完成的对象数和字节数包含新迁移和更新的
+        long migratedCnt = cnts[0] + cnts[1];
+        long migratedBytes = cnts[5] + cnts[6];
+        // 每轮开始时计数会被清零, 此时区间增量为负, 按0处理
+        long intervalCnt = Math.max(migratedCnt - lastSnapshotCnts[0] - lastSnapshotCnts[1], 0);
+        long intervalBytes = Math.max(migratedBytes - lastSnapshotCnts[5] - lastSnapshotCnts[6], 0);
+        sb.append("}, \"rates\": {");
+        sb.append(String.format("\"objectsPerSecond\": %.2f, \"bytesPerSecond\": %.0f, ",
+                migratedCnt / (double) roundSeconds, migratedBytes / (double) roundSeconds));
+        sb.append(String.format(
+                "\"intervalObjectsPerSecond\": %.2f, \"intervalBytesPerSecond\": %.0f",
+                intervalCnt / intervalSeconds, intervalBytes / intervalSeconds));
+        sb.append("}, \"latencyMs\": {");
+        Operation[] operations = Operation.values();
+        for (int i = 0; i < operations.length; ++i) {
+            LatencyHistogram.Snapshot snapshot =
+                    MigrateMetrics.instance.getLatency(operations[i]).snapshot();
+            sb.append(i == 0 ? "" : ", ").append('"').append(operations[i].getLabel())
+                    .append("\": {\"count\": ").append(snapshot.getCount());
+            double avgMicros = snapshot.getCount() == 0 ? 0
+                    : snapshot.getSumMicros() / (double) snapshot.getCount();
+            sb.append(String.format(", \"avg\": %.3f", avgMicros / 1000));
+            for (double percentile : PERCENTILES) {
+                sb.append(String.format(", \"p%d\": %.3f", (int) percentile,
+                        snapshot.getValueAtPercentile(percentile) / 1000.0));
+            }
+            sb.append(String.format(", \"max\": %.3f}", snapshot.getMaxMicros() / 1000.0));
+        }
+        sb.append("}, \"gauges\": {");
+        Map<String, StringBuilder> gaugeJsons = new LinkedHashMap<String, StringBuilder>();
+        List<GaugeEntry> gauges = MigrateMetrics.instance.getGauges();
+        for (GaugeEntry entry : gauges) {
+            long value = getGaugeValue(entry);
+            if (entry.labelName == null) {
+                gaugeJsons.put(entry.name, new StringBuilder().append(value));
+                continue;
+            }
+            StringBuilder labelJson = gaugeJsons.get(entry.name);
+            if (labelJson == null) {
+                labelJson = new StringBuilder("{");
+                gaugeJsons.put(entry.name, labelJson);
+            } else {
+                labelJson.append(", ");
+            }
+            labelJson.append('"').append(entry.labelValue).append("\": ").append(value);
+        }
+        boolean first = true;
+        for (Map.Entry<String, StringBuilder> entry : gaugeJsons.entrySet()) {
+            StringBuilder value = entry.getValue();
+            if (value.charAt(0) == '{') {
+                value.append('}');
+            }
+            sb.append(first ? "" : ", ").append('"').append(entry.getKey()).append("\": ")
+                    .append(value);
+            first = false;
+        }
+        sb.append("}}");
+
+        lastSnapshotNanos = nowNanos;
+        lastSnapshotCnts = cnts;
+        return sb.toString();
+    }
+
+    private void writeSnapshot() {
+        File targetFile = new File(snapshotFile);
+        File tmpFile = new File(targetFile.getPath() + ".tmp");
+        try {
+            String json = buildJsonSnapshot();
+            try (Writer writer =
+                    new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8)) {
+                writer.write(json);
+                writer.write('\n');
+            }
+            // 先写临时文件再改名, 采集脚本不会读到写了一半的文件
+            Files.move(tmpFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.warn("write metrics snapshot failed, file: {}", snapshotFile, e);
+        }
+    }
+}
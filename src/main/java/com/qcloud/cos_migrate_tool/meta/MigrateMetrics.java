@@ -0,0 +1,89 @@
+package com.qcloud.cos_migrate_tool.meta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 运行中的监控指标: 各类操作的耗时直方图以及队列, 并发等实时值.
+ * 对象数和字节数的计数在TaskStatics中, 由MetricsExporter一起输出.
+ */
+public class MigrateMetrics {
+    public static final MigrateMetrics instance = new MigrateMetrics();
+
+    public enum Operation {
+        // 列出源端或者COS上的一页对象
+        LIST,
+        // 查询源端或者COS上单个对象的元数据
+        HEAD,
+        // 下载源文件到本地临时文件
+        DOWNLOAD,
+        // 上传到COS(流式迁移时包含读取源端数据的时间), 以及bucket间复制
+        UPLOAD,
+        // 查询或者写入迁移记录db
+        DB;
+
+        public String getLabel() {
+            return name().toLowerCase();
+        }
+    }
+
+    public interface Gauge {
+        long getValue();
+    }
+
+    static class GaugeEntry {
+        final String name;
+        final String labelName;
+        final String labelValue;
+        final String help;
+        final Gauge gauge;
+
+        GaugeEntry(String name, String labelName, String labelValue, String help, Gauge gauge) {
+            this.name = name;
+            this.labelName = labelName;
+            this.labelValue = labelValue;
+            this.help = help;
+            this.gauge = gauge;
+        }
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    // 按名字排序, 输出时同名不同标签的实时值相邻
+    private final Map<String, GaugeEntry> gauges = new ConcurrentSkipListMap<String, GaugeEntry>();
+
+    private MigrateMetrics() {
+        for (int i = 0; i < latencies.length; ++i) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param startNanos 操作开始时的System.nanoTime()
+     */
+    public void recordLatency(Operation operation, long startNanos) {
+        latencies[operation.ordinal()].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public void registerGauge(String name, String help, Gauge gauge) {
+        gauges.put(name, new GaugeEntry(name, null, null, help, gauge));
+    }
+
+    /**
+     * 同名同标签的实时值重复注册时替换之前的, 每轮迁移新建的TaskExecutor重新注册即可
+     */
+    public void registerGauge(String name, String labelName, String labelValue, String help,
+            Gauge gauge) {
+        gauges.put(name + "{" + labelName + "=" + labelValue + "}",
+                new GaugeEntry(name, labelName, labelValue, help, gauge));
+    }
+
+    List<GaugeEntry> getGauges() {
+        return new ArrayList<GaugeEntry>(gauges.values());
+    }
+}
@@ -0,0 +1,415 @@
+package com.qcloud.cos_migrate_tool.meta;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 每个对象的迁移结果([ok], [skip], [fail]等)的输出. 任务线程只把结果放入有界队列, 由一个后台线程统一打印到控制台,
+ * 写日志, 写结果journal以及完成列表文件, 任务线程不再竞争System.out和日志appender的锁.
+ *
+ * 控制台输出有两种模式: detail逐个对象打印, summary只打印失败的对象, 并定时打印一行汇总.
+ * 队列满时成功和跳过的结果不再打印和写日志(计入丢弃数, 在汇总中打印), 失败的结果, journal以及完成列表不会丢弃, 队列满时任务线程等待.
+ */
+public class TaskOutput {
+    public static final TaskOutput instance = new TaskOutput();
+    private static final Logger log = LoggerFactory.getLogger(TaskOutput.class);
+
+    public static final String CONSOLE_MODE_DETAIL = "detail";
+    public static final String CONSOLE_MODE_SUMMARY = "summary";
+
+    private static final int QUEUE_SIZE = 65536;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final long POLL_INTERVAL_MS = 200;
+    // 队列一直不空时, 控制台输出累积到该大小也刷出
+    private static final int CONSOLE_FLUSH_SIZE = 64 * 1024;
+    private static final String JOURNAL_HEADER = "time,result,task_info,request_id,bytes,detail";
+
+    public enum Result {
+        OK("ok"), SKIP("skip"), FAIL("fail"), CONDITION_NOT_MATCH("condition_not_match");
+
+        private final String label;
+
+        private Result(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final class Event {
+        final Result result;
+        final String taskInfo;
+        final String requestId;
+        final long bytes;
+        final String detail;
+        final long timeMillis;
+        // 完成列表文件的一行, 此时result为null
+        final String finishedFile;
+        // 非null表示flush标记
+        final CountDownLatch flushLatch;
+
+        Event(Result result, String taskInfo, String requestId, long bytes, String detail,
+                String finishedFile, CountDownLatch flushLatch) {
+            this.result = result;
+            this.taskInfo = taskInfo;
+            this.requestId = requestId;
+            this.bytes = bytes;
+            this.detail = detail;
+            this.timeMillis = System.currentTimeMillis();
+            this.finishedFile = finishedFile;
+            this.flushLatch = flushLatch;
+        }
+    }
+
+    private final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(QUEUE_SIZE);
+    private final LongAdder droppedCnt = new LongAdder();
+    private volatile boolean summaryMode = false;
+    private volatile long summaryIntervalMs = 10000;
+    private volatile boolean journalEnabled = false;
+    private volatile Thread writerThread;
+    private volatile boolean stopped = false;
+
+    // 以下只在写线程中使用
+    private Writer journalWriter;
+    private String openedFinishedFile;
+    private Writer finishedFileWriter;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private long lastSummaryMillis = System.currentTimeMillis();
+    private long lastSummaryMigratedCnt = 0;
+    private long lastSummaryMigratedBytes = 0;
+
+    private TaskOutput() {}
+
+    /**
+     * @param consoleMode detail 或 summary
+     * @param summaryIntervalSec summary模式下打印汇总的间隔
+     * @param journalFile 结果journal文件路径, 空表示不写
+     */
+    public synchronized void init(String consoleMode, int summaryIntervalSec, String journalFile)
+            throws IOException {
+        this.summaryMode = consoleMode.equalsIgnoreCase(CONSOLE_MODE_SUMMARY);
+        this.summaryIntervalMs = summaryIntervalSec * 1000L;
+        if (!journalFile.isEmpty() && journalWriter == null) {
+            File file = new File(journalFile);
+            boolean isNewFile = !file.exists() || file.length() == 0;
+            journalWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+            if (isNewFile) {
+                journalWriter.write(JOURNAL_HEADER);
+                journalWriter.write('\n');
+            }
+            journalEnabled = true;
+        }
+        ensureStarted();
+    }
+
+    private synchronized void ensureStarted() {
+        if (writerThread != null) {
+            return;
+        }
+        stopped = false;
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "task-output-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public void reportOk(String taskInfo, String requestId, long bytes) {
+        report(new Event(Result.OK, taskInfo, requestId, bytes, null, null, null), false);
+    }
+
+    /**
+     * @param reason 跳过的原因, 例如file on cos, 可以为null
+     */
+    public void reportSkip(String taskInfo, String reason) {
+        report(new Event(Result.SKIP, taskInfo, null, 0, reason, null, null), false);
+    }
+
+    public void reportFail(String taskInfo, String exception) {
+        report(new Event(Result.FAIL, taskInfo, null, 0, exception, null, null), true);
+    }
+
+    public void reportConditionNotMatch(String taskInfo, String reason) {
+        report(new Event(Result.CONDITION_NOT_MATCH, taskInfo, null, 0, reason, null, null),
+                false);
+    }
+
+    /**
+     * 追加完成列表文件的一行, 文件由写线程保持打开, 文件名变化(例如跨天)时关闭旧文件
+     */
+    public void appendFinishedFile(String filePath, String line) {
+        report(new Event(null, null, null, 0, line, filePath, null), true);
+    }
+
+    private void report(Event event, boolean lossless) {
+        // 只在首次输出时进入同步块, 任务线程之间不竞争锁
+        if (writerThread == null) {
+            ensureStarted();
+        }
+        if (lossless || journalEnabled) {
+            try {
+                queue.put(event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("report task result is interrupted, task_info: {}", event.taskInfo);
+            }
+        } else if (!queue.offer(event)) {
+            droppedCnt.increment();
+        }
+    }
+
+    /**
+     * 等待已经提交的结果全部输出, 每轮迁移结束打印统计前调用
+     */
+    public void flush() {
+        if (writerThread == null) {
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        report(new Event(null, null, null, 0, null, null, latch), true);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 输出剩余的结果并关闭journal, 程序退出前调用
+     */
+    public void shutdown() {
+        Thread thread;
+        synchronized (this) {
+            thread = writerThread;
+            if (thread == null) {
+                return;
+            }
+            stopped = true;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            writerThread = null;
+            journalEnabled = false;
+        }
+    }
+
+    public long getDroppedCnt() {
+        return droppedCnt.sum();
+    }
+
+    private void writeLoop() {
+        List<Event> batch = new ArrayList<Event>(MAX_BATCH_SIZE);
+        StringBuilder stdout = new StringBuilder(64 * 1024);
+        while (true) {
+            Event event = null;
+            try {
+                event = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                stopped = true;
+            }
+            if (event != null) {
+                batch.add(event);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                for (Event batchEvent : batch) {
+                    try {
+                        handleEvent(batchEvent, stdout);
+                    } catch (Exception e) {
+                        log.warn("write task result failed", e);
+                    }
+                }
+                batch.clear();
+            }
+            // 队列空时再刷出, 高峰时一批结果只有一次控制台输出和文件写入;
+            // 持续高峰时队列不会空, 控制台输出超过阈值也刷出, 避免长时间没有输出且缓冲无限增长
+            if (queue.isEmpty() || stdout.length() >= CONSOLE_FLUSH_SIZE) {
+                flushOutputs(stdout);
+            }
+            if (summaryMode) {
+                printSummaryIfNeeded();
+            }
+            if (stopped && queue.isEmpty()) {
+                flushOutputs(stdout);
+                closeWriters();
+                return;
+            }
+        }
+    }
+
+    private void handleEvent(Event event, StringBuilder stdout) throws IOException {
+        if (event.flushLatch != null) {
+            flushOutputs(stdout);
+            event.flushLatch.countDown();
+            return;
+        }
+        if (event.finishedFile != null) {
+            writeFinishedFile(event.finishedFile, event.detail);
+            return;
+        }
+
+        String printMsg;
+        if (event.result == Result.OK) {
+            printMsg = "[ok] [requestid: " + (event.requestId == null ? "NULL" : event.requestId)
+                    + "], task_info: " + event.taskInfo;
+        } else if (event.result == Result.FAIL) {
+            printMsg = "[fail] task_info: " + event.taskInfo;
+        } else {
+            printMsg = "[" + event.result.getLabel() + "] "
+                    + (event.detail == null ? "" : event.detail + ", ") + "task_info: "
+                    + event.taskInfo;
+        }
+
+        // 失败的结果与之前一样打印到标准输出, summary模式下也打印
+        if (event.result == Result.FAIL) {
+            stdout.append(printMsg).append('\n');
+            log.error("{}, exception: {}", printMsg, event.detail);
+        } else {
+            if (!summaryMode) {
+                stdout.append(printMsg).append('\n');
+            }
+            log.info(printMsg);
+        }
+
+        if (journalWriter != null) {
+            writeJournal(event);
+        }
+    }
+
+    private void writeJournal(Event event) throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        line.append(timeFormat.format(new Date(event.timeMillis))).append(',')
+                .append(event.result.getLabel()).append(',');
+        appendCsvField(line, event.taskInfo);
+        line.append(',');
+        appendCsvField(line, event.requestId);
+        line.append(',').append(event.bytes).append(',');
+        appendCsvField(line, event.detail);
+        line.append('\n');
+        journalWriter.write(line.toString());
+    }
+
+    private static void appendCsvField(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean needQuote = false;
+        for (int i = 0; i < value.length() && !needQuote; ++i) {
+            char c = value.charAt(i);
+            needQuote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needQuote) {
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private void writeFinishedFile(String filePath, String line) {
+        try {
+            if (!filePath.equals(openedFinishedFile)) {
+                closeFinishedFile();
+                finishedFileWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(filePath, true), StandardCharsets.UTF_8));
+                openedFinishedFile = filePath;
+            }
+            finishedFileWriter.write(line);
+        } catch (IOException e) {
+            log.error("write result fail, file: {}, exception: {}", filePath, e.toString());
+            closeFinishedFile();
+        }
+    }
+
+    private void closeFinishedFile() {
+        if (finishedFileWriter != null) {
+            try {
+                finishedFileWriter.close();
+            } catch (IOException e) {
+                log.error("close result file fail, file: {}, exception: {}", openedFinishedFile,
+                        e.toString());
+            }
+        }
+        finishedFileWriter = null;
+        openedFinishedFile = null;
+    }
+
+    private void flushOutputs(StringBuilder stdout) {
+        if (stdout.length() > 0) {
+            System.out.print(stdout);
+            System.out.flush();
+            stdout.setLength(0);
+        }
+        try {
+            if (journalWriter != null) {
+                journalWriter.flush();
+            }
+            if (finishedFileWriter != null) {
+                finishedFileWriter.flush();
+            }
+        } catch (IOException e) {
+            log.error("flush task result fail, exception: {}", e.toString());
+        }
+    }
+
+    private void closeWriters() {
+        closeFinishedFile();
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException e) {
+                log.error("close result journal fail, exception: {}", e.toString());
+            }
+            journalWriter = null;
+        }
+    }
+
+    private void printSummaryIfNeeded() {
+        long now = System.currentTimeMillis();
+        long intervalMs = now - lastSummaryMillis;
+        if (intervalMs < summaryIntervalMs) {
+            return;
+        }
+        TaskStatics statics = TaskStatics.instance;
+        long migratedCnt = statics.getSuccessCnt() + statics.getUpdateCnt();
+        long migratedBytes = statics.getSuccessBytes() + statics.getUpdateBytes();
+        // 每轮开始时计数清零, 区间增量按0处理
+        long intervalCnt = Math.max(migratedCnt - lastSummaryMigratedCnt, 0);
+        long intervalBytes = Math.max(migratedBytes - lastSummaryMigratedBytes, 0);
+        String printMsg = String.format(
+                "[summary] new: %d, update: %d, fail: %d, skip: %d, condition_not_match: %d, "
+                        + "objects/s: %.1f, MB/s: %.2f, output_dropped: %d",
+                statics.getSuccessCnt(), statics.getUpdateCnt(), statics.getFailCnt(),
+                statics.getSkipCnt(), statics.getConditionNotMatchCnt(),
+                intervalCnt * 1000.0 / intervalMs, intervalBytes * 1000.0 / intervalMs / 1048576,
+                droppedCnt.sum());
+        System.out.println(printMsg);
+        log.info(printMsg);
+        lastSummaryMillis = now;
+        lastSummaryMigratedCnt = migratedCnt;
+        lastSummaryMigratedBytes = migratedBytes;
+    }
+}
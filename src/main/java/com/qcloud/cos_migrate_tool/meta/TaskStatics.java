@@ -1,6 +1,6 @@
 package com.qcloud.cos_migrate_tool.meta;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.joda.time.DateTime;
 import org.joda.time.Seconds;
@@ -15,12 +15,15 @@ public class TaskStatics {
     public static final TaskStatics instance = new TaskStatics();
     private DateTime startTime = DateTime.now();
 
-    // 上传文件的总量, 成功量, 失败量
-    private AtomicLong successCnt = new AtomicLong(0L);
-    private AtomicLong failCnt = new AtomicLong(0L);
-    private AtomicLong skipCnt = new AtomicLong(0L);
-    private AtomicLong conditionNotMatchCnt = new AtomicLong(0L);
-    private AtomicLong updateCnt = new AtomicLong(0L);
+    // 上传文件的总量, 成功量, 失败量. 每个对象都会更新, 使用分段计数避免任务线程竞争同一个计数器
+    private LongAdder successCnt = new LongAdder();
+    private LongAdder failCnt = new LongAdder();
+    private LongAdder skipCnt = new LongAdder();
+    private LongAdder conditionNotMatchCnt = new LongAdder();
+    private LongAdder updateCnt = new LongAdder();
+    // 新迁移和更新的对象的字节数
+    private LongAdder successBytes = new LongAdder();
+    private LongAdder updateBytes = new LongAdder();
     private boolean list_finished = false;
     
     private TaskStatics() {}
@@ -34,43 +37,61 @@ public class TaskStatics {
     }
     
     public void addUpdateCnt() {
-        this.updateCnt.incrementAndGet();
+        this.updateCnt.increment();
     }
     
+    public void addUpdateCnt(long bytes) {
+        this.updateCnt.increment();
+        this.updateBytes.add(Math.max(bytes, 0));
+    }
+
     public long getUpdateCnt() {
-        return this.updateCnt.get();
+        return this.updateCnt.sum();
+    }
+
+    public long getUpdateBytes() {
+        return this.updateBytes.sum();
     }
 
     public void addSuccessCnt() {
-        this.successCnt.incrementAndGet();
+        this.successCnt.increment();
+    }
+
+    public void addSuccessCnt(long bytes) {
+        this.successCnt.increment();
+        this.successBytes.add(Math.max(bytes, 0));
     }
 
     public long getSuccessCnt() {
-        return this.successCnt.get();
+        return this.successCnt.sum();
+    }
+
+    public long getSuccessBytes() {
+        return this.successBytes.sum();
     }
 
     public void addFailCnt() {
-        this.failCnt.incrementAndGet();
+        this.failCnt.increment();
     }
 
     public long getFailCnt() {
-        return this.failCnt.get();
+        return this.failCnt.sum();
     }
 
     public void addSkipCnt() {
-        this.skipCnt.incrementAndGet();
+        this.skipCnt.increment();
     }
 
     public long getSkipCnt() {
-        return this.skipCnt.get();
+        return this.skipCnt.sum();
     }
     
     public void addConditionNotMatchCnt() {
-        this.conditionNotMatchCnt.incrementAndGet();
+        this.conditionNotMatchCnt.increment();
     }
     
     public long getConditionNotMatchCnt() {
-        return this.conditionNotMatchCnt.get();
+        return this.conditionNotMatchCnt.sum();
     }
 
     public String getStartTimeStr() {
@@ -85,11 +106,13 @@ public class TaskStatics {
     
     public void reset() {
         this.startTime =DateTime.now();
-        this.successCnt.set(0);
-        this.failCnt.set(0);
-        this.skipCnt.set(0);
-        this.updateCnt.set(0);
-        this.conditionNotMatchCnt.set(0);
+        this.successCnt.reset();
+        this.failCnt.reset();
+        this.skipCnt.reset();
+        this.updateCnt.reset();
+        this.conditionNotMatchCnt.reset();
+        this.successBytes.reset();
+        this.updateBytes.reset();
         this.list_finished = false;
         
     }
@@ -2,9 +2,19 @@ package com.qcloud.cos_migrate_tool.record;
 
 public class DBParam {
     public DBParam(String historyFolder, String comment, int maxOpenFile) {
+        this(historyFolder, comment, maxOpenFile, false, 1000, 100, false, 0);
+    }
+
+    public DBParam(String historyFolder, String comment, int maxOpenFile, boolean batchWrite,
+            int batchSize, long flushIntervalMs, boolean disableWal, long syncIntervalMs) {
         this.historyFolder = historyFolder;
         this.comment = comment;
         this.maxOpenFile = maxOpenFile;
+        this.batchWrite = batchWrite;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.disableWal = disableWal;
+        this.syncIntervalMs = syncIntervalMs;
     }
 
     @Override
@@ -13,12 +23,22 @@ public class DBParam {
                 "historyFolder='" + historyFolder + '\'' +
                 ", comment='" + comment + '\'' +
                 ", maxOpenFile=" + maxOpenFile +
+                ", batchWrite=" + batchWrite +
+                ", batchSize=" + batchSize +
+                ", flushIntervalMs=" + flushIntervalMs +
+                ", disableWal=" + disableWal +
+                ", syncIntervalMs=" + syncIntervalMs +
                 '}';
     }
 
     private final String historyFolder;
     private final String comment;
     private final int maxOpenFile;
+    private final boolean batchWrite;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final boolean disableWal;
+    private final long syncIntervalMs;
 
     public String getHistoryFolder() {
         return historyFolder;
@@ -31,4 +51,24 @@ public class DBParam {
     public int getMaxOpenFile() {
         return maxOpenFile;
     }
+
+    public boolean isBatchWrite() {
+        return batchWrite;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public boolean isDisableWal() {
+        return disableWal;
+    }
+
+    public long getSyncIntervalMs() {
+        return syncIntervalMs;
+    }
 }
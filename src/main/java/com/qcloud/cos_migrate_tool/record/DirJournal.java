@@ -0,0 +1,223 @@
+package com.qcloud.cos_migrate_tool.record;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按目录遍历时的进度日志, 只追加写入, 每条记录的开销与目录队列的长度无关.
+ * 每行一条记录: "A\t目录" 发现目录, "I\t目录\titer" 目录list到的位置, "D\t目录" 目录list完成.
+ * 打开时回放日志得到未完成的目录以及各自的iter, 并把日志压缩为只包含未完成目录的状态.
+ */
+public class DirJournal {
+    private static final Logger log = LoggerFactory.getLogger(DirJournal.class);
+
+    private static final String ENCODING_TYPE = "UTF-8";
+    private static final char ADD = 'A';
+    private static final char ITER = 'I';
+    private static final char DONE = 'D';
+
+    private final File journalFile;
+    private Writer writer;
+
+    DirJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public boolean exists() {
+        return journalFile.isFile();
+    }
+
+    /**
+     * 回放日志, 返回未完成的目录 -> 下一页的iter, 空字符串表示从头开始
+     */
+    public synchronized Map<String, String> replay() throws IOException {
+        Map<String, String> pendingDirs = new LinkedHashMap<String, String>();
+        if (!journalFile.isFile()) {
+            return pendingDirs;
+        }
+        Set<String> doneDirs = new HashSet<String>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), ENCODING_TYPE));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 2 || fields[0].length() != 1) {
+                    // 进程退出时可能只写了半行
+                    log.warn("skip broken dir journal line: {}", line);
+                    continue;
+                }
+                String dir = unescape(fields[1]);
+                switch (fields[0].charAt(0)) {
+                    case ADD:
+                        // 重新list同一页时会再次发现已完成的子目录
+                        if (!doneDirs.contains(dir) && !pendingDirs.containsKey(dir)) {
+                            pendingDirs.put(dir, "");
+                        }
+                        break;
+                    case ITER:
+                        if (fields.length == 3 && !doneDirs.contains(dir)) {
+                            pendingDirs.put(dir, unescape(fields[2]));
+                        }
+                        break;
+                    case DONE:
+                        pendingDirs.remove(dir);
+                        doneDirs.add(dir);
+                        break;
+                    default:
+                        log.warn("skip broken dir journal line: {}", line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return pendingDirs;
+    }
+
+    /**
+     * 用给定的未完成目录重写日志, 之后的记录追加写入
+     */
+    public synchronized void open(Map<String, String> pendingDirs) throws IOException {
+        File tmpFile = new File(journalFile.getPath() + ".tmp");
+        Writer tmpWriter = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tmpFile, false), ENCODING_TYPE));
+        try {
+            for (Map.Entry<String, String> entry : pendingDirs.entrySet()) {
+                writeLine(tmpWriter, ADD, entry.getKey(), null);
+                if (!entry.getValue().isEmpty()) {
+                    writeLine(tmpWriter, ITER, entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            tmpWriter.close();
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            throw new IOException("delete dir journal fail: " + journalFile);
+        }
+        if (!tmpFile.renameTo(journalFile)) {
+            throw new IOException("rename dir journal fail: " + tmpFile);
+        }
+        writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(journalFile, true), ENCODING_TYPE));
+    }
+
+    /**
+     * 记录一页list完成: 先记录发现的子目录, 再记录目录的下一页iter
+     */
+    public synchronized void savePage(String dir, List<String> subDirs, String nextIter)
+            throws IOException {
+        for (String subDir : subDirs) {
+            writeLine(writer, ADD, subDir, null);
+        }
+        writeLine(writer, ITER, dir, nextIter);
+        writer.flush();
+    }
+
+    public synchronized void markDone(String dir) throws IOException {
+        writeLine(writer, DONE, dir, null);
+        writer.flush();
+    }
+
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.error("close dir journal fail: {}", e.toString());
+            }
+            writer = null;
+        }
+    }
+
+    // 全部目录完成后删除, 下次运行重新遍历
+    public synchronized void delete() {
+        close();
+        if (journalFile.exists() && !journalFile.delete()) {
+            log.error("delete dir journal fail: {}", journalFile);
+        }
+    }
+
+    private static void writeLine(Writer writer, char type, String dir, String iter)
+            throws IOException {
+        writer.write(type);
+        writer.write('\t');
+        writer.write(escape(dir));
+        if (iter != null) {
+            writer.write('\t');
+            writer.write(escape(iter));
+        }
+        writer.write('\n');
+    }
+
+    private static String escape(String str) {
+        if (str.indexOf('\\') < 0 && str.indexOf('\t') < 0 && str.indexOf('\n') < 0
+                && str.indexOf('\r') < 0) {
+            return str;
+        }
+        StringBuilder sb = new StringBuilder(str.length() + 8);
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String str) {
+        if (str.indexOf('\\') < 0) {
+            return str;
+        }
+        StringBuilder sb = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            if (c == '\\' && i + 1 < str.length()) {
+                char next = str.charAt(++i);
+                switch (next) {
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    default:
+                        sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,322 @@
+package com.qcloud.cos_migrate_tool.record;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 把所有工作线程的写入汇总到一个后台线程, 攒够batchSize条或者等待超过flushIntervalMs后用一个WriteBatch写入.
+ * 尚未落盘的写入保存在pending中, 读取时优先查pending, 保证写入后立刻可以读到.
+ */
+class GroupCommitWriter {
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    // 删除操作在pending中的占位值
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    // 单个batch写入失败后的重试次数, 仍失败时逐条写入
+    private static final int MAX_BATCH_RETRY_NUM = 3;
+
+    private static class Barrier {
+        final CountDownLatch latch = new CountDownLatch(1);
+        // 屏障之前提交的写入仍有未落盘的时候设置
+        volatile RocksDBException error;
+    }
+
+    private static class WriteOp {
+        final byte[] key;
+        final byte[] value;
+        final Barrier barrier;
+
+        WriteOp(byte[] key, byte[] value, Barrier barrier) {
+            this.key = key;
+            this.value = value;
+            this.barrier = barrier;
+        }
+    }
+
+    private final RocksDB db;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long syncIntervalMs;
+    private final WriteOptions writeOptions;
+    private final WriteOptions syncWriteOptions;
+    private final BlockingQueue<WriteOp> queue;
+    private final ConcurrentHashMap<ByteBuffer, byte[]> pending =
+            new ConcurrentHashMap<ByteBuffer, byte[]>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private long lastSyncTime = System.currentTimeMillis();
+    // 重试后仍写入失败的操作, 保留在pending中, 按原顺序在下一个batch之前再次写入
+    private List<WriteOp> failedOps = new ArrayList<WriteOp>();
+    // failedOps不为空时记录最近一次的失败
+    private volatile RocksDBException writeError;
+
+    GroupCommitWriter(RocksDB db, int batchSize, long flushIntervalMs, boolean disableWal,
+            long syncIntervalMs) {
+        this.db = db;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.syncIntervalMs = disableWal ? 0 : syncIntervalMs;
+        this.writeOptions = new WriteOptions().setDisableWAL(disableWal);
+        // 关闭WAL时RocksDB不允许sync写入, 逐个写入的回退路径只能使用普通写入
+        this.syncWriteOptions = new WriteOptions().setDisableWAL(disableWal).setSync(!disableWal);
+        // 队列满时阻塞工作线程, 避免写入速度跟不上时内存无限增长
+        this.queue = new LinkedBlockingQueue<WriteOp>(batchSize * 16);
+        this.writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "record-db-group-commit");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 写入会先保存在pending中, 由后台线程落盘
+     *
+     * @throws RocksDBException 之前的写入重试后仍未能落盘, 本次写入已保留在pending中等待后续重试
+     */
+    void put(byte[] key, byte[] value) throws InterruptedException, RocksDBException {
+        pending.put(ByteBuffer.wrap(key), value);
+        queue.put(new WriteOp(key, value, null));
+        checkWriteError();
+    }
+
+    void delete(byte[] key) throws InterruptedException, RocksDBException {
+        pending.put(ByteBuffer.wrap(key), TOMBSTONE);
+        queue.put(new WriteOp(key, TOMBSTONE, null));
+        checkWriteError();
+    }
+
+    private void checkWriteError() throws RocksDBException {
+        RocksDBException error = writeError;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 查询尚未落盘的写入
+     *
+     * @return null表示没有待写入的值, 需要查db
+     */
+    byte[] getPending(byte[] key) {
+        return pending.get(ByteBuffer.wrap(key));
+    }
+
+    static boolean isDeleted(byte[] pendingValue) {
+        return pendingValue == TOMBSTONE;
+    }
+
+    /**
+     * 等待调用之前提交的写入全部落盘
+     *
+     * @throws RocksDBException 有写入重试后仍未能落盘
+     */
+    void flush() throws InterruptedException, RocksDBException {
+        Barrier barrier = new Barrier();
+        queue.put(new WriteOp(null, null, barrier));
+        barrier.latch.await();
+        if (barrier.error != null) {
+            throw barrier.error;
+        }
+    }
+
+    void shutdown() {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            log.error("flush group commit writer is interrupted", e);
+            Thread.currentThread().interrupt();
+        } catch (RocksDBException e) {
+            log.error("flush group commit writer failed, exception: {}", e.toString());
+        }
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!failedOps.isEmpty()) {
+            log.error("{} writes are not saved to db, exception: {}", failedOps.size(),
+                    writeError == null ? null : writeError.toString());
+        }
+        writeOptions.close();
+        syncWriteOptions.close();
+    }
+
+    private void writeLoop() {
+        List<WriteOp> ops = new ArrayList<WriteOp>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                WriteOp first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                ops.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (ops.size() < batchSize && first.barrier == null) {
+                    long waitMs = deadline - System.currentTimeMillis();
+                    if (queue.drainTo(ops, batchSize - ops.size()) > 0) {
+                        if (ops.get(ops.size() - 1).barrier != null) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (waitMs <= 0) {
+                        break;
+                    }
+                    WriteOp next = queue.poll(waitMs, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    ops.add(next);
+                    if (next.barrier != null) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutdown时中断等待, 把剩余的写完
+                queue.drainTo(ops);
+            }
+            if (!ops.isEmpty()) {
+                writeBatch(ops);
+                ops.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<WriteOp> ops) {
+        List<WriteOp> writeOps = new ArrayList<WriteOp>(failedOps.size() + ops.size());
+        writeOps.addAll(failedOps);
+        for (WriteOp op : ops) {
+            if (op.barrier == null) {
+                writeOps.add(op);
+            }
+        }
+        if (!writeOps.isEmpty()) {
+            List<WriteOp> unwrittenOps = writeWithRetry(writeOps);
+            for (WriteOp op : writeOps) {
+                // 只有pending里仍是本次写入的值时才移除, 之后的写入要继续保留
+                if (!unwrittenOps.contains(op)) {
+                    pending.remove(ByteBuffer.wrap(op.key), op.value);
+                }
+            }
+            failedOps = unwrittenOps;
+            if (failedOps.isEmpty()) {
+                writeError = null;
+            }
+        }
+        for (WriteOp op : ops) {
+            if (op.barrier != null) {
+                if (!failedOps.isEmpty()) {
+                    op.barrier.error = writeError;
+                }
+                op.barrier.latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * 先整批重试写入, 仍失败时逐条同步写入
+     *
+     * @return 仍未写入的操作, 保持原有顺序
+     */
+    private List<WriteOp> writeWithRetry(List<WriteOp> writeOps) {
+        for (int retryNum = 0; retryNum < MAX_BATCH_RETRY_NUM; ++retryNum) {
+            try {
+                writeOps(writeOps);
+                return new ArrayList<WriteOp>();
+            } catch (RocksDBException e) {
+                writeError = e;
+                log.warn("write batch to db failed, batch size: {}, retry: {}, exception: {}",
+                        writeOps.size(), retryNum, e.toString());
+                if (!sleepBeforeRetry(retryNum)) {
+                    break;
+                }
+            }
+        }
+        List<WriteOp> unwrittenOps = new ArrayList<WriteOp>();
+        for (WriteOp op : writeOps) {
+            // 同一个key之前的写入失败时, 之后的写入也不能先落盘, 否则重试时会覆盖为旧值
+            if (!unwrittenOps.isEmpty() && containsKey(unwrittenOps, op.key)) {
+                unwrittenOps.add(op);
+                continue;
+            }
+            try {
+                if (op.value == TOMBSTONE) {
+                    db.delete(syncWriteOptions, op.key);
+                } else {
+                    db.put(syncWriteOptions, op.key, op.value);
+                }
+            } catch (RocksDBException e) {
+                writeError = e;
+                unwrittenOps.add(op);
+            }
+        }
+        if (!unwrittenOps.isEmpty()) {
+            log.error("write to db failed, {} writes are kept in memory for retry, exception: {}",
+                    unwrittenOps.size(), writeError.toString());
+        }
+        return unwrittenOps;
+    }
+
+    private void writeOps(List<WriteOp> writeOps) throws RocksDBException {
+        WriteBatch writeBatch = new WriteBatch();
+        try {
+            for (WriteOp op : writeOps) {
+                if (op.value == TOMBSTONE) {
+                    writeBatch.delete(op.key);
+                } else {
+                    writeBatch.put(op.key, op.value);
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (syncIntervalMs > 0 && now - lastSyncTime >= syncIntervalMs) {
+                db.write(syncWriteOptions, writeBatch);
+                lastSyncTime = now;
+            } else {
+                db.write(writeOptions, writeBatch);
+            }
+        } finally {
+            writeBatch.close();
+        }
+    }
+
+    // shutdown时线程已被中断, 不再等待, 直接逐条写入
+    private boolean sleepBeforeRetry(int retryNum) {
+        if (!running) {
+            return false;
+        }
+        try {
+            Thread.sleep(100L * (retryNum + 1));
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static boolean containsKey(List<WriteOp> ops, byte[] key) {
+        for (WriteOp op : ops) {
+            if (Arrays.equals(op.key, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -18,16 +18,25 @@ public class MigrateCompetitorRecordElement extends RecordElement {
     }
 
     @Override
-    public String buildKey() {
-        String key =
-                String.format("[taskType: %s] [bucket: %s] [cosPath: %s]",
-                		recordType.toString(), bucketName, cosPath);
+    protected String formatKey() {
+        String key = "[taskType: " + recordType.toString() + "] [bucket: " + bucketName
+                + "] [cosPath: " + cosPath + "]";
         return key;
     }
 
     @Override
-    public String buildValue() {
-        String value = String.format("[fileSize: %d] [etag: %s]", fileSize, etag);
+    protected String formatValue() {
+        String value = "[fileSize: " + fileSize + "] [etag: " + etag + "]";
         return value;
     }
+
+    @Override
+    protected byte[] encodeKey() {
+        return RecordCodec.encodeKey(recordType, bucketName, cosPath);
+    }
+
+    @Override
+    protected byte[] encodeValue() {
+        return new RecordCodec.ValueBuilder().putLong(fileSize).putString(etag).build();
+    }
 }
@@ -30,17 +30,30 @@ public class MigrateCopyBucketRecordElement extends RecordElement {
     }
 
     @Override
-    public String buildKey() {
-        String key = String.format(
-                "[taskType: %s] [destRegion: %s], [destBucketName: %s], [destKey: %s], [srcRegion: %s], [srcBucketName: %s], [srcKey: %s], [srcStorageClass: %s]",
-                recordType.toString(), destRegion, destBucketName, destKey, srcRegion, srcBucketName, srcKey, srcStorageClass);
+    protected String formatKey() {
+        String key = "[taskType: " + recordType.toString() + "] [destRegion: " + destRegion
+                + "], [destBucketName: " + destBucketName + "], [destKey: " + destKey
+                + "], [srcRegion: " + srcRegion + "], [srcBucketName: " + srcBucketName
+                + "], [srcKey: " + srcKey + "], [srcStorageClass: " + srcStorageClass + "]";
         return key;
     }
 
     @Override
-    public String buildValue() {
-        String value = String.format("[srcSize: %d], [srcEtag: %s], [srcStorageClass: %s]", srcSize, srcEtag, srcStorageClass);
+    protected String formatValue() {
+        String value = "[srcSize: " + srcSize + "], [srcEtag: " + srcEtag
+                + "], [srcStorageClass: " + srcStorageClass + "]";
         return value;
     }
 
+    @Override
+    protected byte[] encodeKey() {
+        return RecordCodec.encodeKey(recordType, destRegion, destBucketName, destKey, srcRegion,
+                srcBucketName, srcKey, srcStorageClass);
+    }
+
+    @Override
+    protected byte[] encodeValue() {
+        return new RecordCodec.ValueBuilder().putLong(srcSize).putString(srcEtag)
+                .putString(srcStorageClass).build();
+    }
 }
@@ -19,18 +19,34 @@ public class MigrateLocalRecordElement extends RecordElement {
         this.fileSize = fileSize;
     }
 
+    public long getMtime() {
+        return mtime;
+    }
 
+    public long getFileSize() {
+        return fileSize;
+    }
 
     @Override
-    public String buildKey() {
-        String key = String.format("[taskType: %s] [bucket: %s], [localPath: %s], [cosPath: %s]", recordType.toString(), bucketName,
-                localPath, cosPath);
+    protected String formatKey() {
+        String key = "[taskType: " + recordType.toString() + "] [bucket: " + bucketName
+                + "], [localPath: " + localPath + "], [cosPath: " + cosPath + "]";
         return key;
     }
 
     @Override
-    public String buildValue() {
-        String value = String.format("[mtime: %d], [fileSize: %d]", mtime,  fileSize);
+    protected String formatValue() {
+        String value = "[mtime: " + mtime + "], [fileSize: " + fileSize + "]";
         return value;
     }
+
+    @Override
+    protected byte[] encodeKey() {
+        return RecordCodec.encodeKey(recordType, bucketName, localPath, cosPath);
+    }
+
+    @Override
+    protected byte[] encodeValue() {
+        return new RecordCodec.ValueBuilder().putLong(mtime).putLong(fileSize).build();
+    }
 }
@@ -20,23 +20,39 @@ public class MigrateUrllistRecordElement extends RecordElement {
     
     public void setHeadAttr(HeadAttr headAttr) {
         this.headAttr = headAttr;
+        resetValue();
     }
 
     @Override
-    public String buildKey() {
-        String key = String.format("[taskType: %s] [bucket: %s] [cosPath: %s] [url: %s]",
-                recordType.toString(), bucketName, cosPath, url);
+    protected String formatKey() {
+        String key = "[taskType: " + recordType.toString() + "] [bucket: " + bucketName
+                + "] [cosPath: " + cosPath + "] [url: " + url + "]";
         return key;
     }
 
     @Override
-    public String buildValue() {
+    protected String formatValue() {
         if (headAttr == null) {
             return "no headArrt";
         }
         
-        String value = String.format("[fileSize: %d], [lastModify: %s]", headAttr.fileSize,
-                headAttr.lastModify);
+        String value = "[fileSize: " + headAttr.fileSize + "], [lastModify: "
+                + headAttr.lastModify + "]";
         return value;
     }
+
+    @Override
+    protected byte[] encodeKey() {
+        return RecordCodec.encodeKey(recordType, bucketName, cosPath, url);
+    }
+
+    @Override
+    protected byte[] encodeValue() {
+        if (headAttr == null) {
+            // fileSize为-1表示没有head信息
+            return new RecordCodec.ValueBuilder().putLong(-1).build();
+        }
+        return new RecordCodec.ValueBuilder().putLong(headAttr.fileSize)
+                .putString(headAttr.lastModify).build();
+    }
 }
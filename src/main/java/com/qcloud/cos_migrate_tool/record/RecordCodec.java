@@ -0,0 +1,160 @@
+package com.qcloud.cos_migrate_tool.record;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.qcloud.cos_migrate_tool.config.MigrateType;
+
+/**
+ * 迁移记录的二进制编码.
+ * key: [版本 1字节] [任务类型 1字节] [各个字段拼接后的md5 16字节], 固定18字节;
+ * value: [版本 1字节] 后面依次是各个字段, 整数使用zigzag varint, 字符串使用varint长度 + UTF-8.
+ */
+public class RecordCodec {
+    public static final byte FORMAT_VERSION = 1;
+    public static final int KEY_LENGTH = 18;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte FIELD_SEPARATOR = 0;
+
+    private static final ThreadLocal<MessageDigest> md5Digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private RecordCodec() {}
+
+    // 类型编号写入db, 只能新增不能修改
+    public static byte typeTag(MigrateType migrateType) {
+        switch (migrateType) {
+            case MIGRATE_FROM_LOCAL:
+                return 1;
+            case MIGRATE_FROM_ALI:
+                return 2;
+            case MIGRATE_FROM_QINIU:
+                return 3;
+            case MIGRATE_FROM_AWS:
+                return 4;
+            case MIGRATE_FROM_URLLIST:
+                return 5;
+            case MIGRATE_FROM_COS_BUCKET_COPY:
+                return 6;
+            case MIGRATE_FROM_UPYUN:
+                return 7;
+            default:
+                throw new IllegalArgumentException("unknown migrate type: " + migrateType);
+        }
+    }
+
+    public static byte[] encodeKey(MigrateType migrateType, String... fields) {
+        MessageDigest digest = md5Digest.get();
+        digest.reset();
+        for (String field : fields) {
+            if (field != null) {
+                digest.update(field.getBytes(UTF8));
+            }
+            digest.update(FIELD_SEPARATOR);
+        }
+        byte[] hash = digest.digest();
+        byte[] key = new byte[KEY_LENGTH];
+        key[0] = FORMAT_VERSION;
+        key[1] = typeTag(migrateType);
+        System.arraycopy(hash, 0, key, 2, hash.length);
+        return key;
+    }
+
+    public static boolean isEncodedRecordKey(byte[] key) {
+        return key.length == KEY_LENGTH && key[0] == FORMAT_VERSION;
+    }
+
+    public static class ValueBuilder {
+        private byte[] buffer = new byte[32];
+        private int length = 0;
+
+        public ValueBuilder() {
+            buffer[length++] = FORMAT_VERSION;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        private void putRawVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        public ValueBuilder putLong(long value) {
+            putRawVarLong((value << 1) ^ (value >> 63));
+            return this;
+        }
+
+        public ValueBuilder putString(String value) {
+            if (value == null) {
+                putRawVarLong(0);
+                return this;
+            }
+            byte[] bytes = value.getBytes(UTF8);
+            // 长度加1, 0留给null
+            putRawVarLong(bytes.length + 1L);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        public byte[] build() {
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+
+    /**
+     * 按写入的顺序读取ValueBuilder编码的字段
+     */
+    public static class ValueReader {
+        private final byte[] buffer;
+        private int position = 1;
+
+        public ValueReader(byte[] value) {
+            if (value.length == 0 || value[0] != FORMAT_VERSION) {
+                throw new IllegalArgumentException("unknown record value format");
+            }
+            this.buffer = value;
+        }
+
+        private long getRawVarLong() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (position >= buffer.length || shift > 63) {
+                    throw new IllegalArgumentException("malformed record value");
+                }
+                byte b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        public long getLong() {
+            long raw = getRawVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+    }
+}
@@ -1,15 +1,20 @@
 package com.qcloud.cos_migrate_tool.record;
 
 import com.qcloud.cos_migrate_tool.config.CommonConfig;
+import com.qcloud.cos_migrate_tool.config.MigrateType;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.rocksdb.FlushOptions;
 import org.rocksdb.Options;
@@ -17,6 +22,7 @@ import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteOptions;
 import org.rocksdb.util.SizeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,8 +48,17 @@ public class RecordDb {
 
     private RocksDB db;
     private Options options;
+    // 同步写入时使用, 批量写入时由groupCommitWriter负责
+    private WriteOptions writeOptions;
+    private GroupCommitWriter groupCommitWriter;
     private final String requestIdPrefix = "x-cos-requestId-";
     private String dbFolder;
+    // 迁移记录使用RecordCodec的二进制编码, 旧版本创建的db仍使用文本格式, 可以用RecordDbConverter转换
+    private boolean binaryRecord = false;
+    private volatile RecordSkipIndex skipIndex;
+
+    public static final String RECORD_FORMAT_KEY = "\u0000record_format";
+    public static final String RECORD_FORMAT_BINARY = "binary-v1";
 
 
     public RecordDb() {}
@@ -62,6 +77,14 @@ public class RecordDb {
             }
 
             db = RocksDB.open(options, dbParam.getHistoryFolder());
+            binaryRecord = initRecordFormat();
+            if (dbParam.isBatchWrite()) {
+                groupCommitWriter = new GroupCommitWriter(db, dbParam.getBatchSize(),
+                        dbParam.getFlushIntervalMs(), dbParam.isDisableWal(),
+                        dbParam.getSyncIntervalMs());
+            } else {
+                writeOptions = new WriteOptions().setDisableWAL(dbParam.isDisableWal());
+            }
         } catch (RocksDBException e) {
             log.error(e.toString());
             return false;
@@ -82,6 +105,34 @@ public class RecordDb {
         return true;
     }
     
+    // 新建的db使用二进制格式, 已有记录但没有格式标记的是旧版本的文本格式
+    private boolean initRecordFormat() throws RocksDBException {
+        byte[] formatKey = toBytes(RECORD_FORMAT_KEY);
+        byte[] format = db.get(formatKey);
+        if (format != null) {
+            return RECORD_FORMAT_BINARY.equals(toString(format));
+        }
+        RocksIterator rocksIterator = db.newIterator();
+        boolean empty;
+        try {
+            rocksIterator.seekToFirst();
+            empty = !rocksIterator.isValid();
+        } finally {
+            rocksIterator.close();
+        }
+        if (!empty) {
+            log.warn("db {} stores records in text format, run convert_record_db.sh to convert it",
+                    dbFolder);
+            return false;
+        }
+        db.put(formatKey, toBytes(RECORD_FORMAT_BINARY));
+        return true;
+    }
+
+    public boolean isBinaryRecord() {
+        return binaryRecord;
+    }
+
     public boolean  saveListProgress(String prefix, String marker) {
         String value = prefix + "|" + marker;
         return saveKV("listProgress", value);
@@ -110,6 +161,50 @@ public class RecordDb {
         
     }
     
+    private String buildListPartitionKeyPrefix(String rootPrefix) {
+        return String.format("[task_kind: list_partition] [root: %s] [partition: ", rootPrefix);
+    }
+
+    private String buildListPartitionPlanKey(String rootPrefix) {
+        return String.format("[task_kind: list_partition_plan] [root: %s]", rootPrefix);
+    }
+
+    // 分区list时每个分区单独记录进度, 取代单个的listProgress
+    public boolean saveListPartition(String rootPrefix, String partitionId, String state) {
+        return saveKV(buildListPartitionKeyPrefix(rootPrefix) + partitionId + "]", state);
+    }
+
+    /**
+     * @return 分区id -> 分区进度
+     */
+    public Map<String, String> queryListPartitions(String rootPrefix) {
+        String partitionPrefix = buildListPartitionKeyPrefix(rootPrefix);
+        Map<String, String> partitions = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : queryKVByPrefix(partitionPrefix).entrySet()) {
+            String key = entry.getKey();
+            partitions.put(key.substring(partitionPrefix.length(), key.length() - 1),
+                    entry.getValue());
+        }
+        return partitions;
+    }
+
+    // 所有分区写入后再标记, 避免中断后使用不完整的分区列表
+    public boolean saveListPartitionPlanReady(String rootPrefix) {
+        return saveKV(buildListPartitionPlanKey(rootPrefix), "ready");
+    }
+
+    public boolean isListPartitionPlanReady(String rootPrefix) {
+        return queryKV(buildListPartitionPlanKey(rootPrefix)) != null;
+    }
+
+    public void deleteListPartitions(String rootPrefix) {
+        deleteKey(buildListPartitionPlanKey(rootPrefix));
+        for (String partitionKey : queryKVByPrefix(buildListPartitionKeyPrefix(rootPrefix))
+                .keySet()) {
+            deleteKey(partitionKey);
+        }
+    }
+
     public boolean saveDirProgress(String curDir, String lastItr, LinkedList<String> dirList) {
 
         String progressFile = this.dbFolder + "/PROGRESS";
@@ -138,6 +233,18 @@ public class RecordDb {
         return true;
     }
     
+    // 目录遍历的进度日志, 取代每页重写整个目录队列的PROGRESS文件
+    public DirJournal openDirJournal() {
+        return new DirJournal(new File(this.dbFolder, "DIR_JOURNAL"));
+    }
+
+    public void deleteDirProgress() {
+        File progressFile = new File(this.dbFolder, "PROGRESS");
+        if (progressFile.exists() && !progressFile.delete()) {
+            log.error("delete dir progress fail: {}", progressFile);
+        }
+    }
+
     public LinkedList<String> getDirProgress() {
         String progressFile = this.dbFolder + "/PROGRESS";
         LinkedList<String> result = new LinkedList<String>();
@@ -162,11 +269,122 @@ public class RecordDb {
         return result;
     }
 
+    /**
+     * 扫描db中的全部迁移记录, 建立内存中的跳过索引
+     */
+    public boolean loadSkipIndex() {
+        long startTime = System.currentTimeMillis();
+        ReadOptions readOptions = null;
+        RocksIterator rocksIterator = null;
+        try {
+            flushPendingWrites();
+            RecordSkipIndex index = new RecordSkipIndex();
+            byte[] textPrefix = toBytes("[taskType: ");
+            readOptions = new ReadOptions().setFillCache(false);
+            rocksIterator = db.newIterator(readOptions);
+            if (binaryRecord) {
+                rocksIterator.seekToFirst();
+            } else {
+                rocksIterator.seek(textPrefix);
+            }
+            while (rocksIterator.isValid()) {
+                byte[] key = rocksIterator.key();
+                if (binaryRecord) {
+                    // 二进制记录的key以版本号开头, 排在所有文本key之前
+                    if (!RecordCodec.isEncodedRecordKey(key)) {
+                        if (key.length > 0 && key[0] > RecordCodec.FORMAT_VERSION) {
+                            break;
+                        }
+                        rocksIterator.next();
+                        continue;
+                    }
+                } else if (!startsWith(key, textPrefix)) {
+                    break;
+                }
+                index.put(key, rocksIterator.value());
+                rocksIterator.next();
+            }
+            skipIndex = index;
+            long costMs = System.currentTimeMillis() - startTime;
+            String printMsg = String.format(
+                    "load skip index finish, records: %d, memory: %.1f MB, cost: %d ms",
+                    index.size(), index.getMemoryBytes() / 1024.0 / 1024.0, costMs);
+            System.out.println(printMsg);
+            log.info(printMsg);
+            return true;
+        } catch (InterruptedException e) {
+            log.error("load skip index is interrupted");
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (RocksDBException e) {
+            log.error("load skip index failed, exception: {}", e.toString());
+            return false;
+        } finally {
+            if (rocksIterator != null) {
+                rocksIterator.close();
+            }
+            if (readOptions != null) {
+                readOptions.close();
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public RecordSkipIndex getSkipIndex() {
+        return skipIndex;
+    }
+
+    /**
+     * 根据跳过索引判断记录是否存在且没有变化, 没有加载索引时返回false
+     *
+     * @param compareValue 为false时只判断记录是否存在
+     */
+    public boolean isRecordUnchanged(RecordElement recordElement, boolean compareValue) {
+        RecordSkipIndex index = skipIndex;
+        if (index == null) {
+            return false;
+        }
+        if (binaryRecord) {
+            return index.contains(recordElement.buildEncodedKey(),
+                    recordElement.buildEncodedValue(), compareValue);
+        }
+        return index.contains(toBytes(recordElement.buildKey()),
+                toBytes(recordElement.buildValue()), compareValue);
+    }
+
     // 保存记录
     public boolean saveRecord(RecordElement recordElement) {
-        String key = recordElement.buildKey();
-        String value = recordElement.buildValue();
-        return saveKV(key, value);
+        RecordSkipIndex index = skipIndex;
+        if (index != null) {
+            index.invalidate(binaryRecord ? recordElement.buildEncodedKey()
+                    : toBytes(recordElement.buildKey()));
+        }
+        if (!binaryRecord) {
+            return saveKV(recordElement.buildKey(), recordElement.buildValue());
+        }
+        try {
+            putBytes(recordElement.buildEncodedKey(), recordElement.buildEncodedValue());
+            return true;
+        } catch (RocksDBException e) {
+            log.error("update db failed, key:{}, exception: {}", recordElement.buildKey(),
+                    e.toString());
+            return false;
+        } catch (InterruptedException e) {
+            log.error("update db is interrupted, key:{}", recordElement.buildKey());
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     public boolean saveRequestId(String cosKey, String requestId) {
@@ -184,6 +402,7 @@ public class RecordDb {
         RocksIterator rocksIterator = null;
         BufferedOutputStream bos = null;
         try {
+            flushPendingWrites();
             bos = new BufferedOutputStream(new FileOutputStream(saveFilePath));
             readOptions = new ReadOptions();
             rocksIterator = db.newIterator(readOptions);
@@ -228,38 +447,101 @@ public class RecordDb {
     }
 
     
+    // 本地大文件分块上传的断点, 文件路径, 修改时间和大小都不变时才复用
     public String buildMultipartUploadSavePointKey(String bucketName, String cosKey,
-            String localFilePath, long mtime, long partSize, long mutlipartUploadThreshold) {
+            String localFilePath, long mtime, long fileSize, long partSize) {
         String key = String.format(
-                "[task_kind: upload_savepoint] [bucket: %s], [key: %s], [localPath: %s], [mtime: %d], [partSize: %d], [mutlipartUploadThreshold: %d]",
-                bucketName, cosKey, localFilePath, mtime, partSize, mutlipartUploadThreshold);
+                "[task_kind: upload_savepoint] [bucket: %s], [key: %s], [localPath: %s], [mtime: %d], [size: %d], [partSize: %d]",
+                bucketName, cosKey, localFilePath, mtime, fileSize, partSize);
         return key;
     }
 
-    public String queryMultipartUploadSavePoint(String bucketName, String cosKey,
-            String localFilePath, long mtime, long partSize, long mutlipartUploadThreshold) {
-        String key = buildMultipartUploadSavePointKey(bucketName, cosKey, localFilePath, mtime,
-                partSize, mutlipartUploadThreshold);
-        return queryKV(key);
+    // 分段下载分块上传的断点
+    public String buildRangeUploadSavePointKey(String bucketName, String cosKey, String srcTag,
+            long contentLength, long partSize) {
+        String key = String.format(
+                "[task_kind: range_upload_savepoint] [bucket: %s], [key: %s], [srcTag: %s], [size: %d], [partSize: %d]",
+                bucketName, cosKey, srcTag, contentLength, partSize);
+        return key;
     }
 
-    public boolean updateMultipartUploadSavePoint(String bucketName, String cosKey,
-            String localFilePath, long mtime, long partSize, long mutlipartUploadThreshold,
-            String multipartUploadId) {
-        String key = buildMultipartUploadSavePointKey(bucketName, cosKey, localFilePath, mtime,
-                partSize, mutlipartUploadThreshold);
-        return saveKV(key, multipartUploadId);
+    // 分块上传的断点, 基础key保存uploadId, 每个完成的分块单独保存一条 基础key + 块号 -> etag
+    private String buildUploadPartKey(String savePointKey, int partNumber) {
+        return String.format("%s [part: %d]", savePointKey, partNumber);
     }
 
-    public boolean deleteMultipartUploadSavePoint(String bucketName, String cosKey,
-            String localFilePath, long mtime, long partSize, long mutlipartUploadThreshold) {
-        String key = buildMultipartUploadSavePointKey(bucketName, cosKey, localFilePath, mtime,
-                partSize, mutlipartUploadThreshold);
-        return deleteKey(key);
+    public String queryUploadId(String savePointKey) {
+        return queryKV(savePointKey);
+    }
+
+    public boolean saveUploadId(String savePointKey, String uploadId) {
+        return saveKV(savePointKey, uploadId);
+    }
 
+    public boolean saveUploadPart(String savePointKey, int partNumber, String etag) {
+        return saveKV(buildUploadPartKey(savePointKey, partNumber), etag);
+    }
+
+    /**
+     * 返回已经完成的分块, 块号 -> etag
+     */
+    public Map<Integer, String> queryUploadParts(String savePointKey) {
+        Map<Integer, String> parts = new TreeMap<Integer, String>();
+        String partPrefix = savePointKey + " [part: ";
+        for (Map.Entry<String, String> entry : queryKVByPrefix(partPrefix).entrySet()) {
+            String partNumberStr = entry.getKey().substring(partPrefix.length(),
+                    entry.getKey().length() - 1);
+            try {
+                parts.put(Integer.valueOf(partNumberStr), entry.getValue());
+            } catch (NumberFormatException e) {
+                log.warn("invalid upload part key: {}", entry.getKey());
+            }
+        }
+        return parts;
+    }
+
+    public void deleteUploadParts(String savePointKey) {
+        for (String partKey : queryKVByPrefix(savePointKey + " [part: ").keySet()) {
+            deleteKey(partKey);
+        }
+    }
+
+    public void deleteUploadSavePoint(String savePointKey) {
+        deleteUploadParts(savePointKey);
+        deleteKey(savePointKey);
+    }
+
+    // 本地文件全文MD5的缓存, 每个路径一条, 值为 大小,修改时间,inode,md5
+    private String buildContentHashKey(String localPath) {
+        return String.format("[task_kind: content_hash] [path: %s]", localPath);
+    }
+
+    /**
+     * @return 文件的大小, 修改时间和inode与缓存时一致时返回缓存的md5, 否则返回null
+     */
+    public String queryContentMd5(String localPath, long fileSize, long mtime, String inode) {
+        String value = queryKV(buildContentHashKey(localPath));
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(",");
+        if (fields.length != 4 || !fields[0].equals(String.valueOf(fileSize))
+                || !fields[1].equals(String.valueOf(mtime)) || !fields[2].equals(inode)) {
+            return null;
+        }
+        return fields[3];
+    }
+
+    public boolean saveContentMd5(String localPath, long fileSize, long mtime, String inode,
+            String md5) {
+        return saveKV(buildContentHashKey(localPath),
+                String.format("%d,%d,%s,%s", fileSize, mtime, inode, md5));
     }
 
     public QUERY_RESULT queryRecord(RecordElement recordElement) {
+        if (binaryRecord) {
+            return queryEncodedRecord(recordElement);
+        }
         String key = recordElement.buildKey();
         String value = null;
         try {
@@ -281,10 +563,170 @@ public class RecordDb {
         return QUERY_RESULT.VALUE_NOT_EQ;
     }
 
+    private QUERY_RESULT queryEncodedRecord(RecordElement recordElement) {
+        byte[] value;
+        try {
+            value = getBytes(recordElement.buildEncodedKey());
+        } catch (RocksDBException e) {
+            log.error("query kv occur a exception: ", e);
+            return QUERY_RESULT.KEY_NOT_EXIST;
+        }
+        if (value == null) {
+            return QUERY_RESULT.KEY_NOT_EXIST;
+        }
+        if (Arrays.equals(value, recordElement.buildEncodedValue())) {
+            return QUERY_RESULT.ALL_EQ;
+        }
+
+        log.info("obj had update, key:{} current_value:{}", recordElement.buildKey(),
+                recordElement.buildValue());
+        return QUERY_RESULT.VALUE_NOT_EQ;
+    }
+
+    /**
+     * 查询从本地迁移的记录, 用于按list的结果校验
+     *
+     * @return 返回记录中保存的修改时间和文件大小, 没有记录时返回null
+     */
+    public MigrateLocalRecordElement queryLocalRecord(String bucketName, String localPath,
+            String cosPath) {
+        MigrateLocalRecordElement keyElement =
+                new MigrateLocalRecordElement(bucketName, localPath, cosPath, 0, 0);
+        try {
+            if (!binaryRecord) {
+                String value = queryKV(keyElement.buildKey());
+                if (value == null) {
+                    return null;
+                }
+                RecordElement record = RecordElement.parseRecord(keyElement.buildKey(), value);
+                return record instanceof MigrateLocalRecordElement
+                        ? (MigrateLocalRecordElement) record
+                        : null;
+            }
+            byte[] value = getBytes(keyElement.buildEncodedKey());
+            if (value == null) {
+                return null;
+            }
+            RecordCodec.ValueReader reader = new RecordCodec.ValueReader(value);
+            long mtime = reader.getLong();
+            long fileSize = reader.getLong();
+            return new MigrateLocalRecordElement(bucketName, localPath, cosPath, mtime, fileSize);
+        } catch (RocksDBException | IllegalArgumentException e) {
+            log.error("query local record failed, key:{}, exception: {}", keyElement.buildKey(),
+                    e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 统计某种迁移类型的记录数
+     *
+     * @return 被中断或有记录未能写入db时返回-1
+     */
+    public long countRecords(MigrateType migrateType) {
+        ReadOptions readOptions = null;
+        RocksIterator rocksIterator = null;
+        long count = 0;
+        try {
+            flushPendingWrites();
+            readOptions = new ReadOptions().setFillCache(false);
+            rocksIterator = db.newIterator(readOptions);
+            if (binaryRecord) {
+                // 二进制记录的key以版本号和类型编号开头, 同一类型的记录是连续的
+                byte typeTag = RecordCodec.typeTag(migrateType);
+                rocksIterator.seek(new byte[] {RecordCodec.FORMAT_VERSION, typeTag});
+                while (rocksIterator.isValid()) {
+                    byte[] key = rocksIterator.key();
+                    if (!RecordCodec.isEncodedRecordKey(key) || key[1] != typeTag) {
+                        break;
+                    }
+                    ++count;
+                    rocksIterator.next();
+                }
+            } else {
+                byte[] textPrefix = toBytes("[taskType: " + migrateType.toString() + "]");
+                rocksIterator.seek(textPrefix);
+                while (rocksIterator.isValid() && startsWith(rocksIterator.key(), textPrefix)) {
+                    ++count;
+                    rocksIterator.next();
+                }
+            }
+            return count;
+        } catch (InterruptedException e) {
+            log.error("count records is interrupted");
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (RocksDBException e) {
+            // 有记录未能落盘, 统计结果不可信
+            log.error("count records failed, exception: {}", e.toString());
+            return -1;
+        } finally {
+            if (rocksIterator != null) {
+                rocksIterator.close();
+            }
+            if (readOptions != null) {
+                readOptions.close();
+            }
+        }
+    }
+
+    private void flushPendingWrites() throws InterruptedException, RocksDBException {
+        if (groupCommitWriter != null) {
+            groupCommitWriter.flush();
+        }
+    }
+
+    private static byte[] toBytes(String str) {
+        try {
+            return str.getBytes(ENCODING_TYPE);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toString(byte[] bytes) {
+        try {
+            return new String(bytes, ENCODING_TYPE);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 先查尚未落盘的批量写入, 再查db
+    private byte[] getBytes(byte[] keyByte) throws RocksDBException {
+        if (groupCommitWriter != null) {
+            byte[] valueByte = groupCommitWriter.getPending(keyByte);
+            if (GroupCommitWriter.isDeleted(valueByte)) {
+                return null;
+            }
+            if (valueByte != null) {
+                return valueByte;
+            }
+        }
+        return db.get(keyByte);
+    }
+
+    private void putBytes(byte[] keyByte, byte[] valueByte)
+            throws RocksDBException, InterruptedException {
+        if (groupCommitWriter != null) {
+            groupCommitWriter.put(keyByte, valueByte);
+        } else {
+            db.put(writeOptions, keyByte, valueByte);
+        }
+    }
+
+    private void deleteBytes(byte[] keyByte) throws RocksDBException, InterruptedException {
+        if (groupCommitWriter != null) {
+            groupCommitWriter.delete(keyByte);
+        } else {
+            db.delete(writeOptions, keyByte);
+        }
+    }
+
     private String queryKV(String key) {
         byte[] valueByte;
         try {
-            valueByte = db.get(key.getBytes(ENCODING_TYPE));
+            valueByte = getBytes(key.getBytes(ENCODING_TYPE));
         } catch (RocksDBException e) {
             log.error("query db failed, key:{}, exception: {}", key, e.toString());
             return null;
@@ -306,9 +748,45 @@ public class RecordDb {
         return value;
     }
 
+    private Map<String, String> queryKVByPrefix(String prefix) {
+        Map<String, String> result = new TreeMap<String, String>();
+        ReadOptions readOptions = null;
+        RocksIterator rocksIterator = null;
+        try {
+            flushPendingWrites();
+            readOptions = new ReadOptions();
+            rocksIterator = db.newIterator(readOptions);
+            byte[] prefixBytes = prefix.getBytes(ENCODING_TYPE);
+            rocksIterator.seek(prefixBytes);
+            while (rocksIterator.isValid()) {
+                String key = new String(rocksIterator.key(), ENCODING_TYPE);
+                if (!key.startsWith(prefix)) {
+                    break;
+                }
+                result.put(key, new String(rocksIterator.value(), ENCODING_TYPE));
+                rocksIterator.next();
+            }
+        } catch (UnsupportedEncodingException e) {
+            log.error("query db by prefix failed, prefix:{}, exception: {}", prefix, e.toString());
+        } catch (InterruptedException e) {
+            log.error("query db by prefix is interrupted, prefix:{}", prefix);
+            Thread.currentThread().interrupt();
+        } catch (RocksDBException e) {
+            log.error("query db by prefix failed, prefix:{}, exception: {}", prefix, e.toString());
+        } finally {
+            if (rocksIterator != null) {
+                rocksIterator.close();
+            }
+            if (readOptions != null) {
+                readOptions.close();
+            }
+        }
+        return result;
+    }
+
     private boolean saveKV(String key, String value) {
         try {
-            db.put(key.getBytes(ENCODING_TYPE), value.getBytes(ENCODING_TYPE));
+            putBytes(key.getBytes(ENCODING_TYPE), value.getBytes(ENCODING_TYPE));
             return true;
         } catch (RocksDBException e) {
             log.error("update db failed, key:{}, value:{},  exception: {}", key, value,
@@ -318,12 +796,16 @@ public class RecordDb {
             log.error("update db failed, key:{}, value:{},  exception: {}", key, value,
                     e.toString());
             return false;
+        } catch (InterruptedException e) {
+            log.error("update db is interrupted, key:{}, value:{}", key, value);
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
     private boolean deleteKey(String key) {
         try {
-            db.delete(key.getBytes(ENCODING_TYPE));
+            deleteBytes(key.getBytes(ENCODING_TYPE));
             return true;
         } catch (RocksDBException e) {
             log.error("update db failed, key:{}, exception: {}", key, e.toString());
@@ -331,11 +813,20 @@ public class RecordDb {
         } catch (UnsupportedEncodingException e) {
             log.error("update db failed, key:{},  exception: {}", key, e.toString());
             return false;
+        } catch (InterruptedException e) {
+            log.error("update db is interrupted, key:{}", key);
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
     public void shutdown() {
         if (db != null) {
+            // 先把批量写入线程中剩余的写入落盘
+            if (groupCommitWriter != null) {
+                groupCommitWriter.shutdown();
+                groupCommitWriter = null;
+            }
             try {
                 FlushOptions flushOptions = new FlushOptions();
                 flushOptions.setWaitForFlush(true);
@@ -345,6 +836,9 @@ public class RecordDb {
                 if (options != null) {
                     options.close();
                 }
+                if (writeOptions != null) {
+                    writeOptions.close();
+                }
             } catch (RocksDBException e) {
                 log.error("close db occur a exception: " + e.toString());
             }
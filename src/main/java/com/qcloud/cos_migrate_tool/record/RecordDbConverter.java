@@ -0,0 +1,97 @@
+package com.qcloud.cos_migrate_tool.record;
+
+import java.io.UnsupportedEncodingException;
+
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+/**
+ * 把旧版本的文本格式迁移记录转换为RecordCodec的二进制格式, 转换时迁移工具不能在运行.
+ * requestId, 分块上传的断点等其他数据保持不变.
+ * 用法: RecordDbConverter [dbFolder]
+ */
+public class RecordDbConverter {
+    private static final String ENCODING_TYPE = "UTF-8";
+    private static final String RECORD_KEY_PREFIX = "[taskType: ";
+    private static final int BATCH_SIZE = 10000;
+
+    public static void main(String[] args) throws Exception {
+        String dbFolder = args.length > 0 ? args[0] : "./db";
+        RocksDB.loadLibrary();
+        Options options = new Options();
+        RocksDB db = null;
+        try {
+            db = RocksDB.open(options, dbFolder);
+            byte[] format = db.get(RecordDb.RECORD_FORMAT_KEY.getBytes(ENCODING_TYPE));
+            if (format != null
+                    && RecordDb.RECORD_FORMAT_BINARY.equals(new String(format, ENCODING_TYPE))) {
+                System.out.println(String.format("db %s is already in binary format", dbFolder));
+                return;
+            }
+            long[] counts = convert(db);
+            db.put(RecordDb.RECORD_FORMAT_KEY.getBytes(ENCODING_TYPE),
+                    RecordDb.RECORD_FORMAT_BINARY.getBytes(ENCODING_TYPE));
+            // 回收被删除的文本记录占用的空间
+            db.compactRange();
+            System.out.println(String.format("convert db %s finish, converted: %d, skipped: %d",
+                    dbFolder, counts[0], counts[1]));
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+            options.close();
+        }
+    }
+
+    private static long[] convert(RocksDB db)
+            throws RocksDBException, UnsupportedEncodingException {
+        long convertedNum = 0;
+        long skippedNum = 0;
+        byte[] prefix = RECORD_KEY_PREFIX.getBytes(ENCODING_TYPE);
+        WriteOptions writeOptions = new WriteOptions();
+        ReadOptions readOptions = new ReadOptions();
+        // iterator读取的是创建时的快照, 转换过程中的写入不影响遍历
+        RocksIterator rocksIterator = db.newIterator(readOptions);
+        WriteBatch writeBatch = new WriteBatch();
+        try {
+            rocksIterator.seek(prefix);
+            while (rocksIterator.isValid()) {
+                byte[] keyBytes = rocksIterator.key();
+                String key = new String(keyBytes, ENCODING_TYPE);
+                if (!key.startsWith(RECORD_KEY_PREFIX)) {
+                    break;
+                }
+                String value = new String(rocksIterator.value(), ENCODING_TYPE);
+                RecordElement recordElement = RecordElement.parseRecord(key, value);
+                if (recordElement == null) {
+                    System.err.println(String.format("skip unrecognized record, key: %s, value: %s",
+                            key, value));
+                    ++skippedNum;
+                } else {
+                    writeBatch.put(recordElement.buildEncodedKey(),
+                            recordElement.buildEncodedValue());
+                    writeBatch.delete(keyBytes);
+                    ++convertedNum;
+                    if (convertedNum % BATCH_SIZE == 0) {
+                        db.write(writeOptions, writeBatch);
+                        writeBatch.clear();
+                        System.out.println(String.format("converted %d records", convertedNum));
+                    }
+                }
+                rocksIterator.next();
+            }
+            db.write(writeOptions, writeBatch);
+        } finally {
+            writeBatch.close();
+            rocksIterator.close();
+            readOptions.close();
+            writeOptions.close();
+        }
+        return new long[] {convertedNum, skippedNum};
+    }
+}
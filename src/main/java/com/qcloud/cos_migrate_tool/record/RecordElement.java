@@ -1,21 +1,151 @@
 package com.qcloud.cos_migrate_tool.record;
 
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.utils.HeadAttr;
 
 public abstract class RecordElement {
     protected MigrateType recordType;
 
+    // 同一个任务中isExist, 日志, saveRecord都会用到key和value, 只计算一次
+    private String key;
+    private String value;
+    private byte[] encodedKey;
+    private byte[] encodedValue;
+
     public RecordElement(MigrateType recordType) {
         super();
         this.recordType = recordType;
     }
 
-    public abstract String buildKey();
+    public MigrateType getRecordType() {
+        return recordType;
+    }
 
-    public abstract String buildValue();
+    public final String buildKey() {
+        if (key == null) {
+            key = formatKey();
+        }
+        return key;
+    }
+
+    public final String buildValue() {
+        if (value == null) {
+            value = formatValue();
+        }
+        return value;
+    }
+
+    public final byte[] buildEncodedKey() {
+        if (encodedKey == null) {
+            encodedKey = encodeKey();
+        }
+        return encodedKey;
+    }
+
+    public final byte[] buildEncodedValue() {
+        if (encodedValue == null) {
+            encodedValue = encodeValue();
+        }
+        return encodedValue;
+    }
 
+    // value依赖的字段变化后需要调用, 清除缓存
+    protected void resetValue() {
+        value = null;
+        encodedValue = null;
+    }
+
+    protected abstract String formatKey();
+
+    protected abstract String formatValue();
+
+    protected abstract byte[] encodeKey();
+
+    protected abstract byte[] encodeValue();
+
+    /**
+     * 解析文本格式的记录, 用于把旧的db转换为二进制格式
+     *
+     * @return 无法识别的记录返回null
+     */
     public static RecordElement parseRecord(String key, String value) {
-        return null;
+        String typePrefix = "[taskType: ";
+        int typeEnd = key.indexOf(']');
+        if (!key.startsWith(typePrefix) || typeEnd < 0) {
+            return null;
+        }
+        String taskType = key.substring(typePrefix.length(), typeEnd);
+        MigrateType migrateType;
+        try {
+            migrateType = MigrateType.fromValue(taskType);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        try {
+            switch (migrateType) {
+                case MIGRATE_FROM_LOCAL:
+                    return new MigrateLocalRecordElement(extractField(key, "bucket", "localPath"),
+                            extractField(key, "localPath", "cosPath"),
+                            extractField(key, "cosPath", null),
+                            Long.valueOf(extractField(value, "mtime", "fileSize")),
+                            Long.valueOf(extractField(value, "fileSize", null)));
+                case MIGRATE_FROM_COS_BUCKET_COPY:
+                    return new MigrateCopyBucketRecordElement(
+                            extractField(key, "destRegion", "destBucketName"),
+                            extractField(key, "destBucketName", "destKey"),
+                            extractField(key, "destKey", "srcRegion"),
+                            extractField(key, "srcRegion", "srcBucketName"),
+                            extractField(key, "srcBucketName", "srcKey"),
+                            extractField(key, "srcKey", "srcStorageClass"),
+                            Long.valueOf(extractField(value, "srcSize", "srcEtag")),
+                            extractField(value, "srcEtag", "srcStorageClass"),
+                            extractField(key, "srcStorageClass", null));
+                case MIGRATE_FROM_URLLIST:
+                    HeadAttr headAttr = null;
+                    if (value.startsWith("[fileSize: ")) {
+                        headAttr = new HeadAttr();
+                        headAttr.fileSize = Long.valueOf(extractField(value, "fileSize", "lastModify"));
+                        headAttr.lastModify = extractField(value, "lastModify", null);
+                    }
+                    return new MigrateUrllistRecordElement(migrateType,
+                            extractField(key, "bucket", "cosPath"),
+                            extractField(key, "cosPath", "url"), extractField(key, "url", null),
+                            headAttr);
+                default:
+                    return new MigrateCompetitorRecordElement(migrateType,
+                            extractField(key, "bucket", "cosPath"),
+                            extractField(key, "cosPath", null),
+                            extractField(value, "etag", null),
+                            Long.valueOf(extractField(value, "fileSize", "etag")));
+            }
+        } catch (NullPointerException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // 取出"[label: xxx]"中的xxx, 路径中可能含有']', 因此以下一个字段的起始位置作为结束
+    private static String extractField(String text, String label, String nextLabel) {
+        String begin = "[" + label + ": ";
+        int start = text.indexOf(begin);
+        if (start < 0) {
+            return null;
+        }
+        start += begin.length();
+        int end;
+        if (nextLabel == null) {
+            end = text.lastIndexOf(']');
+        } else {
+            end = text.indexOf("[" + nextLabel + ": ", start);
+            if (end < 0) {
+                return null;
+            }
+            // 字段之间的分隔符是"] "或者"], "
+            end = text.lastIndexOf(']', end);
+        }
+        if (end < start) {
+            return null;
+        }
+        return text.substring(start, end);
     }
 
     @Override
@@ -0,0 +1,156 @@
+package com.qcloud.cos_migrate_tool.record;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 启动时从RecordDb加载的迁移记录索引, 用于在生成任务时直接跳过没有变化的对象.
+ * 使用开放寻址的long数组保存 key的64位hash -> value的64位hash, 每个槽位16字节, 装载因子保持在0.25~0.5之间, 每条记录约32~64字节.
+ * 索引只做判断, 查不到或者value不一致时仍然走RecordDb的查询流程.
+ */
+public class RecordSkipIndex {
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    // 0表示空槽位, 计算出的hash为0时替换为1
+    private long[] keyHashes;
+    // 0表示记录在运行中被更新过, 不能再根据索引跳过
+    private long[] valueHashes;
+    private int size = 0;
+    private int mask;
+
+    private final AtomicLong lookupCnt = new AtomicLong(0L);
+    private final AtomicLong hitCnt = new AtomicLong(0L);
+
+    // db中requestId等其他数据的数量无法预先区分, 容量按需翻倍
+    RecordSkipIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keyHashes = new long[capacity];
+        valueHashes = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    // 只在加载时单线程调用
+    void put(byte[] key, byte[] value) {
+        if ((size + 1) * 2 > keyHashes.length) {
+            resize();
+        }
+        insert(hash64(key), hash64(value));
+    }
+
+    private void insert(long keyHash, long valueHash) {
+        int slot = (int) keyHash & mask;
+        while (keyHashes[slot] != 0) {
+            if (keyHashes[slot] == keyHash) {
+                valueHashes[slot] = valueHash;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keyHashes[slot] = keyHash;
+        valueHashes[slot] = valueHash;
+        ++size;
+    }
+
+    private void resize() {
+        long[] oldKeyHashes = keyHashes;
+        long[] oldValueHashes = valueHashes;
+        allocate(oldKeyHashes.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeyHashes.length; ++i) {
+            if (oldKeyHashes[i] != 0) {
+                insert(oldKeyHashes[i], oldValueHashes[i]);
+            }
+        }
+    }
+
+    private int findSlot(long keyHash) {
+        int slot = (int) keyHash & mask;
+        while (keyHashes[slot] != 0) {
+            if (keyHashes[slot] == keyHash) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 判断记录是否存在且没有变化
+     *
+     * @param compareValue 为false时只判断key是否存在
+     */
+    boolean contains(byte[] key, byte[] value, boolean compareValue) {
+        lookupCnt.incrementAndGet();
+        int slot = findSlot(hash64(key));
+        if (slot < 0) {
+            return false;
+        }
+        long valueHash = valueHashes[slot];
+        if (valueHash == 0 || (compareValue && valueHash != hash64(value))) {
+            return false;
+        }
+        hitCnt.incrementAndGet();
+        return true;
+    }
+
+    // 记录被重新写入后调用, 之后该key的判断都交给RecordDb
+    void invalidate(byte[] key) {
+        int slot = findSlot(hash64(key));
+        if (slot >= 0) {
+            valueHashes[slot] = 0;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getMemoryBytes() {
+        return 16L * keyHashes.length;
+    }
+
+    public long getLookupCnt() {
+        return lookupCnt.get();
+    }
+
+    public long getHitCnt() {
+        return hitCnt.get();
+    }
+
+    // 基于murmur3的64位hash, 每次处理8个字节
+    static long hash64(byte[] data) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        long h = 0x9E3779B97F4A7C15L ^ data.length;
+        int i = 0;
+        for (; i + 8 <= data.length; i += 8) {
+            long k = (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8 | (data[i + 2] & 0xFFL) << 16
+                    | (data[i + 3] & 0xFFL) << 24 | (data[i + 4] & 0xFFL) << 32
+                    | (data[i + 5] & 0xFFL) << 40 | (data[i + 6] & 0xFFL) << 48
+                    | (data[i + 7] & 0xFFL) << 56;
+            k *= c1;
+            k = Long.rotateLeft(k, 31);
+            k *= c2;
+            h ^= k;
+            h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+        }
+        long tail = 0;
+        for (int shift = 0; i < data.length; ++i, shift += 8) {
+            tail |= (data[i] & 0xFFL) << shift;
+        }
+        if (tail != 0) {
+            tail *= c1;
+            tail = Long.rotateLeft(tail, 31);
+            tail *= c2;
+            h ^= tail;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,191 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 根据上一个周期的上传带宽, 请求耗时以及503/SlowDown比例, 在[min, max]范围内调整任务线程池的线程数(AIMD).
+ * 出现限流或者耗时明显升高时按比例减少, 否则每个周期增加固定的线程数, 增加后带宽没有提升则退回.
+ * 大文件任务线程池以及小文件和大文件的上传线程池按初始配置的比例随任务线程数一起调整.
+ */
+public class AdaptiveConcurrencyController {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyController.class);
+
+    private static final long ADJUST_INTERVAL_MS = 10000;
+    private static final int INCREASE_STEP = 2;
+    private static final double DECREASE_FACTOR = 0.75;
+    // 503/SlowDown占请求数的百分比达到该值时减少线程数
+    private static final long THROTTLED_PERCENT = 1;
+    // 平均耗时超过基准耗时的倍数时减少线程数
+    private static final long LATENCY_FACTOR = 3;
+    // 增加线程后带宽的提升至少达到线性增长的该比例, 否则退回
+    private static final double MIN_SCALING_RATIO = 0.5;
+    // 减少线程后保持不变的周期数
+    private static final int HOLD_WINDOWS = 3;
+
+    private final RequestStatsHandler statsHandler;
+    private final ThreadPoolExecutor taskPool;
+    // 按比例调整的线程池以及各自的初始线程数
+    private final ThreadPoolExecutor[] scaledPools;
+    private final int[] initScaledThreadNums;
+    private final int initThreadNum;
+    private final int minThreadNum;
+    private final int maxThreadNum;
+
+    private int threadNum;
+    private boolean lastIncreased = false;
+    private double throughputBeforeIncrease = 0;
+    private int threadNumBeforeIncrease = 0;
+    private int holdWindows = 0;
+    private long baselineLatencyMs = 0;
+    private ScheduledExecutorService adjustExecutor;
+
+    public AdaptiveConcurrencyController(RequestStatsHandler statsHandler,
+            ThreadPoolExecutor taskPool, int minThreadNum, int maxThreadNum,
+            ThreadPoolExecutor... scaledPools) {
+        this.statsHandler = statsHandler;
+        this.taskPool = taskPool;
+        this.scaledPools = scaledPools;
+        this.initScaledThreadNums = new int[scaledPools.length];
+        for (int i = 0; i < scaledPools.length; ++i) {
+            initScaledThreadNums[i] = scaledPools[i].getMaximumPoolSize();
+        }
+        this.initThreadNum = taskPool.getMaximumPoolSize();
+        this.minThreadNum = minThreadNum;
+        this.maxThreadNum = maxThreadNum;
+        this.threadNum = initThreadNum;
+    }
+
+    public synchronized void start() {
+        if (adjustExecutor != null) {
+            return;
+        }
+        int clampedThreadNum = clamp(threadNum);
+        if (clampedThreadNum != threadNum) {
+            log.info("adaptive concurrency: thread num {} -> {}, reason: out of bounds [{}, {}]",
+                    threadNum, clampedThreadNum, minThreadNum, maxThreadNum);
+            resize(clampedThreadNum);
+        }
+        adjustExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "adaptive-concurrency-controller");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        adjustExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    adjust();
+                } catch (Exception e) {
+                    log.warn("adjust concurrency failed", e);
+                }
+            }
+        }, ADJUST_INTERVAL_MS, ADJUST_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (adjustExecutor != null) {
+            adjustExecutor.shutdownNow();
+            adjustExecutor = null;
+        }
+    }
+
+    synchronized void adjust() {
+        RequestStatsHandler.WindowStats stats = statsHandler.drain();
+        if (stats.requestCnt == 0) {
+            // 没有请求, 例如正在list或者等待执行时间窗口
+            lastIncreased = false;
+            return;
+        }
+        double throughput = stats.uploadBytes * 1000.0 / ADJUST_INTERVAL_MS;
+        long avgLatencyMs = stats.getAvgLatencyMs();
+
+        int newThreadNum = threadNum;
+        String reason;
+        if (stats.throttledCnt * 100 >= stats.requestCnt * THROTTLED_PERCENT) {
+            newThreadNum = (int) (threadNum * DECREASE_FACTOR);
+            holdWindows = HOLD_WINDOWS;
+            reason = "throttled";
+        } else if (baselineLatencyMs > 0 && avgLatencyMs > baselineLatencyMs * LATENCY_FACTOR) {
+            newThreadNum = (int) (threadNum * DECREASE_FACTOR);
+            holdWindows = HOLD_WINDOWS;
+            reason = "latency increased";
+        } else if (lastIncreased && throughput < throughputBeforeIncrease
+                * (1 + MIN_SCALING_RATIO * (threadNum - threadNumBeforeIncrease)
+                        / threadNumBeforeIncrease)) {
+            newThreadNum = threadNumBeforeIncrease;
+            holdWindows = HOLD_WINDOWS;
+            reason = "no throughput gain";
+        } else if (holdWindows > 0) {
+            --holdWindows;
+            reason = "hold";
+        } else if (taskPool.getActiveCount() < threadNum) {
+            // 任务不足以占满线程, 增加线程没有意义
+            reason = "pool not saturated";
+        } else {
+            newThreadNum = threadNum + INCREASE_STEP;
+            reason = "probe";
+        }
+        newThreadNum = clamp(newThreadNum);
+
+        // 基准耗时取各周期平均耗时的最小值, 每个周期放宽5%, 以适应文件大小分布的变化
+        if (baselineLatencyMs == 0 || avgLatencyMs < baselineLatencyMs) {
+            baselineLatencyMs = avgLatencyMs;
+        } else {
+            baselineLatencyMs += Math.max(1, baselineLatencyMs / 20);
+        }
+
+        String msg = String.format(
+                "adaptive concurrency: thread num %d -> %d, reason: %s, throughput: %.2f MB/s, avg latency: %d ms, baseline latency: %d ms, requests: %d, throttled: %d",
+                threadNum, newThreadNum, reason, throughput / 1024 / 1024, avgLatencyMs,
+                baselineLatencyMs, stats.requestCnt, stats.throttledCnt);
+        log.info(msg);
+
+        lastIncreased = newThreadNum > threadNum;
+        if (lastIncreased) {
+            throughputBeforeIncrease = throughput;
+            threadNumBeforeIncrease = threadNum;
+        }
+        if (newThreadNum != threadNum) {
+            resize(newThreadNum);
+        }
+    }
+
+    private int clamp(int num) {
+        return Math.max(minThreadNum, Math.min(maxThreadNum, num));
+    }
+
+    private void resize(int newThreadNum) {
+        threadNum = newThreadNum;
+        resizePool(taskPool, newThreadNum);
+        for (int i = 0; i < scaledPools.length; ++i) {
+            resizePool(scaledPools[i], scale(initScaledThreadNums[i]));
+        }
+    }
+
+    private int scale(int initNum) {
+        return Math.max(1, (int) Math.round((double) initNum * threadNum / initThreadNum));
+    }
+
+    // core不能大于max, 扩大时先调整max, 缩小时先调整core. 多出的线程在空闲后退出
+    private static void resizePool(ThreadPoolExecutor pool, int size) {
+        if (size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+
+    public synchronized int getThreadNum() {
+        return threadNum;
+    }
+}
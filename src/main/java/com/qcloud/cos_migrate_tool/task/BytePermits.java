@@ -0,0 +1,43 @@
+package com.qcloud.cos_migrate_tool.task;
+
+/**
+ * 按字节计的许可, 限制已提交但未完成的任务的数据总量.
+ * 单个任务超过上限时按上限计算, 此时只能单独执行, 但不会永远无法提交.
+ */
+class BytePermits {
+    // 0表示不限制
+    private final long limit;
+    private long available;
+
+    BytePermits(long limit) {
+        this.limit = limit;
+        this.available = limit;
+    }
+
+    /**
+     * @return 实际占用的许可数, 任务结束后需要release
+     */
+    long acquire(long bytes) throws InterruptedException {
+        if (limit <= 0 || bytes <= 0) {
+            return 0;
+        }
+        long permits = Math.min(bytes, limit);
+        synchronized (this) {
+            while (available < permits) {
+                wait();
+            }
+            available -= permits;
+        }
+        return permits;
+    }
+
+    void release(long permits) {
+        if (permits <= 0) {
+            return;
+        }
+        synchronized (this) {
+            available += permits;
+            notifyAll();
+        }
+    }
+}
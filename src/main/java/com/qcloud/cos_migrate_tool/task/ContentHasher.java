@@ -0,0 +1,238 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.qcloud.cos_migrate_tool.config.CommonConfig;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
+import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.utils.Crc64Ecma;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 计算本地文件的全文MD5(用于entireFileMd5Attached)以及CRC64(用于与COS的x-cos-hash-crc64ecma比较).
+ * 从本地迁移时MD5按(路径, 大小, 修改时间, inode)缓存在RecordDb中, 并且在任务排队时就提交到单独的线程池计算,
+ * 线程数为contentHashThreadNum, 计算与其他文件的上传并行, 而不是在上传前串行读一遍文件.
+ * MD5只能顺序计算, 大文件按窗口做内存映射读取, 避免经过堆内缓冲区; CRC64可以合并, 大文件按块在线程池中并行计算.
+ */
+public class ContentHasher {
+    public static final ContentHasher instance = new ContentHasher();
+    private static final Logger log = LoggerFactory.getLogger(ContentHasher.class);
+
+    // 小于该值的文件直接读入内存, 内存映射的开销比读取更大
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    // 大文件每次映射的窗口大小
+    private static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+    // 大于该值的文件按块并行计算CRC64
+    private static final long CRC64_CHUNK_SIZE = 16 * 1024 * 1024;
+    public static final String COS_CRC64_HEADER = "x-cos-hash-crc64ecma";
+
+    private ExecutorService hashExecutor;
+
+    private ContentHasher() {}
+
+    private synchronized void ensureStarted(CommonConfig config) {
+        if (hashExecutor != null) {
+            return;
+        }
+        final AtomicInteger threadIndex = new AtomicInteger(0);
+        hashExecutor = Executors.newFixedThreadPool(config.getContentHashThreadNum(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "content-hash-worker-" + threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * 提交到计算线程池, 先查缓存, 没有命中时计算并写入缓存
+     */
+    public Future<String> submitMd5Hex(CommonConfig config, final RecordDb recordDb,
+            final File file) {
+        ensureStarted(config);
+        return hashExecutor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return cachedMd5Hex(recordDb, file);
+            }
+        });
+    }
+
+    public String cachedMd5Hex(RecordDb recordDb, File file) throws IOException {
+        String localPath = file.getAbsolutePath();
+        long fileSize = file.length();
+        long mtime = file.lastModified();
+        String inode = getInode(file);
+        String md5 = recordDb.queryContentMd5(localPath, fileSize, mtime, inode);
+        if (md5 != null) {
+            return md5;
+        }
+        md5 = md5Hex(file);
+        // 计算期间文件被修改时不缓存
+        if (file.length() == fileSize && file.lastModified() == mtime) {
+            recordDb.saveContentMd5(localPath, fileSize, mtime, inode, md5);
+        }
+        return md5;
+    }
+
+    public static String md5Hex(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < MAP_THRESHOLD) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) fileSize);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+                digest.update(buffer);
+            } else {
+                long position = 0;
+                while (position < fileSize) {
+                    long len = Math.min(MAP_WINDOW_SIZE, fileSize - position);
+                    MappedByteBuffer buffer =
+                            channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+                    digest.update(buffer);
+                    position += len;
+                }
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * 计算文件的CRC64, 大文件按块提交到计算线程池并行计算后合并.
+     * 调用方不能是计算线程池中的线程.
+     */
+    public long crc64(CommonConfig config, File file) throws IOException, InterruptedException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            if (fileSize <= CRC64_CHUNK_SIZE) {
+                return crc64(channel, 0, fileSize);
+            }
+            ensureStarted(config);
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (long position = 0; position < fileSize; position += CRC64_CHUNK_SIZE) {
+                final long start = position;
+                final long len = Math.min(CRC64_CHUNK_SIZE, fileSize - position);
+                futures.add(hashExecutor.submit(new Callable<Long>() {
+                    public Long call() throws IOException {
+                        return crc64(channel, start, len);
+                    }
+                }));
+            }
+            long crc = 0;
+            long position = 0;
+            try {
+                for (Future<Long> future : futures) {
+                    long len = Math.min(CRC64_CHUNK_SIZE, fileSize - position);
+                    long chunkCrc = future.get();
+                    crc = position == 0 ? chunkCrc : Crc64Ecma.combine(crc, chunkCrc, len);
+                    position += len;
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("calculate crc64 failed, file: " + file, e.getCause());
+            } finally {
+                // 出错时不再计算剩余的块, 已经在计算的块在文件关闭后读取失败, 结果不再使用
+                for (Future<Long> future : futures) {
+                    future.cancel(false);
+                }
+            }
+            return crc;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static long crc64(FileChannel channel, long start, long len) throws IOException {
+        Crc64Ecma crc64 = new Crc64Ecma();
+        if (len < MAP_THRESHOLD) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) len);
+            while (buffer.hasRemaining()
+                    && channel.read(buffer, start + buffer.position()) >= 0) {
+            }
+            buffer.flip();
+            crc64.update(buffer);
+        } else {
+            long end = start + len;
+            for (long position = start; position < end; position += MAP_WINDOW_SIZE) {
+                crc64.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW_SIZE, end - position)));
+            }
+        }
+        return crc64.getValue();
+    }
+
+    /**
+     * 与COS上对象的x-cos-hash-crc64ecma比较, 分块上传的对象COS返回的也是整个对象的CRC64
+     *
+     * @return COS没有返回CRC64时返回false, 不一致时抛出异常
+     */
+    public static boolean verifyCrc64(AmazonS3 cosClient, String bucketName, String cosPath,
+            long localCrc64) throws IOException {
+        long startNanos = System.nanoTime();
+        ObjectMetadata cosMeta = cosClient.getObjectMetadata(bucketName, cosPath);
+        MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
+        return verifyCrc64(cosMeta, cosPath, localCrc64);
+    }
+
+    public static boolean verifyCrc64(ObjectMetadata cosMeta, String cosPath, long localCrc64)
+            throws IOException {
+        Object cosCrc64Value = cosMeta.getRawMetadataValue(COS_CRC64_HEADER);
+        if (cosCrc64Value == null || cosCrc64Value.toString().trim().isEmpty()) {
+            log.debug("no crc64 returned by cos, key: {}", cosPath);
+            return false;
+        }
+        long cosCrc64 = Long.parseUnsignedLong(cosCrc64Value.toString().trim());
+        if (cosCrc64 != localCrc64) {
+            throw new IOException(String.format(
+                    "crc64 not match, key: %s, cos crc64: %s, local crc64: %s", cosPath,
+                    Long.toUnsignedString(cosCrc64), Long.toUnsignedString(localCrc64)));
+        }
+        return true;
+    }
+
+    // 文件被替换(例如先写临时文件再rename)时大小和修改时间可能不变, inode会变化
+    private static String getInode(File file) {
+        try {
+            return String.valueOf(Files.getAttribute(file.toPath(), "unix:ino"));
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            log.debug("get inode failed, file: {}, exception: {}", file, e.toString());
+            return "0";
+        }
+    }
+}
@@ -1,26 +1,31 @@
 package com.qcloud.cos_migrate_tool.task;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.Date;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadLocalRandom;
 
 import com.aliyun.oss.OSSClient;
-import com.aliyun.oss.common.utils.CRC64;
 import com.aliyun.oss.event.ProgressEvent;
 import com.aliyun.oss.event.ProgressEventType;
 import com.aliyun.oss.event.ProgressListener;
 import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.OSSObject;
 import com.aliyun.oss.model.ObjectMetadata;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.qcloud.cos_migrate_tool.config.CopyFromAliConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.MigrateCompetitorRecordElement;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+import com.qcloud.cos_migrate_tool.utils.ChecksumVerifyInputStream;
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
 
 public class MigrateAliTask extends Task {
 
@@ -32,8 +37,8 @@ public class MigrateAliTask extends Task {
 
     public MigrateAliTask(CopyFromAliConfig config, OSSClient ossClient, String srcKey,
             long fileSize, String etag, Date lastModify, TransferManager smallFileTransfer,
-            TransferManager bigFileTransfer, RecordDb recordDb, Semaphore semaphore) {
-        super(semaphore, config, smallFileTransfer, bigFileTransfer, recordDb);
+            TransferManager bigFileTransfer, RecordDb recordDb) {
+        super(config, smallFileTransfer, bigFileTransfer, recordDb);
         this.ossClient = ossClient;
         this.srcKey = srcKey;
         this.fileSize = fileSize;
@@ -47,11 +52,7 @@ public class MigrateAliTask extends Task {
 
     private String buildCOSPath() {
         String srcPrefix = ((CopyFromAliConfig) config).getSrcPrefix();
-        int lastDelimiter = srcPrefix.lastIndexOf("/");
-        if (lastDelimiter == 0) {
-            lastDelimiter = -1;
-        }
-        String keyName = srcKey.substring(lastDelimiter + 1);
+        String keyName = srcKey.substring(PathUtils.getSrcStripPrefix(srcPrefix).length());
         String cosPrefix = config.getCosPath();
         if (cosPrefix.endsWith("/")) {
             return cosPrefix + keyName;
@@ -128,6 +129,131 @@ public class MigrateAliTask extends Task {
 
     }
 
+    private com.amazonaws.services.s3.model.ObjectMetadata buildCosMetadata(
+            ObjectMetadata aliMetaData) {
+        com.amazonaws.services.s3.model.ObjectMetadata cosMetadata =
+                new com.amazonaws.services.s3.model.ObjectMetadata();
+        if (aliMetaData.getUserMetadata() != null) {
+            cosMetadata.setUserMetadata(aliMetaData.getUserMetadata());
+        }
+        if (aliMetaData.getCacheControl() != null) {
+            cosMetadata.setCacheControl(aliMetaData.getCacheControl());
+        }
+        if (aliMetaData.getContentDisposition() != null) {
+            cosMetadata.setContentDisposition(aliMetaData.getContentDisposition());
+        }
+        if (aliMetaData.getContentEncoding() != null) {
+            cosMetadata.setContentEncoding(aliMetaData.getContentEncoding());
+        }
+        if (aliMetaData.getContentType() != null) {
+            cosMetadata.setContentType(aliMetaData.getContentType());
+        }
+        if (aliMetaData.getETag() != null) {
+            cosMetadata.addUserMetadata("oss-etag", aliMetaData.getETag());
+        }
+        return cosMetadata;
+    }
+
+    /**
+     * 分段并发下载, 每段作为一个分块上传
+     */
+    private void migrateByRange(String cosPath, MigrateCompetitorRecordElement ossRecordElement) {
+        final String srcBucket = ((CopyFromAliConfig) config).getSrcBucket();
+        try {
+            long startNanos = System.nanoTime();
+            ObjectMetadata aliMetaData = ossClient.getObjectMetadata(srcBucket, srcKey);
+            MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
+            RangeReader rangeReader = new RangeReader() {
+                public InputStream openRange(long start, long end) throws Exception {
+                    GetObjectRequest getObjectRequest = new GetObjectRequest(srcBucket, srcKey);
+                    getObjectRequest.setRange(start, end);
+                    return ossClient.getObject(getObjectRequest).getObjectContent();
+                }
+            };
+            String requestId = uploadByRanges(rangeReader, config.getBucketName(), cosPath,
+                    aliMetaData.getContentLength(), aliMetaData.getETag(),
+                    config.getStorageClass(), buildCosMetadata(aliMetaData));
+            markTaskSuccess(ossRecordElement, cosPath, requestId);
+        } catch (Exception e) {
+            markTaskFail(ossRecordElement, e);
+        }
+    }
+
+    /**
+     * 边下载边上传, 成功返回true; 失败返回false, 由调用方退回到临时文件方式
+     */
+    private boolean migrateByStream(String cosPath,
+            MigrateCompetitorRecordElement ossRecordElement) {
+        OSSObject ossObject = null;
+        boolean succeed = false;
+        try {
+            ossObject = ossClient.getObject(((CopyFromAliConfig) config).getSrcBucket(), srcKey);
+            ObjectMetadata aliMetaData = ossObject.getObjectMetadata();
+            long contentLength = aliMetaData.getContentLength();
+            if (contentLength != this.fileSize) {
+                log.warn("[stream_fallback] task_info: {}, content length {} not equal meta size {}",
+                        ossRecordElement.buildKey(), contentLength, this.fileSize);
+                return false;
+            }
+
+            Long serverCrc64 = null;
+            Object serverChecksum = aliMetaData.getRawMetadata().get("x-oss-hash-crc64ecma");
+            if (serverChecksum != null && !serverChecksum.toString().trim().isEmpty()) {
+                serverCrc64 = Long.parseUnsignedLong(serverChecksum.toString().trim());
+            }
+            ChecksumVerifyInputStream verifyStream =
+                    new ChecksumVerifyInputStream(ossObject.getObjectContent(),
+                            "ali object " + srcKey, contentLength, serverCrc64, null);
+            String requestId = uploadStream(config.getBucketName(), cosPath, verifyStream,
+                    contentLength, config.getStorageClass(), buildCosMetadata(aliMetaData));
+            succeed = true;
+            markTaskSuccess(ossRecordElement, cosPath, requestId);
+            return true;
+        } catch (Exception e) {
+            log.warn("[stream_fallback] task_info: {}, stream migrate failed, exception: {}",
+                    ossRecordElement.buildKey(), e.toString());
+            return false;
+        } finally {
+            if (ossObject != null) {
+                try {
+                    if (succeed) {
+                        ossObject.close();
+                    } else {
+                        ossObject.forcedClose();
+                    }
+                } catch (IOException e) {
+                    log.warn("close ali object stream failed, key: {}, exception: {}", srcKey,
+                            e.toString());
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getTaskSize() {
+        return fileSize;
+    }
+
+    @Override
+    public long getTempFileBytes() {
+        return estimateTempFileBytes(fileSize);
+    }
+
+    @Override
+    public long getBufferBytes() {
+        return estimateBufferBytes(fileSize);
+    }
+
+    @Override
+    public RecordElement buildSkipCheckElement() {
+        // 实时对比模式不使用迁移记录
+        if (config.getRealTimeCompare()) {
+            return null;
+        }
+        return new MigrateCompetitorRecordElement(MigrateType.MIGRATE_FROM_ALI, config.getBucketName(),
+                buildCOSPath(), etag, fileSize);
+    }
+
     @Override
     public void doTask() {
 
@@ -137,11 +263,14 @@ public class MigrateAliTask extends Task {
         MigrateCompetitorRecordElement ossRecordElement = new MigrateCompetitorRecordElement(
                 MigrateType.MIGRATE_FROM_ALI, config.getBucketName(), cosPath, etag, fileSize);
 
-        if (config.getRealTimeCompare()) {
+        // 生成任务时已经list比较过目标的任务不再head目标或查询迁移记录
+        if (config.getRealTimeCompare() && !isDestCompared()) {
             // head
+            long startNanos = System.nanoTime();
             try {
                 com.amazonaws.services.s3.model.ObjectMetadata dstMeta = this.smallFileTransfer.getAmazonS3Client()
                         .getObjectMetadata(config.getBucketName(), cosPath);
+                MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
 
                 if (dstMeta.getLastModified().after(lastModify)) {
                     TaskStatics.instance.addSkipCnt();
@@ -153,6 +282,7 @@ public class MigrateAliTask extends Task {
                     return;
                 }
             } catch (AmazonServiceException e) {
+                MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
                 if (e.getStatusCode() != 404) {
                     log.error("[fail] task_info: {}, exception: {}", ossRecordElement.buildKey(),
                             e.toString());
@@ -174,36 +304,44 @@ public class MigrateAliTask extends Task {
                 return;
             }
 
-        } else if (isExist(ossRecordElement, true)) {
+        } else if (!isDestCompared() && isExist(ossRecordElement, true)) {
             TaskStatics.instance.addSkipCnt();
             return;
         }
 
-        if (config.skipSamePath()) {
+        if (config.skipSamePath() && !isDestCompared()) {
             try {
                 if (isExistOnCOS(smallFileTransfer, ossRecordElement, config.getBucketName(), cosPath)) {
                     TaskStatics.instance.addSkipCnt();
                     return;
                 }
             } catch (Exception e) {
-                String printMsg = String.format("[fail] task_info: %s", ossRecordElement.buildKey());
-                System.err.println(printMsg);
-                log.error("[fail] task_info: {}, exception: {}", ossRecordElement.buildKey(), e.toString());
-                TaskStatics.instance.addFailCnt();
+                markTaskFail(ossRecordElement, e);
                 return;
             }
         }
 
+        if (isRangeDownloadEnabled(fileSize)) {
+            migrateByRange(cosPath, ossRecordElement);
+            return;
+        }
+
+        if (isStreamModeEnabled() && migrateByStream(cosPath, ossRecordElement)) {
+            return;
+        }
+
         ObjectMetadata aliMetaData = null;
         try {
             // download
             // 下载object到文件
             GetObjectProgressListener downloadProgressListener =
                     new GetObjectProgressListener(srcKey);
+            long startNanos = System.nanoTime();
             aliMetaData = ossClient.getObject(
                     new GetObjectRequest(((CopyFromAliConfig) config).getSrcBucket(), srcKey)
                             .<GetObjectRequest>withProgressListener(downloadProgressListener),
                     new File(localPath));
+            MigrateMetrics.instance.recordLatency(Operation.DOWNLOAD, startNanos);
             if (!downloadProgressListener.isSucceed()) {
                 throw new Exception("download from ali failed");
             }
@@ -213,17 +351,9 @@ public class MigrateAliTask extends Task {
                         aliMetaData.getRawMetadata().get("x-oss-hash-crc64ecma").toString().trim();
 
                 if ((serverChecksum != null) && !serverChecksum.isEmpty()) {
-                    FileInputStream stream = new FileInputStream(new File(localPath));
-                    CRC64 crc = new CRC64();
-                    byte[] b = new byte[65536];
-                    int len = 0;
-
-                    while ((len = stream.read(b)) != -1) {
-                        crc.update(b, len);
-                    }
-                    stream.close();
+                    long localCrc = ContentHasher.instance.crc64(config, new File(localPath));
                     BigInteger serverCrcNum = new BigInteger(serverChecksum);
-                    BigInteger localCrcNum = new BigInteger(1, crc.getBytes());
+                    BigInteger localCrcNum = new BigInteger(Long.toUnsignedString(localCrc));
 
                     if (!localCrcNum.equals(serverCrcNum)) {
                         String errMsg = String.format(
@@ -283,44 +413,12 @@ public class MigrateAliTask extends Task {
 
         try {
             com.amazonaws.services.s3.model.ObjectMetadata cosMetadata =
-                    new com.amazonaws.services.s3.model.ObjectMetadata();
-            if (aliMetaData.getUserMetadata() != null) {
-                cosMetadata.setUserMetadata(aliMetaData.getUserMetadata());
-            }
-            if (aliMetaData.getCacheControl() != null) {
-                cosMetadata.setCacheControl(aliMetaData.getCacheControl());
-            }
-            if (aliMetaData.getContentDisposition() != null) {
-                cosMetadata.setContentDisposition(aliMetaData.getContentDisposition());
-            }
-            if (aliMetaData.getContentEncoding() != null) {
-                cosMetadata.setContentEncoding(aliMetaData.getContentEncoding());
-            }
-            if (aliMetaData.getContentType() != null) {
-                cosMetadata.setContentType(aliMetaData.getContentType());
-            }
-            if (aliMetaData.getETag() != null) {
-                cosMetadata.addUserMetadata("oss-etag", aliMetaData.getETag());
-            }
+                    buildCosMetadata(aliMetaData);
             String requestId = uploadFile(config.getBucketName(), cosPath, localFile,
                     config.getStorageClass(), config.isEntireFileMd5Attached(), cosMetadata, null);
-            saveRecord(ossRecordElement);
-            saveRequestId(cosPath, requestId);
-            if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                TaskStatics.instance.addUpdateCnt();
-            }
-            String printMsg = String.format("[ok] [requestid: %s], task_info: %s",
-                    requestId == null ? "NULL" : requestId, ossRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.info(printMsg);
+            markTaskSuccess(ossRecordElement, cosPath, requestId);
         } catch (Exception e) {
-            String printMsg = String.format("[fail] task_info: %s", ossRecordElement.buildKey());
-            System.err.println(printMsg);
-            log.error("[fail] task_info: {}, exception: {}", ossRecordElement.buildKey(),
-                    e.toString());
-            TaskStatics.instance.addFailCnt();
+            markTaskFail(ossRecordElement, e);
         } finally {
             localFile.delete();
         }
@@ -8,7 +8,14 @@ import org.slf4j.LoggerFactory;
 
 import com.qcloud.cos_migrate_tool.config.CopyFromAliConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.listing.ListedObject;
+import com.qcloud.cos_migrate_tool.listing.ListedObjectHandler;
+import com.qcloud.cos_migrate_tool.listing.OssObjectLister;
+import com.qcloud.cos_migrate_tool.listing.PartitionedLister;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
 
 import com.aliyun.oss.*;
@@ -86,7 +93,45 @@ public class MigrateAliTaskExecutor extends TaskExecutor {
         return dbFolderPath;
     }
 
+    // 按目录分区并发list
+    private void buildTaskByPartitions() {
+        PartitionedLister partitionedLister = new PartitionedLister(
+                new OssObjectLister(ossClient, srcBucket), recordDb, srcPrefix,
+                config.getListThreadNum());
+        try {
+            boolean listFinished =
+                    partitionedLister.list(config.isResume(), new ListedObjectHandler() {
+                        public void handle(ListedObject listedObject) throws InterruptedException {
+                            AddTask(buildMigrateTask(listedObject));
+                        }
+                    });
+            TaskStatics.instance.setListFinished(listFinished);
+        } catch (InterruptedException e) {
+            log.error("list is interrupted", e);
+            TaskStatics.instance.setListFinished(false);
+        }
+    }
+
+    private MigrateAliTask buildMigrateTask(ListedObject listedObject) {
+        return new MigrateAliTask(config, ossClient, listedObject.getKey(),
+                listedObject.getSize(), listedObject.getEtag(), listedObject.getLastModified(),
+                smallFileTransferManager, bigFileTransferManager, recordDb);
+    }
+
     public void buildTask() {
+        if (config.isListDiff()) {
+            buildTaskByListDiff(new OssObjectLister(ossClient, srcBucket), srcPrefix,
+                    PathUtils.getSrcStripPrefix(srcPrefix), new ListDiffTaskBuilder() {
+                        public Task buildTask(ListedObject srcObject) {
+                            return buildMigrateTask(srcObject);
+                        }
+                    });
+            return;
+        }
+        if (config.getListThreadNum() > 1) {
+            buildTaskByPartitions();
+            return;
+        }
         final int maxKeys = 1000;
         final String keyPrefix = this.srcPrefix;
         String nextMarker = "";
@@ -102,9 +147,11 @@ public class MigrateAliTaskExecutor extends TaskExecutor {
         do {
             try {
                 do {
+                    long startNanos = System.nanoTime();
                     objectListing = ossClient.listObjects(new ListObjectsRequest(this.srcBucket)
                             .withPrefix(keyPrefix).withMarker(nextMarker).withMaxKeys(maxKeys)
                             .withEncodingType("url"));
+                    MigrateMetrics.instance.recordLatency(Operation.LIST, startNanos);
                     log.info("list next marker: " + nextMarker);
                     List<OSSObjectSummary> sums = objectListing.getObjectSummaries();
                     for (OSSObjectSummary s : sums) {
@@ -112,8 +159,7 @@ public class MigrateAliTaskExecutor extends TaskExecutor {
                         MigrateAliTask task = new MigrateAliTask(config, ossClient,
                                 com.qcloud.cos.utils.UrlEncoderUtils.urlDecode(s.getKey()),
                                 s.getSize(), s.getETag(), s.getLastModified(),
-                                smallFileTransferManager, bigFileTransferManager, recordDb,
-                                semaphore);
+                                smallFileTransferManager, bigFileTransferManager, recordDb);
 
                         AddTask(task);
                     }
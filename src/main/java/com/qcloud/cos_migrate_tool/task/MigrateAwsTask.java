@@ -1,8 +1,9 @@
 package com.qcloud.cos_migrate_tool.task;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.UUID;
-import java.util.concurrent.Semaphore;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -12,12 +13,18 @@ import com.amazonaws.event.ProgressListener;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.qcloud.cos_migrate_tool.config.CopyFromAwsConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.MigrateCompetitorRecordElement;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+import com.qcloud.cos_migrate_tool.utils.ChecksumVerifyInputStream;
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
 
 public class MigrateAwsTask extends Task {
 
@@ -28,8 +35,8 @@ public class MigrateAwsTask extends Task {
 
     public MigrateAwsTask(CopyFromAwsConfig config, AmazonS3 s3Client, String srcKey, long fileSize,
             String etag, TransferManager smallFileTransfer, TransferManager bigFileTransfer,
-            RecordDb recordDb, Semaphore semaphore) {
-        super(semaphore, config, smallFileTransfer, bigFileTransfer, recordDb);
+            RecordDb recordDb) {
+        super(config, smallFileTransfer, bigFileTransfer, recordDb);
         this.s3Client = s3Client;
         this.srcKey = srcKey;
         this.fileSize = fileSize;
@@ -41,11 +48,7 @@ public class MigrateAwsTask extends Task {
 
     private String buildCOSPath() {
         String srcPrefix = ((CopyFromAwsConfig) config).getSrcPrefix();
-        int lastDelimiter = srcPrefix.lastIndexOf("/");
-        if (lastDelimiter == 0) {
-            lastDelimiter = -1;
-        }
-        String keyName = srcKey.substring(lastDelimiter + 1);
+        String keyName = srcKey.substring(PathUtils.getSrcStripPrefix(srcPrefix).length());
         String cosPrefix = config.getCosPath();
         if (cosPrefix.endsWith("/")) {
             return cosPrefix + keyName;
@@ -122,32 +125,156 @@ public class MigrateAwsTask extends Task {
 
     }
 
+    private com.amazonaws.services.s3.model.ObjectMetadata buildCosMetadata(
+            ObjectMetadata awsMetaData) {
+        com.amazonaws.services.s3.model.ObjectMetadata cosMetadata =
+                new com.amazonaws.services.s3.model.ObjectMetadata();
+        if (awsMetaData.getUserMetadata() != null) {
+            cosMetadata.setUserMetadata(awsMetaData.getUserMetadata());
+        }
+        if (awsMetaData.getCacheControl() != null) {
+            cosMetadata.setCacheControl(awsMetaData.getCacheControl());
+        }
+        if (awsMetaData.getContentDisposition() != null) {
+            cosMetadata.setContentDisposition(awsMetaData.getContentDisposition());
+        }
+        if (awsMetaData.getContentEncoding() != null) {
+            cosMetadata.setContentEncoding(awsMetaData.getContentEncoding());
+        }
+        if (awsMetaData.getContentLanguage() != null) {
+            cosMetadata.setContentLanguage(awsMetaData.getContentLanguage());
+        }
+        if (awsMetaData.getContentType() != null) {
+            cosMetadata.setContentType(awsMetaData.getContentType());
+        }
+        if (awsMetaData.getETag() != null) {
+            cosMetadata.addUserMetadata("s3-etag", awsMetaData.getETag());
+        }
+        return cosMetadata;
+    }
+
+    /**
+     * 分段并发下载, 每段作为一个分块上传
+     */
+    private void migrateByRange(String cosPath, MigrateCompetitorRecordElement awsRecordElement) {
+        final String srcBucket = ((CopyFromAwsConfig) config).getSrcBucket();
+        try {
+            long startNanos = System.nanoTime();
+            ObjectMetadata awsMetaData = s3Client.getObjectMetadata(srcBucket, srcKey);
+            MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
+            RangeReader rangeReader = new RangeReader() {
+                public InputStream openRange(long start, long end) throws Exception {
+                    return s3Client
+                            .getObject(new GetObjectRequest(srcBucket, srcKey).withRange(start, end))
+                            .getObjectContent();
+                }
+            };
+            String requestId = uploadByRanges(rangeReader, config.getBucketName(), cosPath,
+                    awsMetaData.getContentLength(), awsMetaData.getETag(),
+                    config.getStorageClass(), buildCosMetadata(awsMetaData));
+            markTaskSuccess(awsRecordElement, cosPath, requestId);
+        } catch (Exception e) {
+            markTaskFail(awsRecordElement, e);
+        }
+    }
+
+    /**
+     * 边下载边上传, 成功返回true; 失败返回false, 由调用方退回到临时文件方式.
+     * 非分块上传的对象SDK读取时会用ETag校验md5, 这里只校验长度.
+     */
+    private boolean migrateByStream(String cosPath,
+            MigrateCompetitorRecordElement awsRecordElement) {
+        S3Object s3Object = null;
+        boolean succeed = false;
+        try {
+            s3Object = s3Client.getObject(((CopyFromAwsConfig) config).getSrcBucket(), srcKey);
+            ObjectMetadata awsMetaData = s3Object.getObjectMetadata();
+            long contentLength = awsMetaData.getContentLength();
+            if (contentLength != this.fileSize) {
+                log.warn("[stream_fallback] task_info: {}, content length {} not equal meta size {}",
+                        awsRecordElement.buildKey(), contentLength, this.fileSize);
+                return false;
+            }
+
+            ChecksumVerifyInputStream verifyStream = new ChecksumVerifyInputStream(
+                    s3Object.getObjectContent(), "aws object " + srcKey, contentLength, null, null);
+            String requestId = uploadStream(config.getBucketName(), cosPath, verifyStream,
+                    contentLength, config.getStorageClass(), buildCosMetadata(awsMetaData));
+            succeed = true;
+            markTaskSuccess(awsRecordElement, cosPath, requestId);
+            return true;
+        } catch (Exception e) {
+            log.warn("[stream_fallback] task_info: {}, stream migrate failed, exception: {}",
+                    awsRecordElement.buildKey(), e.toString());
+            return false;
+        } finally {
+            if (s3Object != null) {
+                if (!succeed) {
+                    s3Object.getObjectContent().abort();
+                }
+                try {
+                    s3Object.close();
+                } catch (IOException e) {
+                    log.warn("close aws object stream failed, key: {}, exception: {}", srcKey,
+                            e.toString());
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getTaskSize() {
+        return fileSize;
+    }
+
+    @Override
+    public long getTempFileBytes() {
+        return estimateTempFileBytes(fileSize);
+    }
+
+    @Override
+    public long getBufferBytes() {
+        return estimateBufferBytes(fileSize);
+    }
+
+    @Override
+    public RecordElement buildSkipCheckElement() {
+        return new MigrateCompetitorRecordElement(MigrateType.MIGRATE_FROM_AWS, config.getBucketName(),
+                buildCOSPath(), etag, fileSize);
+    }
+
     @Override
     public void doTask() {
         String cosPath = buildCOSPath();
 
         MigrateCompetitorRecordElement awsRecordElement = new MigrateCompetitorRecordElement(
                 MigrateType.MIGRATE_FROM_AWS, config.getBucketName(), cosPath, etag, fileSize);
-        if (isExist(awsRecordElement, true)) {
+        if (!isDestCompared() && isExist(awsRecordElement, true)) {
             TaskStatics.instance.addSkipCnt();
             return;
         }
 
-        if (config.skipSamePath()) {
+        if (config.skipSamePath() && !isDestCompared()) {
             try {
                 if (isExistOnCOS(smallFileTransfer, awsRecordElement, config.getBucketName(), cosPath)) {
                     TaskStatics.instance.addSkipCnt();
                     return;
                 }
             } catch (Exception e) {
-                String printMsg = String.format("[fail] task_info: %s", awsRecordElement.buildKey());
-                System.err.println(printMsg);
-                log.error("[fail] task_info: {}, exception: {}", awsRecordElement.buildKey(), e.toString());
-                TaskStatics.instance.addFailCnt();
+                markTaskFail(awsRecordElement, e);
                 return;
             }
         }
 
+        if (isRangeDownloadEnabled(fileSize)) {
+            migrateByRange(cosPath, awsRecordElement);
+            return;
+        }
+
+        if (isStreamModeEnabled() && migrateByStream(cosPath, awsRecordElement)) {
+            return;
+        }
+
         // download
         // 下载object到文件
         String localPath = config.getTempFolderPath() + UUID.randomUUID().toString();
@@ -156,11 +283,13 @@ public class MigrateAwsTask extends Task {
         try {
             GetObjectProgressListener getObjectProgressListener =
                     new GetObjectProgressListener(srcKey);
+            long startNanos = System.nanoTime();
             awsMetaData = s3Client.getObject(
                     new GetObjectRequest(((CopyFromAwsConfig) config).getSrcBucket(), srcKey)
                             .<GetObjectRequest>withGeneralProgressListener(
                                     getObjectProgressListener),
                     localFile);
+            MigrateMetrics.instance.recordLatency(Operation.DOWNLOAD, startNanos);
             if (!localFile.exists()) {
                 String printMsg =
                         String.format("[fail] [task_info: %s]", awsRecordElement.buildKey());
@@ -203,40 +332,11 @@ public class MigrateAwsTask extends Task {
 
         // upload file
         try {
-            com.amazonaws.services.s3.model.ObjectMetadata cosMetadata = new com.amazonaws.services.s3.model.ObjectMetadata();
-            if (awsMetaData.getUserMetadata() != null) {
-                cosMetadata.setUserMetadata(awsMetaData.getUserMetadata());
-            }
-            if (awsMetaData.getCacheControl() != null) {
-                cosMetadata.setCacheControl(awsMetaData.getCacheControl());
-            }
-            if (awsMetaData.getContentDisposition() != null) {
-                cosMetadata.setContentDisposition(awsMetaData.getContentDisposition());
-            }
-            if (awsMetaData.getContentEncoding() != null) {
-                cosMetadata.setContentEncoding(awsMetaData.getContentEncoding());
-            }
-            if (awsMetaData.getContentLanguage() != null) {
-                cosMetadata.setContentLanguage(awsMetaData.getContentLanguage());
-            }
-            if (awsMetaData.getContentType() != null) {
-                cosMetadata.setContentType(awsMetaData.getContentType());
-            }
-            if (awsMetaData.getETag() != null) {
-                cosMetadata.addUserMetadata("s3-etag", awsMetaData.getETag());
-            }
+            com.amazonaws.services.s3.model.ObjectMetadata cosMetadata =
+                    buildCosMetadata(awsMetaData);
             String requestId = uploadFile(config.getBucketName(), cosPath, localFile,
                     config.getStorageClass(), config.isEntireFileMd5Attached(), cosMetadata, null);
-            saveRecord(awsRecordElement);
-            saveRequestId(cosPath, requestId);
-            if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                TaskStatics.instance.addUpdateCnt();
-            }
-            String printMsg = String.format("[ok] [requestid: %s], task_info: %s", requestId == null ? "NULL" : requestId, awsRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.info(printMsg);
+            markTaskSuccess(awsRecordElement, cosPath, requestId);
         } catch (Exception e) {
             String printMsg = String.format("[fail] [task_info: %s]", awsRecordElement.buildKey());
             System.out.println(printMsg);
@@ -6,7 +6,14 @@ import org.slf4j.LoggerFactory;
 
 import com.qcloud.cos_migrate_tool.config.CopyFromAwsConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.listing.ListedObject;
+import com.qcloud.cos_migrate_tool.listing.ListedObjectHandler;
+import com.qcloud.cos_migrate_tool.listing.PartitionedLister;
+import com.qcloud.cos_migrate_tool.listing.S3ObjectLister;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -93,7 +100,48 @@ public class MigrateAwsTaskExecutor extends TaskExecutor {
         return dbFolderPath;
     }
 
+    // 按目录分区并发list
+    private void buildTaskByPartitions() {
+        PartitionedLister partitionedLister = new PartitionedLister(
+                new S3ObjectLister(s3Client, srcBucket), recordDb, srcPrefix,
+                config.getListThreadNum());
+        try {
+            boolean listFinished =
+                    partitionedLister.list(config.isResume(), new ListedObjectHandler() {
+                        public void handle(ListedObject listedObject) throws InterruptedException {
+                            MigrateAwsTask task = buildMigrateTask(listedObject);
+                            log.info("list key: {}, size: {}, etag: {}", listedObject.getKey(),
+                                    listedObject.getSize(), listedObject.getEtag());
+                            AddTask(task);
+                        }
+                    });
+            TaskStatics.instance.setListFinished(listFinished);
+        } catch (InterruptedException e) {
+            log.error("list is interrupted", e);
+            TaskStatics.instance.setListFinished(false);
+        }
+    }
+
+    private MigrateAwsTask buildMigrateTask(ListedObject listedObject) {
+        return new MigrateAwsTask(config, s3Client, listedObject.getKey(),
+                listedObject.getSize(), listedObject.getEtag(), smallFileTransferManager,
+                bigFileTransferManager, recordDb);
+    }
+
     public void buildTask() {
+        if (config.isListDiff()) {
+            buildTaskByListDiff(new S3ObjectLister(s3Client, srcBucket), srcPrefix,
+                    PathUtils.getSrcStripPrefix(srcPrefix), new ListDiffTaskBuilder() {
+                        public Task buildTask(ListedObject srcObject) {
+                            return buildMigrateTask(srcObject);
+                        }
+                    });
+            return;
+        }
+        if (config.getListThreadNum() > 1) {
+            buildTaskByPartitions();
+            return;
+        }
         String nextMarker = "";
         String[] progress = this.recordDb.getListProgress();
         if (config.isResume() && progress != null) {
@@ -107,13 +155,15 @@ public class MigrateAwsTaskExecutor extends TaskExecutor {
             ObjectListing objectListing = null;
             do {
 
+                long startNanos = System.nanoTime();
                 objectListing = s3Client.listObjects(listObjectsRequest);
+                MigrateMetrics.instance.recordLatency(Operation.LIST, startNanos);
                 for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
                     // AddTask
                     MigrateAwsTask task = new MigrateAwsTask(config, s3Client,
                             objectSummary.getKey(), objectSummary.getSize(),
                             objectSummary.getETag(), smallFileTransferManager,
-                            bigFileTransferManager, recordDb, semaphore);
+                            bigFileTransferManager, recordDb);
                     log.info("list key: {}, size: {}, etag: {}", objectSummary.getKey(),
                             objectSummary.getSize(), objectSummary.getETag());
 
@@ -1,7 +1,6 @@
 package com.qcloud.cos_migrate_tool.task;
 
 import java.io.File;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadLocalRandom;
 
 import com.amazonaws.AmazonServiceException;
@@ -14,93 +13,100 @@ import com.amazonaws.services.s3.transfer.Copy;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.model.CopyResult;
 import com.qcloud.cos_migrate_tool.config.CopyBucketConfig;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.MigrateCopyBucketRecordElement;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
 
 public class MigrateCopyBucketTask extends Task {
+    // 每个对象一个任务, 只保存对象自身的信息, 源和目的bucket等配置从config读取
     private final AmazonS3 srcCOSClient;
-    private final String destRegion;
-    private final String destBucketName;
     private final String destKey;
-    private final String srcRegion;
-    private final String srcEndpointSuffx;
-    private final String srcBucketName;
     private final String srcKey;
     private final StorageClass srcStorageClass;
     private long srcSize;
     private String srcEtag;
-    private CopyBucketConfig copyBucketConfig;
 
-    public MigrateCopyBucketTask(Semaphore semaphore, CopyBucketConfig config,
+    public MigrateCopyBucketTask(CopyBucketConfig config,
             TransferManager smallFileTransfer, TransferManager bigFileTransfer, RecordDb recordDb,
             AmazonS3 srcCOSClient, String srcKey, long srcSize, String srcEtag, StorageClass srcStorageClass,
             String destKey) {
-        super(semaphore, config, smallFileTransfer, bigFileTransfer, recordDb);
+        super(config, smallFileTransfer, bigFileTransfer, recordDb);
         this.srcCOSClient = srcCOSClient;
-        this.destRegion = config.getRegion();
-        this.destBucketName = config.getBucketName();
         while (destKey.startsWith("/")) {
             destKey = destKey.substring(1);
         }
         this.destKey = destKey;
-        this.srcRegion = config.getSrcRegion();
-        this.srcEndpointSuffx = config.getSrcEndpointSuffix();
-        this.srcBucketName = config.getSrcBucket();
         this.srcKey = srcKey;
         this.srcStorageClass = srcStorageClass;
         this.srcSize = srcSize;
         this.srcEtag = srcEtag;
-        this.copyBucketConfig = (CopyBucketConfig)config;
+    }
+
+    private CopyBucketConfig getCopyBucketConfig() {
+        return (CopyBucketConfig) config;
+    }
+
+    private MigrateCopyBucketRecordElement buildRecordElement() {
+        CopyBucketConfig copyBucketConfig = getCopyBucketConfig();
+        return new MigrateCopyBucketRecordElement(copyBucketConfig.getRegion(),
+                copyBucketConfig.getBucketName(), destKey, copyBucketConfig.getSrcRegion(),
+                copyBucketConfig.getSrcBucket(), srcKey, srcSize, srcEtag,
+                srcStorageClass.toString());
     }
 
 
     private void transferFileForNotAllowedCopyObject(MigrateCopyBucketRecordElement copyElement) {
+        String srcBucketName = getCopyBucketConfig().getSrcBucket();
+        String destBucketName = config.getBucketName();
         String downloadTempPath =
                 config.getTempFolderPath() + ThreadLocalRandom.current().nextLong();
         File downloadTempFile = new File(downloadTempPath);
         try {
+            long startNanos = System.nanoTime();
             ObjectMetadata objectMetadata = srcCOSClient
                     .getObject(new GetObjectRequest(srcBucketName, srcKey), downloadTempFile);
+            MigrateMetrics.instance.recordLatency(Operation.DOWNLOAD, startNanos);
             String requestId = uploadFile(destBucketName, destKey, downloadTempFile,
                     config.getStorageClass(), config.isEntireFileMd5Attached(), objectMetadata, null);
-            saveRecord(copyElement);
-            saveRequestId(destKey, requestId);
-            if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                TaskStatics.instance.addUpdateCnt();
-            }
-            String printMsg = String.format("[ok] [requestid: %s], task_info: %s",
-                    requestId == null ? "NULL" : requestId,
-                    copyElement.buildKey());
-            System.out.println(printMsg);
-            log.info(printMsg);
+            markTaskSuccess(copyElement, destKey, requestId);
         } catch (Exception e) {
-            String printMsg = String.format("[fail] task_info: %s",
-                    copyElement.buildKey());
-            System.out.println(printMsg);
-            log.error("fail! task_info: [key: {}], [value: {}], exception: {}",
-                    copyElement.buildKey(),
-                    copyElement.buildValue(), e.toString());
-            TaskStatics.instance.addFailCnt();
+            markTaskFail(copyElement, e);
         }
     }
 
 
+    @Override
+    public long getTaskSize() {
+        return srcSize;
+    }
+
+    @Override
+    public RecordElement buildSkipCheckElement() {
+        // etag需要执行任务时head源文件获取
+        if (srcEtag.isEmpty()) {
+            return null;
+        }
+        return buildRecordElement();
+    }
+
     @Override
     public void doTask() {
-        
+        CopyBucketConfig copyBucketConfig = getCopyBucketConfig();
+        String srcBucketName = copyBucketConfig.getSrcBucket();
+        String destBucketName = copyBucketConfig.getBucketName();
         if (srcEtag.isEmpty()) {
+            long startNanos = System.nanoTime();
             ObjectMetadata objectMetadata = srcCOSClient.getObjectMetadata(srcBucketName, srcKey);
+            MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
             srcEtag = objectMetadata.getETag();
             this.srcSize = objectMetadata.getContentLength();
         }
  
-        MigrateCopyBucketRecordElement migrateCopyBucketRecordElement =
-                new MigrateCopyBucketRecordElement(destRegion, destBucketName, destKey, srcRegion,
-                        srcBucketName, srcKey, srcSize, srcEtag, srcStorageClass.toString());
-        if (isExist(migrateCopyBucketRecordElement, true)) {
+        MigrateCopyBucketRecordElement migrateCopyBucketRecordElement = buildRecordElement();
+        if (!isDestCompared() && isExist(migrateCopyBucketRecordElement, true)) {
             TaskStatics.instance.addSkipCnt();
             return;
         }
@@ -113,17 +119,14 @@ public class MigrateCopyBucketTask extends Task {
             }
         }
 
-        if (config.skipSamePath()) {
+        if (config.skipSamePath() && !isDestCompared()) {
             try {
                 if (isExistOnCOS(smallFileTransfer, migrateCopyBucketRecordElement, destBucketName, destKey)) {
                     TaskStatics.instance.addSkipCnt();
                     return;
                 }
             } catch (Exception e) {
-                String printMsg = String.format("[fail] task_info: %s", migrateCopyBucketRecordElement.buildKey());
-                System.err.println(printMsg);
-                log.error("[fail] task_info: {}, exception: {}", migrateCopyBucketRecordElement.buildKey(), e.toString());
-                TaskStatics.instance.addFailCnt();
+                markTaskFail(migrateCopyBucketRecordElement, e);
                 return;
             }
         }
@@ -138,23 +141,15 @@ public class MigrateCopyBucketTask extends Task {
         
         copyObjectRequest.setStorageClass(this.config.getStorageClass());
         
+        long startNanos = System.nanoTime();
         try {
             Copy copy = smallFileTransfer.copy(copyObjectRequest, srcCOSClient, null);
             CopyResult copyResult = copy.waitForCopyResult();
-            String requestId = "null";
-            saveRecord(migrateCopyBucketRecordElement);
-            saveRequestId(destKey, requestId);
-            if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                TaskStatics.instance.addUpdateCnt();
-            }
-            String printMsg = String.format("[ok] [requestid: %s], task_info: %s",
-                    requestId == null ? "NULL" : requestId,
-                    migrateCopyBucketRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.info(printMsg);
+            MigrateMetrics.instance.recordLatency(Operation.UPLOAD, startNanos);
+            setTransferredBytes(srcSize);
+            markTaskSuccess(migrateCopyBucketRecordElement, destKey, "null");
         } catch (Exception e) {
+            MigrateMetrics.instance.recordLatency(Operation.UPLOAD, startNanos);
             if (e instanceof AmazonServiceException) {
                 if (((AmazonServiceException) e).getStatusCode() == 405) {
                     log.info(
@@ -165,13 +160,7 @@ public class MigrateCopyBucketTask extends Task {
                     return;
                 }
             }
-            String printMsg = String.format("[fail] task_info: %s",
-                    migrateCopyBucketRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.error("fail! task_info: [key: {}], [value: {}], exception: {}",
-                    migrateCopyBucketRecordElement.buildKey(),
-                    migrateCopyBucketRecordElement.buildValue(), e.toString());
-            TaskStatics.instance.addFailCnt();
+            markTaskFail(migrateCopyBucketRecordElement, e);
         }
     }
 
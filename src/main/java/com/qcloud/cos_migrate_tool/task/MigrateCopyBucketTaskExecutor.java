@@ -25,6 +25,12 @@ import com.amazonaws.util.SdkHttpUtils;
 import com.qcloud.cos.utils.UrlEncoderUtils;
 import com.qcloud.cos_migrate_tool.config.CopyBucketConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.listing.ListedObject;
+import com.qcloud.cos_migrate_tool.listing.ListedObjectHandler;
+import com.qcloud.cos_migrate_tool.listing.PartitionedLister;
+import com.qcloud.cos_migrate_tool.listing.S3ObjectLister;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
 import com.qcloud.cos_migrate_tool.utils.VersionInfoUtils;
@@ -109,10 +115,47 @@ public class MigrateCopyBucketTaskExecutor extends TaskExecutor {
         return dbFolderPath;
     }
 
+    private String buildCopyDestKey(String srcKey, int lastDelimiter) {
+        String keyName = srcKey.substring(lastDelimiter);
+        if (config.getCosPath().length() == 0 || config.getCosPath().endsWith("/")) {
+            return config.getCosPath() + keyName;
+        } else {
+            return config.getCosPath() + "/" + keyName;
+        }
+    }
+
+    private MigrateCopyBucketTask buildMigrateTask(ListedObject listedObject,
+            int lastDelimiter) {
+        return new MigrateCopyBucketTask((CopyBucketConfig) config, smallFileTransferManager,
+                bigFileTransferManager, recordDb, srcCosClient, listedObject.getKey(),
+                listedObject.getSize(), listedObject.getEtag(),
+                StorageClass.fromValue(listedObject.getStorageClass()),
+                buildCopyDestKey(listedObject.getKey(), lastDelimiter));
+    }
+
+    // 按目录分区并发list
+    private void buildTaskByPartitions(final int lastDelimiter) {
+        PartitionedLister partitionedLister = new PartitionedLister(
+                new S3ObjectLister(srcCosClient, srcBucketName), recordDb, srcCosPath,
+                config.getListThreadNum());
+        try {
+            boolean listFinished =
+                    partitionedLister.list(config.isResume(), new ListedObjectHandler() {
+                        public void handle(ListedObject listedObject) throws InterruptedException {
+                            AddTask(buildMigrateTask(listedObject, lastDelimiter));
+                        }
+                    });
+            TaskStatics.instance.setListFinished(listFinished);
+        } catch (InterruptedException e) {
+            log.error("list is interrupted", e);
+            TaskStatics.instance.setListFinished(false);
+        }
+    }
+
     @Override
     public void buildTask() {
 
-        int lastDelimiter = srcCosPath.lastIndexOf("/") + 1;
+        final int lastDelimiter = srcCosPath.lastIndexOf("/") + 1;
 
         if (!srcFileList.isEmpty()) {
             File file = new File(srcFileList);
@@ -149,7 +192,7 @@ public class MigrateCopyBucketTaskExecutor extends TaskExecutor {
                     // set storage class to Standard just for a non-null value needed
                     // no side effect
                     MigrateCopyBucketTask task =
-                            new MigrateCopyBucketTask(semaphore, (CopyBucketConfig) config,
+                            new MigrateCopyBucketTask((CopyBucketConfig) config,
                                     smallFileTransferManager, bigFileTransferManager, recordDb,
                                     srcCosClient, srcKey, 0, "", StorageClass.Standard, copyDestKey);
 
@@ -181,6 +224,15 @@ public class MigrateCopyBucketTaskExecutor extends TaskExecutor {
             }
 
 
+        } else if (config.isListDiff()) {
+            buildTaskByListDiff(new S3ObjectLister(srcCosClient, srcBucketName), srcCosPath,
+                    srcCosPath.substring(0, lastDelimiter), new ListDiffTaskBuilder() {
+                        public Task buildTask(ListedObject srcObject) {
+                            return buildMigrateTask(srcObject, lastDelimiter);
+                        }
+                    });
+        } else if (config.getListThreadNum() > 1) {
+            buildTaskByPartitions(lastDelimiter);
         } else {
             String nextMarker = "";
             String[] progress = this.recordDb.getListProgress();
@@ -198,7 +250,9 @@ public class MigrateCopyBucketTaskExecutor extends TaskExecutor {
                 try {
                     while (true) {
                         listObjectsRequest.setMarker(nextMarker);
+                        long startNanos = System.nanoTime();
                         objectListing = srcCosClient.listObjects(listObjectsRequest);
+                        MigrateMetrics.instance.recordLatency(Operation.LIST, startNanos);
                         List<S3ObjectSummary> cosObjectSummaries =
                                 objectListing.getObjectSummaries();
 
@@ -206,15 +260,9 @@ public class MigrateCopyBucketTaskExecutor extends TaskExecutor {
                             String srcKey = cosObjectSummary.getKey();
                             String srcEtag = cosObjectSummary.getETag();
                             long srcSize = cosObjectSummary.getSize();
-                            String keyName = srcKey.substring(lastDelimiter);
-                            String copyDestKey;
-                            if (config.getCosPath().length() == 0 || config.getCosPath().endsWith("/")) {
-                                copyDestKey = config.getCosPath() + keyName;
-                            } else {
-                                copyDestKey = config.getCosPath() + "/" + keyName;
-                            }
-
-                            MigrateCopyBucketTask task = new MigrateCopyBucketTask(semaphore,
+                            String copyDestKey = buildCopyDestKey(srcKey, lastDelimiter);
+
+                            MigrateCopyBucketTask task = new MigrateCopyBucketTask(
                                     (CopyBucketConfig) config, smallFileTransferManager,
                                     bigFileTransferManager, recordDb, srcCosClient, srcKey, srcSize,
                                     srcEtag, StorageClass.fromValue(cosObjectSummary.getStorageClass()),
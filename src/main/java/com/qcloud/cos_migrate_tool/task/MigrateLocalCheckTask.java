@@ -2,14 +2,14 @@ package com.qcloud.cos_migrate_tool.task;
 
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.concurrent.Semaphore;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.transfer.TransferManager;
-import com.qcloud.cos.utils.CRC64;
 import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
+import com.qcloud.cos_migrate_tool.meta.TaskOutput;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
@@ -25,10 +25,10 @@ public class MigrateLocalCheckTask extends Task {
     private String cosFolder;
     private File localFile;
 
-    public MigrateLocalCheckTask(Semaphore semaphore, CopyFromLocalConfig copyFromLocalConfig,
+    public MigrateLocalCheckTask(CopyFromLocalConfig copyFromLocalConfig,
             TransferManager smallFileTransfer, TransferManager bigFileTransfer, RecordDb recordDb,
             File localFile) {
-        super(semaphore, copyFromLocalConfig, smallFileTransfer, bigFileTransfer, recordDb);
+        super(copyFromLocalConfig, smallFileTransfer, bigFileTransfer, recordDb);
         this.bucketName = copyFromLocalConfig.getBucketName();
         this.localFolder = copyFromLocalConfig.getLocalPath();
         this.cosFolder = copyFromLocalConfig.getCosPath();
@@ -44,53 +44,40 @@ public class MigrateLocalCheckTask extends Task {
     public void doTask() {
         String localPath = SystemUtils.formatLocalPath(localFile.getPath());
         String cosPath = buildCOSPath(localPath);
+        // 与上传时一致, 请求的key不能以/开头
+        String cosKey = cosPath;
+        while (cosKey.startsWith("/")) {
+            cosKey = cosKey.substring(1);
+        }
         try {
-            ObjectMetadata cosMeta = this.smallFileTransfer.getAmazonS3Client().getObjectMetadata(bucketName, cosPath);
-            //String localCrc64 = calculateCrc64(localFile);
+            long startNanos = System.nanoTime();
+            ObjectMetadata cosMeta = this.smallFileTransfer.getAmazonS3Client().getObjectMetadata(bucketName, cosKey);
+            MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
 
             long localLen = localFile.length();
             long cosLen = cosMeta.getContentLength();
 
-            if (localLen == cosLen) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                String printMsg =
-                        String.format("[fail] check length fail: %s. cosLength: %s, localLength: %s",
-                            cosPath, cosLen, localLen);
-                System.out.println(printMsg);
-                log.error(printMsg);
+            if (localLen != cosLen) {
+                TaskOutput.instance.reportFail(cosPath, String.format(
+                        "check length fail, cosLength: %d, localLength: %d", cosLen, localLen));
                 TaskStatics.instance.addFailCnt();
                 return;
             }
-            
-            String printMsg =
-                    String.format("[ok] check length ok: %s", cosPath);
-            System.out.println(printMsg);
-            log.info(printMsg);
+
+            // 大小一致时再比较CRC64, 不一致时抛出异常
+            if (config.isVerifyCrc64()) {
+                ContentHasher.verifyCrc64(cosMeta, cosPath, calculateCrc64(localFile));
+            }
+
+            TaskStatics.instance.addSuccessCnt();
+            TaskOutput.instance.reportOk(cosPath, null, localLen);
         } catch (Exception e) {
-            String printMsg =
-                    String.format("[fail] check length fail: %s", cosPath);
-            System.out.println(printMsg);
-            log.error("fail! checkout length fail: %s, exception: %s",
-                    cosPath,e.toString());
+            TaskOutput.instance.reportFail(cosPath, "check fail, " + e.toString());
             TaskStatics.instance.addFailCnt();
         }
     }
 
-    String calculateCrc64(File localFile) throws IOException {
-        CRC64 crc64 = new CRC64();
-
-        try (FileInputStream stream = new FileInputStream(localFile)) {
-            byte[] b = new byte[1024 * 1024];
-            while (true) {
-                final int read = stream.read(b);
-                if (read <= 0) {
-                    break;
-                }
-                crc64.update(b, read);
-            }
-        }
-
-        return Long.toUnsignedString(crc64.getValue());
+    public long calculateCrc64(File localFile) throws IOException, InterruptedException {
+        return ContentHasher.instance.crc64(config, localFile);
     }
 }
@@ -8,17 +8,30 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import com.qcloud.cos_migrate_tool.config.CommonConfig;
 import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.listing.ListedObject;
+import com.qcloud.cos_migrate_tool.listing.S3ObjectLister;
+import com.qcloud.cos_migrate_tool.listing.SortedLocalScanner;
+import com.qcloud.cos_migrate_tool.listing.SortedObjectCursor;
+import com.qcloud.cos_migrate_tool.meta.TaskOutput;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
+import com.qcloud.cos_migrate_tool.record.MigrateLocalRecordElement;
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * 从本地迁移完成后校验COS上的对象.
+ * head方式对文件列表中的每个文件head一次; list和record方式按顺序list cosPath下的全部对象,
+ * 分别与按相同顺序扫描的本地目录, db中的迁移记录归并比较, 只对大小不一致的对象提交逐个head的校验任务.
+ */
 public class MigrateLocalCheckTaskExecutor extends TaskExecutor {
-    
+
     private static final Logger log = LoggerFactory.getLogger(MigrateLocalTaskExecutor.class);
 
     private String bucketName;
@@ -77,7 +90,7 @@ public class MigrateLocalCheckTaskExecutor extends TaskExecutor {
                     if (reason.isEmpty()) {
                         File localFile = new File(file.toString());
 
-                        MigrateLocalCheckTask migrateLocalCheckTask = new MigrateLocalCheckTask(semaphore,
+                        MigrateLocalCheckTask migrateLocalCheckTask = new MigrateLocalCheckTask(
                                 config, smallFileTransferManager,
                                 bigFileTransferManager, recordDb, localFile);
                         AddTask(migrateLocalCheckTask);
@@ -105,10 +118,254 @@ public class MigrateLocalCheckTaskExecutor extends TaskExecutor {
     }
 
     public void buildTask() {
-        if(config.isFileListMode()) {
+        String checkMode = config.getCheckMode();
+        if (checkMode.isEmpty()) {
+            checkMode = config.isFileListMode() ? CommonConfig.CHECK_MODE_HEAD
+                    : CommonConfig.CHECK_MODE_LIST;
+        }
+        if (checkMode.equals(CommonConfig.CHECK_MODE_HEAD) && !config.isFileListMode()) {
+            log.warn("checkMode head only support fileListMode, use list instead");
+            checkMode = CommonConfig.CHECK_MODE_LIST;
+        }
+        if (checkMode.equals(CommonConfig.CHECK_MODE_LIST) && config.isFileListMode()) {
+            log.warn("checkMode list does not support fileListMode, use record instead");
+            checkMode = CommonConfig.CHECK_MODE_RECORD;
+        }
+
+        if (checkMode.equals(CommonConfig.CHECK_MODE_HEAD)) {
             buildFileListTask();
+        } else if (checkMode.equals(CommonConfig.CHECK_MODE_LIST)) {
+            buildListingCheckTask();
+        } else {
+            buildRecordCheckTask();
+        }
+    }
+
+    private String buildCOSPath(String localPath) {
+        return cosFolder + localPath.substring(localFolder.length());
+    }
+
+    // list返回的key不以/开头
+    private static String toCosKey(String cosPath) {
+        while (cosPath.startsWith("/")) {
+            cosPath = cosPath.substring(1);
+        }
+        return cosPath;
+    }
+
+    private SortedObjectCursor startCosCursor() {
+        SortedObjectCursor cursor = new SortedObjectCursor(
+                new S3ObjectLister(s3Client, bucketName), toCosKey(cosFolder));
+        cursor.start();
+        return cursor;
+    }
+
+    // 控制台等创建的目录对象, 本地扫描不会产生对应的文件
+    private static boolean isDirObject(ListedObject listedObject) {
+        return listedObject.getKey().endsWith("/") && listedObject.getSize() == 0;
+    }
+
+    /**
+     * list COS与按相同顺序扫描的本地目录归并比较
+     */
+    private void buildListingCheckTask() {
+        String printMsg = String.format("check by listing, local folder: %s, cos folder: %s",
+                localFolder, cosFolder);
+        System.out.println(printMsg);
+        log.info(printMsg);
+
+        SortedLocalScanner scanner = new SortedLocalScanner(Paths.get(localFolder));
+        SortedObjectCursor cursor = startCosCursor();
+        ListingCheckStatics statics = new ListingCheckStatics();
+        boolean listFinished = false;
+        try {
+            SortedLocalScanner.Entry entry;
+            while ((entry = scanner.next()) != null) {
+                if (entry.isDirectory()) {
+                    String dirPath;
+                    try {
+                        dirPath = SystemUtils.formatLocalPath(entry.getPath(), true);
+                    } catch (IllegalArgumentException e) {
+                        log.error("skip the folder and it's sub member for illegal utf-8 letter");
+                        scanner.skipDirectory();
+                        continue;
+                    }
+                    if (config.isExcludes(dirPath)) {
+                        log.info("exclude folder: " + dirPath);
+                        scanner.skipDirectory();
+                        // 排除的目录下COS上的对象不算多余的对象
+                        String dirKey = toCosKey(buildCOSPath(dirPath));
+                        reportExtraObjects(cursor, dirKey, statics);
+                        ListedObject cosObject;
+                        while ((cosObject = cursor.peek()) != null
+                                && cosObject.getKey().startsWith(dirKey)) {
+                            cursor.next();
+                        }
+                    }
+                    continue;
+                }
+
+                String localPath;
+                try {
+                    localPath = SystemUtils.formatLocalPath(entry.getPath(), false);
+                } catch (IllegalArgumentException e) {
+                    log.error("skip the file for illegal utf-8 letter");
+                    continue;
+                }
+                String cosPath = buildCOSPath(localPath);
+                String cosKey = toCosKey(cosPath);
+                reportExtraObjects(cursor, cosKey, statics);
+                ListedObject cosObject = null;
+                if (cursor.peek() != null && cursor.peek().getKey().equals(cosKey)) {
+                    cosObject = cursor.next();
+                }
+
+                long localLen = entry.getAttrs().size();
+                String reason = config.needToMigrate(entry.getPath(), localPath, localLen);
+                if (!reason.isEmpty()) {
+                    TaskOutput.instance.reportConditionNotMatch(localPath, reason);
+                    TaskStatics.instance.addConditionNotMatchCnt();
+                    continue;
+                }
+                ++statics.localNum;
+                if (cosObject == null) {
+                    ++statics.missingNum;
+                    TaskOutput.instance.reportFail(cosPath, "check fail, not exist on cos");
+                    TaskStatics.instance.addFailCnt();
+                } else {
+                    checkListedObject(cosObject, cosPath, localLen,
+                            new File(entry.getPath().toString()), statics);
+                }
+            }
+            reportExtraObjects(cursor, null, statics);
+            listFinished = !scanner.isFailed();
+        } catch (InterruptedException e) {
+            log.error("check by listing is interrupted", e);
+        } catch (Exception e) {
+            log.error("check by listing fail, list cos folder {} error: {}", cosFolder,
+                    e.toString());
+        } finally {
+            cursor.close();
+        }
+        TaskStatics.instance.setListFinished(listFinished);
+        statics.print(CommonConfig.CHECK_MODE_LIST, cursor.getListedNum());
+    }
+
+    /**
+     * list COS并按key查询db中的迁移记录, 不扫描本地目录. 记录中的key是hash, 无法反查出没有list到的记录是哪些文件
+     */
+    private void buildRecordCheckTask() {
+        String printMsg = String.format("check by records, local folder: %s, cos folder: %s",
+                localFolder, cosFolder);
+        System.out.println(printMsg);
+        log.info(printMsg);
+
+        long recordNum = recordDb.countRecords(MigrateType.MIGRATE_FROM_LOCAL);
+        SortedObjectCursor cursor = startCosCursor();
+        ListingCheckStatics statics = new ListingCheckStatics();
+        boolean listFinished = false;
+        try {
+            ListedObject cosObject;
+            while ((cosObject = cursor.next()) != null) {
+                if (isDirObject(cosObject)) {
+                    continue;
+                }
+                String cosPath = "/" + cosObject.getKey();
+                String localPath = localFolder + cosPath.substring(cosFolder.length());
+                MigrateLocalRecordElement record =
+                        recordDb.queryLocalRecord(bucketName, localPath, cosPath);
+                if (record == null) {
+                    ++statics.extraNum;
+                    TaskOutput.instance.reportSkip(cosPath, "extra object, no migrate record");
+                    continue;
+                }
+                ++statics.localNum;
+                checkListedObject(cosObject, cosPath, record.getFileSize(), new File(localPath),
+                        statics);
+            }
+            listFinished = recordNum >= 0;
+        } catch (InterruptedException e) {
+            log.error("check by records is interrupted", e);
+        } catch (Exception e) {
+            log.error("check by records fail, list cos folder {} error: {}", cosFolder,
+                    e.toString());
+        } finally {
+            cursor.close();
+        }
+        if (listFinished && recordNum > statics.localNum) {
+            statics.missingNum = recordNum - statics.localNum;
+            printMsg = String.format(
+                    "check fail, %d migrate records not exist on cos, use checkMode list to find them",
+                    statics.missingNum);
+            System.out.println(printMsg);
+            log.error(printMsg);
+            for (long i = 0; i < statics.missingNum; ++i) {
+                TaskStatics.instance.addFailCnt();
+            }
+        }
+        TaskStatics.instance.setListFinished(listFinished);
+        statics.print(CommonConfig.CHECK_MODE_RECORD, cursor.getListedNum());
+    }
+
+    /**
+     * 大小一致时直接认为校验成功, 否则提交head校验任务, 以head时的对象和本地文件为准.
+     * 打开verifyCrc64时都需要head比较CRC64
+     */
+    private void checkListedObject(ListedObject cosObject, String cosPath, long expectedLen,
+            File localFile, ListingCheckStatics statics) throws InterruptedException {
+        boolean sizeMatch = cosObject.getSize() == expectedLen;
+        if (sizeMatch && !config.isVerifyCrc64()) {
+            TaskStatics.instance.addSuccessCnt();
+            TaskOutput.instance.reportOk(cosPath, null, expectedLen);
             return;
         }
+        if (!sizeMatch) {
+            ++statics.sizeMismatchNum;
+        }
+        if (!localFile.isFile()) {
+            TaskOutput.instance.reportFail(cosPath, String.format(
+                    "check length fail, cosLength: %d, expectedLength: %d, local file not exist",
+                    cosObject.getSize(), expectedLen));
+            TaskStatics.instance.addFailCnt();
+            return;
+        }
+        ++statics.headNum;
+        AddTask(new MigrateLocalCheckTask(config, smallFileTransferManager,
+                bigFileTransferManager, recordDb, localFile));
+    }
+
+    /**
+     * 报告list结果中key小于untilKey的对象, 这些对象在本地不存在. untilKey为null时报告剩余的全部对象
+     */
+    private void reportExtraObjects(SortedObjectCursor cursor, String untilKey,
+            ListingCheckStatics statics) throws Exception {
+        ListedObject cosObject;
+        while ((cosObject = cursor.peek()) != null
+                && (untilKey == null || PathUtils.compareUtf8(cosObject.getKey(), untilKey) < 0)) {
+            cursor.next();
+            if (isDirObject(cosObject)) {
+                continue;
+            }
+            ++statics.extraNum;
+            TaskOutput.instance.reportSkip("/" + cosObject.getKey(),
+                    "extra object, not exist in local");
+        }
+    }
+
+    private static class ListingCheckStatics {
+        long localNum = 0;
+        long missingNum = 0;
+        long sizeMismatchNum = 0;
+        long extraNum = 0;
+        long headNum = 0;
+
+        void print(String checkMode, long listedNum) {
+            String printMsg = String.format(
+                    "check by %s finish, expected: %d, listed: %d, missing: %d, size mismatch: %d, extra: %d, head: %d",
+                    checkMode, localNum, listedNum, missingNum, sizeMismatchNum, extraNum, headNum);
+            System.out.println(printMsg);
+            log.info(printMsg);
+        }
     }
 
     @Override
@@ -1,77 +1,156 @@
 package com.qcloud.cos_migrate_tool.task;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.concurrent.Semaphore;
 
-import com.amazonaws.services.s3.model.StorageClass;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
+import com.qcloud.cos_migrate_tool.meta.TaskOutput;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.MigrateLocalRecordElement;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
 
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class MigrateLocalTask extends Task {
     private static final Logger log = LoggerFactory.getLogger(MigrateLocalTask.class);
 
-    private String bucketName;
-    private String localFolder;
-    private String cosFolder;
+    // 每个文件一个任务, 只保存文件自身的信息, bucket, 目录等配置从config读取
     private File localFile;
-    private StorageClass storageClass;
-    private boolean entireMd5Attached;
+    // 扫描目录时已经得到的路径和属性, 未知时在使用时读取
+    private String localPath;
+    private long fileSize = -1;
+    private long mtime = -1;
 
+    private static final class FinishedFileName {
+        final long dayBegin;
+        final long dayEnd;
+        final String name;
 
-    public MigrateLocalTask(Semaphore semaphore, CopyFromLocalConfig copyFromLocalConfig,
+        FinishedFileName(long dayBegin, long dayEnd, String name) {
+            this.dayBegin = dayBegin;
+            this.dayEnd = dayEnd;
+            this.name = name;
+        }
+    }
+
+    private static volatile FinishedFileName finishedFileName;
+
+
+    public MigrateLocalTask(CopyFromLocalConfig copyFromLocalConfig,
             TransferManager smallFileTransfer, TransferManager bigFileTransfer, RecordDb recordDb,
             File localFile) {
-        super(semaphore, copyFromLocalConfig, smallFileTransfer, bigFileTransfer, recordDb);
-        this.bucketName = copyFromLocalConfig.getBucketName();
-        this.localFolder = copyFromLocalConfig.getLocalPath();
-        this.cosFolder = copyFromLocalConfig.getCosPath();
+        super(copyFromLocalConfig, smallFileTransfer, bigFileTransfer, recordDb);
         this.localFile = localFile;
-        this.storageClass = copyFromLocalConfig.getStorageClass();
-        this.entireMd5Attached = copyFromLocalConfig.isEntireFileMd5Attached();
+    }
+
+    public MigrateLocalTask(CopyFromLocalConfig copyFromLocalConfig,
+            TransferManager smallFileTransfer, TransferManager bigFileTransfer, RecordDb recordDb,
+            File localFile, String localPath, long fileSize, long mtime) {
+        this(copyFromLocalConfig, smallFileTransfer, bigFileTransfer, recordDb,
+                localFile);
+        this.localPath = localPath;
+        this.fileSize = fileSize;
+        this.mtime = mtime;
+    }
+
+    private String getLocalPath() {
+        if (localPath == null) {
+            localPath = SystemUtils.formatLocalPath(localFile.getPath());
+        }
+        return localPath;
+    }
+
+    private long getFileSize() {
+        if (fileSize < 0) {
+            fileSize = localFile.length();
+        }
+        return fileSize;
+    }
+
+    private long getMtime() {
+        if (mtime < 0) {
+            mtime = localFile.lastModified();
+        }
+        return mtime;
+    }
+
+    // 完成列表按天写入不同的文件, 文件名每天只格式化一次
+    private static String getFinishedFileName() {
+        long now = System.currentTimeMillis();
+        FinishedFileName cached = finishedFileName;
+        if (cached == null || now < cached.dayBegin || now >= cached.dayEnd) {
+            DateTime dayBegin = new DateTime(now).withTimeAtStartOfDay();
+            // 设置当前时间的格式，为年-月-日
+            SimpleDateFormat dateFormat = new SimpleDateFormat("YYYY-MM-dd");
+            cached = new FinishedFileName(dayBegin.getMillis(), dayBegin.plusDays(1).getMillis(),
+                    dateFormat.format(new Date(now)) + ".out");
+            finishedFileName = cached;
+        }
+        return cached.name;
     }
 
     private String buildCOSPath(String localPath) {
-        String cosPath = cosFolder + localPath.substring(localFolder.length());
-        return cosPath;
+        CopyFromLocalConfig localConfig = (CopyFromLocalConfig) config;
+        return localConfig.getCosPath() + localPath.substring(localConfig.getLocalPath().length());
+    }
+
+
+    @Override
+    public long getTaskSize() {
+        return getFileSize();
     }
 
+    @Override
+    public RecordElement buildSkipCheckElement() {
+        String localPath = getLocalPath();
+        return new MigrateLocalRecordElement(config.getBucketName(), localPath,
+                buildCOSPath(localPath), getMtime(), getFileSize());
+    }
+
+    @Override
+    public void prefetchContentHash() {
+        if (!config.isEntireFileMd5Attached() || localFile.isDirectory()) {
+            return;
+        }
+        // 最近修改过的文件执行时会被忽略, 不需要计算
+        long ignoreModifiedTimeLessThan =
+                ((CopyFromLocalConfig) config).getIgnoreModifiedTimeLessThan();
+        if (ignoreModifiedTimeLessThan > 0
+                && (System.currentTimeMillis() - getMtime()) / 1000 < ignoreModifiedTimeLessThan) {
+            return;
+        }
+        submitContentMd5(localFile);
+    }
 
     @Override
     public void doTask() {
-        String localPath = SystemUtils.formatLocalPath(localFile.getPath());
+        String localPath = getLocalPath();
         String cosPath = buildCOSPath(localPath);
-        long mtime = localFile.lastModified();
-        long fileSize = localFile.length();
+        long mtime = getMtime();
+        long fileSize = getFileSize();
         long ignoreModifiedTimeLessThan =
                 ((CopyFromLocalConfig) config).getIgnoreModifiedTimeLessThan();
         if (ignoreModifiedTimeLessThan > 0) {
             long currTime = System.currentTimeMillis();
             if ((currTime - mtime) / 1000 < ignoreModifiedTimeLessThan) {
-                String printMsg = String.format(
-                        "[condition_not_match] [reason: ignoreModifiedTimeLessThan]  [local_file: %s], [cur_time: %d], [lastModifed_time: %d]，[ignoreModifiedTimeLessThan: %d]",
-                        localFile.getAbsoluteFile(), currTime / 1000, mtime / 1000, ignoreModifiedTimeLessThan);
-                System.out.println(printMsg);
-                log.info(printMsg);
+                String reason = String.format(
+                        "[reason: ignoreModifiedTimeLessThan] [cur_time: %d], [lastModifed_time: %d], [ignoreModifiedTimeLessThan: %d]",
+                        currTime / 1000, mtime / 1000, ignoreModifiedTimeLessThan);
+                TaskOutput.instance.reportConditionNotMatch(localFile.getAbsolutePath(), reason);
                 TaskStatics.instance.addConditionNotMatchCnt();
                 return;
             }
         }
 
         MigrateLocalRecordElement migrateLocalRecordElement =
-                new MigrateLocalRecordElement(bucketName, localPath, cosPath, mtime, fileSize);
+                new MigrateLocalRecordElement(config.getBucketName(), localPath, cosPath, mtime,
+                        fileSize);
         // 如果记录存在
         if (isExist(migrateLocalRecordElement, true)) {
             TaskStatics.instance.addSkipCnt();
@@ -85,56 +164,27 @@ public class MigrateLocalTask extends Task {
                     return;
                 }
             } catch (Exception e) {
-                String printMsg = String.format("[fail] task_info: %s", migrateLocalRecordElement.buildKey());
-                System.err.println(printMsg);
-                log.error("[fail] task_info: {}, exception: {}", migrateLocalRecordElement.buildKey(), e.toString());
-                TaskStatics.instance.addFailCnt();
+                markTaskFail(migrateLocalRecordElement, e);
                 return;
             }
         }
 
+        // 没有提前提交时在这里提交, 同样使用db中缓存的结果
+        prefetchContentHash();
         try {
             com.amazonaws.services.s3.model.ObjectMetadata objectMetadata = new com.amazonaws.services.s3.model.ObjectMetadata();
-            String requestId = uploadFile(bucketName, cosPath, localFile, storageClass, entireMd5Attached, objectMetadata, null);
-            saveRecord(migrateLocalRecordElement);
-            saveRequestId(cosPath, requestId);
-            if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                TaskStatics.instance.addUpdateCnt();
-            }
-            
+            String requestId = uploadFile(config.getBucketName(), cosPath, localFile,
+                    config.getStorageClass(), config.isEntireFileMd5Attached(), objectMetadata, null);
+            markTaskSuccess(migrateLocalRecordElement, cosPath, requestId);
+
             if(!config.getOutputFinishedFilePath().isEmpty()) {
-                SimpleDateFormat dateFormat= new SimpleDateFormat("YYYY-MM-dd");//设置当前时间的格式，为年-月-日 
-                String file_name = dateFormat.format(new Date()) + ".out";
-                String resultFile = config.getOutputFinishedFilePath() + file_name;
-                try {
-                    BufferedOutputStream bos =
-                            new BufferedOutputStream(new FileOutputStream(resultFile, true));
-                    String recordMsg =
-                            String.format("%s\t%d\t%d\n", localFile.getAbsolutePath(), localFile.length(), localFile.lastModified());
-                    bos.write(recordMsg.getBytes());
-                    bos.close();
-                } catch (FileNotFoundException e) {
-                    log.error("write result fail,result \n" + e.toString());
-                } catch (IOException e) {
-                    log.error("write result fail,result \n"  + e.toString());
-                }
+                // 完成列表由输出线程保持文件打开并顺序写入
+                String resultFile = config.getOutputFinishedFilePath() + getFinishedFileName();
+                TaskOutput.instance.appendFinishedFile(resultFile,
+                        localFile.getAbsolutePath() + "\t" + fileSize + "\t" + mtime + "\n");
             }
-            
-            
-            String printMsg =
-                    String.format("[ok] [requestid: %s], task_info: %s", requestId == null ? "NULL" : requestId, migrateLocalRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.info(printMsg);
         } catch (Exception e) {
-            String printMsg =
-                    String.format("[fail] task_info: %s", migrateLocalRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.error("fail! task_info: [key: {}], [value: {}], exception: {}",
-                    migrateLocalRecordElement.buildKey(), migrateLocalRecordElement.buildValue(),
-                    e.toString());
-            TaskStatics.instance.addFailCnt();
+            markTaskFail(migrateLocalRecordElement, e);
         }
     }
 }
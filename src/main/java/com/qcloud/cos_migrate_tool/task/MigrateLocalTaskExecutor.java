@@ -1,21 +1,18 @@
 package com.qcloud.cos_migrate_tool.task;
 
-import static java.nio.file.FileVisitOption.FOLLOW_LINKS;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.EnumSet;
 
 import com.qcloud.cos_migrate_tool.config.CopyFromLocalConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.listing.LocalFileScanner;
+import com.qcloud.cos_migrate_tool.listing.LocalFileVisitor;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
 
@@ -83,9 +80,9 @@ public class MigrateLocalTaskExecutor extends TaskExecutor {
                     if (reason.isEmpty()) {
                         File localFile = new File(file.toString());
 
-                        MigrateLocalTask migrateLocalTask = new MigrateLocalTask(semaphore,
+                        MigrateLocalTask migrateLocalTask = new MigrateLocalTask(
                                 config, smallFileTransferManager,
-                                bigFileTransferManager, recordDb, localFile);
+                                bigFileTransferManager, recordDb, localFile, localPath, -1, -1);
                         AddTask(migrateLocalTask);
                     } else {
                         String printMsg = String.format(
@@ -116,71 +113,63 @@ public class MigrateLocalTaskExecutor extends TaskExecutor {
             return;
         }
 
-        SimpleFileVisitor<Path> finder = new SimpleFileVisitor<Path>() {
+        LocalFileVisitor visitor = new LocalFileVisitor() {
 
             @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                    throws IOException {
+            public boolean preVisitDirectory(Path dir, BasicFileAttributes attrs) {
                 String dirPath = "";
                 try {
-                    dirPath = SystemUtils.formatLocalPath(dir.toString());
+                    dirPath = SystemUtils.formatLocalPath(dir, true);
                 } catch (IllegalArgumentException e) {
                     log.error("skip the folder and it's sub member for illegal utf-8 letter");
-                    return FileVisitResult.SKIP_SUBTREE;
+                    return false;
                 }
-                if (((CopyFromLocalConfig) config).isExcludes(dirPath)) {
+                if (config.isExcludes(dirPath)) {
                     log.info("exclude folder: " + dirPath);
-                    return FileVisitResult.SKIP_SUBTREE;
-                } else {
-                    return super.preVisitDirectory(dir, attrs);
+                    return false;
                 }
+                return true;
             }
 
             @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                    throws IOException {
+            public void visitFile(Path file, BasicFileAttributes attrs)
+                    throws InterruptedException {
                 String localPath = "";
                 try {
-                    localPath = SystemUtils.formatLocalPath(file.toString());
+                    localPath = SystemUtils.formatLocalPath(file, false);
                 } catch (IllegalArgumentException e) {
                     log.error("skip the file for illegal utf-8 letter");
-                    return super.visitFile(file, attrs);
+                    return;
                 }
-                try {
-                    String reason = ((CopyFromLocalConfig) config).needToMigrate(file, localPath);
-                    if (reason.isEmpty()) {
-                        File localFile = new File(file.toString());
-                      
-                        MigrateLocalTask migrateLocalTask = new MigrateLocalTask(semaphore,
-                                ((CopyFromLocalConfig) config), smallFileTransferManager,
-                                bigFileTransferManager, recordDb, localFile);
-                        AddTask(migrateLocalTask);
-                    } else {
-                        String printMsg = String.format(
-                                "[condition_not_match] [reason: %s]  [local_file: %s]", reason,
-                                file.toString());
-                        System.out.println(printMsg);
-                        log.info(printMsg);
-                        TaskStatics.instance.addConditionNotMatchCnt();
-                    }
-                } catch (InterruptedException e) {
-                    log.error("visit file occur a exception", e);
-                    throw new IOException(e.getMessage());
+                String reason = config.needToMigrate(file, localPath, attrs.size());
+                if (reason.isEmpty()) {
+                    File localFile = new File(file.toString());
+
+                    MigrateLocalTask migrateLocalTask = new MigrateLocalTask(config,
+                            smallFileTransferManager, bigFileTransferManager, recordDb,
+                            localFile, localPath, attrs.size(),
+                            SystemUtils.toLastModified(attrs.lastModifiedTime()));
+                    AddTask(migrateLocalTask);
+                } else {
+                    String printMsg = String.format(
+                            "[condition_not_match] [reason: %s]  [local_file: %s]", reason,
+                            file.toString());
+                    System.out.println(printMsg);
+                    log.info(printMsg);
+                    TaskStatics.instance.addConditionNotMatchCnt();
                 }
-                return super.visitFile(file, attrs);
             }
         };
 
-        log.info("ready to scan folder: " + localFolder);
+        log.info("ready to scan folder: {}, thread num: {}", localFolder,
+                config.getListThreadNum());
         try {
-            java.nio.file.Files.walkFileTree(Paths.get(localFolder), 
-                    EnumSet.of(FOLLOW_LINKS), Integer.MAX_VALUE, finder);
-            
-            TaskStatics.instance.setListFinished(true);
-            
-        } catch (IOException e) {
+            LocalFileScanner scanner =
+                    new LocalFileScanner(Paths.get(localFolder), config.getListThreadNum());
+            TaskStatics.instance.setListFinished(scanner.scan(visitor));
+        } catch (InterruptedException e) {
             TaskStatics.instance.setListFinished(false);
-            log.error("walk file tree error", e);
+            log.error("scan folder is interrupted", e);
         }
     }
 
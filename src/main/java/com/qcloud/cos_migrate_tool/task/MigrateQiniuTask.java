@@ -1,7 +1,7 @@
 package com.qcloud.cos_migrate_tool.task;
 
 import java.io.File;
-import java.util.concurrent.Semaphore;
+import java.io.InputStream;
 import java.util.concurrent.ThreadLocalRandom;
 
 import com.amazonaws.services.s3.transfer.TransferManager;
@@ -10,8 +10,12 @@ import com.qcloud.cos_migrate_tool.config.MigrateType;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.MigrateCompetitorRecordElement;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+import com.qcloud.cos_migrate_tool.utils.ChecksumVerifyInputStream;
 import com.qcloud.cos_migrate_tool.utils.Downloader;
+import com.qcloud.cos_migrate_tool.utils.Downloader.DownloadStream;
 import com.qcloud.cos_migrate_tool.utils.HeadAttr;
+import com.qcloud.cos_migrate_tool.utils.PathUtils;
 import com.qiniu.util.Auth;
 
 public class MigrateQiniuTask extends Task {
@@ -22,8 +26,8 @@ public class MigrateQiniuTask extends Task {
 
     public MigrateQiniuTask(CopyFromQiniuConfig config, Auth auth, String srcKey, long fileSize,
             String etag, TransferManager smallFileTransfer, TransferManager bigFileTransfer,
-            RecordDb recordDb, Semaphore semaphore) {
-        super(semaphore, config, smallFileTransfer, bigFileTransfer, recordDb);
+            RecordDb recordDb) {
+        super(config, smallFileTransfer, bigFileTransfer, recordDb);
         this.config = config;
         this.srcKey = srcKey;
         this.fileSize = fileSize;
@@ -33,11 +37,7 @@ public class MigrateQiniuTask extends Task {
 
     private String buildCOSPath() {
         String srcPrefix = ((CopyFromQiniuConfig) config).getSrcPrefix();
-        int lastDelimiter = srcPrefix.lastIndexOf("/");
-        if (lastDelimiter == 0) {
-            lastDelimiter = -1;
-        }
-        String keyName = srcKey.substring(lastDelimiter + 1);
+        String keyName = srcKey.substring(PathUtils.getSrcStripPrefix(srcPrefix).length());
 
         StringBuffer cosPathBuffer = new StringBuffer();
         cosPathBuffer.append(config.getCosPath()).append("/").append(keyName);
@@ -46,6 +46,88 @@ public class MigrateQiniuTask extends Task {
         return cosPath;
     }
 
+    /**
+     * 分段并发下载, 每段作为一个分块上传
+     */
+    private void migrateByRange(final String url, String cosPath,
+            MigrateCompetitorRecordElement qiniuRecordElement) {
+        try {
+            RangeReader rangeReader = new RangeReader() {
+                public InputStream openRange(long start, long end) throws Exception {
+                    return Downloader.instance.openRange(url, true, start, end);
+                }
+            };
+            com.amazonaws.services.s3.model.ObjectMetadata objectMetadata =
+                    new com.amazonaws.services.s3.model.ObjectMetadata();
+            objectMetadata.addUserMetadata("qiniu-etag", etag);
+            String requestId = uploadByRanges(rangeReader, config.getBucketName(), cosPath,
+                    fileSize, etag, config.getStorageClass(), objectMetadata);
+            markTaskSuccess(qiniuRecordElement, cosPath, requestId);
+        } catch (Exception e) {
+            markTaskFail(qiniuRecordElement, e);
+        }
+    }
+
+    /**
+     * 边下载边上传, 成功返回true; 失败返回false, 由调用方退回到临时文件方式
+     */
+    private boolean migrateByStream(String url, String cosPath,
+            MigrateCompetitorRecordElement qiniuRecordElement) {
+        DownloadStream downloadStream = null;
+        try {
+            downloadStream = Downloader.instance.openStream(url, true);
+            if (downloadStream.contentLength != this.fileSize) {
+                log.warn("[stream_fallback] task_info: {}, content length {} not equal list size {}",
+                        qiniuRecordElement.buildKey(), downloadStream.contentLength, this.fileSize);
+                return false;
+            }
+
+            ChecksumVerifyInputStream verifyStream = new ChecksumVerifyInputStream(
+                    downloadStream.content, "url " + url, downloadStream.contentLength,
+                    downloadStream.crc64, downloadStream.md5Hex);
+            com.amazonaws.services.s3.model.ObjectMetadata objectMetadata =
+                    new com.amazonaws.services.s3.model.ObjectMetadata();
+            if (downloadStream.headAttr.userMetaMap.containsKey("ETag")) {
+                objectMetadata.addUserMetadata("qiniu-etag",
+                        downloadStream.headAttr.userMetaMap.get("ETag"));
+            }
+            String requestId = uploadStream(config.getBucketName(), cosPath, verifyStream,
+                    downloadStream.contentLength, config.getStorageClass(), objectMetadata);
+            downloadStream.setConsumed();
+            markTaskSuccess(qiniuRecordElement, cosPath, requestId);
+            return true;
+        } catch (Exception e) {
+            log.warn("[stream_fallback] task_info: {}, stream migrate failed, exception: {}",
+                    qiniuRecordElement.buildKey(), e.toString());
+            return false;
+        } finally {
+            if (downloadStream != null) {
+                downloadStream.close();
+            }
+        }
+    }
+
+    @Override
+    public long getTaskSize() {
+        return fileSize;
+    }
+
+    @Override
+    public long getTempFileBytes() {
+        return estimateTempFileBytes(fileSize);
+    }
+
+    @Override
+    public long getBufferBytes() {
+        return estimateBufferBytes(fileSize);
+    }
+
+    @Override
+    public RecordElement buildSkipCheckElement() {
+        return new MigrateCompetitorRecordElement(MigrateType.MIGRATE_FROM_QINIU, config.getBucketName(),
+                buildCOSPath(), etag, fileSize);
+    }
+
     @Override
     public void doTask() {
 
@@ -67,10 +149,7 @@ public class MigrateQiniuTask extends Task {
                     return;
                 }
             } catch (Exception e) {
-                String printMsg = String.format("[fail] task_info: %s", qiniuRecordElement.buildKey());
-                System.err.println(printMsg);
-                log.error("[fail] task_info: {}, exception: {}", qiniuRecordElement.buildKey(), e.toString());
-                TaskStatics.instance.addFailCnt();
+                markTaskFail(qiniuRecordElement, e);
                 return;
             }
         }
@@ -82,6 +161,15 @@ public class MigrateQiniuTask extends Task {
             url = auth.privateDownloadUrl(url, 3600);
         }
 
+        if (isRangeDownloadEnabled(fileSize)) {
+            migrateByRange(url, cosPath, qiniuRecordElement);
+            return;
+        }
+
+        if (isStreamModeEnabled() && migrateByStream(url, cosPath, qiniuRecordElement)) {
+            return;
+        }
+
         File localFile = new File(localPath);
 
         // download
@@ -126,23 +214,9 @@ public class MigrateQiniuTask extends Task {
 
             String requestId = uploadFile(config.getBucketName(), cosPath, localFile,
                     config.getStorageClass(), config.isEntireFileMd5Attached(), objectMetadata, null);
-            saveRecord(qiniuRecordElement);
-            saveRequestId(cosPath, requestId);
-            if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                TaskStatics.instance.addUpdateCnt();
-            }
-            String printMsg = String.format("[ok] [requestid: %s], task_info: %s",
-                    requestId == null ? "NULL" : requestId, qiniuRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.info(printMsg);
+            markTaskSuccess(qiniuRecordElement, cosPath, requestId);
         } catch (Exception e) {
-            String printMsg = String.format("[fail] task_info: %s", qiniuRecordElement.buildKey());
-            System.err.println(printMsg);
-            log.error("[fail] task_info: {}, exception: {}", qiniuRecordElement.buildKey(),
-                    e.toString());
-            TaskStatics.instance.addFailCnt();
+            markTaskFail(qiniuRecordElement, e);
         } finally {
             localFile.delete();
         }
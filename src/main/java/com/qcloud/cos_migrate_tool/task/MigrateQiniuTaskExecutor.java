@@ -84,8 +84,7 @@ public class MigrateQiniuTaskExecutor extends TaskExecutor {
                 FileInfo[] items = fileListIterator.next();
                 for (FileInfo item : items) {
                     MigrateQiniuTask task = new MigrateQiniuTask(config, auth, item.key, item.fsize,
-                            item.hash, smallFileTransferManager, bigFileTransferManager, recordDb,
-                            semaphore);
+                            item.hash, smallFileTransferManager, bigFileTransferManager, recordDb);
 
                         AddTask(task);
                 }
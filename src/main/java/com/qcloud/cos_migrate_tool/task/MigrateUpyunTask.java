@@ -4,7 +4,6 @@ import java.io.File;
 import java.util.Date;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.Semaphore;
 
 import com.UpYun;
 import com.amazonaws.AmazonServiceException;
@@ -12,9 +11,12 @@ import com.amazonaws.services.s3.transfer.TransferManager;
 import com.qcloud.cos.utils.UrlEncoderUtils;
 import com.qcloud.cos_migrate_tool.config.CopyFromUpyunConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.MigrateCompetitorRecordElement;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
 
 public class MigrateUpyunTask extends Task {
 
@@ -27,8 +29,8 @@ public class MigrateUpyunTask extends Task {
 
     public MigrateUpyunTask(CopyFromUpyunConfig config, UpYun upyun, String srcKey, long fileSize,
             Date lastModify, String contentType, TransferManager smallFileTransfer,
-            TransferManager bigFileTransfer, RecordDb recordDb, Semaphore semaphore) {
-        super(semaphore, config, smallFileTransfer, bigFileTransfer, recordDb);
+            TransferManager bigFileTransfer, RecordDb recordDb) {
+        super(config, smallFileTransfer, bigFileTransfer, recordDb);
         //this.upyun = upyun;
         
         //又拍云sdk多线程有坑，headers不对
@@ -73,6 +75,27 @@ public class MigrateUpyunTask extends Task {
     }
 
 
+    @Override
+    public long getTaskSize() {
+        return fileSize;
+    }
+
+    // 又拍云总是先下载到临时文件
+    @Override
+    public long getTempFileBytes() {
+        return Math.max(fileSize, 0);
+    }
+
+    @Override
+    public RecordElement buildSkipCheckElement() {
+        // 实时对比模式不使用迁移记录
+        if (config.getRealTimeCompare()) {
+            return null;
+        }
+        return new MigrateCompetitorRecordElement(MigrateType.MIGRATE_FROM_UPYUN, config.getBucketName(),
+                buildCOSPath(), lastModify.toString(), fileSize);
+    }
+
     @Override
     public void doTask() {
        
@@ -86,9 +109,11 @@ public class MigrateUpyunTask extends Task {
 
         if (config.getRealTimeCompare()) {
             // head
+            long startNanos = System.nanoTime();
             try {
                 com.amazonaws.services.s3.model.ObjectMetadata dstMeta = this.smallFileTransfer.getAmazonS3Client()
                         .getObjectMetadata(config.getBucketName(), cosPath);
+                MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
 
                 if (dstMeta.getLastModified().after(lastModify)) {
                     TaskStatics.instance.addSkipCnt();
@@ -100,6 +125,7 @@ public class MigrateUpyunTask extends Task {
                     return;
                 }
             } catch (AmazonServiceException e) {
+                MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
                 if (e.getStatusCode() != 404) {
                     log.error("[fail] task_info: {}, exception: {}", upyunRecordElement.buildKey(),
                             e.toString());
@@ -133,10 +159,7 @@ public class MigrateUpyunTask extends Task {
                     return;
                 }
             } catch (Exception e) {
-                String printMsg = String.format("[fail] task_info: %s", upyunRecordElement.buildKey());
-                System.err.println(printMsg);
-                log.error("[fail] task_info: {}, exception: {}", upyunRecordElement.buildKey(), e.toString());
-                TaskStatics.instance.addFailCnt();
+                markTaskFail(upyunRecordElement, e);
                 return;
             }
         }
@@ -165,8 +188,10 @@ public class MigrateUpyunTask extends Task {
                     contentMd5 = headers.get("Content-Md5");
                 }
 
+                long startNanos = System.nanoTime();
                 download_success = this.upyun
                         .readFile(UrlEncoderUtils.encodeEscapeDelimiter(this.srcKey), localFile);
+                MigrateMetrics.instance.recordLatency(Operation.DOWNLOAD, startNanos);
                 if (!download_success) {
                     String errMsg = String.format("[fail] taskInfo: %s, No Exception",
                             upyunRecordElement.buildKey());
@@ -244,22 +269,9 @@ public class MigrateUpyunTask extends Task {
         try {
             String requestId = uploadFile(config.getBucketName(), cosPath, localFile,
                     config.getStorageClass(), config.isEntireFileMd5Attached(), cosMetadata, null);
-            saveRecord(upyunRecordElement);
-            saveRequestId(cosPath, requestId);
-            if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                TaskStatics.instance.addUpdateCnt();
-            }
-            String printMsg = String.format("[ok] [requestid: %s], task_info: %s",
-                    requestId == null ? "NULL" : requestId, upyunRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.info(printMsg);
+            markTaskSuccess(upyunRecordElement, cosPath, requestId);
         } catch (Exception e) {
-            String printMsg = String.format("[fail] task_info: %s exception: %s", upyunRecordElement.buildKey(), e.toString());
-            System.err.println(printMsg);
-            log.error(printMsg);
-            TaskStatics.instance.addFailCnt();
+            markTaskFail(upyunRecordElement, e);
         } finally {
             localFile.delete();
         }
@@ -1,6 +1,7 @@
 package com.qcloud.cos_migrate_tool.task;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 
@@ -10,13 +11,15 @@ import org.slf4j.LoggerFactory;
 
 import com.qcloud.cos_migrate_tool.config.CopyFromUpyunConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.listing.ConcurrentDirCrawler;
+import com.qcloud.cos_migrate_tool.listing.ListedObject;
+import com.qcloud.cos_migrate_tool.listing.ListedObjectHandler;
+import com.qcloud.cos_migrate_tool.listing.UpyunDirLister;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
+import com.qcloud.cos_migrate_tool.record.DirJournal;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
 
-import com.upyun.Result;
-import com.upyun.UpException;
 import com.UpYun;
-import com.UpYun.FolderItemIter;
 
 
 public class MigrateUpyunTaskExecutor extends TaskExecutor {
@@ -83,97 +86,69 @@ public class MigrateUpyunTaskExecutor extends TaskExecutor {
     }
 
     public void buildTask() {
-
-        int retry_num = 0;
-        LinkedList<String> dirList = new LinkedList<String>();
-        LinkedList<String> itrList = new LinkedList<String>();
-
-        LinkedList<String> progress = this.recordDb.getDirProgress();
-        
-        if (config.isResume() && progress!=null) {
-            itrList.add(progress.removeFirst());
-            dirList = progress;
-           
-        } else {
-            if (this.srcPrefix.isEmpty()) {
-                dirList.add("/");
-            } else {
-                dirList.add(this.srcPrefix);
+        DirJournal dirJournal = this.recordDb.openDirJournal();
+        try {
+            Map<String, String> pendingDirs = loadPendingDirs(dirJournal);
+            dirJournal.open(pendingDirs);
+            // 未完成的目录已经写入日志, 旧版本的PROGRESS文件不再需要, 之后只从日志恢复
+            this.recordDb.deleteDirProgress();
+            String printMsg = String.format("crawl upyun dirs, pending dirs: %d, thread num: %d",
+                    pendingDirs.size(), config.getListThreadNum());
+            System.out.println(printMsg);
+            log.info(printMsg);
+
+            ConcurrentDirCrawler crawler = new ConcurrentDirCrawler(new UpyunDirLister(config),
+                    dirJournal, config.getListThreadNum());
+            boolean listFinished = crawler.crawl(pendingDirs, new ListedObjectHandler() {
+                public void handle(ListedObject listedObject) throws InterruptedException {
+                    MigrateUpyunTask task = new MigrateUpyunTask(config, null,
+                            listedObject.getKey(), listedObject.getSize(),
+                            listedObject.getLastModified(), listedObject.getContentType(),
+                            smallFileTransferManager, bigFileTransferManager, recordDb);
+                    AddTask(task);
+                }
+            });
+            TaskStatics.instance.setListFinished(listFinished);
+            if (listFinished) {
+                dirJournal.delete();
             }
-            itrList.add("");
+        } catch (IOException e) {
+            log.error("crawl upyun dirs fail, dir journal exception: {}", e.toString());
+            TaskStatics.instance.setListFinished(false);
+        } catch (InterruptedException e) {
+            log.error("crawl upyun dirs is interrupted", e);
+            TaskStatics.instance.setListFinished(false);
+        } finally {
+            dirJournal.close();
         }
+    }
 
-        do {
-            String curDir = "";
-            String lastItr = "";
-            try {
-                while (!dirList.isEmpty()) {
-                    curDir = dirList.removeFirst();
-                    if (itrList.size() > 0) {
-                        lastItr = itrList.removeFirst();
-                    } else {
-                        lastItr = "";
+    // 未完成的目录 -> 开始的iter
+    private Map<String, String> loadPendingDirs(DirJournal dirJournal) throws IOException {
+        Map<String, String> pendingDirs = new LinkedHashMap<String, String>();
+        if (config.isResume()) {
+            if (dirJournal.exists()) {
+                return dirJournal.replay();
+            }
+            // 兼容旧版本的PROGRESS文件: 第一行是当前目录的iter, 第二行是当前目录, 之后是待遍历的目录
+            LinkedList<String> progress = this.recordDb.getDirProgress();
+            if (progress != null && progress.size() >= 2) {
+                String lastItr = progress.removeFirst();
+                pendingDirs.put(progress.removeFirst(), lastItr);
+                for (String dir : progress) {
+                    if (!pendingDirs.containsKey(dir)) {
+                        pendingDirs.put(dir, "");
                     }
-                    FolderItemIter folderItemIter;
-                    do {
-                        Map<String, String> params = new HashMap<String, String>();
-
-                        params.put("x-list-iter", lastItr);
-                        params.put("x-list-limit", "1000");
-                        params.put("x-upyun-folder", "true");
-                        if (!config.isAscendingOrder()) {
-                            params.put("x-list-order", "desc");
-                        }
-                        
-                        String fixedDir = curDir;
- 			if (fixedDir.endsWith("/")) {
-		            fixedDir = fixedDir.substring(0, fixedDir.length()-1);
-     			}
-                        folderItemIter = upyun.readDirIter(fixedDir, params);
-                        lastItr = folderItemIter.iter;
-                        
-
-                        for (int i = 0; i < folderItemIter.files.size(); ++i) {           
-                            if (folderItemIter.files.get(i).type.equals("folder")) {
-                                dirList.add(curDir + folderItemIter.files.get(i).name + "/");
-                            } else {
-                                MigrateUpyunTask task = new MigrateUpyunTask(config, null,
-                                        curDir + folderItemIter.files.get(i).name,
-                                        folderItemIter.files.get(i).size,
-                                        folderItemIter.files.get(i).date,
-                                        folderItemIter.files.get(i).type, smallFileTransferManager,
-                                        bigFileTransferManager, recordDb, semaphore);
-
-                                AddTask(task);
-                            }
-                        }
-                        
-                        this.recordDb.saveDirProgress(curDir, lastItr, dirList);
-                        
-                    } while (folderItemIter.files.size() > 0);
                 }
-
-                TaskStatics.instance.setListFinished(true);
-                return;
-
-            } catch (Exception e) {
-                dirList.addFirst(curDir);
-                itrList.addFirst(lastItr);
-                log.error("curDir:{},lastItr:{},retry_time:{}, Exception:{}", curDir, lastItr,
-                        retry_num, e.getMessage());
-                TaskStatics.instance.setListFinished(false);
+                return pendingDirs;
             }
-
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
-
-            retry_num++;
-        } while (retry_num < 300);
-
+        }
+        if (this.srcPrefix.isEmpty()) {
+            pendingDirs.put("/", "");
+        } else {
+            pendingDirs.put(this.srcPrefix, "");
+        }
+        return pendingDirs;
     }
 
     @Override
@@ -1,7 +1,7 @@
 package com.qcloud.cos_migrate_tool.task;
 
 import java.io.File;
-import java.util.concurrent.Semaphore;
+import java.io.InputStream;
 import java.util.concurrent.ThreadLocalRandom;
 
 import com.amazonaws.services.s3.transfer.TransferManager;
@@ -10,7 +10,10 @@ import com.qcloud.cos_migrate_tool.config.MigrateType;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.MigrateUrllistRecordElement;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+import com.qcloud.cos_migrate_tool.utils.ChecksumVerifyInputStream;
 import com.qcloud.cos_migrate_tool.utils.Downloader;
+import com.qcloud.cos_migrate_tool.utils.Downloader.DownloadStream;
 import com.qcloud.cos_migrate_tool.utils.HeadAttr;
 
 public class MigrateUrllistTask extends Task {
@@ -19,9 +22,8 @@ public class MigrateUrllistTask extends Task {
     private String srcKey;
 
     public MigrateUrllistTask(CopyFromUrllistConfig config, String url, String srcKey,
-            TransferManager smallFileTransfer, TransferManager bigFileTransfer, RecordDb recordDb,
-            Semaphore semaphore) {
-        super(semaphore, config, smallFileTransfer, bigFileTransfer, recordDb);
+            TransferManager smallFileTransfer, TransferManager bigFileTransfer, RecordDb recordDb) {
+        super(config, smallFileTransfer, bigFileTransfer, recordDb);
         this.url = url;
         this.srcKey = srcKey;
         if (srcKey.startsWith("/")) {
@@ -36,6 +38,81 @@ public class MigrateUrllistTask extends Task {
         return cosPath;
     }
 
+    /**
+     * 分段并发下载, 每段作为一个分块上传, 以head得到的最后修改时间作为源文件的版本标识
+     */
+    private void migrateByRange(final String url, String cosPath, HeadAttr headAttr,
+            MigrateUrllistRecordElement urllistRecordElement) {
+        try {
+            RangeReader rangeReader = new RangeReader() {
+                public InputStream openRange(long start, long end) throws Exception {
+                    return Downloader.instance.openRange(url, false, start, end);
+                }
+            };
+            com.amazonaws.services.s3.model.ObjectMetadata objectMetadata =
+                    new com.amazonaws.services.s3.model.ObjectMetadata();
+            objectMetadata.setUserMetadata(headAttr.userMetaMap);
+            String requestId = uploadByRanges(rangeReader, config.getBucketName(), cosPath,
+                    headAttr.fileSize, headAttr.lastModify, config.getStorageClass(),
+                    objectMetadata);
+            markTaskSuccess(urllistRecordElement, cosPath, requestId);
+        } catch (Exception e) {
+            markTaskFail(urllistRecordElement, e);
+        }
+    }
+
+    /**
+     * 边下载边上传, 成功返回true; 失败返回false, 由调用方退回到临时文件方式
+     */
+    private boolean migrateByStream(String url, String cosPath,
+            MigrateUrllistRecordElement urllistRecordElement) {
+        DownloadStream downloadStream = null;
+        try {
+            downloadStream = Downloader.instance.openStream(url, false);
+            if (downloadStream.contentLength < 0) {
+                log.warn("[stream_fallback] task_info: {}, content length unknown",
+                        urllistRecordElement.buildKey());
+                return false;
+            }
+
+            ChecksumVerifyInputStream verifyStream = new ChecksumVerifyInputStream(
+                    downloadStream.content, "url " + url, downloadStream.contentLength,
+                    downloadStream.crc64, downloadStream.md5Hex);
+            com.amazonaws.services.s3.model.ObjectMetadata objectMetadata =
+                    new com.amazonaws.services.s3.model.ObjectMetadata();
+            objectMetadata.setUserMetadata(downloadStream.headAttr.userMetaMap);
+            String requestId = uploadStream(config.getBucketName(), cosPath, verifyStream,
+                    downloadStream.contentLength, config.getStorageClass(), objectMetadata);
+            downloadStream.setConsumed();
+            urllistRecordElement.setHeadAttr(downloadStream.headAttr);
+            markTaskSuccess(urllistRecordElement, cosPath, requestId);
+            return true;
+        } catch (Exception e) {
+            log.warn("[stream_fallback] task_info: {}, stream migrate failed, exception: {}",
+                    urllistRecordElement.buildKey(), e.toString());
+            return false;
+        } finally {
+            if (downloadStream != null) {
+                downloadStream.close();
+            }
+        }
+    }
+
+    @Override
+    public RecordElement buildSkipCheckElement() {
+        // 需要head源文件时, 只有执行任务时才能生成记录
+        if (!((CopyFromUrllistConfig) config).IsSkipHead()) {
+            return null;
+        }
+        return new MigrateUrllistRecordElement(MigrateType.MIGRATE_FROM_URLLIST,
+                config.getBucketName(), buildCOSPath(), url, null);
+    }
+
+    @Override
+    public boolean isSkipCheckCompareValue() {
+        return !((CopyFromUrllistConfig) config).IsSkipHead();
+    }
+
     @Override
     public void doTask() {
 
@@ -83,14 +160,21 @@ public class MigrateUrllistTask extends Task {
                     return;
                 }
             } catch (Exception e) {
-                String printMsg = String.format("[fail] task_info: %s", urllistRecordElement.buildKey());
-                System.err.println(printMsg);
-                log.error("[fail] task_info: {}, exception: {}", urllistRecordElement.buildKey(), e.toString());
-                TaskStatics.instance.addFailCnt();
+                markTaskFail(urllistRecordElement, e);
                 return;
             }
         }
 
+        // 跳过head时拿不到文件大小, 不使用分段下载
+        if (headAttr != null && isRangeDownloadEnabled(headAttr.fileSize)) {
+            migrateByRange(url, cosPath, headAttr, urllistRecordElement);
+            return;
+        }
+
+        if (isStreamModeEnabled() && migrateByStream(url, cosPath, urllistRecordElement)) {
+            return;
+        }
+
         File localFile = new File(localPath);
 
         try {
@@ -135,17 +219,7 @@ public class MigrateUrllistTask extends Task {
             cosMetadata.setUserMetadata(headAttr.userMetaMap);
             String requestId = uploadFile(config.getBucketName(), cosPath, localFile,
                     config.getStorageClass(), config.isEntireFileMd5Attached(), cosMetadata, null);
-            saveRecord(urllistRecordElement);
-            saveRequestId(cosPath, requestId);
-            if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
-                TaskStatics.instance.addSuccessCnt();
-            } else {
-                TaskStatics.instance.addUpdateCnt();
-            }
-            String printMsg = String.format("[ok] [requestid: %s], task_info: %s",
-                    requestId == null ? "NULL" : requestId, urllistRecordElement.buildKey());
-            System.out.println(printMsg);
-            log.info(printMsg);
+            markTaskSuccess(urllistRecordElement, cosPath, requestId);
         } catch (Exception e) {
             String printMsg =
                     String.format("[fail] task_info: %s", urllistRecordElement.buildKey());
@@ -0,0 +1,13 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.io.InputStream;
+
+/**
+ * 按字节范围读取源数据, 供分段并发下载使用
+ */
+public interface RangeReader {
+    /**
+     * 打开[start, end]闭区间的数据流, 调用方负责关闭
+     */
+    InputStream openRange(long start, long end) throws Exception;
+}
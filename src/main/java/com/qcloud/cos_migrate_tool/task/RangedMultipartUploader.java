@@ -0,0 +1,527 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.internal.Mimetypes;
+import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.StorageClass;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.transfer.TransferProgress;
+import com.qcloud.cos_migrate_tool.config.CommonConfig;
+import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.utils.Crc64Ecma;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 大文件分段并发下载, 每段下载完成后直接作为COS分块上传的一个分块; 本地大文件也按同样的方式分块上传.
+ * 所有任务共用一个大小为bigFileExecutorNum的线程池, 正在处理的分块占用的内存不超过rangeDownloadMemoryLimit.
+ * 每完成一个分块就记录到RecordDb, 失败重试以及中断后重新运行时只处理未完成的分块.
+ */
+public class RangedMultipartUploader {
+    public static final RangedMultipartUploader instance = new RangedMultipartUploader();
+    private static final Logger log = LoggerFactory.getLogger(RangedMultipartUploader.class);
+
+    // COS 分块上传最多10000块
+    private static final long MAX_PART_NUM = 10000;
+    private static final int MAX_RETRY = 5;
+    private static final long MB = 1024 * 1024;
+
+    private ExecutorService partExecutor;
+    // 内存配额, 单位MB
+    private Semaphore memoryPermits;
+    private int totalMemoryPermits;
+
+    private RangedMultipartUploader() {}
+
+    private synchronized void ensureStarted(CommonConfig config) {
+        if (partExecutor != null) {
+            return;
+        }
+        final AtomicInteger threadIndex = new AtomicInteger(0);
+        partExecutor = Executors.newFixedThreadPool(config.getBigFileExecutorNum(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread =
+                                new Thread(r, "range-part-worker-" + threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        totalMemoryPermits = (int) Math.max(1, config.getRangeDownloadMemoryLimit() / MB);
+        memoryPermits = new Semaphore(totalMemoryPermits);
+    }
+
+    public static long getPartSize(CommonConfig config, long contentLength) {
+        long minPartSize = (contentLength + MAX_PART_NUM - 1) / MAX_PART_NUM;
+        return Math.max(config.getBigFileUploadPartSize(), minPartSize);
+    }
+
+    /**
+     * @param srcTag 源文件的版本标识(etag或者最后修改时间), 源文件变化后不会复用之前的断点
+     */
+    public String upload(CommonConfig config, AmazonS3 cosClient, RecordDb recordDb,
+            RangeReader rangeReader, String bucketName, String cosPath, long contentLength,
+            String srcTag, StorageClass storageClass, ObjectMetadata objectMetadata)
+            throws Exception {
+        ensureStarted(config);
+        while (cosPath.startsWith("/")) {
+            cosPath = cosPath.substring(1);
+        }
+        if (config.getEncryptionType().equals("sse-cos")) {
+            objectMetadata.setServerSideEncryption("AES256");
+        }
+
+        long partSize = getPartSize(config, contentLength);
+        if (partSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(String.format(
+                    "range part size %d too large, content length %d", partSize, contentLength));
+        }
+
+        String savePointKey = recordDb.buildRangeUploadSavePointKey(bucketName, cosPath, srcTag,
+                contentLength, partSize);
+        InitiateMultipartUploadRequest initRequest =
+                new InitiateMultipartUploadRequest(bucketName, cosPath, objectMetadata)
+                        .withStorageClass(storageClass);
+        return doUpload(cosClient, recordDb, rangeReader, null, initRequest, savePointKey,
+                contentLength, partSize, config.isVerifyCrc64());
+    }
+
+    /**
+     * 本地大文件按分块并发上传, 分块直接从文件中读取, 不占用rangeDownloadMemoryLimit的内存配额.
+     * 断点按文件路径, 修改时间和大小记录, 文件变化后重新上传.
+     */
+    public String uploadFile(CommonConfig config, AmazonS3 cosClient, RecordDb recordDb,
+            File localFile, String bucketName, String cosPath, StorageClass storageClass,
+            ObjectMetadata objectMetadata, AccessControlList acl) throws Exception {
+        ensureStarted(config);
+        long contentLength = localFile.length();
+        long partSize = getPartSize(config, contentLength);
+        if (objectMetadata.getContentType() == null) {
+            objectMetadata.setContentType(Mimetypes.getInstance().getMimetype(localFile));
+        }
+
+        String savePointKey = recordDb.buildMultipartUploadSavePointKey(bucketName, cosPath,
+                localFile.getAbsolutePath(), localFile.lastModified(), contentLength, partSize);
+        InitiateMultipartUploadRequest initRequest =
+                new InitiateMultipartUploadRequest(bucketName, cosPath, objectMetadata)
+                        .withStorageClass(storageClass);
+        if (acl != null) {
+            initRequest.setAccessControlList(acl);
+        }
+        // 本地文件的CRC64校验由调用方对整个文件计算
+        return doUpload(cosClient, recordDb, null, localFile, initRequest, savePointKey,
+                contentLength, partSize, false);
+    }
+
+    private String doUpload(AmazonS3 cosClient, RecordDb recordDb, RangeReader rangeReader,
+            File localFile, InitiateMultipartUploadRequest initRequest, String savePointKey,
+            long contentLength, long partSize, boolean verifyCrc64) throws Exception {
+        String bucketName = initRequest.getBucketName();
+        String cosPath = initRequest.getKey();
+        int partCount = (int) ((contentLength + partSize - 1) / partSize);
+
+        // 断点中的uploadId和分块都是上传成功后才写入的, 直接按记录续传, 不再通过listParts校验.
+        // 只有COS上的状态与记录不一致时(例如uploadId已经被abort), 才以COS为准整理一次断点
+        Map<Integer, String> finishedParts;
+        boolean verified;
+        String uploadId = recordDb.queryUploadId(savePointKey);
+        if (uploadId != null) {
+            finishedParts = recordDb.queryUploadParts(savePointKey);
+            verified = false;
+            String printMsg = String.format(
+                    "[resume] [key: %s] [uploadId: %s] [finishedParts: %d]", cosPath, uploadId,
+                    finishedParts.size());
+            System.out.println(printMsg);
+            log.info(printMsg);
+        } else {
+            uploadId = initiateUpload(cosClient, recordDb, initRequest, savePointKey);
+            finishedParts = Collections.emptyMap();
+            verified = true;
+        }
+
+        // 本次上传的分块的CRC64, 上传完成后合并为整个对象的CRC64与COS比较
+        Map<Integer, Long> partCrcs =
+                verifyCrc64 ? new ConcurrentHashMap<Integer, Long>() : null;
+        TransferProgress progress;
+        TransferProgressReporter.Registration registration = null;
+        try {
+            while (true) {
+                progress = new TransferProgress();
+                progress.setTotalBytesToTransfer(contentLength);
+                // 重新上传时替换为新的进度
+                if (registration != null) {
+                    TransferProgressReporter.instance.unregister(registration);
+                }
+                registration = TransferProgressReporter.instance.register(cosPath, progress);
+                try {
+                    List<PartETag> partETags = uploadParts(cosClient, recordDb, rangeReader,
+                            localFile, bucketName, cosPath, uploadId, savePointKey, partCount,
+                            partSize, contentLength, finishedParts, partCrcs, progress);
+                    cosClient.completeMultipartUpload(new CompleteMultipartUploadRequest(
+                            bucketName, cosPath, uploadId, partETags));
+                    break;
+                } catch (AmazonServiceException e) {
+                    if (verified || !isSavePointStale(e)) {
+                        throw e;
+                    }
+                    verified = true;
+                    log.warn("upload savepoint of {} is stale, uploadId: {}, error code: {}",
+                            cosPath, uploadId, e.getErrorCode());
+                    finishedParts = listUploadedParts(cosClient, bucketName, cosPath, uploadId,
+                            partCount, partSize, contentLength);
+                    recordDb.deleteUploadParts(savePointKey);
+                    if (finishedParts == null) {
+                        uploadId = initiateUpload(cosClient, recordDb, initRequest, savePointKey);
+                        finishedParts = Collections.emptyMap();
+                    } else {
+                        for (Map.Entry<Integer, String> entry : finishedParts.entrySet()) {
+                            recordDb.saveUploadPart(savePointKey, entry.getKey(),
+                                    entry.getValue());
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (registration != null) {
+                TransferProgressReporter.instance.unregister(registration);
+            }
+        }
+        recordDb.deleteUploadSavePoint(savePointKey);
+        TransferProgressReporter.instance.printTransferProgress(progress, cosPath);
+        if (partCrcs != null) {
+            verifyCombinedCrc64(cosClient, bucketName, cosPath, partCrcs, partCount, partSize,
+                    contentLength);
+        }
+        return "null";
+    }
+
+    // 断点续传时之前运行上传的分块没有CRC64, 此时不校验
+    private void verifyCombinedCrc64(AmazonS3 cosClient, String bucketName, String cosPath,
+            Map<Integer, Long> partCrcs, int partCount, long partSize, long contentLength)
+            throws IOException {
+        if (partCrcs.size() != partCount) {
+            log.info("skip crc64 verify of resumed upload, key: {}", cosPath);
+            return;
+        }
+        long crc = partCrcs.get(1);
+        for (int partNumber = 2; partNumber <= partCount; ++partNumber) {
+            long start = (partNumber - 1) * partSize;
+            crc = Crc64Ecma.combine(crc, partCrcs.get(partNumber),
+                    Math.min(partSize, contentLength - start));
+        }
+        ContentHasher.verifyCrc64(cosClient, bucketName, cosPath, crc);
+    }
+
+    private String initiateUpload(AmazonS3 cosClient, RecordDb recordDb,
+            InitiateMultipartUploadRequest initRequest, String savePointKey) {
+        String uploadId = cosClient.initiateMultipartUpload(initRequest).getUploadId();
+        recordDb.saveUploadId(savePointKey, uploadId);
+        return uploadId;
+    }
+
+    // 断点记录的uploadId不存在, 或者记录的分块在COS上不存在
+    private static boolean isSavePointStale(AmazonServiceException e) {
+        return "NoSuchUpload".equals(e.getErrorCode()) || "InvalidPart".equals(e.getErrorCode());
+    }
+
+    /**
+     * 以COS上已上传的分块为准, 大小与预期不符的分块重新上传
+     *
+     * @return uploadId在COS上已经不存在时返回null
+     */
+    private Map<Integer, String> listUploadedParts(AmazonS3 cosClient, String bucketName,
+            String cosPath, String uploadId, int partCount, long partSize, long contentLength) {
+        Map<Integer, String> parts = new TreeMap<Integer, String>();
+        ListPartsRequest listPartsRequest = new ListPartsRequest(bucketName, cosPath, uploadId);
+        PartListing partListing;
+        try {
+            do {
+                partListing = cosClient.listParts(listPartsRequest);
+                for (PartSummary partSummary : partListing.getParts()) {
+                    int partNumber = partSummary.getPartNumber();
+                    if (partNumber > partCount) {
+                        continue;
+                    }
+                    long start = (partNumber - 1) * partSize;
+                    if (partSummary.getSize() == Math.min(partSize, contentLength - start)) {
+                        parts.put(partNumber, partSummary.getETag());
+                    }
+                }
+                listPartsRequest.setPartNumberMarker(partListing.getNextPartNumberMarker());
+            } while (partListing.isTruncated());
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+        return parts;
+    }
+
+    private List<PartETag> uploadParts(AmazonS3 cosClient, RecordDb recordDb,
+            RangeReader rangeReader, File localFile, String bucketName, String cosPath,
+            String uploadId, String savePointKey, int partCount, long partSize,
+            long contentLength, Map<Integer, String> finishedParts, Map<Integer, Long> partCrcs,
+            TransferProgress progress) throws Exception {
+        List<PartETag> partETags = new ArrayList<PartETag>(partCount);
+        for (Map.Entry<Integer, String> entry : finishedParts.entrySet()) {
+            int partNumber = entry.getKey();
+            if (partNumber > partCount) {
+                continue;
+            }
+            partETags.add(new PartETag(partNumber, entry.getValue()));
+            long start = (partNumber - 1) * partSize;
+            progress.updateProgress(Math.min(partSize, contentLength - start));
+        }
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<PartETag>> futures = new ArrayList<Future<PartETag>>();
+        Exception firstException = null;
+        boolean interrupted = false;
+        try {
+            try {
+                for (int partNumber = 1; partNumber <= partCount && !failed.get(); ++partNumber) {
+                    if (finishedParts.containsKey(partNumber)) {
+                        continue;
+                    }
+                    long start = (partNumber - 1) * partSize;
+                    int len = (int) Math.min(partSize, contentLength - start);
+                    // 本地文件的分块由SDK直接从文件读取, 不需要内存配额
+                    int permits = localFile != null ? 0
+                            : (int) Math.min(totalMemoryPermits, (len + MB - 1) / MB);
+                    memoryPermits.acquire(permits);
+                    PartJob partJob = new PartJob(cosClient, recordDb, rangeReader, localFile,
+                            bucketName, cosPath, uploadId, savePointKey, partNumber, start, len,
+                            permits, failed, partCrcs, progress);
+                    try {
+                        futures.add(partExecutor.submit(partJob));
+                    } catch (RejectedExecutionException e) {
+                        memoryPermits.release(permits);
+                        throw e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                failed.set(true);
+                firstException = e;
+            } catch (Exception e) {
+                failed.set(true);
+                firstException = e;
+            }
+
+            // 等待所有已提交的分块结束, 保证内存配额都已归还
+            for (Future<PartETag> future : futures) {
+                while (true) {
+                    try {
+                        partETags.add(future.get());
+                        break;
+                    } catch (ExecutionException e) {
+                        if (firstException == null) {
+                            Throwable cause = e.getCause();
+                            firstException = cause instanceof Exception ? (Exception) cause : e;
+                        }
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        failed.set(true);
+                        if (firstException == null) {
+                            firstException = e;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // 失败时不abort, 保留已上传的分块, 重试或者下次运行时只上传未完成的分块
+        if (firstException != null) {
+            throw firstException;
+        }
+
+        Collections.sort(partETags, new Comparator<PartETag>() {
+            public int compare(PartETag left, PartETag right) {
+                return Integer.compare(left.getPartNumber(), right.getPartNumber());
+            }
+        });
+        return partETags;
+    }
+
+    private static void readFully(InputStream inputStream, byte[] buffer, int len)
+            throws IOException {
+        int offset = 0;
+        while (offset < len) {
+            int readLen = inputStream.read(buffer, offset, len - offset);
+            if (readLen == -1) {
+                throw new EOFException(String.format(
+                        "range stream ended early, expect %d bytes, read %d bytes", len, offset));
+            }
+            offset += readLen;
+        }
+        if (inputStream.read() != -1) {
+            throw new IOException(
+                    String.format("range stream is longer than expected %d bytes", len));
+        }
+    }
+
+    private class PartJob implements Callable<PartETag> {
+        private final AmazonS3 cosClient;
+        private final RecordDb recordDb;
+        private final RangeReader rangeReader;
+        private final File localFile;
+        private final String bucketName;
+        private final String cosPath;
+        private final String uploadId;
+        private final String savePointKey;
+        private final int partNumber;
+        private final long start;
+        private final int len;
+        private final int permits;
+        private final AtomicBoolean failed;
+        private final Map<Integer, Long> partCrcs;
+        private final TransferProgress progress;
+
+        PartJob(AmazonS3 cosClient, RecordDb recordDb, RangeReader rangeReader, File localFile,
+                String bucketName, String cosPath, String uploadId, String savePointKey,
+                int partNumber, long start, int len, int permits, AtomicBoolean failed,
+                Map<Integer, Long> partCrcs, TransferProgress progress) {
+            this.cosClient = cosClient;
+            this.recordDb = recordDb;
+            this.rangeReader = rangeReader;
+            this.localFile = localFile;
+            this.bucketName = bucketName;
+            this.cosPath = cosPath;
+            this.uploadId = uploadId;
+            this.savePointKey = savePointKey;
+            this.partNumber = partNumber;
+            this.start = start;
+            this.len = len;
+            this.permits = permits;
+            this.failed = failed;
+            this.partCrcs = partCrcs;
+            this.progress = progress;
+        }
+
+        public PartETag call() throws Exception {
+            try {
+                if (failed.get()) {
+                    throw new IOException(String.format(
+                            "part %d of %s cancelled because another part failed", partNumber,
+                            cosPath));
+                }
+                byte[] buffer = null;
+                if (localFile == null) {
+                    buffer = new byte[len];
+                    downloadRange(buffer);
+                    if (partCrcs != null) {
+                        partCrcs.put(partNumber, Crc64Ecma.compute(buffer, 0, len));
+                    }
+                }
+                PartETag partETag = uploadPart(buffer);
+                recordDb.saveUploadPart(savePointKey, partNumber, partETag.getETag());
+                progress.updateProgress(len);
+                return partETag;
+            } catch (Exception e) {
+                failed.set(true);
+                throw e;
+            } finally {
+                memoryPermits.release(permits);
+            }
+        }
+
+        private void downloadRange(byte[] buffer) throws Exception {
+            int retryTime = 0;
+            while (true) {
+                InputStream inputStream = null;
+                try {
+                    inputStream = rangeReader.openRange(start, start + len - 1);
+                    readFully(inputStream, buffer, len);
+                    return;
+                } catch (Exception e) {
+                    ++retryTime;
+                    if (retryTime >= MAX_RETRY || failed.get()) {
+                        throw e;
+                    }
+                    log.warn(String.format(
+                            "download range %d-%d of %s failed, ready to retry. retryTime: %d",
+                            start, start + len - 1, cosPath, retryTime), e);
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(200, 1000));
+                } finally {
+                    if (inputStream != null) {
+                        try {
+                            inputStream.close();
+                        } catch (IOException e) {
+                            log.warn("close range stream failed, key: {}, exception: {}", cosPath,
+                                    e.toString());
+                        }
+                    }
+                }
+            }
+        }
+
+        // buffer为null时从本地文件读取分块
+        private PartETag uploadPart(byte[] buffer) throws Exception {
+            int retryTime = 0;
+            while (true) {
+                try {
+                    UploadPartRequest uploadPartRequest = new UploadPartRequest()
+                            .withBucketName(bucketName).withKey(cosPath).withUploadId(uploadId)
+                            .withPartNumber(partNumber).withPartSize(len);
+                    if (buffer == null) {
+                        uploadPartRequest.withFile(localFile).withFileOffset(start);
+                    } else {
+                        uploadPartRequest
+                                .withInputStream(new ByteArrayInputStream(buffer, 0, len));
+                    }
+                    return cosClient.uploadPart(uploadPartRequest).getPartETag();
+                } catch (Exception e) {
+                    ++retryTime;
+                    // 断点失效时重试没有意义, 交给调用方整理断点
+                    boolean stale = e instanceof AmazonServiceException
+                            && isSavePointStale((AmazonServiceException) e);
+                    if (retryTime >= MAX_RETRY || failed.get() || stale) {
+                        throw e;
+                    }
+                    log.warn(String.format("upload part %d of %s failed, ready to retry. retryTime: %d",
+                            partNumber, cosPath, retryTime), e);
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(200, 1000));
+                }
+            }
+        }
+    }
+}
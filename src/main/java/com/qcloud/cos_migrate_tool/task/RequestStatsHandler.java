@@ -0,0 +1,91 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.Request;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+
+/**
+ * 统计COS请求的每一次尝试(包含SDK内部的重试): 请求数, 耗时, 503/SlowDown次数以及成功上传的字节数.
+ * 由AdaptiveConcurrencyController按周期取走统计值.
+ */
+public class RequestStatsHandler extends RequestHandler2 {
+    private static final HandlerContextKey<Long> ATTEMPT_START_NANOS =
+            new HandlerContextKey<Long>("AttemptStartNanos");
+
+    private final AtomicLong requestCnt = new AtomicLong(0L);
+    private final AtomicLong throttledCnt = new AtomicLong(0L);
+    private final AtomicLong latencyNanos = new AtomicLong(0L);
+    private final AtomicLong uploadBytes = new AtomicLong(0L);
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        context.getRequest().addHandlerContext(ATTEMPT_START_NANOS, System.nanoTime());
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        Request<?> request = context.getRequest();
+        Long startNanos = request.getHandlerContext(ATTEMPT_START_NANOS);
+        if (startNanos == null) {
+            return;
+        }
+        requestCnt.incrementAndGet();
+        latencyNanos.addAndGet(System.nanoTime() - startNanos);
+        Exception exception = context.getException();
+        if (exception == null) {
+            uploadBytes.addAndGet(getContentLength(request));
+        } else if (isThrottled(exception)) {
+            throttledCnt.incrementAndGet();
+        }
+    }
+
+    private static long getContentLength(Request<?> request) {
+        String contentLength = request.getHeaders().get("Content-Length");
+        if (contentLength == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isThrottled(Exception exception) {
+        if (!(exception instanceof AmazonServiceException)) {
+            return false;
+        }
+        AmazonServiceException serviceException = (AmazonServiceException) exception;
+        return serviceException.getStatusCode() == 503
+                || "SlowDown".equals(serviceException.getErrorCode());
+    }
+
+    // 取走上一个周期的统计值
+    WindowStats drain() {
+        return new WindowStats(requestCnt.getAndSet(0), throttledCnt.getAndSet(0),
+                latencyNanos.getAndSet(0), uploadBytes.getAndSet(0));
+    }
+
+    static class WindowStats {
+        final long requestCnt;
+        final long throttledCnt;
+        final long latencyNanos;
+        final long uploadBytes;
+
+        WindowStats(long requestCnt, long throttledCnt, long latencyNanos, long uploadBytes) {
+            this.requestCnt = requestCnt;
+            this.throttledCnt = throttledCnt;
+            this.latencyNanos = latencyNanos;
+            this.uploadBytes = uploadBytes;
+        }
+
+        long getAvgLatencyMs() {
+            return requestCnt == 0 ? 0 : latencyNanos / requestCnt / 1000000;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.io.File;
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按资源额度控制同时执行的任务: 临时目录的磁盘空间, 流式迁移的内存缓冲区, 到COS的连接数.
+ * 任务开始执行前申请, 结束后释放. 申请磁盘空间时除了配置的额度, 还会检查临时目录当前实际的可用空间.
+ * 某类资源没有被占用时总是允许申请, 因此单个超过额度的任务只能单独执行, 但不会永远等待.
+ * 等待的任务按到达顺序排队, 最早的等待者等待超过MAX_BYPASS_WAIT_MS后不再允许其他任务插队,
+ * 直到它获得资源, 避免需求大的任务在小任务持续占用资源时一直等待.
+ */
+public class ResourceGovernor {
+    private static final Logger log = LoggerFactory.getLogger(ResourceGovernor.class);
+
+    public static final ResourceGovernor instance = new ResourceGovernor();
+
+    // 临时目录的可用空间可能被其他进程释放, 等待时定期重新检查
+    private static final long WAIT_CHECK_INTERVAL_MS = 1000;
+    private static final long WAIT_LOG_INTERVAL_MS = 10000;
+    // 最早的等待者等待超过该时间后, 其他任务不能再越过它申请资源
+    private static final long MAX_BYPASS_WAIT_MS = 10000;
+
+    private File tempFolder;
+    // 以下额度为0表示不限制
+    private long tempDiskLimit = 0;
+    private long tempDiskReserved = 0;
+    private long bufferMemoryLimit = 0;
+    private int connectionLimit = 0;
+
+    private long tempDiskUsed = 0;
+    private long bufferMemoryUsed = 0;
+    private int connectionUsed = 0;
+    private long peakTempDiskUsed = 0;
+    private long peakBufferMemoryUsed = 0;
+    private int peakConnectionUsed = 0;
+    private long waitCnt = 0;
+    private long waitMs = 0;
+    private long lastWaitLogTime = 0;
+    // 正在等待的申请, 按开始等待的时间排序
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+    private static class Waiter {
+        final long startTime = System.currentTimeMillis();
+    }
+
+    private ResourceGovernor() {}
+
+    public synchronized void init(String tempFolderPath, long tempDiskLimit, long tempDiskReserved,
+            long bufferMemoryLimit, int connectionLimit) {
+        this.tempFolder = tempFolderPath == null ? null : new File(tempFolderPath);
+        this.tempDiskLimit = tempDiskLimit;
+        this.tempDiskReserved = tempDiskReserved;
+        this.bufferMemoryLimit = bufferMemoryLimit;
+        this.connectionLimit = connectionLimit;
+        log.info(
+                "resource governor init, tempDiskLimit: {}, tempDiskReserved: {}, bufferMemoryLimit: {}, connectionLimit: {}",
+                tempDiskLimit, tempDiskReserved, bufferMemoryLimit, connectionLimit);
+    }
+
+    /**
+     * 申请执行任务需要的资源, 额度不足时阻塞, 任务结束后需要用相同的参数release
+     */
+    public synchronized void acquire(long tempFileBytes, long bufferBytes, int connections)
+            throws InterruptedException {
+        if (isBlockedByWaiter(null) || !canAdmit(tempFileBytes, bufferBytes, connections)) {
+            Waiter waiter = new Waiter();
+            ++waitCnt;
+            waiters.addLast(waiter);
+            try {
+                do {
+                    long now = System.currentTimeMillis();
+                    if (now - lastWaitLogTime >= WAIT_LOG_INTERVAL_MS) {
+                        lastWaitLogTime = now;
+                        log.info(
+                                "wait for resources, need temp disk: {}, buffer: {}, connections: {}, usage: {}",
+                                tempFileBytes, bufferBytes, connections, getUsageInfo());
+                    }
+                    wait(WAIT_CHECK_INTERVAL_MS);
+                } while (isBlockedByWaiter(waiter)
+                        || !canAdmit(tempFileBytes, bufferBytes, connections));
+            } finally {
+                waiters.remove(waiter);
+                // 队首变化后其他等待者可能可以申请
+                notifyAll();
+            }
+            waitMs += System.currentTimeMillis() - waiter.startTime;
+        }
+
+        tempDiskUsed += Math.max(tempFileBytes, 0);
+        bufferMemoryUsed += Math.max(bufferBytes, 0);
+        connectionUsed += Math.max(connections, 0);
+        peakTempDiskUsed = Math.max(peakTempDiskUsed, tempDiskUsed);
+        peakBufferMemoryUsed = Math.max(peakBufferMemoryUsed, bufferMemoryUsed);
+        peakConnectionUsed = Math.max(peakConnectionUsed, connectionUsed);
+    }
+
+    public synchronized void release(long tempFileBytes, long bufferBytes, int connections) {
+        tempDiskUsed -= Math.max(tempFileBytes, 0);
+        bufferMemoryUsed -= Math.max(bufferBytes, 0);
+        connectionUsed -= Math.max(connections, 0);
+        notifyAll();
+    }
+
+    // 最早的等待者不是自己且已经等待超过MAX_BYPASS_WAIT_MS时, 不能越过它申请
+    private boolean isBlockedByWaiter(Waiter self) {
+        Waiter oldest = waiters.peekFirst();
+        return oldest != null && oldest != self
+                && System.currentTimeMillis() - oldest.startTime >= MAX_BYPASS_WAIT_MS;
+    }
+
+    private boolean canAdmit(long tempFileBytes, long bufferBytes, int connections) {
+        if (connections > 0 && connectionLimit > 0 && connectionUsed > 0
+                && connectionUsed + connections > connectionLimit) {
+            return false;
+        }
+        if (bufferBytes > 0 && bufferMemoryLimit > 0 && bufferMemoryUsed > 0
+                && bufferMemoryUsed + bufferBytes > bufferMemoryLimit) {
+            return false;
+        }
+        if (tempFileBytes > 0 && tempDiskUsed > 0) {
+            if (tempDiskLimit > 0 && tempDiskUsed + tempFileBytes > tempDiskLimit) {
+                return false;
+            }
+            // 已占用的额度无法区分有多少已经写入磁盘, 按全部未写入计算, 宁可少执行也不能写满磁盘
+            if (getTempDiskFree() - tempDiskReserved - tempDiskUsed < tempFileBytes) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 临时目录所在磁盘当前的可用空间, 未配置临时目录时返回Long.MAX_VALUE
+     */
+    public long getTempDiskFree() {
+        if (tempFolder == null) {
+            return Long.MAX_VALUE;
+        }
+        return tempFolder.getUsableSpace();
+    }
+
+    public synchronized long getTempDiskUsed() {
+        return tempDiskUsed;
+    }
+
+    public synchronized long getTempDiskLimit() {
+        return tempDiskLimit;
+    }
+
+    public synchronized long getBufferMemoryUsed() {
+        return bufferMemoryUsed;
+    }
+
+    public synchronized long getBufferMemoryLimit() {
+        return bufferMemoryLimit;
+    }
+
+    public synchronized int getConnectionUsed() {
+        return connectionUsed;
+    }
+
+    public synchronized int getConnectionLimit() {
+        return connectionLimit;
+    }
+
+    public synchronized long getWaitCnt() {
+        return waitCnt;
+    }
+
+    public synchronized long getWaitMs() {
+        return waitMs;
+    }
+
+    public synchronized String getUsageInfo() {
+        return String.format(
+                "[temp disk: %d/%d, free: %d], [buffer: %d/%d], [connections: %d/%d]",
+                tempDiskUsed, tempDiskLimit, getTempDiskFree(), bufferMemoryUsed,
+                bufferMemoryLimit, connectionUsed, connectionLimit);
+    }
+
+    public synchronized String getPeakUsageInfo() {
+        return String.format(
+                "[peak temp disk: %d], [peak buffer: %d], [peak connections: %d], [wait cnt: %d], [wait ms: %d]",
+                peakTempDiskUsed, peakBufferMemoryUsed, peakConnectionUsed, waitCnt, waitMs);
+    }
+}
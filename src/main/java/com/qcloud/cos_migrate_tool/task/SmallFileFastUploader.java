@@ -0,0 +1,75 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.internal.Mimetypes;
+import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.StorageClass;
+import com.amazonaws.util.Md5Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 小文件快速上传: 不经过TransferManager, 在任务线程中把文件读入内存后直接putObject.
+ * 使用单独的COS客户端, 连接池大小由smallFileFastPathConnectionNum决定, 与smallFileExecutorNum无关, 连接保持长连接复用.
+ * 对于几KB的文件, 省去了TransferManager的线程切换, 进度监听以及重复读取文件计算md5的开销.
+ */
+public class SmallFileFastUploader {
+    public static final SmallFileFastUploader instance = new SmallFileFastUploader();
+    private static final Logger log = LoggerFactory.getLogger(SmallFileFastUploader.class);
+
+    private volatile AmazonS3 cosClient;
+    private volatile long threshold = 0;
+
+    private SmallFileFastUploader() {}
+
+    public void init(AmazonS3 cosClient, long threshold) {
+        this.cosClient = cosClient;
+        this.threshold = threshold;
+        log.info("small file fast path enabled, threshold: {}", threshold);
+    }
+
+    public boolean isAccepted(File localFile, long fileSize) {
+        return cosClient != null && fileSize < threshold && !localFile.isDirectory();
+    }
+
+    /**
+     * 上传失败直接抛出异常, 由调用方重试
+     */
+    public String upload(String bucketName, String cosPath, File localFile,
+            StorageClass storageClass, ObjectMetadata objectMetadata, AccessControlList acl)
+            throws IOException {
+        byte[] content = Files.readAllBytes(localFile.toPath());
+        // 调用方的元数据在重试以及退回TransferManager上传时复用, 长度和md5只设置在本次请求的副本上
+        ObjectMetadata requestMetadata = objectMetadata.clone();
+        requestMetadata.setContentLength(content.length);
+        requestMetadata.setContentMD5(Md5Utils.md5AsBase64(content));
+        // 以字节数组上传时SDK无法根据文件名推断类型, 与TransferManager上传文件时一致按扩展名设置
+        if (requestMetadata.getContentType() == null) {
+            requestMetadata.setContentType(Mimetypes.getInstance().getMimetype(localFile));
+        }
+        PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, cosPath,
+                new ByteArrayInputStream(content), requestMetadata);
+        putObjectRequest.setStorageClass(storageClass);
+        if (acl != null) {
+            putObjectRequest.setAccessControlList(acl);
+        }
+        cosClient.putObject(putObjectRequest);
+        return "null";
+    }
+
+    public void shutdown() {
+        AmazonS3 client = cosClient;
+        cosClient = null;
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+}
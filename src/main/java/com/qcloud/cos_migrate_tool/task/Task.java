@@ -1,23 +1,36 @@
 package com.qcloud.cos_migrate_tool.task;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadLocalRandom;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AccessControlList;
-import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.StorageClass;
-import com.amazonaws.services.s3.transfer.model.UploadResult;
-import com.amazonaws.services.s3.transfer.PersistableUpload;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.TransferProgress;
 import com.amazonaws.services.s3.transfer.Upload;
-import com.qcloud.cos.utils.Md5Utils;
 import com.qcloud.cos_migrate_tool.config.CommonConfig;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
+import com.qcloud.cos_migrate_tool.meta.TaskOutput;
+import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
 import com.qcloud.cos_migrate_tool.record.RecordDb.QUERY_RESULT;
 import com.qcloud.cos_migrate_tool.record.RecordElement;
@@ -27,127 +40,190 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public abstract class Task implements Runnable {
-    private Semaphore semaphore;
     public static final Logger log = LoggerFactory.getLogger(Task.class);
     protected static Semaphore mutex = new Semaphore(1);
+    // COS 分块上传最多10000块
+    private static final long MAX_PART_NUM = 10000;
+    // 流式迁移单个缓冲区的上限, 超过时按分块上传
+    private static final long MAX_STREAM_BUFFER_SIZE = Integer.MAX_VALUE - 8;
 
     protected TransferManager smallFileTransfer;
     protected TransferManager bigFileTransfer;
-    protected long smallFileThreshold;
     private RecordDb recordDb;
     protected CommonConfig config;
     QUERY_RESULT query_result;
+    // 上传到COS的字节数, 由upload系列方法设置, 成功时计入统计
+    private long transferredBytes = 0;
+    // 提前提交计算的全文md5, 由uploadFile使用
+    private Future<String> contentMd5Future;
+    // 生成任务时已经通过list与目标比较过, 执行时不再查询迁移记录或head目标
+    private boolean destCompared = false;
 
 
-
-    public Task(Semaphore semaphore, CommonConfig config, TransferManager smallFileTransfer,
+    public Task(CommonConfig config, TransferManager smallFileTransfer,
             TransferManager bigFileTransfer, RecordDb recordDb) {
         super();
-        this.semaphore = semaphore;
         this.config = config;
         this.smallFileTransfer = smallFileTransfer;
         this.bigFileTransfer = bigFileTransfer;
-        this.smallFileThreshold = config.getSmallFileThreshold();
         this.recordDb = recordDb;
     }
 
     public boolean isExist(RecordElement recordElement, boolean isCompareValue) {
         
+        long startNanos = System.nanoTime();
         query_result = recordDb.queryRecord(recordElement);
+        MigrateMetrics.instance.recordLatency(Operation.DB, startNanos);
         if (query_result == RecordDb.QUERY_RESULT.ALL_EQ) {
-            String printMsg = String.format("[skip] task_info: %s", recordElement.buildKey());
-            System.out.println(printMsg);
-            log.info("skip! task_info: [key: {}], [value: {}]", recordElement.buildKey(),
-                    recordElement.buildValue());
+            TaskOutput.instance.reportSkip(recordElement.buildKey(), null);
             return true;
         }
 
         if (!isCompareValue && (query_result == RecordDb.QUERY_RESULT.VALUE_NOT_EQ)) {
-            String printMsg = String.format("[skip] task_info: %s", recordElement.buildKey());
-            System.out.println(printMsg);
-            log.info("skip! not compare value, task_info: [key: {}], [value: {}]",
-                    recordElement.buildKey(), recordElement.buildValue());
+            TaskOutput.instance.reportSkip(recordElement.buildKey(), "not compare value");
             return true;
         }
         
         return false;
     }
 
-    public void saveRecord(RecordElement recordElement) {
-        recordDb.saveRecord(recordElement);
+    /**
+     * 标记任务已通过list与目标比较, 确定需要迁移
+     *
+     * @param destExist 目标是否存在, 用于统计新增还是更新
+     */
+    public void setDestCompared(boolean destExist) {
+        this.destCompared = true;
+        this.query_result =
+                destExist ? RecordDb.QUERY_RESULT.VALUE_NOT_EQ : RecordDb.QUERY_RESULT.KEY_NOT_EXIST;
     }
 
-    public void saveRequestId(String key, String requestId) {
-        recordDb.saveRequestId(key, requestId);
+    public boolean isDestCompared() {
+        return destCompared;
     }
 
-    private void printTransferProgress(TransferProgress progress, String key) {
-        long byteSent = progress.getBytesTransferred();
-        long byteTotal = progress.getTotalBytesToTransfer();
-        double pct = 100.0;
-        if (byteTotal != 0) {
-            pct = progress.getPercentTransferred();
+    /**
+     * 生成任务时用于查询跳过索引的记录, 需要与doTask中isExist使用的记录一致
+     *
+     * @return null表示只有执行任务时才能判断, 例如需要先head源文件
+     */
+    public RecordElement buildSkipCheckElement() {
+        return null;
+    }
+
+    // 与doTask中isExist的isCompareValue参数一致
+    public boolean isSkipCheckCompareValue() {
+        return true;
+    }
+
+    /**
+     * 生成任务时已知的源文件大小, 用于选择大文件或小文件队列以及计算未完成任务的数据量
+     *
+     * @return 未知时返回-1, 按小文件处理
+     */
+    public long getTaskSize() {
+        return -1;
+    }
+
+    /**
+     * 执行任务时预计占用的临时文件空间, 用于ResourceGovernor按临时目录的磁盘额度控制并发
+     */
+    public long getTempFileBytes() {
+        return 0;
+    }
+
+    /**
+     * 执行任务时预计占用的内存缓冲区, 分段并发下载的内存由rangeDownloadMemoryLimit单独限制, 不计算在内
+     */
+    public long getBufferBytes() {
+        return 0;
+    }
+
+    // 先下载到临时文件再上传的任务, 按生成任务时已知的大小估算, 流式迁移失败退回临时文件的情况不计算在内
+    protected long estimateTempFileBytes(long contentLength) {
+        if (contentLength <= 0 || isRangeDownloadEnabled(contentLength) || isStreamModeEnabled()) {
+            return 0;
         }
-        String printMsg = String.format(
-                "[UploadInProgress] [key: %s] [byteSent/ byteTotal/ percentage: %d/ %d/ %.2f%%]",
-                key, byteSent, byteTotal, pct);
-        log.info(printMsg);
-        System.out.println(printMsg);
+        return contentLength;
     }
 
-    public String showTransferProgressAndGetRequestId(Upload upload, boolean multipart, String key,
-            long mtime) throws InterruptedException {
-        boolean pointSaveFlag = false;
-        long printCount = 0;
-        TransferProgress progress = upload.getProgress();
-        do {
-            ++printCount;
-            Thread.sleep(100);
+    protected long estimateBufferBytes(long contentLength) {
+        if (contentLength <= 0 || isRangeDownloadEnabled(contentLength) || !isStreamModeEnabled()) {
+            return 0;
+        }
+        if (isStreamBuffered(contentLength)) {
+            return contentLength;
+        }
+        return Math.min(contentLength, getStreamPartSize(contentLength));
+    }
 
-            long byteSent = progress.getBytesTransferred();
-            if (printCount % 20 == 0) {
-                printTransferProgress(progress, key);
-            }
+    /**
+     * 根据跳过索引确定需要迁移后, 在任务排队时调用. 需要全文md5的任务可以提前提交计算, 与其他任务的上传并行
+     */
+    public void prefetchContentHash() {}
 
-        } while (upload.isDone() == false);
-        // 结束后在打印下进度
-        printTransferProgress(progress, key);
-        UploadResult uploadResult = upload.waitForUploadResult();
-        return "null";
+    protected void submitContentMd5(File localFile) {
+        if (contentMd5Future == null) {
+            contentMd5Future =
+                    ContentHasher.instance.submitMd5Hex(config, recordDb, localFile);
+        }
     }
 
-    private boolean isMultipartUploadIdValid(String bucketName, String cosKey, String uploadId) {
-        ListPartsRequest listPartsRequest = new ListPartsRequest(bucketName, cosKey, uploadId);
+    private String getContentMd5(File localFile) throws Exception {
+        if (contentMd5Future == null) {
+            return ContentHasher.md5Hex(localFile);
+        }
         try {
-            this.bigFileTransfer.getAmazonS3Client().listParts(listPartsRequest);
-            return true;
-        } catch (AmazonServiceException e) {
-            return false;
+            return contentMd5Future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            contentMd5Future = null;
         }
+    }
 
+    public void saveRecord(RecordElement recordElement) {
+        long startNanos = System.nanoTime();
+        recordDb.saveRecord(recordElement);
+        MigrateMetrics.instance.recordLatency(Operation.DB, startNanos);
     }
 
-    private String uploadBigFile(PutObjectRequest putObjectRequest) throws InterruptedException {
-        String bucketName = putObjectRequest.getBucketName();
-        String cosKey = putObjectRequest.getKey();
-        String localPath = putObjectRequest.getFile().getAbsolutePath();
-        long mtime = putObjectRequest.getFile().lastModified();
-        long partSize = this.bigFileTransfer.getConfiguration().getMinimumUploadPartSize();
-        long mutlipartUploadThreshold =
-                this.bigFileTransfer.getConfiguration().getMultipartUploadThreshold();
-
-        String multipartId = this.recordDb.queryMultipartUploadSavePoint(bucketName, cosKey,
-                localPath, mtime, partSize, mutlipartUploadThreshold);
-        Upload upload = null;
-        // 如果multipartId不为Null, 则表示存在断点, 使用续传.
-        if (multipartId != null && isMultipartUploadIdValid(bucketName, cosKey, multipartId)) {
-            PersistableUpload persistableUpload = new PersistableUpload(bucketName, cosKey,
-                    localPath, multipartId, partSize, mutlipartUploadThreshold);
-            upload = this.bigFileTransfer.resumeUpload(persistableUpload);
-        } else {
-            upload = this.bigFileTransfer.upload(putObjectRequest);
+    public void saveRequestId(String key, String requestId) {
+        recordDb.saveRequestId(key, requestId);
+    }
+
+    public String showTransferProgressAndGetRequestId(Upload upload, boolean multipart, String key,
+            long mtime) throws InterruptedException {
+        TransferProgress progress = upload.getProgress();
+        // 进度由共享的reporter定时打印, 这里只阻塞等待上传完成的通知
+        TransferProgressReporter.Registration registration =
+                TransferProgressReporter.instance.register(key, progress);
+        try {
+            upload.waitForUploadResult();
+        } finally {
+            TransferProgressReporter.instance.unregister(registration);
         }
-        return showTransferProgressAndGetRequestId(upload, true, cosKey, mtime);
+        // 结束后在打印下进度
+        TransferProgressReporter.instance.printTransferProgress(progress, key);
+        return "null";
+    }
+
+    /**
+     * 本地大文件按分块上传, 每完成一个分块就记录断点, 失败重试以及重新运行时只上传未完成的分块.
+     * 客户端加密时分块必须按顺序加密上传, 仍由TransferManager整体上传.
+     */
+    private String uploadBigFile(PutObjectRequest putObjectRequest, StorageClass storageClass,
+            AccessControlList acl) throws Exception {
+        if (config.getClientEncrypt()) {
+            Upload upload = this.bigFileTransfer.upload(putObjectRequest);
+            return showTransferProgressAndGetRequestId(upload, true, putObjectRequest.getKey(),
+                    putObjectRequest.getFile().lastModified());
+        }
+        return RangedMultipartUploader.instance.uploadFile(config,
+                this.bigFileTransfer.getAmazonS3Client(), recordDb, putObjectRequest.getFile(),
+                putObjectRequest.getBucketName(), putObjectRequest.getKey(), storageClass,
+                putObjectRequest.getMetadata(), acl);
     }
 
 
@@ -190,7 +266,7 @@ public abstract class Task implements Runnable {
         }
 
         if (entireMd5Attached && !localFile.isDirectory()) {
-            String md5 = Md5Utils.md5Hex(localFile);
+            String md5 = getContentMd5(localFile);
             String upyunTag = objectMetadata.getUserMetaDataOf("upyun-etag");
             if (upyunTag != null) {
                 if (!md5.equalsIgnoreCase(upyunTag)) {
@@ -211,16 +287,28 @@ public abstract class Task implements Runnable {
         final int maxRetry = 5;
 
         while (retryTime < maxRetry) {
+            long startNanos = System.nanoTime();
             try {
                 String requestId;
-                if (localFile.length() >= smallFileThreshold) {
-                    requestId = uploadBigFile(putObjectRequest);
+                long fileSize = localFile.length();
+                if (fileSize >= config.getSmallFileThreshold()) {
+                    requestId = uploadBigFile(putObjectRequest, storageClass, acl);
+                } else if (SmallFileFastUploader.instance.isAccepted(localFile, fileSize)) {
+                    requestId = SmallFileFastUploader.instance.upload(bucketName, cosPath,
+                            localFile, storageClass, objectMetadata, acl);
                 } else {
                     requestId = uploadSmallFile(putObjectRequest);
                 }
-                
+                MigrateMetrics.instance.recordLatency(Operation.UPLOAD, startNanos);
+                // 校验失败时与上传失败一样重试
+                if (config.isVerifyCrc64() && !localFile.isDirectory()) {
+                    ContentHasher.verifyCrc64(bigFileTransfer.getAmazonS3Client(), bucketName,
+                            cosPath, ContentHasher.instance.crc64(config, localFile));
+                }
+                this.transferredBytes = localFile.isDirectory() ? 0 : fileSize;
                 return requestId;
             } catch (Exception e) {
+                MigrateMetrics.instance.recordLatency(Operation.UPLOAD, startNanos);
                 log.warn("upload failed, ready to retry. retryTime:" + retryTime, e);
                 ++retryTime;
                 if (retryTime >= maxRetry) {
@@ -233,15 +321,241 @@ public abstract class Task implements Runnable {
         return null;
     }
 
+    /**
+     * 是否走边下载边上传的流式迁移. 客户端加密以及需要附带全文md5时, 上传前必须拿到完整文件, 因此不走流式.
+     */
+    protected boolean isStreamModeEnabled() {
+        return config.isStreamMode() && !config.getClientEncrypt()
+                && !config.isEntireFileMd5Attached();
+    }
+
+    /**
+     * 大文件是否走分段并发下载. 与流式迁移一样, 客户端加密以及需要附带全文md5时不使用.
+     */
+    protected boolean isRangeDownloadEnabled(long contentLength) {
+        return config.isRangeDownload() && !config.getClientEncrypt()
+                && !config.isEntireFileMd5Attached()
+                && contentLength >= config.getRangeDownloadThreshold();
+    }
+
+    public String uploadByRanges(RangeReader rangeReader, String bucketName, String cosPath,
+            long contentLength, String srcTag, StorageClass storageClass,
+            ObjectMetadata objectMetadata) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            String requestId = RangedMultipartUploader.instance.upload(config,
+                    bigFileTransfer.getAmazonS3Client(), recordDb, rangeReader, bucketName,
+                    cosPath, contentLength, srcTag, storageClass, objectMetadata);
+            this.transferredBytes = contentLength;
+            return requestId;
+        } finally {
+            MigrateMetrics.instance.recordLatency(Operation.UPLOAD, startNanos);
+        }
+    }
+
+    /**
+     * 不经过upload系列方法上传的任务(例如bucket间复制)在成功前设置迁移的字节数
+     */
+    protected void setTransferredBytes(long transferredBytes) {
+        this.transferredBytes = transferredBytes;
+    }
+
+    protected void markTaskFail(RecordElement recordElement, Exception e) {
+        TaskOutput.instance.reportFail(recordElement.buildKey(), e.toString());
+        TaskStatics.instance.addFailCnt();
+    }
+
+    /**
+     * 迁移成功后记录db, 统计以及打印结果
+     */
+    protected void markTaskSuccess(RecordElement recordElement, String cosPath, String requestId) {
+        saveRecord(recordElement);
+        saveRequestId(cosPath, requestId);
+        if (this.query_result == RecordDb.QUERY_RESULT.KEY_NOT_EXIST) {
+            TaskStatics.instance.addSuccessCnt(transferredBytes);
+        } else {
+            TaskStatics.instance.addUpdateCnt(transferredBytes);
+        }
+        TaskOutput.instance.reportOk(recordElement.buildKey(), requestId, transferredBytes);
+    }
+
+    private static void readFully(InputStream inputStream, byte[] buffer, int len)
+            throws IOException {
+        int offset = 0;
+        while (offset < len) {
+            int readLen = inputStream.read(buffer, offset, len - offset);
+            if (readLen == -1) {
+                throw new EOFException(String.format(
+                        "source stream ended early, expect %d bytes, read %d bytes", len, offset));
+            }
+            offset += readLen;
+        }
+    }
+
+    // 数据读完后再读一次, 确认源站没有多余的数据, 同时触发ChecksumVerifyInputStream的校验
+    private static void expectEndOfStream(InputStream inputStream) throws IOException {
+        if (inputStream.read() != -1) {
+            throw new IOException("source stream is longer than content length");
+        }
+    }
+
+    // 小于分块阈值的对象整体读入内存后简单上传
+    private boolean isStreamBuffered(long contentLength) {
+        return contentLength < config.getSmallFileThreshold()
+                && contentLength <= MAX_STREAM_BUFFER_SIZE;
+    }
+
+    private long getStreamPartSize(long contentLength) {
+        long partSize = config.getBigFileUploadPartSize();
+        long minPartSize = (contentLength + MAX_PART_NUM - 1) / MAX_PART_NUM;
+        return Math.max(partSize, minPartSize);
+    }
+
+    /**
+     * 将源站的输入流直接上传到COS, 不落地临时文件.
+     * 小于分块阈值的对象先整体读入内存再上传, 其余对象按分块读入缓冲区后逐块上传, 上传失败都可以在内存中重试.
+     * 缓冲区只在本次上传期间持有, 占用的内存由ResourceGovernor按estimateBufferBytes控制.
+     * 数据在上传完成前会读到流结尾, 以便校验失败时中止上传.
+     */
+    public String uploadStream(String bucketName, String cosPath, InputStream inputStream,
+            long contentLength, StorageClass storageClass, ObjectMetadata objectMetadata)
+            throws Exception {
+        while (cosPath.startsWith("/")) {
+            cosPath = cosPath.substring(1);
+        }
+        if (config.getEncryptionType().equals("sse-cos")) {
+            objectMetadata.setServerSideEncryption("AES256");
+        }
+
+        long partSize = getStreamPartSize(contentLength);
+        if (partSize > MAX_STREAM_BUFFER_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "stream part size %d too large, content length %d", partSize, contentLength));
+        }
+
+        TransferProgress progress = new TransferProgress();
+        progress.setTotalBytesToTransfer(contentLength);
+        TransferProgressReporter.Registration registration =
+                TransferProgressReporter.instance.register(cosPath, progress);
+        long startNanos = System.nanoTime();
+        try {
+            if (isStreamBuffered(contentLength)) {
+                objectMetadata.setContentLength(contentLength);
+                byte[] buffer = new byte[(int) contentLength];
+                readFully(inputStream, buffer, (int) contentLength);
+                expectEndOfStream(inputStream);
+                putStreamObject(bucketName, cosPath, new ByteArrayInputStream(buffer),
+                        storageClass, objectMetadata);
+                progress.updateProgress(contentLength);
+            } else {
+                uploadStreamByParts(bucketName, cosPath, inputStream, contentLength, (int) partSize,
+                        storageClass, objectMetadata, progress);
+            }
+            this.transferredBytes = contentLength;
+        } finally {
+            MigrateMetrics.instance.recordLatency(Operation.UPLOAD, startNanos);
+            TransferProgressReporter.instance.unregister(registration);
+        }
+        TransferProgressReporter.instance.printTransferProgress(progress, cosPath);
+        return "null";
+    }
+
+    private void putStreamObject(String bucketName, String cosPath,
+            ByteArrayInputStream inputStream, StorageClass storageClass,
+            ObjectMetadata objectMetadata) throws Exception {
+        int retryTime = 0;
+        final int maxRetry = 5;
+        while (true) {
+            try {
+                inputStream.reset();
+                PutObjectRequest putObjectRequest =
+                        new PutObjectRequest(bucketName, cosPath, inputStream, objectMetadata);
+                putObjectRequest.setStorageClass(storageClass);
+                smallFileTransfer.getAmazonS3Client().putObject(putObjectRequest);
+                return;
+            } catch (Exception e) {
+                ++retryTime;
+                if (retryTime >= maxRetry) {
+                    throw e;
+                }
+                log.warn("put stream object failed, ready to retry. retryTime:" + retryTime, e);
+                Thread.sleep(ThreadLocalRandom.current().nextLong(200, 1000));
+            }
+        }
+    }
+
+    private void uploadStreamByParts(String bucketName, String cosPath, InputStream inputStream,
+            long contentLength, int partSize, StorageClass storageClass,
+            ObjectMetadata objectMetadata, TransferProgress progress) throws Exception {
+        AmazonS3 cosClient = bigFileTransfer.getAmazonS3Client();
+        InitiateMultipartUploadRequest initRequest =
+                new InitiateMultipartUploadRequest(bucketName, cosPath, objectMetadata)
+                        .withStorageClass(storageClass);
+        String uploadId = cosClient.initiateMultipartUpload(initRequest).getUploadId();
+        try {
+            byte[] buffer = new byte[(int) Math.min(partSize, contentLength)];
+            List<PartETag> partETags = new ArrayList<PartETag>();
+            long remaining = contentLength;
+            int partNumber = 1;
+            while (remaining > 0) {
+                int len = (int) Math.min(partSize, remaining);
+                readFully(inputStream, buffer, len);
+                remaining -= len;
+                if (remaining == 0) {
+                    // 最后一块上传前先完成校验, 校验失败则不会complete
+                    expectEndOfStream(inputStream);
+                }
+                partETags.add(uploadStreamPart(cosClient, bucketName, cosPath, uploadId,
+                        partNumber, buffer, len));
+                progress.updateProgress(len);
+                ++partNumber;
+            }
+            cosClient.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, cosPath, uploadId, partETags));
+        } catch (Exception e) {
+            try {
+                cosClient.abortMultipartUpload(
+                        new AbortMultipartUploadRequest(bucketName, cosPath, uploadId));
+            } catch (Exception abortException) {
+                log.warn("abort multipart upload failed, key: {}, uploadId: {}, exception: {}",
+                        cosPath, uploadId, abortException.toString());
+            }
+            throw e;
+        }
+    }
+
+    private PartETag uploadStreamPart(AmazonS3 cosClient, String bucketName, String cosPath,
+            String uploadId, int partNumber, byte[] buffer, int len) throws Exception {
+        int retryTime = 0;
+        final int maxRetry = 5;
+        while (true) {
+            try {
+                UploadPartRequest uploadPartRequest = new UploadPartRequest()
+                        .withBucketName(bucketName).withKey(cosPath).withUploadId(uploadId)
+                        .withPartNumber(partNumber).withPartSize(len)
+                        .withInputStream(new ByteArrayInputStream(buffer, 0, len));
+                return cosClient.uploadPart(uploadPartRequest).getPartETag();
+            } catch (Exception e) {
+                ++retryTime;
+                if (retryTime >= maxRetry) {
+                    throw e;
+                }
+                log.warn(String.format("upload part %d failed, ready to retry. retryTime: %d",
+                        partNumber, retryTime), e);
+                Thread.sleep(ThreadLocalRandom.current().nextLong(200, 1000));
+            }
+        }
+    }
+
     public boolean isExistOnCOS(TransferManager transferManager, RecordElement recordElement, String bucketName, String cosPath) {
+        long startNanos = System.nanoTime();
         try {
             transferManager.getAmazonS3Client().getObjectMetadata(bucketName, cosPath);
-            String printMsg = String.format("[skip] file on cos, task_info: %s", recordElement.buildKey());
-            System.out.println(printMsg);
-            log.info("skip! file on cos, task_info: [key: {}], [value: {}]", recordElement.buildKey(),
-                    recordElement.buildValue());
+            MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
+            TaskOutput.instance.reportSkip(recordElement.buildKey(), "file on cos");
             return true;
         } catch (AmazonServiceException e) {
+            MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
             if (e.getStatusCode() == 404) {
                 return false;
             } else if (e.getStatusCode() == 503) {
@@ -293,8 +607,6 @@ public abstract class Task implements Runnable {
             log.error("task is interrupted", e);
         } catch (Exception e) {
             log.error("unknown exception occur", e);
-        } finally {
-            semaphore.release();
         }
     }
 }
@@ -2,18 +2,26 @@ package com.qcloud.cos_migrate_tool.task;
 
 import com.qcloud.cos_migrate_tool.record.DBParam;
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -25,14 +33,25 @@ import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.transfer.TransferManager;
+import com.qcloud.cos.utils.UrlEncoderUtils;
 import com.qcloud.cos_migrate_tool.config.CommonConfig;
 import com.qcloud.cos_migrate_tool.config.MigrateType;
+import com.qcloud.cos_migrate_tool.listing.ListedObject;
+import com.qcloud.cos_migrate_tool.listing.ListingDiffer;
+import com.qcloud.cos_migrate_tool.listing.ObjectLister;
+import com.qcloud.cos_migrate_tool.listing.S3ObjectLister;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.TaskOutput;
 import com.qcloud.cos_migrate_tool.meta.TaskStatics;
 import com.qcloud.cos_migrate_tool.record.RecordDb;
+import com.qcloud.cos_migrate_tool.record.RecordElement;
+import com.qcloud.cos_migrate_tool.record.RecordSkipIndex;
 import com.qcloud.cos_migrate_tool.utils.SystemUtils;
+import com.qcloud.cos_migrate_tool.utils.TrafficLimiter;
 import com.qcloud.cos_migrate_tool.utils.VersionInfoUtils;
 
 import org.slf4j.Logger;
@@ -45,13 +64,23 @@ public abstract class TaskExecutor {
     protected final int smallFileUploadExecutorNum;
     protected final int bigFileUploadExecutorNum;
     protected RecordDb recordDb = new RecordDb();
-    protected Semaphore semaphore = new Semaphore(1024); // 控制最大添加到任务队列里的任务数
+    // 已知大小且不小于smallFileThreshold的任务进入大文件队列, 其余进入小文件队列, 两个队列各自限制排队的任务数
+    // 排队的任务只占用少量内存, 临时文件, 缓冲区以及连接由ResourceGovernor在任务开始执行时限制
+    private static final int MAX_QUEUED_BIG_TASKS_PER_THREAD = 4;
+    private final Semaphore smallTaskPermits;
+    private final Semaphore bigTaskPermits;
+    // 限制已提交但未完成的任务的数据总量
+    private final BytePermits inflightBytePermits;
+    // 已提交但未完成的任务的数据量, 不受inflightBytesLimit是否开启影响, 用于监控
+    private final AtomicLong inflightBytes = new AtomicLong(0L);
     protected ExecutorService threadPool;
+    protected ExecutorService bigTaskThreadPool;
     protected CommonConfig config;
 
     protected AmazonS3 s3Client;
     protected TransferManager smallFileTransferManager;
     protected TransferManager bigFileTransferManager;
+    private AdaptiveConcurrencyController concurrencyController;
 
 
     enum RUN_MODE {
@@ -62,8 +91,19 @@ public abstract class TaskExecutor {
         this.migrateType = migrateType;
         this.config = config;
         this.threadPool = Executors.newFixedThreadPool(config.getTaskExecutorNumber());
-
-        log.info("threadNum:{}", config.getTaskExecutorNumber());
+        this.bigTaskThreadPool = Executors.newFixedThreadPool(config.getBigFileExecutorNum());
+        this.smallTaskPermits = new Semaphore(config.getTaskQueueSize());
+        this.bigTaskPermits =
+                new Semaphore(config.getBigFileExecutorNum() * MAX_QUEUED_BIG_TASKS_PER_THREAD);
+        this.inflightBytePermits = new BytePermits(config.getInflightBytesLimit());
+
+        log.info("threadNum:{}, bigTaskThreadNum:{}, taskQueueSize:{}, inflightBytesLimit:{}",
+                config.getTaskExecutorNumber(), config.getBigFileExecutorNum(),
+                config.getTaskQueueSize(), config.getInflightBytesLimit());
+        ResourceGovernor.instance.init(config.getTempFolderPath(), config.getTempDiskLimit(),
+                config.getTempDiskReserved(), config.getBufferMemoryLimit(),
+                config.getMaxConnectionNum());
+        registerMetricsGauges();
 
         this.smallFileUploadExecutorNum = config.getSmallFileExecutorNumber();
         this.bigFileUploadExecutorNum = config.getBigFileExecutorNum();
@@ -85,6 +125,11 @@ public abstract class TaskExecutor {
         } else {
             clientConfig.setProtocol(Protocol.HTTP);
         }
+        if (config.getMaxConnectionNum() > 0) {
+            // maxConnectionNum限制的是任务数, 每个任务只申请一个连接; 分块上传由TransferManager的线程池
+            // 以及RangedMultipartUploader的part线程执行, 这些线程各自占用连接, 连接池需要为它们留出余量
+            clientConfig.setMaxConnections(config.getMaxConnectionNum() + getPartWorkerNum(config));
+        }
 
         if (!config.getProxyHost().isEmpty() && config.getProxyPort() > 0) {
             clientConfig.setProxyHost(config.getProxyHost());
@@ -98,25 +143,59 @@ public abstract class TaskExecutor {
             endpoint = "cos." + config.getRegion() + ".myqcloud.com";
         }
 
+        RequestStatsHandler requestStatsHandler = new RequestStatsHandler();
+        TrafficLimiter.instance.init(config.getGlobalTrafficLimit(),
+                config.getTrafficLimitSchedule());
         if (config.getClientEncrypt()) {
             String errMsg = new String("not support encryption now");
         } else {
-            this.s3Client = AmazonS3ClientBuilder.standard()
+            AmazonS3ClientBuilder s3ClientBuilder = AmazonS3ClientBuilder.standard()
                     .disableChunkedEncoding()
                     .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, config.getRegion()))
                     .withCredentials(new AWSStaticCredentialsProvider(cred))
-                    .withClientConfiguration(clientConfig)
-                    .build();
+                    .withClientConfiguration(clientConfig);
+            List<RequestHandler2> requestHandlers = new ArrayList<RequestHandler2>();
+            if (config.isAdaptiveConcurrency()) {
+                requestHandlers.add(requestStatsHandler);
+            }
+            if (config.getThreadTrafficLimit() > 0 || TrafficLimiter.instance.isEnabled()) {
+                requestHandlers.add(new TrafficLimitHandler(config.getThreadTrafficLimit()));
+            }
+            if (!requestHandlers.isEmpty()) {
+                s3ClientBuilder.setRequestHandlers(
+                        requestHandlers.toArray(new RequestHandler2[requestHandlers.size()]));
+            }
+            this.s3Client = s3ClientBuilder.build();
+
+            if (config.isSmallFileFastPath()) {
+                // 小文件快速上传使用单独的连接池, 关闭100-continue省去每个请求的一次往返
+                ClientConfiguration fastPathClientConfig = new ClientConfiguration(clientConfig);
+                fastPathClientConfig.setMaxConnections(config.getSmallFileFastPathConnectionNum());
+                fastPathClientConfig.setUseTcpKeepAlive(true);
+                fastPathClientConfig.setUseExpectContinue(false);
+                SmallFileFastUploader.instance.init(
+                        s3ClientBuilder.withClientConfiguration(fastPathClientConfig).build(),
+                        Math.min(config.getSmallFileFastPathThreshold(),
+                                config.getSmallFileThreshold()));
+            }
         }
 
-        this.smallFileTransferManager = new TransferManager(this.s3Client,
-                Executors.newFixedThreadPool(config.getSmallFileExecutorNumber()));
+        ExecutorService smallFilePool =
+                Executors.newFixedThreadPool(config.getSmallFileExecutorNumber());
+        ExecutorService bigFilePool = Executors.newFixedThreadPool(config.getBigFileExecutorNum());
+        if (config.isAdaptiveConcurrency()) {
+            this.concurrencyController = new AdaptiveConcurrencyController(requestStatsHandler,
+                    (ThreadPoolExecutor) this.threadPool, config.getAdaptiveMinThreadNum(),
+                    config.getAdaptiveMaxThreadNum(), (ThreadPoolExecutor) this.bigTaskThreadPool,
+                    (ThreadPoolExecutor) smallFilePool, (ThreadPoolExecutor) bigFilePool);
+        }
+
+        this.smallFileTransferManager = new TransferManager(this.s3Client, smallFilePool);
 
         this.smallFileTransferManager.getConfiguration()
                 .setMultipartUploadThreshold(config.getSmallFileThreshold());
 
-        this.bigFileTransferManager = new TransferManager(this.s3Client,
-                Executors.newFixedThreadPool(config.getBigFileExecutorNum()));
+        this.bigFileTransferManager = new TransferManager(this.s3Client, bigFilePool);
 
         this.bigFileTransferManager.getConfiguration()
                 .setMultipartUploadThreshold(config.getSmallFileThreshold());
@@ -125,6 +204,17 @@ public abstract class TaskExecutor {
                 setMinimumUploadPartSize(config.getBigFileUploadPartSize());
     }
 
+    // 可能同时占用连接的分块上传线程数
+    private static int getPartWorkerNum(CommonConfig config) {
+        int transferThreadNum = config.getSmallFileExecutorNumber() + config.getBigFileExecutorNum();
+        if (config.isAdaptiveConcurrency()) {
+            // 自适应并发按任务线程数的比例扩大TransferManager的线程池
+            transferThreadNum = (int) Math.ceil((double) transferThreadNum
+                    * config.getAdaptiveMaxThreadNum() / config.getTaskExecutorNumber());
+        }
+        return transferThreadNum + config.getBigFileExecutorNum();
+    }
+
     public static SecretKey loadSymmetricAESKey(String keyPath) throws IOException, NoSuchAlgorithmException,
             InvalidKeySpecException, InvalidKeyException {
         // Read private key from file.
@@ -154,19 +244,239 @@ public abstract class TaskExecutor {
                 return false;
             }
         }
-        return recordDb.init(new DBParam(dbFolderPath, comment, config.getRocksDBMaxOpenFile()));
+        return recordDb.init(new DBParam(dbFolderPath, comment, config.getRocksDBMaxOpenFile(),
+                config.isDbBatchWrite() || config.isSmallFileFastPath(), config.getDbBatchSize(),
+                config.getDbBatchFlushInterval(), !config.isDbWal(), config.getDbSyncInterval()));
     }
 
-    protected void AddTask(Task task) throws InterruptedException {
+    private void registerMetricsGauges() {
+        final ThreadPoolExecutor smallTaskPool = (ThreadPoolExecutor) this.threadPool;
+        final ThreadPoolExecutor bigTaskPool = (ThreadPoolExecutor) this.bigTaskThreadPool;
+        MigrateMetrics metrics = MigrateMetrics.instance;
+        String queueDepthHelp = "Tasks waiting in the executor queue.";
+        metrics.registerGauge("cos_migrate_task_queue_depth", "queue", "small", queueDepthHelp,
+                new MigrateMetrics.Gauge() {
+                    public long getValue() {
+                        return smallTaskPool.getQueue().size();
+                    }
+                });
+        metrics.registerGauge("cos_migrate_task_queue_depth", "queue", "big", queueDepthHelp,
+                new MigrateMetrics.Gauge() {
+                    public long getValue() {
+                        return bigTaskPool.getQueue().size();
+                    }
+                });
+        String runningHelp = "Tasks being executed.";
+        metrics.registerGauge("cos_migrate_tasks_running", "queue", "small", runningHelp,
+                new MigrateMetrics.Gauge() {
+                    public long getValue() {
+                        return smallTaskPool.getActiveCount();
+                    }
+                });
+        metrics.registerGauge("cos_migrate_tasks_running", "queue", "big", runningHelp,
+                new MigrateMetrics.Gauge() {
+                    public long getValue() {
+                        return bigTaskPool.getActiveCount();
+                    }
+                });
+        metrics.registerGauge("cos_migrate_inflight_bytes",
+                "Bytes of tasks submitted but not finished.", new MigrateMetrics.Gauge() {
+                    public long getValue() {
+                        return inflightBytes.get();
+                    }
+                });
+        String resourceHelp = "Resources held by running tasks.";
+        metrics.registerGauge("cos_migrate_resource_used", "resource", "temp_disk", resourceHelp,
+                new MigrateMetrics.Gauge() {
+                    public long getValue() {
+                        return ResourceGovernor.instance.getTempDiskUsed();
+                    }
+                });
+        metrics.registerGauge("cos_migrate_resource_used", "resource", "buffer_memory",
+                resourceHelp, new MigrateMetrics.Gauge() {
+                    public long getValue() {
+                        return ResourceGovernor.instance.getBufferMemoryUsed();
+                    }
+                });
+        metrics.registerGauge("cos_migrate_resource_used", "resource", "connections",
+                resourceHelp, new MigrateMetrics.Gauge() {
+                    public long getValue() {
+                        return ResourceGovernor.instance.getConnectionUsed();
+                    }
+                });
+    }
+
+    protected void AddTask(final Task task) throws InterruptedException {
+        // 只有跳过索引确定需要迁移的任务才提前计算全文md5, 否则可能白白读一遍不需要迁移的文件
+        // list比较过目标的任务已经确定需要迁移, 不再使用跳过索引
+        boolean needMigrate = task.isDestCompared();
+        if (recordDb.getSkipIndex() != null && !task.isDestCompared()) {
+            RecordElement recordElement = task.buildSkipCheckElement();
+            if (recordElement != null && recordDb.isRecordUnchanged(recordElement,
+                    task.isSkipCheckCompareValue())) {
+                TaskOutput.instance.reportSkip(recordElement.buildKey(), "skip by index");
+                TaskStatics.instance.addSkipCnt();
+                return;
+            }
+            needMigrate = recordElement != null;
+        }
+        final long taskSize = task.getTaskSize();
+        boolean isBigTask = taskSize >= config.getSmallFileThreshold();
+        final Semaphore taskPermits = isBigTask ? bigTaskPermits : smallTaskPermits;
         try {
-            semaphore.acquire();
-            threadPool.submit(task);
+            taskPermits.acquire();
+            final long bytePermits;
+            try {
+                bytePermits = inflightBytePermits.acquire(taskSize);
+            } catch (InterruptedException e) {
+                taskPermits.release();
+                throw e;
+            }
+            if (needMigrate) {
+                task.prefetchContentHash();
+            }
+            ExecutorService pool = isBigTask ? bigTaskThreadPool : threadPool;
+            inflightBytes.addAndGet(Math.max(taskSize, 0));
+            pool.submit(new Runnable() {
+                public void run() {
+                    try {
+                        runWithResources(task);
+                    } finally {
+                        inflightBytes.addAndGet(-Math.max(taskSize, 0));
+                        inflightBytePermits.release(bytePermits);
+                        taskPermits.release();
+                    }
+                }
+            });
         } catch (InterruptedException e) {
             log.error("add task is interrupted", e);
             throw e;
         }
     }
 
+    // 每个执行中的任务至少占用一个到COS的连接, 大文件分块上传的连接数由bigFilePool的线程数限制
+    private void runWithResources(Task task) {
+        long tempFileBytes = task.getTempFileBytes();
+        long bufferBytes = task.getBufferBytes();
+        try {
+            ResourceGovernor.instance.acquire(tempFileBytes, bufferBytes, 1);
+        } catch (InterruptedException e) {
+            // 任务没有执行, 计为失败, 否则统计中会少掉这个对象
+            RecordElement recordElement = task.buildSkipCheckElement();
+            String taskInfo = recordElement != null ? recordElement.buildKey()
+                    : task.getClass().getSimpleName();
+            log.error("wait for task resources is interrupted, task_info: {}", taskInfo);
+            TaskOutput.instance.reportFail(taskInfo, "wait for task resources is interrupted");
+            TaskStatics.instance.addFailCnt();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            task.run();
+        } finally {
+            ResourceGovernor.instance.release(tempFileBytes, bufferBytes, 1);
+        }
+    }
+
+    /**
+     * 为list比较得到的需要迁移的源对象生成任务
+     */
+    protected interface ListDiffTaskBuilder {
+        Task buildTask(ListedObject srcObject);
+    }
+
+    /**
+     * 按顺序list源和cosPath下的对象后归并比较, 只为新增或变化的对象生成任务, 不需要逐个head目标或查询迁移记录.
+     * 目标存在且一致的对象计为跳过, 目标存在但源不存在的对象写入listDiffExtraFile.
+     *
+     * @param srcStripPrefix 源key中被替换为cosPath的前缀, 需要与任务生成目标key的方式一致
+     */
+    protected void buildTaskByListDiff(ObjectLister srcLister, String srcListPrefix,
+            String srcStripPrefix, final ListDiffTaskBuilder taskBuilder) {
+        String destKeyPrefix = config.getCosPath();
+        if (destKeyPrefix.startsWith("/")) {
+            destKeyPrefix = destKeyPrefix.substring(1);
+        }
+        if (!destKeyPrefix.isEmpty() && !destKeyPrefix.endsWith("/")) {
+            destKeyPrefix += "/";
+        }
+        final ListingDiffer differ = new ListingDiffer(srcLister, srcListPrefix, srcStripPrefix,
+                new S3ObjectLister(s3Client, config.getBucketName()), destKeyPrefix,
+                config.getListDiffCompare());
+
+        String extraFile = config.getListDiffExtraFile();
+        Writer extraWriter = null;
+        if (!extraFile.isEmpty()) {
+            try {
+                extraWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(extraFile), Charset.forName("UTF-8")));
+            } catch (FileNotFoundException e) {
+                log.error("open list diff extra file fail, file: {}, exception: {}", extraFile,
+                        e.toString());
+                TaskStatics.instance.setListFinished(false);
+                return;
+            }
+        }
+        final Writer extraOutput = extraWriter;
+
+        boolean listFinished = false;
+        try {
+            differ.diff(new ListingDiffer.DiffHandler() {
+                public void onChanged(ListedObject srcObject, ListedObject destObject,
+                        String reason) throws InterruptedException {
+                    String taskInfo = formatListDiffTaskInfo(srcObject,
+                            differ.toDestKey(srcObject.getKey()));
+                    if (destObject != null && config.skipSamePath()) {
+                        TaskOutput.instance.reportSkip(taskInfo, "file on cos");
+                        TaskStatics.instance.addSkipCnt();
+                        return;
+                    }
+                    log.debug("list diff {}, reason: {}", taskInfo, reason);
+                    Task task = taskBuilder.buildTask(srcObject);
+                    task.setDestCompared(destObject != null);
+                    AddTask(task);
+                }
+
+                public void onSame(ListedObject srcObject, ListedObject destObject) {
+                    TaskOutput.instance.reportSkip(
+                            formatListDiffTaskInfo(srcObject, destObject.getKey()),
+                            "same as cos");
+                    TaskStatics.instance.addSkipCnt();
+                }
+
+                public void onExtra(ListedObject destObject) throws IOException {
+                    if (extraOutput != null) {
+                        extraOutput.write(UrlEncoderUtils.encodeEscapeDelimiter(destObject.getKey()));
+                        extraOutput.write("\n");
+                    }
+                }
+            });
+            listFinished = true;
+        } catch (InterruptedException e) {
+            log.error("list diff is interrupted", e);
+        } catch (Exception e) {
+            log.error("list diff fail, exception: {}", e.toString());
+        } finally {
+            if (extraOutput != null) {
+                try {
+                    extraOutput.close();
+                } catch (IOException e) {
+                    log.error("close list diff extra file fail, file: {}, exception: {}",
+                            extraFile, e.toString());
+                    listFinished = false;
+                }
+            }
+        }
+        TaskStatics.instance.setListFinished(listFinished);
+        String printMsg = "list diff finished: " + listFinished + ", " + differ.getSummary();
+        log.info(printMsg);
+        System.out.println(printMsg);
+    }
+
+    private static String formatListDiffTaskInfo(ListedObject srcObject, String destKey) {
+        return "[srcKey: " + srcObject.getKey() + "], [cosPath: /" + destKey + "]";
+    }
+
     // 用于产生任务
     public abstract void buildTask();
 
@@ -215,6 +525,12 @@ public abstract class TaskExecutor {
 
         RUN_MODE runMode = getRunMode();
         if (runMode.equals(RUN_MODE.NORMAL)) {
+            if (config.isRecordSkipIndex() && !recordDb.loadSkipIndex()) {
+                log.warn("load skip index failed, query records from db instead");
+            }
+            if (concurrencyController != null) {
+                concurrencyController.start();
+            }
             buildTask();
         } else if (runMode.equals(RUN_MODE.DUMP_REQUESTID)) {
             String dumpFilePath = getDumpRequestIdFilePath();
@@ -231,12 +547,26 @@ public abstract class TaskExecutor {
 
     public void waitTaskOver() {
         this.threadPool.shutdown();
+        this.bigTaskThreadPool.shutdown();
         try {
             this.threadPool.awaitTermination(1000, TimeUnit.DAYS);
+            this.bigTaskThreadPool.awaitTermination(1000, TimeUnit.DAYS);
+            if (concurrencyController != null) {
+                concurrencyController.stop();
+            }
+            log.info("resource governor usage: {}", ResourceGovernor.instance.getPeakUsageInfo());
+            RecordSkipIndex skipIndex = this.recordDb.getSkipIndex();
+            if (skipIndex != null) {
+                log.info("skip index lookups: {}, hits: {}", skipIndex.getLookupCnt(),
+                        skipIndex.getHitCnt());
+            }
             this.recordDb.shutdown();
             this.smallFileTransferManager.shutdownNow();
             this.bigFileTransferManager.shutdownNow();
+            SmallFileFastUploader.instance.shutdown();
             this.s3Client.shutdown();
+            // 各对象的结果输出完后再打印统计
+            TaskOutput.instance.flush();
             if (getRunMode().equals(RUN_MODE.NORMAL)) {
                 printTaskStaticsInfo();
             }
@@ -0,0 +1,40 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.io.InputStream;
+
+import com.amazonaws.Request;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.http.HttpMethodName;
+import com.qcloud.cos_migrate_tool.utils.TrafficLimitedInputStream;
+import com.qcloud.cos_migrate_tool.utils.TrafficLimiter;
+
+/**
+ * 对上传到COS的PUT请求(简单上传, 分块上传)限速: 单个请求的限速通过x-cos-traffic-limit头交给COS,
+ * 进程总带宽通过TrafficLimiter限制请求body的读取速度. 复制请求的数据不经过本机, 不做处理.
+ */
+public class TrafficLimitHandler extends RequestHandler2 {
+    private static final String TRAFFIC_LIMIT_HEADER = "x-cos-traffic-limit";
+    private static final String COPY_SOURCE_HEADER = "x-amz-copy-source";
+
+    private final int threadTrafficLimit;
+
+    public TrafficLimitHandler(int threadTrafficLimit) {
+        this.threadTrafficLimit = threadTrafficLimit;
+    }
+
+    // beforeRequest每个请求只调用一次, SDK重试时通过reset重新读取同一个body
+    @Override
+    public void beforeRequest(Request<?> request) {
+        if (request.getHttpMethod() != HttpMethodName.PUT
+                || request.getHeaders().containsKey(COPY_SOURCE_HEADER)) {
+            return;
+        }
+        if (threadTrafficLimit > 0) {
+            request.addHeader(TRAFFIC_LIMIT_HEADER, String.valueOf(threadTrafficLimit));
+        }
+        InputStream content = request.getContent();
+        if (content != null && TrafficLimiter.instance.isEnabled()) {
+            request.setContent(new TrafficLimitedInputStream(content, TrafficLimiter.instance));
+        }
+    }
+}
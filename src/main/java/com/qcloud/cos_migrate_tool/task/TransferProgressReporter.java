@@ -0,0 +1,110 @@
+package com.qcloud.cos_migrate_tool.task;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.s3.transfer.TransferProgress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 所有上传任务共用的进度打印器, 由一个后台线程定时打印正在上传的文件进度,
+ * 上传线程本身只需要等待上传结束, 不再轮询进度.
+ */
+public class TransferProgressReporter {
+    public static final TransferProgressReporter instance = new TransferProgressReporter();
+    private static final Logger log = LoggerFactory.getLogger(TransferProgressReporter.class);
+
+    private static final long REPORT_INTERVAL_MS = 2000;
+
+    // 按每次register区分, 同一个key同时有多个上传(例如重试与未结束的上传重叠)时各自打印, 互不覆盖
+    private final Set<Registration> inProgressUploads =
+            Collections.newSetFromMap(new ConcurrentHashMap<Registration, Boolean>());
+    // 第一次register时启动, 之后register只读取volatile字段, 不再加锁
+    private volatile ScheduledExecutorService reportExecutor;
+
+    /**
+     * register返回的句柄, 上传结束后用于unregister
+     */
+    public static final class Registration {
+        private final String key;
+        private final TransferProgress progress;
+
+        private Registration(String key, TransferProgress progress) {
+            this.key = key;
+            this.progress = progress;
+        }
+    }
+
+    private TransferProgressReporter() {}
+
+    private void ensureStarted() {
+        if (reportExecutor != null) {
+            return;
+        }
+        synchronized (this) {
+            if (reportExecutor != null) {
+                return;
+            }
+            reportExecutor = startReportExecutor();
+        }
+    }
+
+    private ScheduledExecutorService startReportExecutor() {
+        ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "transfer-progress-reporter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    for (Registration registration : inProgressUploads) {
+                        printTransferProgress(registration.progress, registration.key);
+                    }
+                } catch (Exception e) {
+                    log.warn("print transfer progress failed", e);
+                }
+            }
+        }, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    public Registration register(String key, TransferProgress progress) {
+        ensureStarted();
+        Registration registration = new Registration(key, progress);
+        inProgressUploads.add(registration);
+        return registration;
+    }
+
+    public void unregister(Registration registration) {
+        inProgressUploads.remove(registration);
+    }
+
+    public int getInProgressCount() {
+        return inProgressUploads.size();
+    }
+
+    public void printTransferProgress(TransferProgress progress, String key) {
+        long byteSent = progress.getBytesTransferred();
+        long byteTotal = progress.getTotalBytesToTransfer();
+        double pct = 100.0;
+        if (byteTotal != 0) {
+            pct = progress.getPercentTransferred();
+        }
+        String printMsg = String.format(
+                "[UploadInProgress] [key: %s] [byteSent/ byteTotal/ percentage: %d/ %d/ %.2f%%]",
+                key, byteSent, byteTotal, pct);
+        log.info(printMsg);
+        System.out.println(printMsg);
+    }
+}
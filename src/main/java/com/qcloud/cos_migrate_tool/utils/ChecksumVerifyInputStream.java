@@ -0,0 +1,123 @@
+package com.qcloud.cos_migrate_tool.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+
+
+/**
+ * 流式迁移时使用, 在读取源数据的同时计算长度, CRC64与MD5, 读到流结尾时与源站给出的值做比较.
+ * 校验不通过时在读到结尾的那次read中抛出IOException, 使得正在进行的上传请求失败, 不会在COS上留下错误的对象.
+ */
+public class ChecksumVerifyInputStream extends FilterInputStream {
+    private final String description;
+    private final long expectedLength;
+    private final Long expectedCrc64;
+    private final String expectedMd5Hex;
+
+    private final Crc64Ecma crc64;
+    private final MessageDigest md5Digest;
+    private long byteRead = 0;
+    private boolean verified = false;
+
+    /**
+     * @param expectedLength 期望的长度, 小于0表示不校验
+     * @param expectedCrc64 期望的crc64ecma, 为null表示不校验
+     * @param expectedMd5Hex 期望的md5(十六进制), 为null表示不校验
+     */
+    public ChecksumVerifyInputStream(InputStream in, String description, long expectedLength,
+            Long expectedCrc64, String expectedMd5Hex) {
+        super(in);
+        this.description = description;
+        this.expectedLength = expectedLength;
+        this.expectedCrc64 = expectedCrc64;
+        this.expectedMd5Hex = expectedMd5Hex;
+        this.crc64 = expectedCrc64 != null ? new Crc64Ecma() : null;
+        MessageDigest digest = null;
+        if (expectedMd5Hex != null) {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        this.md5Digest = digest;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            verify();
+        } else {
+            update(new byte[] {(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int readLen = super.read(b, off, len);
+        if (readLen == -1) {
+            verify();
+        } else if (readLen > 0) {
+            update(b, off, readLen);
+        }
+        return readLen;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        throw new IOException("skip is not supported when verifying checksum");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long getByteRead() {
+        return byteRead;
+    }
+
+    public boolean isVerified() {
+        return verified;
+    }
+
+    private void update(byte[] b, int off, int len) {
+        byteRead += len;
+        if (crc64 != null) {
+            crc64.update(b, off, len);
+        }
+        if (md5Digest != null) {
+            md5Digest.update(b, off, len);
+        }
+    }
+
+    private void verify() throws IOException {
+        if (verified) {
+            return;
+        }
+        if (expectedLength >= 0 && byteRead != expectedLength) {
+            throw new IOException(String.format("%s read length %d not equal expected length %d",
+                    description, byteRead, expectedLength));
+        }
+        if (crc64 != null && crc64.getValue() != expectedCrc64.longValue()) {
+            throw new IOException(String.format("%s crc64 not match, local: %s, source: %s",
+                    description, Long.toUnsignedString(crc64.getValue()),
+                    Long.toUnsignedString(expectedCrc64.longValue())));
+        }
+        if (md5Digest != null) {
+            String localMd5Hex = Hex.encodeHexString(md5Digest.digest());
+            if (!localMd5Hex.equalsIgnoreCase(expectedMd5Hex)) {
+                throw new IOException(String.format("%s md5 not match, local: %s, source: %s",
+                        description, localMd5Hex, expectedMd5Hex));
+            }
+        }
+        verified = true;
+    }
+}
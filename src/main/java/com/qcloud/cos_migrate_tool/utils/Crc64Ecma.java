@@ -0,0 +1,162 @@
+package com.qcloud.cos_migrate_tool.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * COS x-cos-hash-crc64ecma使用的CRC64(ECMA-182多项式, 反射输入输出, 初值和结果异或全1, 即CRC-64/XZ).
+ * 按slicing-by-8查表, 每次处理8个字节; combine可以把分段计算的结果合并为整体的结果, 用于分块并行计算以及分块上传.
+ */
+public class Crc64Ecma {
+    // ECMA-182多项式的反射形式
+    private static final long POLY = 0xC96C5795D7870F42L;
+    private static final long[][] TABLES = new long[8][256];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            long crc = i;
+            for (int j = 0; j < 8; ++j) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; ++i) {
+            long crc = TABLES[0][i];
+            for (int k = 1; k < 8; ++k) {
+                crc = TABLES[0][(int) (crc & 0xff)] ^ (crc >>> 8);
+                TABLES[k][i] = crc;
+            }
+        }
+    }
+
+    // 计算过程中的值, 即结果异或全1
+    private long crc = -1L;
+
+    public void update(byte[] b, int len) {
+        update(b, 0, len);
+    }
+
+    public void update(byte[] b, int off, int len) {
+        long[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        long[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        long value = crc;
+        int end = off + len;
+        while (end - off >= 8) {
+            value ^= (b[off] & 0xffL) | (b[off + 1] & 0xffL) << 8 | (b[off + 2] & 0xffL) << 16
+                    | (b[off + 3] & 0xffL) << 24 | (b[off + 4] & 0xffL) << 32
+                    | (b[off + 5] & 0xffL) << 40 | (b[off + 6] & 0xffL) << 48
+                    | (b[off + 7] & 0xffL) << 56;
+            value = t7[(int) (value & 0xff)] ^ t6[(int) ((value >>> 8) & 0xff)]
+                    ^ t5[(int) ((value >>> 16) & 0xff)] ^ t4[(int) ((value >>> 24) & 0xff)]
+                    ^ t3[(int) ((value >>> 32) & 0xff)] ^ t2[(int) ((value >>> 40) & 0xff)]
+                    ^ t1[(int) ((value >>> 48) & 0xff)] ^ t0[(int) (value >>> 56)];
+            off += 8;
+        }
+        while (off < end) {
+            value = t0[(int) ((value ^ b[off]) & 0xff)] ^ (value >>> 8);
+            ++off;
+        }
+        crc = value;
+    }
+
+    /**
+     * 处理buffer中剩余的全部数据, 用于内存映射的文件, 按小端一次读取8个字节
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        long[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        long[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        long value = crc;
+        while (buffer.remaining() >= 8) {
+            value ^= buffer.getLong();
+            value = t7[(int) (value & 0xff)] ^ t6[(int) ((value >>> 8) & 0xff)]
+                    ^ t5[(int) ((value >>> 16) & 0xff)] ^ t4[(int) ((value >>> 24) & 0xff)]
+                    ^ t3[(int) ((value >>> 32) & 0xff)] ^ t2[(int) ((value >>> 40) & 0xff)]
+                    ^ t1[(int) ((value >>> 48) & 0xff)] ^ t0[(int) (value >>> 56)];
+        }
+        while (buffer.hasRemaining()) {
+            value = t0[(int) ((value ^ buffer.get()) & 0xff)] ^ (value >>> 8);
+        }
+        buffer.order(order);
+        crc = value;
+    }
+
+    public long getValue() {
+        return ~crc;
+    }
+
+    public void reset() {
+        crc = -1L;
+    }
+
+    public static long compute(byte[] b, int off, int len) {
+        Crc64Ecma crc64 = new Crc64Ecma();
+        crc64.update(b, off, len);
+        return crc64.getValue();
+    }
+
+    /**
+     * 已知数据A的crc1和紧随其后的数据B的crc2(长度len2), 计算A+B的crc, 算法同zlib的crc32_combine.
+     * 耗时只与len2的位数有关, 与数据量无关.
+     */
+    public static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[64];
+        long[] odd = new long[64];
+        // odd为在crc后追加1个0 bit的算子
+        odd[0] = POLY;
+        long row = 1;
+        for (int n = 1; n < 64; ++n) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // 2个0 bit
+        gf2MatrixSquare(even, odd);
+        // 4个0 bit
+        gf2MatrixSquare(odd, even);
+        // 按len2的二进制位依次追加 1, 2, 4...个0字节
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        int index = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[index];
+            }
+            vec >>>= 1;
+            ++index;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 64; ++n) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+}
@@ -1,14 +1,16 @@
 package com.qcloud.cos_migrate_tool.utils;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -22,6 +24,8 @@ import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
 import com.qcloud.cos.http.IdleConnectionMonitorThread;
 import com.qcloud.cos.utils.UrlEncoderUtils;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics;
+import com.qcloud.cos_migrate_tool.meta.MigrateMetrics.Operation;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +58,45 @@ public class Downloader {
         this.idleConnectionMonitor.start();
     }
 
+    private String buildRequestUrl(String url, boolean qiniuDownLoadFlag)
+            throws MalformedURLException {
+        StringBuffer urlBuffer = new StringBuffer();
+        URL encodeUrl = new URL(url);
+
+        urlBuffer.append(encodeUrl.getProtocol()).append("://").append(encodeUrl.getHost());
+        // 源站url中带有非默认端口时需要保留, 否则会请求到协议的默认端口
+        if (encodeUrl.getPort() != -1) {
+            urlBuffer.append(":").append(encodeUrl.getPort());
+        }
+
+        String encodeUrlStr = "";
+        if (encodeUrl.getPath().startsWith("/")) {
+            encodeUrlStr = encodeUrl.getPath().substring(1);
+        } else {
+            encodeUrlStr = encodeUrl.getPath();
+        }
+        encodeUrlStr = UrlEncoderUtils.encodeEscapeDelimiter(encodeUrlStr);
+        if (qiniuDownLoadFlag) {
+            encodeUrlStr = encodeUrlStr.replaceAll("/", "%2f");
+        }
+        urlBuffer.append("/").append(encodeUrlStr);
+
+        if (encodeUrl.getQuery() != null) {
+            urlBuffer.append("?").append(encodeUrl.getQuery());
+        }
+        return urlBuffer.toString();
+    }
+
     public HeadAttr headFile(String url, boolean qiniuDownLoadFlag) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return doHeadFile(url, qiniuDownLoadFlag);
+        } finally {
+            MigrateMetrics.instance.recordLatency(Operation.HEAD, startNanos);
+        }
+    }
+
+    private HeadAttr doHeadFile(String url, boolean qiniuDownLoadFlag) throws Exception {
 
         int retry = 0;
         int maxRetryCount = 5;
@@ -63,30 +105,9 @@ public class Downloader {
         while (retry < maxRetryCount) {
             HttpHead httpHead = null;
             try {
-                StringBuffer urlBuffer = new StringBuffer();
-                URL encodeUrl = new URL(url);
-
-                urlBuffer.append(encodeUrl.getProtocol()).append("://").append(encodeUrl.getHost());
-
-                String encodeUrlStr = "";
-                if (encodeUrl.getPath().startsWith("/")) {
-                    encodeUrlStr = encodeUrl.getPath().substring(1);
-                } else {
-                    encodeUrlStr = encodeUrl.getPath();
-                }
-                encodeUrlStr = UrlEncoderUtils.encodeEscapeDelimiter(encodeUrlStr);
-                if (qiniuDownLoadFlag) {
-                    encodeUrlStr = encodeUrlStr.replaceAll("/", "%2f");
-                }
-                urlBuffer.append("/").append(encodeUrlStr);
-
-                if (encodeUrl.getQuery() != null) {
-                    urlBuffer.append("?").append(encodeUrl.getQuery());
-                }
-
-                System.out.println("head:" + urlBuffer.toString());
-
-                httpHead = new HttpHead(urlBuffer.toString());
+                String requestUrl = buildRequestUrl(url, qiniuDownLoadFlag);
+                System.out.println("head:" + requestUrl);
+                httpHead = new HttpHead(requestUrl);
             } catch (MalformedURLException e) {
                 log.error("headFile url fail,url:{},msg:{}", url, e.getMessage());
                 return null;
@@ -178,6 +199,15 @@ public class Downloader {
     }
 
     public HeadAttr downFile(String url, File localFile, boolean qiniuDownLoadFlag) {
+        long startNanos = System.nanoTime();
+        try {
+            return doDownFile(url, localFile, qiniuDownLoadFlag);
+        } finally {
+            MigrateMetrics.instance.recordLatency(Operation.DOWNLOAD, startNanos);
+        }
+    }
+
+    private HeadAttr doDownFile(String url, File localFile, boolean qiniuDownLoadFlag) {
         HeadAttr headAttr = new HeadAttr();
         boolean finished = false;
         int retry = 0;
@@ -185,31 +215,7 @@ public class Downloader {
         while (retry < maxRetryCount) {
             HttpGet httpGet = null;
             try {
-                StringBuffer urlBuffer = new StringBuffer();
-                URL encodeUrl = new URL(url);
-
-                urlBuffer.append(encodeUrl.getProtocol()).append("://").append(encodeUrl.getHost());
-
-                String encodeUrlStr = "";
-                if (encodeUrl.getPath().startsWith("/")) {
-                    encodeUrlStr = encodeUrl.getPath().substring(1);
-                } else {
-                    encodeUrlStr = encodeUrl.getPath();
-                }
-                encodeUrlStr = UrlEncoderUtils.encodeEscapeDelimiter(encodeUrlStr);
-                if (qiniuDownLoadFlag) {
-                    encodeUrlStr = encodeUrlStr.replaceAll("/", "%2f");
-                }
-                urlBuffer.append("/").append(encodeUrlStr);
-
-                if (encodeUrl.getQuery() != null) {
-                    urlBuffer.append("?").append(encodeUrl.getQuery());
-                }
-
-                // System.out.println(urlBuffer.toString());
-
-                httpGet = new HttpGet(urlBuffer.toString());
-
+                httpGet = new HttpGet(buildRequestUrl(url, qiniuDownLoadFlag));
             } catch (MalformedURLException e) {
                 log.error("downFile url fail, url:{}, msg:{}", url, e.getMessage());
                 return null;
@@ -230,31 +236,33 @@ public class Downloader {
                     throw new Exception(errMsg);
                 }
                 HttpEntity entity = httpResponse.getEntity();
-                long contentLength = entity.getContentLength();
-                long byteDownloadSoFar = 0;
-                long byteDownloadLastPrint = 0;
-                long lastPrintTimeStamp = 0;
-
-                BufferedInputStream bis = new BufferedInputStream(entity.getContent());
-                OutputStream out = null;
-                BufferedOutputStream bos = null;
+                final long contentLength = entity.getContentLength();
+                final String downloadUrl = url;
+
+                String serverCrc64 = getFirstHeaderValue(httpResponse, crc64Headers);
+                String serverMd5 = getFirstHeaderValue(httpResponse, contentMd5Headers);
+                StreamTransfer streamTransfer = new StreamTransfer(serverMd5 != null,
+                        serverCrc64 != null, StreamTransfer.DEFAULT_PROGRESS_INTERVAL);
+
+                InputStream bis = entity.getContent();
+                FileOutputStream fos = null;
+                StreamTransfer.Result transferResult = null;
                 try {
-                    out = new FileOutputStream(localFile);
-                    bos = new BufferedOutputStream(out);
-                    int inByte;
-                    while ((inByte = bis.read()) != -1) {
-                        bos.write(inByte);
-                        ++byteDownloadSoFar;
-                        if (byteDownloadSoFar - byteDownloadLastPrint >= 1024) {
-                            long currentTimeStamp = System.currentTimeMillis();
-                            if (currentTimeStamp - lastPrintTimeStamp >= 2000) {
-                                showDownloadProgress(url, contentLength, byteDownloadSoFar);
-                                byteDownloadLastPrint = byteDownloadSoFar;
-                                lastPrintTimeStamp = currentTimeStamp;
-                            }
-                        }
-                    }
-                    showDownloadProgress(url, contentLength, byteDownloadSoFar);
+                    fos = new FileOutputStream(localFile);
+                    transferResult = streamTransfer.transfer(bis, fos.getChannel(),
+                            new StreamTransfer.ProgressListener() {
+                                private long lastPrintTimeStamp = 0;
+
+                                public void onProgress(long byteDownloadSoFar) {
+                                    long currentTimeStamp = System.currentTimeMillis();
+                                    if (currentTimeStamp - lastPrintTimeStamp >= 2000) {
+                                        showDownloadProgress(downloadUrl, contentLength,
+                                                byteDownloadSoFar);
+                                        lastPrintTimeStamp = currentTimeStamp;
+                                    }
+                                }
+                            });
+                    showDownloadProgress(url, contentLength, transferResult.byteTransferred);
                     httpGet.releaseConnection();
                     finished = true;
                 } finally {
@@ -262,38 +270,23 @@ public class Downloader {
                         if (bis != null) {
                             bis.close();
                         }
-                        if (bos != null) {
-                            bos.close();
+                        if (fos != null) {
+                            fos.close();
                         }
 
                         // check file size
                         if (finished) {
-                            if ((contentLength >= 0) && (localFile.length() != contentLength)) {
+                            if ((contentLength >= 0)
+                                    && (transferResult.byteTransferred != contentLength)) {
                                 log.error("rsp content length:{}, local file length:{}",
-                                        contentLength, localFile.length());
+                                        contentLength, transferResult.byteTransferred);
                                 return null;
                             }
-                            Header[] allHeaders = httpResponse.getAllHeaders();
-                            final String ossUserMetaPrefix = "x-oss-meta-";
-                            final String awsUserMetaPrefix = "x-amz-meta-";
-                            final String etag = "ETag";
-                            for (Header headerElement : allHeaders) {
-                                String headerName = headerElement.getName();
-                                String headerValue = headerElement.getValue();
-                                if (headerName.startsWith(ossUserMetaPrefix)
-                                        && !headerName.equals(ossUserMetaPrefix)) {
-                                    headAttr.userMetaMap.put(
-                                            headerName.substring(ossUserMetaPrefix.length()),
-                                            headerValue);
-                                } else if (headerName.startsWith(awsUserMetaPrefix)
-                                        && !headerName.equals(awsUserMetaPrefix)) {
-                                    headAttr.userMetaMap.put(
-                                            headerName.substring(awsUserMetaPrefix.length()),
-                                            headerValue);
-                                } else if (headerName.equals(etag)) {
-                                    headAttr.userMetaMap.put(headerName, headerValue);
-                                }
+                            if (!isChecksumMatch(url, transferResult, serverCrc64, serverMd5)) {
+                                return null;
                             }
+                            headAttr.fileSize = transferResult.byteTransferred;
+                            parseUserMeta(httpResponse, headAttr);
                             return headAttr;
                         }
 
@@ -312,6 +305,196 @@ public class Downloader {
         return null;
     }
 
+    private static final String[] crc64Headers =
+            new String[] {"x-cos-hash-crc64ecma", "x-oss-hash-crc64ecma"};
+    private static final String[] contentMd5Headers = new String[] {"Content-MD5"};
+
+    private static String getFirstHeaderValue(HttpResponse httpResponse, String[] headerNames) {
+        for (String headerName : headerNames) {
+            Header header = httpResponse.getFirstHeader(headerName);
+            if (header != null && !header.getValue().trim().isEmpty()) {
+                return header.getValue().trim();
+            }
+        }
+        return null;
+    }
+
+    // 源站返回了crc64或者content-md5时, 用下载过程中同步计算的结果进行校验
+    private boolean isChecksumMatch(String url, StreamTransfer.Result transferResult,
+            String serverCrc64, String serverMd5) {
+        if (serverCrc64 != null) {
+            try {
+                long serverCrc64Value = Long.parseUnsignedLong(serverCrc64);
+                if (serverCrc64Value != transferResult.crc64) {
+                    log.error("crc64 not match, url: {}, server crc64: {}, local crc64: {}", url,
+                            serverCrc64, transferResult.getCrc64Str());
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                log.warn("invalid crc64 header, url: {}, crc64: {}", url, serverCrc64);
+            }
+        }
+        if (serverMd5 != null) {
+            String localMd5 = Base64.encodeBase64String(transferResult.md5);
+            if (!localMd5.equals(serverMd5)) {
+                log.error("content-md5 not match, url: {}, server md5: {}, local md5: {}", url,
+                        serverMd5, localMd5);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 流式下载使用, 由调用方读取body, 读完或者失败后调用close释放连接
+     */
+    public static class DownloadStream implements Closeable {
+        public InputStream content;
+        public long contentLength = -1;
+        public HeadAttr headAttr = new HeadAttr();
+        // 源站返回的crc64ecma, 没有则为null
+        public Long crc64;
+        // 源站返回的Content-MD5(十六进制), 没有则为null
+        public String md5Hex;
+        private HttpGet httpGet;
+        private boolean consumed = false;
+
+        public void setConsumed() {
+            this.consumed = true;
+        }
+
+        public void close() {
+            if (!consumed) {
+                httpGet.abort();
+            }
+            httpGet.releaseConnection();
+        }
+    }
+
+    private static void parseUserMeta(HttpResponse httpResponse, HeadAttr headAttr) {
+        Header[] allHeaders = httpResponse.getAllHeaders();
+        final String ossUserMetaPrefix = "x-oss-meta-";
+        final String awsUserMetaPrefix = "x-amz-meta-";
+        final String etag = "ETag";
+        for (Header headerElement : allHeaders) {
+            String headerName = headerElement.getName();
+            String headerValue = headerElement.getValue();
+            if (headerName.startsWith(ossUserMetaPrefix) && !headerName.equals(ossUserMetaPrefix)) {
+                headAttr.userMetaMap.put(headerName.substring(ossUserMetaPrefix.length()),
+                        headerValue);
+            } else if (headerName.startsWith(awsUserMetaPrefix)
+                    && !headerName.equals(awsUserMetaPrefix)) {
+                headAttr.userMetaMap.put(headerName.substring(awsUserMetaPrefix.length()),
+                        headerValue);
+            } else if (headerName.equals(etag)) {
+                headAttr.userMetaMap.put(headerName, headerValue);
+            }
+        }
+    }
+
+    private HttpGet newHttpGet(String url, boolean qiniuDownLoadFlag)
+            throws MalformedURLException {
+        HttpGet httpGet = new HttpGet(buildRequestUrl(url, qiniuDownLoadFlag));
+        httpGet.setConfig(requestConfig);
+        httpGet.setHeader("Accept", "*/*");
+        httpGet.setHeader("Connection", "Keep-Alive");
+        httpGet.setHeader("User-Agent", "cos-migrate-tool-v1.3.6");
+        return httpGet;
+    }
+
+    public DownloadStream openStream(String url, boolean qiniuDownLoadFlag) throws Exception {
+        HttpGet httpGet = newHttpGet(url, qiniuDownLoadFlag);
+
+        HttpResponse httpResponse = null;
+        try {
+            httpResponse = httpClient.execute(httpGet);
+            int http_statuscode = httpResponse.getStatusLine().getStatusCode();
+            if (http_statuscode < 200 || http_statuscode > 299) {
+                String errMsg = String.format(
+                        "open download stream failed, url: %s, httpResponse: %s, response_statuscode: %d",
+                        url, httpResponse.toString(), http_statuscode);
+                throw new Exception(errMsg);
+            }
+
+            DownloadStream downloadStream = new DownloadStream();
+            downloadStream.httpGet = httpGet;
+            HttpEntity entity = httpResponse.getEntity();
+            downloadStream.contentLength = entity.getContentLength();
+            downloadStream.headAttr.fileSize = downloadStream.contentLength;
+            if (httpResponse.containsHeader("Last-Modified")) {
+                downloadStream.headAttr.lastModify =
+                        httpResponse.getFirstHeader("Last-Modified").getValue();
+            }
+            parseUserMeta(httpResponse, downloadStream.headAttr);
+
+            String serverCrc64 = getFirstHeaderValue(httpResponse, crc64Headers);
+            if (serverCrc64 != null) {
+                try {
+                    downloadStream.crc64 = Long.parseUnsignedLong(serverCrc64);
+                } catch (NumberFormatException e) {
+                    log.warn("invalid crc64 header, url: {}, crc64: {}", url, serverCrc64);
+                }
+            }
+            String serverMd5 = getFirstHeaderValue(httpResponse, contentMd5Headers);
+            if (serverMd5 != null) {
+                downloadStream.md5Hex = Hex.encodeHexString(Base64.decodeBase64(serverMd5));
+            }
+            downloadStream.content = entity.getContent();
+            return downloadStream;
+        } catch (Exception e) {
+            httpGet.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 下载[start, end]闭区间的数据, 源站必须返回206. 返回的流关闭时释放连接
+     */
+    public InputStream openRange(String url, boolean qiniuDownLoadFlag, long start, long end)
+            throws Exception {
+        final HttpGet httpGet = newHttpGet(url, qiniuDownLoadFlag);
+        httpGet.setHeader("Range", String.format("bytes=%d-%d", start, end));
+        try {
+            HttpResponse httpResponse = httpClient.execute(httpGet);
+            int http_statuscode = httpResponse.getStatusLine().getStatusCode();
+            if (http_statuscode != 206) {
+                String errMsg = String.format(
+                        "range download failed, url: %s, range: %d-%d, response_statuscode: %d",
+                        url, start, end, http_statuscode);
+                throw new IOException(errMsg);
+            }
+            return new FilterInputStream(httpResponse.getEntity().getContent()) {
+                private boolean eof = false;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    eof = b == -1;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int readLen = super.read(b, off, len);
+                    eof = readLen == -1;
+                    return readLen;
+                }
+
+                // 读完的连接可以复用, 没读完的直接断开, 避免把剩余数据读完
+                @Override
+                public void close() throws IOException {
+                    if (!eof) {
+                        httpGet.abort();
+                    }
+                    httpGet.releaseConnection();
+                }
+            };
+        } catch (Exception e) {
+            httpGet.abort();
+            throw e;
+        }
+    }
+
     public void shutdown() {
         this.idleConnectionMonitor.shutdown();
     }
@@ -17,4 +17,38 @@ public class PathUtils {
             return cosPath + PATH_DELIMITER;
         }
     }
+
+    /**
+     * 迁移时从源key中去掉的前缀: srcPrefix中最后一个/及之前的部分, 源key去掉该前缀后拼接到cosPath下.
+     * srcPrefix只在开头有一个/时不去掉任何部分
+     */
+    public static String getSrcStripPrefix(String srcPrefix) {
+        int lastDelimiter = srcPrefix.lastIndexOf(PATH_DELIMITER);
+        if (lastDelimiter == 0) {
+            lastDelimiter = -1;
+        }
+        return srcPrefix.substring(0, lastDelimiter + 1);
+    }
+
+    /**
+     * 按UTF-8编码后的字节序比较, 与COS list返回key的顺序一致.
+     * String.compareTo按UTF-16比较, 对于U+E000以上的字符和增补字符顺序与UTF-8不同, 按码点比较即可与UTF-8字节序一致
+     */
+    public static int compareUtf8(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(j);
+            if (codePointA != codePointB) {
+                return codePointA < codePointB ? -1 : 1;
+            }
+            i += Character.charCount(codePointA);
+            j += Character.charCount(codePointB);
+        }
+        if (i < a.length()) {
+            return 1;
+        }
+        return j < b.length() ? -1 : 0;
+    }
 }
@@ -0,0 +1,119 @@
+package com.qcloud.cos_migrate_tool.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * 以大块的方式将输入流写入FileChannel, 在同一次遍历中计算长度, MD5与CRC64.
+ * 每个工作线程复用一块缓冲区, 避免逐字节读写和重复分配.
+ */
+public class StreamTransfer {
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    // 每下载这么多字节才回调一次进度
+    public static final long DEFAULT_PROGRESS_INTERVAL = 8L * 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> bufferPool = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[DEFAULT_BUFFER_SIZE];
+        }
+    };
+
+    public interface ProgressListener {
+        void onProgress(long byteTransferred);
+    }
+
+    public static class Result {
+        public long byteTransferred;
+        public byte[] md5;
+        public long crc64;
+
+        public String getMd5Hex() {
+            if (md5 == null) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(md5.length * 2);
+            for (byte b : md5) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+
+        public String getCrc64Str() {
+            return Long.toUnsignedString(crc64);
+        }
+    }
+
+    private final boolean computeMd5;
+    private final boolean computeCrc64;
+    private final long progressInterval;
+
+    public StreamTransfer(boolean computeMd5, boolean computeCrc64, long progressInterval) {
+        this.computeMd5 = computeMd5;
+        this.computeCrc64 = computeCrc64;
+        this.progressInterval = progressInterval > 0 ? progressInterval : DEFAULT_PROGRESS_INTERVAL;
+    }
+
+    /**
+     * 获取当前线程复用的缓冲区
+     */
+    public static byte[] threadBuffer() {
+        return bufferPool.get();
+    }
+
+    public Result transfer(InputStream in, FileChannel out, ProgressListener listener)
+            throws IOException {
+        MessageDigest md5Digest = null;
+        if (computeMd5) {
+            try {
+                md5Digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+        Crc64Ecma crc64 = computeCrc64 ? new Crc64Ecma() : null;
+
+        byte[] buffer = bufferPool.get();
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long byteTransferred = 0;
+        long nextProgress = progressInterval;
+        int len;
+        while ((len = in.read(buffer, 0, buffer.length)) != -1) {
+            if (len == 0) {
+                continue;
+            }
+            byteBuffer.clear();
+            byteBuffer.limit(len);
+            while (byteBuffer.hasRemaining()) {
+                out.write(byteBuffer);
+            }
+            if (md5Digest != null) {
+                md5Digest.update(buffer, 0, len);
+            }
+            if (crc64 != null) {
+                crc64.update(buffer, len);
+            }
+            byteTransferred += len;
+            if (listener != null && byteTransferred >= nextProgress) {
+                listener.onProgress(byteTransferred);
+                nextProgress = byteTransferred + progressInterval;
+            }
+        }
+
+        Result result = new Result();
+        result.byteTransferred = byteTransferred;
+        if (md5Digest != null) {
+            result.md5 = md5Digest.digest();
+        }
+        if (crc64 != null) {
+            result.crc64 = crc64.getValue();
+        }
+        return result;
+    }
+}
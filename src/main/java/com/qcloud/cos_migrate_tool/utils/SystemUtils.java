@@ -1,6 +1,8 @@
 package com.qcloud.cos_migrate_tool.utils;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 
 import org.joda.time.DateTime;
 import org.slf4j.LoggerFactory;
@@ -35,4 +37,39 @@ public class SystemUtils {
         }
         return absolutePath;
     }
+
+    /**
+     * 扫描目录时使用, 文件已经确认存在, 不再stat
+     */
+    public static String formatLocalPath(Path path, boolean isDirectory)
+            throws IllegalArgumentException {
+        // 文件名不是合法的utf-8时, 转成字符串后无法再对应回原文件
+        if (!path.equals(path.getFileSystem().getPath(path.toString()))) {
+            String errMsg = "localpath " + path + " not exist! maybe the path contail illegal utf-8 letter ";
+            log.error(errMsg);
+            throw new IllegalArgumentException(errMsg);
+        }
+        String absolutePath = path.toAbsolutePath().toString();
+        if (SystemUtils.isWindowsSystem()) {
+            absolutePath = absolutePath.replace('\\', '/');
+        }
+
+        if (isDirectory && !absolutePath.endsWith("/")) {
+            absolutePath += "/";
+        }
+        return absolutePath;
+    }
+
+    // jdk10之前File.lastModified()在linux/mac上只精确到秒, 转换后与其保持一致, 否则已有的迁移记录都会被认为有变化
+    private static final boolean LAST_MODIFIED_IN_SECONDS = !isWindowsSystem()
+            && (System.getProperty("java.specification.version").startsWith("1.")
+                    || System.getProperty("java.specification.version").equals("9"));
+
+    public static long toLastModified(FileTime fileTime) {
+        long mtime = fileTime.toMillis();
+        if (LAST_MODIFIED_IN_SECONDS) {
+            mtime = mtime / 1000 * 1000;
+        }
+        return mtime;
+    }
 }
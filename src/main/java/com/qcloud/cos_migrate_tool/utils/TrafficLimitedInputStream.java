@@ -0,0 +1,47 @@
+package com.qcloud.cos_migrate_tool.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * 读取的数据按TrafficLimiter限速, 每次最多读取64KB, 读到数据后再取令牌
+ */
+public class TrafficLimitedInputStream extends FilterInputStream {
+    private static final int MAX_READ_SIZE = 64 * 1024;
+
+    private final TrafficLimiter trafficLimiter;
+
+    public TrafficLimitedInputStream(InputStream in, TrafficLimiter trafficLimiter) {
+        super(in);
+        this.trafficLimiter = trafficLimiter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            acquire(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int readLen = super.read(b, off, Math.min(len, MAX_READ_SIZE));
+        if (readLen > 0) {
+            acquire(readLen);
+        }
+        return readLen;
+    }
+
+    private void acquire(int bytes) throws IOException {
+        try {
+            trafficLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("wait for traffic limit is interrupted");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.qcloud.cos_migrate_tool.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos_migrate_tool.config.TrafficLimitRule;
+
+/**
+ * 进程级别的令牌桶限速, 令牌单位为字节.
+ * 令牌分散在多个槽中, 每个线程固定从一个槽取令牌, 不足时按经过的时间给所有槽补充令牌, 仍不足再从其他槽借,
+ * 避免所有上传线程竞争同一个计数. 限速值每秒按trafficLimitSchedule检查一次, 为0时不限速.
+ */
+public class TrafficLimiter {
+    public static final TrafficLimiter instance = new TrafficLimiter();
+    private static final Logger log = LoggerFactory.getLogger(TrafficLimiter.class);
+
+    private static final int STRIPE_NUM = 16;
+    // 每个槽占用一个缓存行, 避免伪共享
+    private static final int STRIPE_PADDING = 8;
+    // 令牌桶最多积攒100ms的令牌, 限制突发流量
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MIN_STRIPE_CAPACITY = 64 * 1024;
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long RATE_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPE_NUM * STRIPE_PADDING);
+    private final AtomicLong lastRefillNanos = new AtomicLong(System.nanoTime());
+    // 字节/秒, 0表示不限速
+    private volatile long bytesPerSecond = 0;
+    private volatile long nextRateCheckNanos = System.nanoTime();
+
+    private volatile boolean enabled = false;
+    private long globalTrafficLimit = 0;
+    private List<TrafficLimitRule> schedule = new ArrayList<TrafficLimitRule>();
+
+    private TrafficLimiter() {}
+
+    /**
+     * @param globalTrafficLimit 不在schedule时间段内时的限速, bit/s, 0表示不限速
+     */
+    public synchronized void init(long globalTrafficLimit, List<TrafficLimitRule> schedule) {
+        this.globalTrafficLimit = globalTrafficLimit;
+        this.schedule = new ArrayList<TrafficLimitRule>(schedule);
+        this.nextRateCheckNanos = System.nanoTime();
+        this.enabled = globalTrafficLimit > 0 || !schedule.isEmpty();
+        checkRate();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private long getTrafficLimit(int minuteOfDay) {
+        for (TrafficLimitRule rule : schedule) {
+            if (rule.contains(minuteOfDay)) {
+                return rule.getTrafficLimit();
+            }
+        }
+        return globalTrafficLimit;
+    }
+
+    private void checkRate() {
+        if (System.nanoTime() - nextRateCheckNanos < 0) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - nextRateCheckNanos < 0) {
+                return;
+            }
+            nextRateCheckNanos = now + RATE_CHECK_INTERVAL_NANOS;
+            long trafficLimit = getTrafficLimit(DateTime.now().getMinuteOfDay());
+            long newBytesPerSecond = trafficLimit / 8;
+            if (newBytesPerSecond != bytesPerSecond) {
+                String printMsg = String.format("global traffic limit: %d bit/s", trafficLimit);
+                System.out.println(printMsg);
+                log.info(printMsg);
+                bytesPerSecond = newBytesPerSecond;
+            }
+        }
+    }
+
+    /**
+     * 取得发送bytes字节的令牌, 令牌不足时阻塞
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        checkRate();
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+        int stripe = (int) Thread.currentThread().getId() & (STRIPE_NUM - 1);
+        long remaining = bytes - take(stripe, bytes);
+        while (remaining > 0) {
+            refill(rate);
+            for (int i = 0; i < STRIPE_NUM && remaining > 0; ++i) {
+                remaining -= take((stripe + i) & (STRIPE_NUM - 1), remaining);
+            }
+            if (remaining == 0) {
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining * 1000000000L / rate, MAX_WAIT_NANOS));
+            checkRate();
+            rate = bytesPerSecond;
+            if (rate <= 0) {
+                return;
+            }
+        }
+    }
+
+    private long take(int stripe, long bytes) {
+        int index = stripe * STRIPE_PADDING;
+        while (true) {
+            long tokens = stripes.get(index);
+            if (tokens <= 0) {
+                return 0;
+            }
+            long taken = Math.min(tokens, bytes);
+            if (stripes.compareAndSet(index, tokens, tokens - taken)) {
+                return taken;
+            }
+        }
+    }
+
+    // 只有更新了lastRefillNanos的线程补充令牌, 按经过的时间平均分给所有槽
+    private void refill(long rate) {
+        long now = System.nanoTime();
+        long last = lastRefillNanos.get();
+        long elapsed = Math.min(now - last, MAX_BURST_NANOS);
+        long tokensPerStripe = elapsed * rate / 1000000000L / STRIPE_NUM;
+        // 经过的时间太短时不更新lastRefillNanos, 留到下次一起补充
+        if (tokensPerStripe <= 0 || !lastRefillNanos.compareAndSet(last, now)) {
+            return;
+        }
+        long capacity =
+                Math.max(MAX_BURST_NANOS * rate / 1000000000L / STRIPE_NUM, MIN_STRIPE_CAPACITY);
+        for (int i = 0; i < STRIPE_NUM; ++i) {
+            int index = i * STRIPE_PADDING;
+            while (true) {
+                long tokens = stripes.get(index);
+                long newTokens = Math.min(capacity, tokens + tokensPerStripe);
+                if (newTokens <= tokens || stripes.compareAndSet(index, tokens, newTokens)) {
+                    break;
+                }
+            }
+        }
+    }
+}